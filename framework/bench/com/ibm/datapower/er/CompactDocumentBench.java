@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * Heap held per MB of section by the DOM DocumentBuilder builds and by a
+ * CompactDocument, and the time taken to parse either. A .xml file is parsed
+ * as an XML section, any other file is wrapped in a Root element like a text
+ * section. Without files a generated status section and text section are
+ * measured.
+ *
+ * ant bench-dom [-Dbench.args="file ..."]
+ */
+public class CompactDocumentBench {
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			measure("generated status section", generateStatus(4 * MB));
+			measure("generated text section", wrapText(generateText(4 * MB)));
+		}
+		for (String arg : args) {
+			String data = IOUtils.toString(new FileInputStream(new File(arg)), "UTF-8");
+			measure(arg, arg.endsWith(".xml") ? data : wrapText(data));
+		}
+		System.exit(0);
+	}
+
+	private static void measure(String name, String xml) throws Exception {
+		double mb = xml.length() / (double) MB;
+		System.out.println(name + String.format(" (%.2f MB)", mb));
+
+		final DocumentBuilder db = ERFramework.mDocBuilderFactory.newDocumentBuilder();
+		report("  DOM", mb, xml, new Parser() {
+			public Object parse(String xml) throws Exception {
+				return db.parse(new InputSource(new StringReader(xml)));
+			}
+		});
+		report("  compact", mb, xml, new Parser() {
+			public Object parse(String xml) throws Exception {
+				return CompactDocument.parse(new StringReader(xml));
+			}
+		});
+		// node objects stay while anything refers to one of them, as while
+		// XPath results are held
+		report("  compact, nodes in use", mb, xml, new Parser() {
+			public Object parse(String xml) throws Exception {
+				Document doc = CompactDocument.parse(new StringReader(xml));
+				return new Object[] { doc, visit(doc) };
+			}
+		});
+	}
+
+	/**
+	 * Create the object of every node below node
+	 *
+	 * @return last node visited
+	 */
+	private static Node visit(Node node) {
+		Node last = node;
+		NamedNodeMap attributes = node.getAttributes();
+		for (int i = 0; attributes != null && i < attributes.getLength(); i++)
+			last = attributes.item(i);
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+			last = visit(child);
+		return last;
+	}
+
+	private interface Parser {
+		Object parse(String xml) throws Exception;
+	}
+
+	private static void report(String label, double mb, String xml, Parser parser) throws Exception {
+		// warm up
+		for (int i = 0; i < WARMUP; i++)
+			parser.parse(xml);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < WARMUP; i++)
+			parser.parse(xml);
+		double parseMs = (System.nanoTime() - start) / 1e6 / WARMUP;
+
+		Object[] held = new Object[COPIES];
+		long before = usedHeap();
+		for (int i = 0; i < COPIES; i++)
+			held[i] = parser.parse(xml);
+		long after = usedHeap();
+		double perCopy = (after - before) / (double) COPIES;
+
+		System.out.println(String.format("%-30s %10.1f KB heap per MB %10.1f ms parse per MB", label,
+				perCopy / 1024 / mb, parseMs / mb));
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+
+	private static String wrapText(String text) {
+		return "<Root>" + StringEscapeUtils.escapeXml(text.replaceAll("\\u0000", "")) + "</Root>";
+	}
+
+	/**
+	 * Status provider output: many small elements holding short text
+	 */
+	private static String generateStatus(int size) {
+		StringBuilder out = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Status>\n");
+		for (int i = 0; out.length() < size; i++) {
+			out.append("  <ObjectStatus xmlns:env=\"http://www.w3.org/2003/05/soap-envelope\">\n");
+			out.append("    <Class>MultiProtocolGateway</Class>\n");
+			out.append("    <OpState>").append(i % 7 == 0 ? "down" : "up").append("</OpState>\n");
+			out.append("    <AdminState>enabled</AdminState>\n");
+			out.append("    <Name>object").append(i).append("</Name>\n");
+			out.append("    <EventCode>0x00000000</EventCode>\n");
+			out.append("    <ErrorCode/>\n");
+			out.append("    <ConfigState>saved</ConfigState>\n");
+			out.append("    <Domain name=\"domain").append(i % 20).append("\">domain").append(i % 20).append("</Domain>\n");
+			out.append("  </ObjectStatus>\n");
+		}
+		return out.append("</Status>\n").toString();
+	}
+
+	/**
+	 * Log style lines, as in the text sections
+	 */
+	private static String generateText(int size) {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; out.length() < size; i++) {
+			out.append("20200101T0000").append(i % 60).append("Z [0x80e00073][mpgw][error] mpgw(object").append(i % 50)
+					.append("): tid(").append(i).append(") <request> & 'backend' connection failed\n");
+		}
+		return out.toString();
+	}
+
+	private static final int MB = 1024 * 1024;
+	private static final int WARMUP = 5;
+	private static final int COPIES = 8;
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+
+import com.ibm.datapower.er.Analytics.AnalyticsProcessor;
+import com.ibm.datapower.er.Analytics.ConditionsNode;
+
+/**
+ * Time taken to run the Analytics formulas over a report, the way ERTool runs
+ * them: each run reads the report with a new ERFramework and AnalyticsProcessor.
+ * The first run is not counted, it also writes the index file of the report.
+ * Formulas run against the sections of a report on the compute pool of the
+ * executor, and formulas that do not match each other run side by side on a
+ * pool of their own, so the difference between two builds shows with more
+ * than two processors. The processors and the threads of both pools are
+ * printed with the times, results are only comparable with the same counts.
+ *
+ * ant bench-formulas -Dbench.args="report [rules] [runs] [fixed|forkjoin|virtual]"
+ */
+public class FormulaThroughputBench {
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("usage: FormulaThroughputBench report [rules] [runs] [fixed|forkjoin|virtual]");
+			System.exit(1);
+		}
+		String report = args[0];
+		String rules = args.length > 1 ? args[1] : "Analytics.xml";
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : RUNS;
+		if (args.length > 3 && !ExecutionBackend.setBackend(args[3])) {
+			System.out.println(args[3] + " is not an executor, use fixed, forkjoin or virtual");
+			System.exit(1);
+		}
+
+		// the pool sizes AnalyticsProcessor uses, the compute threads are fewer
+		// when the heap is short
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println(report + String.format(" (%.1f MB) with %s", new File(report).length() / (double) MB, rules));
+		System.out.println(String.format("%d processors, executor %s: %d compute threads, %d formula threads",
+				processors, ExecutionBackend.getBackend(), ExecutionBackend.getThreads(), processors));
+
+		File out = Files.createTempDirectory("formula-bench").toFile();
+		int results = run(report, rules, out, 0);
+
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			run(report, rules, out, i + 1);
+			times[i] = System.nanoTime() - start;
+		}
+		FileUtils.deleteDirectory(out);
+		ExecutionBackend.shutdown();
+
+		Arrays.sort(times);
+		double median = times[runs / 2] / 1e6;
+		System.out.println(String.format("%d results, %d runs: best %.0f ms, median %.0f ms, %.1f reports per minute",
+				results, runs, times[0] / 1e6, median, 60000 / median));
+		System.exit(0);
+	}
+
+	/**
+	 * @return results the formulas matched
+	 */
+	private static int run(String report, String rules, File out, int run) throws Exception {
+		File dir = new File(out, "run" + run);
+		dir.mkdirs();
+
+		ERFramework framework = new ERFramework(0);
+		framework.setFileLocation(report);
+		AnalyticsProcessor analytics = new AnalyticsProcessor();
+		ArrayList<ConditionsNode> results = analytics.loadAndParse(rules, framework, false, "TEXT",
+				new File(dir, "out.txt").getPath(), "", "none", 0);
+		return results.size();
+	}
+
+	private static final int MB = 1024 * 1024;
+	private static final int RUNS = 5;
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.Analytics.Structure.Expression;
+import com.ibm.datapower.er.Analytics.Structure.Formula;
+import com.ibm.datapower.er.Analytics.Structure.ItemObject.OBJECT_TYPE;
+import com.ibm.datapower.er.Analytics.Structure.RulePlan;
+import com.ibm.datapower.er.Analytics.Structure.RunFormula;
+
+/**
+ * The first expression of a formula run over the sections it reads, as a
+ * RunFormula does. The formulas are an XPath formula (RBMStatus), a RegExp
+ * formula over configuration text (JMSDebugLog), one with both
+ * (FirmwareVersion) and one where most of the work is checking its conditions
+ * against the RegExp groups (LogTargetReload).
+ *
+ * The formulas of the rules are run once over the report first, so sections
+ * and the related files written for results are there already. A section
+ * keeps the results of its XPaths, after the first run a formula reads them as
+ * the formulas that follow it on the section do.
+ *
+ * ant bench-jmh -Dbench.args="-p report=error-report.txt.gz FormulaBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FormulaBench {
+	@Param("")
+	public String report;
+
+	@Param("Analytics.xml")
+	public String rules;
+
+	// FormulaID, or shortened Name, of the formula
+	@Param({ "RBMStatus", "JMSDebugLog", "FirmwareVersion", "LogTargetReload" })
+	public String formula;
+
+	@Setup
+	public void setup() throws Exception {
+		if (report.length() == 0)
+			throw new IllegalArgumentException("the report is needed, -p report=<file>");
+
+		mOut = Files.createTempDirectory("formula-bench").toFile();
+		ERFramework framework = new ERFramework(0);
+		framework.setFileLocation(report);
+		mProcessor = new AnalyticsProcessor();
+		mProcessor.loadAndParse(rules, framework, false, "TEXT", new File(mOut, "out.txt").getPath(), "", "none",
+				0);
+
+		for (Formula ruleFormula : RulePlan.load(rules).getFormulas()) {
+			if (ruleFormula.getIdentifier().equals(formula)) {
+				mFormula = new Formula(ruleFormula, false);
+				break;
+			}
+		}
+		if (mFormula == null)
+			throw new IllegalArgumentException(formula + " is not a formula of " + rules);
+
+		mExpression = mFormula.getExpressions().get(0);
+		mFormula.addItem("ExpressionCount", mFormula.getExpressions().size(), OBJECT_TYPE.INTEGER);
+		mFormula.addItem("ExpressionID", 0, OBJECT_TYPE.INTEGER);
+		mNextExpressionAnd = (boolean) mExpression.getItem("NextOperationAnd").getObject();
+
+		// the sections parseFormula pulls for the expression
+		boolean wildcard = (boolean) mExpression.getItem("SectionWildcard").getObject();
+		for (mSectionID = 0;; mSectionID++) {
+			Expression.Section section = mExpression.getSection(mSectionID);
+			if (section.getName().length() == 0)
+				break;
+			framework.getCidListAsDocument(section.getName(), mSections, wildcard, section.getExtension(), false);
+			if (!section.getReadNextSection().toLowerCase().equals("true") && mSections.size() > 0)
+				break;
+		}
+		if (mSections.isEmpty())
+			throw new IllegalArgumentException(formula + " reads no section of " + report);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(mOut);
+	}
+
+	/**
+	 * @return sections the expression matched
+	 */
+	@Benchmark
+	public int handleRunFormula() {
+		int matched = 0;
+		for (int docID = 0; docID < mSections.size(); docID++) {
+			if (mProcessor.handleRunFormula(newRun(docID)))
+				matched++;
+		}
+		return matched;
+	}
+
+	private RunFormula newRun(int docID) {
+		return new RunFormula(mProcessor, mSections.get(docID), docID, new ArrayList<ConditionsNode>(), mFormula,
+				mSectionID, mExpression, mNextExpressionAnd, mExpression.getConditions(), "");
+	}
+
+	private File mOut;
+	private AnalyticsProcessor mProcessor;
+	private Formula mFormula;
+	private Expression mExpression;
+	private boolean mNextExpressionAnd;
+	private int mSectionID;
+	private ArrayList<DocumentSection> mSections = new ArrayList<DocumentSection>();
+}
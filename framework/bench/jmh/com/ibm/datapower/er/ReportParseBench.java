@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.ibm.datapower.er.Analytics.DocumentSection;
+
+/**
+ * Reading a report: indexing it to find a section, reading a section the way
+ * a formula asks for it, and reading XML and text sections as documents the
+ * way getCidAsXML and getNonXmlCidAsXML give them.
+ *
+ * parseReport reads the report from the start each time, index files are not
+ * used. The other benchmarks read a report indexed once.
+ *
+ * ant bench-jmh -Dbench.args="-p report=error-report.txt.gz ReportParseBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ReportParseBench {
+	@Param("")
+	public String report;
+
+	// an XML section and a text section of the report
+	@Param("ObjectStatus")
+	public String xmlSection;
+
+	@Param("default-log")
+	public String textSection;
+
+	@Setup
+	public void setup() throws Exception {
+		if (report.length() == 0)
+			throw new IllegalArgumentException("the report is needed, -p report=<file>");
+
+		ERFramework.setIndexCacheDir(ERFramework.INDEX_CACHE_NONE);
+		mFramework = new ERFramework(0);
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.OFF);
+		mFramework.setFileLocation(report);
+
+		// both sections have to be in the report
+		getBytes(xmlSection);
+		mText = getBytes(textSection);
+	}
+
+	/**
+	 * @return position of the XML section, found by indexing the report
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int parseReport() {
+		ERFramework framework = new ERFramework(0);
+		framework.setFileLocation(report);
+		return framework.getSectionPosition(xmlSection, false);
+	}
+
+	@Benchmark
+	public int sectionPosition() {
+		return mFramework.getSectionPosition(xmlSection, false);
+	}
+
+	@Benchmark
+	public ArrayList<DocumentSection> lookupSection() throws ERException {
+		ArrayList<DocumentSection> sections = new ArrayList<DocumentSection>();
+		mFramework.getCidListAsDocument(xmlSection, sections, false, "", true);
+		return sections;
+	}
+
+	@Benchmark
+	public Document xmlSectionAsXML() throws ERException {
+		return mFramework.getCidAsXML(xmlSection);
+	}
+
+	@Benchmark
+	public Document textSectionAsXML() throws ERException {
+		return mFramework.getNonXmlCidAsXML(textSection);
+	}
+
+	/**
+	 * @return bytes of the text section wrapped in a Root element
+	 */
+	@Benchmark
+	public long encapsulate() throws IOException {
+		InputStream in = mFramework.inputStreamXmlEncapsulate(new ByteArrayInputStream(mText)).EncapsulatedStream;
+		byte[] buffer = new byte[BUFFER];
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			total += read;
+		return total;
+	}
+
+	private byte[] getBytes(String cid) throws ERException {
+		ArrayList<DocumentSection> sections = new ArrayList<DocumentSection>();
+		mFramework.getCidListAsDocument(cid, sections, false, "", true);
+		if (sections.isEmpty() || sections.get(0).GetBytes() == null)
+			throw new IllegalArgumentException(cid + " is not a section of " + report);
+		return sections.get(0).GetBytes();
+	}
+
+	private static final int BUFFER = 64 * 1024;
+
+	private ERFramework mFramework;
+	private byte[] mText;
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Transactions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.Analytics.DocumentSection;
+
+/**
+ * The lines of a log section matched against the log types of the
+ * transaction rules: parseRegExp on the lines with the type that matches
+ * them, every line tried against the types in order as runTransaction does,
+ * and runTransaction reading the section as well.
+ *
+ * ant bench-jmh -Dbench.args="-p report=error-report.txt.gz TransactionBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransactionBench {
+	@Param("")
+	public String report;
+
+	@Param("dptransx.xml")
+	public String rules;
+
+	@Param("default-log")
+	public String log;
+
+	@Setup
+	public void setup() throws Exception {
+		if (report.length() == 0)
+			throw new IllegalArgumentException("the report is needed, -p report=<file>");
+
+		mTransx = new ParseTransx();
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.OFF);
+		mTransx.setFileLocation(report);
+		mTransx.SetTransactionRulesFile(rules);
+		mTransx.loadTypes();
+		if (mTransx.mTypes.isEmpty())
+			throw new IllegalArgumentException(rules + " has no log types");
+
+		ArrayList<DocumentSection> sections = new ArrayList<DocumentSection>();
+		mTransx.getCidListAsDocument(log, sections, false, "", true);
+		if (sections.isEmpty())
+			throw new IllegalArgumentException(log + " is not a section of " + report);
+		String text = sections.get(0).GetText();
+		if (text == null)
+			text = new String(sections.get(0).GetBytes());
+
+		for (String line : text.split("\r?\n")) {
+			mLines.add(line);
+			LogType matched = null;
+			for (LogType logType : mTransx.mTypes) {
+				if (mTransx.parseRegExp(logType.getRegEXP(), line, logType).size() > 0) {
+					matched = logType;
+					break;
+				}
+			}
+			if (matched != null) {
+				mMatchedLines.add(line);
+				mMatchedTypes.add(matched);
+			}
+		}
+	}
+
+	/**
+	 * parseRegExp on the lines log types match, with the type that matches
+	 */
+	@Benchmark
+	public void parseRegExp(Blackhole blackhole) {
+		for (int i = 0; i < mMatchedLines.size(); i++) {
+			LogType logType = mMatchedTypes.get(i);
+			blackhole.consume(mTransx.parseRegExp(logType.getRegEXP(), mMatchedLines.get(i), logType));
+		}
+	}
+
+	/**
+	 * @return lines a log type matched, each line tried against the types in
+	 *         order until one matches
+	 */
+	@Benchmark
+	public int matchLines() {
+		int matched = 0;
+		for (String line : mLines) {
+			for (LogType logType : mTransx.mTypes) {
+				HashMap<String, String> strList = mTransx.parseRegExp(logType.getRegEXP(), line, logType);
+				if (strList.size() > 0) {
+					matched++;
+					break;
+				}
+			}
+		}
+		return matched;
+	}
+
+	@Benchmark
+	public ArrayList<TransactionLine> runTransaction() {
+		return mTransx.runTransaction(log);
+	}
+
+	private ParseTransx mTransx;
+	private ArrayList<String> mLines = new ArrayList<String>();
+	private ArrayList<String> mMatchedLines = new ArrayList<String>();
+	private ArrayList<LogType> mMatchedTypes = new ArrayList<LogType>();
+}
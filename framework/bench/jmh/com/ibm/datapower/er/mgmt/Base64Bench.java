@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.mgmt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding a base64 section with Base64.InputStream, read in blocks as the
+ * section parser reads it and a byte at a time. The decoder of the JDK reads
+ * the same data for comparison. The data is random bytes encoded in MIME
+ * lines of 76 characters.
+ *
+ * ant bench-jmh -Dbench.args="Base64Bench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1)
+public class Base64Bench {
+	// size of the decoded data
+	@Param({ "64", "4096" })
+	public int kilobytes;
+
+	@Setup
+	public void setup() {
+		byte[] data = new byte[kilobytes * 1024];
+		new Random(0).nextBytes(data);
+		mEncoded = java.util.Base64.getMimeEncoder().encode(data);
+	}
+
+	/**
+	 * @return bytes decoded
+	 */
+	@Benchmark
+	public long decodeBlocks() throws IOException {
+		return readBlocks(new Base64.InputStream(new ByteArrayInputStream(mEncoded)));
+	}
+
+	@Benchmark
+	public long decodeBytes() throws IOException {
+		InputStream in = new Base64.InputStream(new ByteArrayInputStream(mEncoded));
+		long total = 0;
+		while (in.read() != -1)
+			total++;
+		return total;
+	}
+
+	@Benchmark
+	public long decodeJDK() throws IOException {
+		return readBlocks(java.util.Base64.getMimeDecoder().wrap(new ByteArrayInputStream(mEncoded)));
+	}
+
+	private static long readBlocks(InputStream in) throws IOException {
+		byte[] buffer = new byte[BUFFER];
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			total += read;
+		return total;
+	}
+
+	// what InputStreamReader reads at a time
+	private static final int BUFFER = 8192;
+
+	private byte[] mEncoded;
+}
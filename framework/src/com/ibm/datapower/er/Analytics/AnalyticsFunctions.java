@@ -24,7 +24,9 @@ import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
@@ -32,10 +34,10 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -197,61 +199,60 @@ public class AnalyticsFunctions {
 			
 			output = newFileName;
 			
-			if (!dstFile.exists()) {
-				int bufferSize = 512 * 1024;
-				NodeList nl = null;
-				if(is != null) {
-					try {
-					byte[] buffer = new byte[bufferSize];
-					int read = -1;
-					OutputStream streamOut = new BufferedOutputStream(
-							Files.newOutputStream(dstFile.toPath(), StandardOpenOption.CREATE_NEW,
-									StandardOpenOption.WRITE),
-									bufferSize);
-					while((read = is.read(buffer)) != -1) {
-						streamOut.write(buffer, 0, read);;
-					}
-					  streamOut.close();
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					return output;
-				}
-				synchronized (ERFramework.mDocBuilderFactory) {
-					nl = section.GetDocument().getElementsByTagName("Root");
-				}
-				if (nl != null && nl.getLength() > 0) {
-					try {
+			// formulas running at the same time can write the same section
+			synchronized (getFileLock(dstFile)) {
+				if (!dstFile.exists()) {
+					int bufferSize = 512 * 1024;
+					NodeList nl = null;
+					if(is != null) {
+						try {
+						byte[] buffer = new byte[bufferSize];
+						int read = -1;
 						OutputStream streamOut = new BufferedOutputStream(
 								Files.newOutputStream(dstFile.toPath(), StandardOpenOption.CREATE_NEW,
 										StandardOpenOption.WRITE),
-						                          bufferSize);
-						byte[] data = nl.item(0).getTextContent().getBytes();
-						streamOut.write(data, 0, data.length);
-						streamOut.close();
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				} else {
-					try {
-						File dirs = new File(dir);
-						dirs.mkdirs();
-					} catch (Exception ex) {
+										bufferSize);
+						while((read = is.read(buffer)) != -1) {
+							streamOut.write(buffer, 0, read);;
+						}
+						  streamOut.close();
+						} catch (Exception e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+						}
+						return output;
 					}
-					try {
-						Transformer transformer = TransformerFactory.newInstance().newTransformer();
-						Result outData = new StreamResult(dstFile);
+					nl = section.GetDocument().getElementsByTagName("Root");
+					if (nl != null && nl.getLength() > 0) {
+						try {
+							OutputStream streamOut = new BufferedOutputStream(
+									Files.newOutputStream(dstFile.toPath(), StandardOpenOption.CREATE_NEW,
+											StandardOpenOption.WRITE),
+							                          bufferSize);
+							byte[] data = nl.item(0).getTextContent().getBytes();
+							streamOut.write(data, 0, data.length);
+							streamOut.close();
+						} catch (Exception e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+						}
+					} else {
+						try {
+							File dirs = new File(dir);
+							dirs.mkdirs();
+						} catch (Exception ex) {
+						}
+						try {
+							Transformer transformer = TransformerFactory.newInstance().newTransformer();
+							Result outData = new StreamResult(dstFile);
 
-						synchronized (ERFramework.mDocBuilderFactory) {
 							Source input = new DOMSource(section.GetDocument());
 							transformer.transform(input, outData);
+						} catch (Exception e) {
+							// TODO Auto-generated catch block
+							output = cidName;
+							e.printStackTrace();
 						}
-					} catch (Exception e) {
-						// TODO Auto-generated catch block
-						output = cidName;
-						e.printStackTrace();
 					}
 				}
 			}
@@ -260,6 +261,16 @@ public class AnalyticsFunctions {
 		return output;
 	}
 
+	private static Object getFileLock(File file) {
+		String path = file.getAbsolutePath();
+		Object lock = mFileLocks.get(path);
+		if (lock == null) {
+			mFileLocks.putIfAbsent(path, new Object());
+			lock = mFileLocks.get(path);
+		}
+		return lock;
+	}
+
 	public static String parseFileNameFromCid(String cidName, String dir, String optExt, int enum_) {
 		String sectionName = cidName.replace("<", "").replace(">", "");
 
@@ -465,8 +476,8 @@ public class AnalyticsFunctions {
 	 * @param topPositionRes
 	 *            boolean - set to true if we want these met conditions to be at
 	 *            the top of the results
-	 * @param urlNodes
-	 *            NodeList - URLs that give more detail to the problem
+	 * @param urls
+	 *            List - URLs that give more detail to the problem
 	 * @param collapseResult
 	 *            boolean - collapses the results in HTML by default (meant for
 	 *            long lists)
@@ -489,7 +500,7 @@ public class AnalyticsFunctions {
 			ArrayList<ConditionsNode> formulasMet, ArrayList<ConditionsNode> othersMet) {
 
 		boolean topPositionRes = (boolean) formula.getItem("TopPosition").getObject();
-		NodeList urlNodes = (NodeList) formula.getItem("UrlNodes").getObject();
+		List<Formula.Url> urls = formula.getUrls();
 		boolean collapseResult = (boolean) formula.getItem("CollapseResult").getObject();
 		String categories = (String) formula.getItem("Categories").getObject();
 		String popup = (String) formula.getItem("Popup").getObject();
@@ -530,10 +541,9 @@ public class AnalyticsFunctions {
 
 		if (node.mURLs.size() < 1) {
 			// supply urls into the node since we passed the formula
-			for (int u = 0; u < urlNodes.getLength(); u++) {
-				Node urlNode = urlNodes.item(u);
-				String urlDesc = AnalyticsFunctions.getAttributeByName(urlNode, "description");
-				String matchID = AnalyticsFunctions.getAttributeByName(urlNode, "FormulaIDMatch");
+			for (int u = 0; u < urls.size(); u++) {
+				Formula.Url url = urls.get(u);
+				String matchID = url.getFormulaIDMatch();
 
 				// see if we want a previously matched formula before showing
 				// this url
@@ -543,7 +553,7 @@ public class AnalyticsFunctions {
 						continue; // we didn't pass the previous criteria, skip
 					}
 				}
-				node.mURLs.add(new ReferenceURL(urlDesc, urlNode.getTextContent()));
+				node.mURLs.add(new ReferenceURL(url.getDescription(), url.getURL()));
 			}
 		}
 	}
@@ -735,26 +745,24 @@ public class AnalyticsFunctions {
 		return dir;
 	}
 	
-	public static NodeList retrieveNodeListFromSingleVal(XPathExpression expr, XPath xpath, String xPathQuery,
+	public static NodeList retrieveNodeListFromSingleVal(XPathExpression expr, String xPathQuery,
 			DocumentSection section, String errMsgFromNodeListRetr) {
 		NodeList resultList = null;
 		try {
 			if (expr == null)
-				expr = (XPathExpression) xpath.compile(xPathQuery);
+				expr = XPathExpressionCache.getXPath().compile(xPathQuery);
 
-			synchronized (ERFramework.mDocBuilderFactory) {
-				if (errMsgFromNodeListRetr.contains("#NUMBER")) {
-					Number resNum = (Number) expr.evaluate(section.GetDocument(), XPathConstants.NUMBER);
-					resultList = AnalyticsFunctions.makeNodeListTextNode(section, resNum.toString());
-				}
-				else if (errMsgFromNodeListRetr.contains("#STRING")) {
-					String resStr = (String) expr.evaluate(section.GetDocument(), XPathConstants.STRING);
-					resultList = AnalyticsFunctions.makeNodeListTextNode(section, resStr);
-				}
-				else if (errMsgFromNodeListRetr.contains("#BOOLEAN")) {
-					Boolean resBool = (Boolean) expr.evaluate(section.GetDocument(), XPathConstants.BOOLEAN);
-					resultList = AnalyticsFunctions.makeNodeListTextNode(section, resBool.toString());
-				}
+			if (errMsgFromNodeListRetr.contains("#NUMBER")) {
+				Number resNum = (Number) expr.evaluate(section.GetDocument(), XPathConstants.NUMBER);
+				resultList = AnalyticsFunctions.makeNodeListTextNode(section, resNum.toString());
+			}
+			else if (errMsgFromNodeListRetr.contains("#STRING")) {
+				String resStr = (String) expr.evaluate(section.GetDocument(), XPathConstants.STRING);
+				resultList = AnalyticsFunctions.makeNodeListTextNode(section, resStr);
+			}
+			else if (errMsgFromNodeListRetr.contains("#BOOLEAN")) {
+				Boolean resBool = (Boolean) expr.evaluate(section.GetDocument(), XPathConstants.BOOLEAN);
+				resultList = AnalyticsFunctions.makeNodeListTextNode(section, resBool.toString());
 			}
 		} catch (Exception ie) {
 			ie.printStackTrace();
@@ -762,12 +770,20 @@ public class AnalyticsFunctions {
 		return resultList;
 	}
 	
+	/**
+	 * The result is built in a document of its own, the section document is
+	 * left as it is for other formulas reading it
+	 */
 	public static NodeList makeNodeListTextNode(DocumentSection section, String nodeValue)
 	{
-		Node node = section.GetDocument().createElement("Root");
-		Node node2 = section.GetDocument().createElement("Result");
+		Document doc = section.GetDocument().getImplementation().createDocument(null, "Root", null);
+		Node node = doc.getDocumentElement();
+		Node node2 = doc.createElement("Result");
 		node2.setTextContent(nodeValue);
 		node.appendChild(node2);
-		return node.getChildNodes();
+		return FrozenNodeList.children(node);
 	}
+
+	// files sections are written to, by path
+	private static ConcurrentHashMap<String, Object> mFileLocks = new ConcurrentHashMap<String, Object>();
 }
@@ -18,8 +18,6 @@ package com.ibm.datapower.er.Analytics;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,37 +26,36 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.w3c.dom.Document;
 
 import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.ExecutionBackend;
+import com.ibm.datapower.er.SectionCache;
 import com.ibm.datapower.er.ErrorReportDetails;
 import com.ibm.datapower.er.IPartInfo;
 import com.ibm.datapower.er.PartsProcessorsHTML;
@@ -69,6 +66,8 @@ import com.ibm.datapower.er.Analytics.Structure.DSCacheEntry;
 import com.ibm.datapower.er.Analytics.Structure.Expression;
 import com.ibm.datapower.er.Analytics.Structure.Formula;
 import com.ibm.datapower.er.Analytics.Structure.ItemObject;
+import com.ibm.datapower.er.Analytics.Structure.LiteralFilter;
+import com.ibm.datapower.er.Analytics.Structure.RulePlan;
 import com.ibm.datapower.er.Analytics.Structure.RunFormula;
 import com.ibm.datapower.er.Analytics.Structure.ItemObject.OBJECT_TYPE;
 
@@ -90,13 +89,6 @@ public class AnalyticsProcessor {
 	}
 
 	public AnalyticsProcessor() {
-		// this fixes invalid argument issues when there is only one processor
-		// available
-		int procs = Runtime.getRuntime().availableProcessors() / 2;
-		if (procs < 1)
-			procs = 1;
-
-		eService = Executors.newFixedThreadPool(procs);
 	}
 
 	/**
@@ -162,11 +154,10 @@ public class AnalyticsProcessor {
 			mFormulaRuntimeMaxSeconds = formulaMaxRunSeconds;
 		LogManager.getRootLogger().info("AnalyticsProcessor::loadAndParse Formula Max Runtime (Seconds): " + mFormulaRuntimeMaxSeconds);
 		
-		LogManager.getRootLogger().info("AnalyticsProcessor::loadAndParse instantiate FileInputStream");
-		mAnalytics = new FileInputStream(filename);
+		LogManager.getRootLogger().info("AnalyticsProcessor::loadAndParse loading rule plan");
+		mPlan = RulePlan.load(filename);
 		mFrameworks = frameworks;
-		mCacheList = new ArrayList<XPathCache>();
-		mCurRegCache = new ArrayList<RegEXPCache>();
+		mDocumentSections = new SectionCache<DSCacheEntry>("formula", new DSCacheEntry.CacheCodec(mFrameworks));
 		mFormatType = formatType.toLowerCase();
 		outputFileName = outFile;
 		
@@ -224,32 +215,30 @@ public class AnalyticsProcessor {
 	public static REPORT_TYPE detectReportType(String fileName) {
 		REPORT_TYPE outType = REPORT_TYPE.UNKNOWN;
 		if (fileName.endsWith(".zip")) {
-			ZipInputStream inputStream = null;
+			// the first entry of the central directory tells what the zip holds
+			ZipFile zip = null;
 			try {
-				inputStream = new ZipInputStream(new FileInputStream(fileName));
-			} catch (FileNotFoundException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-			if (inputStream != null) {
-				// find out what type of report if its a zip
-				ZipEntry entry;
-				try {
-					entry = inputStream.getNextEntry();
-					// we only care about the first entry really, we can't
-					// handle multiple docs less its a post mortem .tar.gz
-					if (entry != null) {
-						if (entry.getName().endsWith(".tar.gz") || entry.getName().startsWith("var/")
-								|| entry.getName().startsWith("usr/"))
-							outType = REPORT_TYPE.POSTMORTEM;
-						else
-							outType = REPORT_TYPE.DATAPOWER_REPORT;
+				zip = new ZipFile(fileName);
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				// we only care about the first entry really, we can't
+				// handle multiple docs less its a post mortem .tar.gz
+				if (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.getName().endsWith(".tar.gz") || entry.getName().startsWith("var/")
+							|| entry.getName().startsWith("usr/"))
+						outType = REPORT_TYPE.POSTMORTEM;
+					else
+						outType = REPORT_TYPE.DATAPOWER_REPORT;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				if (zip != null) {
+					try {
+						zip.close();
+					} catch (IOException e) {
 					}
-				} catch (IOException e) {
-					e.printStackTrace();
 				}
-
 			}
 		} // end of ".zip" block
 		else if (fileName.endsWith(".tar.gz") || fileName.endsWith(".tgz") || fileName.endsWith(".tar"))
@@ -287,17 +276,13 @@ public class AnalyticsProcessor {
 				node = AnalyticsFunctions.instantiateNode(formula);
 
 			if (field.isParsedFieldValue()) {
-				synchronized (ERFramework.mDocBuilderFactory) {
-					value = getNodeValue(formula.documentSet.GetDocument(), field.getParsedFieldValue(), curGroupPos,
-							node);
-				}
+				value = getNodeValue(formula, field.getParsedFieldValue(), curGroupPos,
+						node);
 			}
 
 			if (conditionValue.startsWith("{")) {
-				synchronized (ERFramework.mDocBuilderFactory) {
-					conditionalValue = getNodeValue(formula.documentSet.GetDocument(),
-							conditionValue.substring(1, conditionValue.length() - 1), curGroupPos, node);
-				}
+				conditionalValue = getNodeValue(formula,
+						conditionValue.substring(1, conditionValue.length() - 1), curGroupPos, node);
 			}
 
 			boolean condMatched = parseConditionValue(formula, field, value, conditionalValue, node, curGroupPos,
@@ -359,17 +344,15 @@ public class AnalyticsProcessor {
 
 						if (field.isParsedFieldValue()) {
 
-							synchronized (ERFramework.mDocBuilderFactory) {
-								value = getNodeValue(formula.documentSet.GetDocument(), field.getParsedFieldValue(),
-										curGroupPos, node);
-							}
+							value = getNodeValue(formula, field.getParsedFieldValue(),
+									curGroupPos, node);
 						}
 
 						if (ordField.getFieldValue().startsWith("{Condition:"))
-							ordValue = parseStringWithConditions(formula.documentSet, ordField.getFieldValue(), modPos,
+							ordValue = parseStringWithConditions(formula, ordField.getFieldValue(), modPos,
 									tmpNode);
 
-						String actualValue = parseStringWithConditions(formula.documentSet, ordField.getValue(), modPos,
+						String actualValue = parseStringWithConditions(formula, ordField.getValue(), modPos,
 								tmpNode);
 
 						operMatched = parseConditionValue(formula, ordField, ordValue, actualValue, tmpNode,
@@ -473,18 +456,14 @@ public class AnalyticsProcessor {
 			
 			if (field.isParsedFieldValue()) {
 
-				synchronized (ERFramework.mDocBuilderFactory) {
-					value = getNodeValue(formula.documentSet.GetDocument(), field.getParsedFieldValue(), curGroupPos,
-							node);
-				}
+				value = getNodeValue(formula, field.getParsedFieldValue(), curGroupPos,
+						node);
 			}
 
 			if (conditionValue.startsWith("{")) {
 
-				synchronized (ERFramework.mDocBuilderFactory) {
-					conditionalValue = getNodeValue(formula.documentSet.GetDocument(),
-							conditionValue.substring(1, conditionValue.length() - 1), curGroupPos, node);
-				}
+				conditionalValue = getNodeValue(formula,
+						conditionValue.substring(1, conditionValue.length() - 1), curGroupPos, node);
 			}
 
 			operMatched = parseConditionValue(formula, field, value, conditionalValue, node, curGroupPos, modPos);
@@ -575,7 +554,7 @@ public class AnalyticsProcessor {
 				
 				/* If we don't match the requiredFile name (which can supply special {Condition:..} matches via 
 				 * the nodes previous results, then we skip and test the next node */
-				String endFileName = parseStringWithConditions(formula.documentSet, formula.requiredFile, curPos, node);
+				String endFileName = parseStringWithConditions(formula, formula.requiredFile, curPos, node);
 				if (!formula.documentSet.GetSectionName().contains(endFileName))
 					continue;
 			}
@@ -695,7 +674,7 @@ public class AnalyticsProcessor {
 				value = resultNode.getNodeValue();
 
 			if (field.getOverrideValue().length() > 0) {
-				value = parseStringWithConditions(formula.documentSet, field.getOverrideValue(), curLoopPos, node);
+				value = parseStringWithConditions(formula, field.getOverrideValue(), curLoopPos, node);
 			}
 			// no good if we don't have a value to compare to
 			if (value == null) {
@@ -725,10 +704,8 @@ public class AnalyticsProcessor {
 			// we find out its actual value and pass it
 			if (conditionValue.startsWith("{")) {
 
-				synchronized (ERFramework.mDocBuilderFactory) {
-					conditionalValue = getNodeValue(formula.documentSet.GetDocument(),
-							conditionValue.substring(1, conditionValue.length() - 1), curPos, node);
-				}
+				conditionalValue = getNodeValue(formula,
+						conditionValue.substring(1, conditionValue.length() - 1), curPos, node);
 			}
 			
 			int curGroupPos = 0;
@@ -740,11 +717,13 @@ public class AnalyticsProcessor {
 					&& (formula.regExp.length() > 0 && !formula.regExp.equals("*") || (conditionRegEXP.length() > 0))) {
 
 				String regEXPUse = formula.regExp;
+				Pattern patternUse = formula.regExpPattern;
 
 				// if we have a condition passed where regular
 				// expression needs to be done
 				if (conditionRegEXP.length() > 0 && !conditionRegEXP.equals("*")) {
 					regEXPUse = conditionRegEXP;
+					patternUse = field.getConditionPattern();
 				}
 
 				if (!conditionRegEXP.equals("*")) // this means unless
@@ -755,14 +734,19 @@ public class AnalyticsProcessor {
 													// compile the
 													// pattern
 				{
-					String curRegEXP = parseStringWithConditions(formula.documentSet, regEXPUse, modPos, node);
+					String curRegEXP = parseStringWithConditions(formula, regEXPUse, modPos, node);
+
+					// the pattern compiled with the rules holds unless {Condition:}
+					// values were put in
+					if (!curRegEXP.equals(regEXPUse))
+						patternUse = null;
 
 					LogManager.getRootLogger()
 							.debug("AnalyticsProcessor::parseFieldCondition formula : "
 									+ formula.getFormula().getIdentifier() + " -- Pattern: " + regEXPUse + ", modPos: "
 									+ modPos + ", node: " + node);
 					
-					RegEXPCache cache = getRegExpCache(formula, curRegEXP, value);
+					RegEXPCache cache = getRegExpCache(formula, curRegEXP, patternUse, value);
 
 					if (cache == null) // we got no data from the reg exp cache
 					{
@@ -861,12 +845,10 @@ public class AnalyticsProcessor {
 					// 4/12/2018 - Introduced to allow a FieldPosition with a Condition based value {Condition:..} to be parsed and counted correctly
 					if (field.isParsedFieldValue() && field.getRegGroupType() == REG_GROUP_TYPE.MATCH_COUNT) {
 							for(int countPos=0;countPos<formula.condNodes.size();countPos++){
-								synchronized (ERFramework.mDocBuilderFactory) {
 							node = AnalyticsFunctions.determineNode(formula, cloneNode, countPos, fieldPos);
-							value = getNodeValue(formula.documentSet.GetDocument(), field.getParsedFieldValue(), countPos,
+							value = getNodeValue(formula, field.getParsedFieldValue(), countPos,
 									node);
-								}
-							RegEXPCache tmpCache = getRegExpCache(formula, curRegEXP, value);
+							RegEXPCache tmpCache = getRegExpCache(formula, curRegEXP, patternUse, value);
 							int endValue = 0;
 							try {
 								while (tmpCache.getMatcher().find() )
@@ -947,10 +929,8 @@ public class AnalyticsProcessor {
 
 				// 4/12/2018 - Updated to check if field is a MATCH_COUNT, we handle the parsed field value further above
 				if (field.isParsedFieldValue() && field.getRegGroupType() != REG_GROUP_TYPE.MATCH_COUNT) {
-					synchronized (ERFramework.mDocBuilderFactory) {
-						value = getNodeValue(formula.documentSet.GetDocument(), field.getParsedFieldValue(), curPos,
-								node);
-					}
+					value = getNodeValue(formula, field.getParsedFieldValue(), curPos,
+							node);
 				}
 
 				operationMatched = parseConditionValue(formula, field, value, conditionalValue, node, curPos, modPos);
@@ -1030,9 +1010,9 @@ public class AnalyticsProcessor {
 				if ( enumCount == null )
 					enumCount = "0";
 				
-				node.setDisplayName(parseMessage(formula.documentSet, node.getDisplayName(), curPos, enumCount,
+				node.setDisplayName(parseMessage(formula, node.getDisplayName(), curPos, enumCount,
 						"EnumerationCount", formula.bIsSectionVariable));
-				node.setDisplayMessage(parseMessage(formula.documentSet, node.getDisplayMessage(), curPos, enumCount,
+				node.setDisplayMessage(parseMessage(formula, node.getDisplayMessage(), curPos, enumCount,
 						"EnumerationCount", formula.bIsSectionVariable));
 			}
 		}
@@ -1040,6 +1020,61 @@ public class AnalyticsProcessor {
 		return nodeMatches;
 	}
 
+	/**
+	 * Run the RunFormulas on eService one at a time, in order. Each is handed to
+	 * eService once the one before it has returned, so no thread waits in
+	 * between. One cancelled for running longer than mFormulaRuntimeMaxSeconds
+	 * still holds the next one back until it stops, as they share sections and
+	 * conditions.
+	 *
+	 * @return futures of the RunFormulas, in the order of runs
+	 */
+	private List<Future<RunFormula>> runInOrder(List<RunFormula> runs) {
+		List<Future<RunFormula>> futures = new ArrayList<Future<RunFormula>>();
+		CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+		for (RunFormula run : runs) {
+			final OrderedTask task = new OrderedTask(run);
+			previous.thenRun(new Runnable() {
+				public void run() {
+					try {
+						eService.execute(task);
+					} catch (RejectedExecutionException e) {
+						task.reject(e);
+					}
+				}
+			});
+			futures.add(task);
+			previous = task.mFinished;
+		}
+		return futures;
+	}
+
+	/**
+	 * A RunFormula of runInOrder, finished once its run has returned or it will
+	 * not run at all
+	 */
+	private static class OrderedTask extends FutureTask<RunFormula> {
+		OrderedTask(RunFormula run) {
+			super(run);
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				mFinished.complete(null);
+			}
+		}
+
+		void reject(Throwable cause) {
+			setException(cause);
+			mFinished.complete(null);
+		}
+
+		private final CompletableFuture<Void> mFinished = new CompletableFuture<Void>();
+	}
+
 	/**
 	 * handleRunFormula() handles looping for each condition field in the
 	 * formula
@@ -1049,12 +1084,6 @@ public class AnalyticsProcessor {
 		ArrayList<ConditionsNode> conditionsMetList = formula.condNodes;
 		String xPathQuery = formula.xPathQuery;
 
-		// instantiate our xpath
-		XPathFactory xfactory = XPathFactory.newInstance();
-		XPath xpath = null;
-		synchronized(xfactory) {
-			xpath = xfactory.newXPath();
-		}
 		NodeList resultList = null;
 		/*
 		 * attempt to run xpath, if it fails just ignore and check if the
@@ -1062,23 +1091,22 @@ public class AnalyticsProcessor {
 		 * it just means it did not exist in the doc
 		 */
 
-		XPathExpression expr = null;
-		try {
-			synchronized(xfactory) {
-				expr = (XPathExpression) xpath.compile(xPathQuery);
-			}
-			
-			synchronized (ERFramework.mDocBuilderFactory) {
-				resultList = (NodeList) expr.evaluate(section.GetDocument(), XPathConstants.NODESET);
-			}
-		} catch (XPathExpressionException e) {
-			if ( e.getMessage().contains("to a NodeList") )
-			{
-				resultList = AnalyticsFunctions.retrieveNodeListFromSingleVal(expr, xpath, xPathQuery,
-						section, e.getMessage());
+		// a text section holds its text as it is, the regular expression runs
+		// over it directly
+		if (section.IsTextSection() && DocumentSection.TEXT_XPATH.equals(xPathQuery))
+			resultList = section.GetTextNodes();
+		else {
+			try {
+				resultList = section.GetXPathNodes(xPathQuery);
+			} catch (XPathExpressionException e) {
+				if ( e.getMessage().contains("to a NodeList") )
+				{
+					resultList = AnalyticsFunctions.retrieveNodeListFromSingleVal(null, xPathQuery,
+							section, e.getMessage());
+				}
+				else
+					e.printStackTrace();
 			}
-			else
-				e.printStackTrace();
 		}
 
 		if (resultList == null) // we are done we have nothing to parse
@@ -1306,9 +1334,9 @@ public class AnalyticsProcessor {
 		}
 
 		boolean operationMatched = false;
-		// check which operation we need to perform, bring it to lower case for
-		// comparison
-		String conditionOperLwr = field.getOperation().toLowerCase();
+		// check which operation we need to perform, lower cased when the rules
+		// were read
+		String conditionOperLwr = field.getOperationLwr();
 		switch (conditionOperLwr) {
 		case "equalsto": {
 
@@ -1466,9 +1494,9 @@ public class AnalyticsProcessor {
 				node.addCondition(field.getConditionName(), value, field.getMappedTablePosition());
 				node.matchedConditions.add(formula.xPathQuery + "[" + curGroupPos + "] '" + value + "' is "
 						+ field.getOperation() + " '" + conditionalValue + "'");
-				node.setDisplayName(parseMessage(formula.documentSet, node.getDisplayName(), modPos, value,
+				node.setDisplayName(parseMessage(formula, node.getDisplayName(), modPos, value,
 						field.getConditionName(), formula.bIsSectionVariable));
-				node.setDisplayMessage(parseMessage(formula.documentSet, node.getDisplayMessage(), modPos, value,
+				node.setDisplayMessage(parseMessage(formula, node.getDisplayMessage(), modPos, value,
 						field.getConditionName(), formula.bIsSectionVariable));
 				node.appendURI(field.getConditionName() + "=" + value);
 			}
@@ -1684,14 +1712,14 @@ public class AnalyticsProcessor {
 	 * @param otherFormulasMatched
 	 *            ArrayList<ConditionsNode> - used for comparison of already
 	 *            matched formulas
+	 * @param profile
+	 *            FormulaProfile - counters of the formula, null if it is not
+	 *            profiled
 	 * @return Boolean, true if succeed, false if parsing fails (no fail
 	 *         conditions at this time)
 	 */
 	private boolean parseFormula(Formula formula, ArrayList<ConditionsNode> formulaExpressionsMet,
-			ArrayList<ConditionsNode> otherFormulasMatched) {
-		mCurRegCache.clear();
-		mCacheList.clear();
-		
+			ArrayList<ConditionsNode> otherFormulasMatched, FormulaProfile profile) {
 		/* Aug 2018 - this was causing a large performance impact in processing formulas
 		 * original intention was to keep enough memory clear to process subsequent formulas
 		 * but now we just encourage larger allocations of memory/stack size */
@@ -1719,26 +1747,24 @@ public class AnalyticsProcessor {
 
 		String lastExpGroupValue = "";
 
-		NodeList expressionNodes = (NodeList) formula.getItem("Expression").getObject();
+		List<Expression> expressions = formula.getExpressions();
 
 		LogManager.getRootLogger().debug("AnalyticsProcessor::parseFormula formula : " + formula.getIdentifier()
-				+ " -- has " + expressionNodes.getLength() + " Expression nodes for parsing.");
+				+ " -- has " + expressions.size() + " Expression nodes for parsing.");
 
-		// we will use this to pass into pullDocSection to decide if we are starting to parse a new formula
-		boolean newFormula = true;
-		
 		// this will be used at the condition level to decide if more potential expressions to match or not
-		formula.addItem("ExpressionCount", expressionNodes.getLength(), OBJECT_TYPE.INTEGER);
+		formula.addItem("ExpressionCount", expressions.size(), OBJECT_TYPE.INTEGER);
 		
 		ArrayList<DocumentSection> documentSet = new ArrayList<DocumentSection>();
-		for (int expNodeID = 0; expNodeID < expressionNodes.getLength(); expNodeID++) {
+		for (int expNodeID = 0; expNodeID < expressions.size(); expNodeID++) {
 			// used at condition level to decide if we have additional expressions to match (against current expression id)
 			formula.addItem("ExpressionID", expNodeID, OBJECT_TYPE.INTEGER);
 			
-			Node expNode = expressionNodes.item(expNodeID);
-			Element expElement = (Element) expNode;
+			Expression exp = expressions.get(expNodeID);
 
-			Expression exp = new Expression(expElement);
+			// sections pulled from here on are charged to the expression
+			if (profile != null)
+				FormulaProfile.enter(profile.getExpression(expNodeID));
 
 			LogManager.getRootLogger().debug("AnalyticsProcessor::parseFormula formula : " + formula.getIdentifier()
 					+ " -- instantiated expression #" + expNodeID);
@@ -1851,18 +1877,17 @@ public class AnalyticsProcessor {
 			// the exceptions.
 			do {
 				cidSectionID++;
-				cidName = AnalyticsFunctions.getAttributeByTag("Section", "Name", expElement, cidSectionID);
-				String readNextSection = AnalyticsFunctions.getAttributeByTag("Section", "ReadNextSection", expElement,
-						cidSectionID);
-				String extension = AnalyticsFunctions.getAttributeByTag("Section", "Extension", expElement,
-						cidSectionID);
+				Expression.Section section = exp.getSection(cidSectionID);
+				cidName = section.getName();
+				String readNextSection = section.getReadNextSection();
+				String extension = section.getExtension();
 
 				LogManager.getRootLogger().debug("AnalyticsProcessor::parseFormula formula : " + formula.getIdentifier()
 						+ " -- pulling document sections of " + cidName);
 				
 				if (cidName.length() > 0)
 				{
-					PullDocSection(cidName, documentSet, wildcardValue, extension, newFormula, omit_decode_cache);
+					PullDocSection(cidName, documentSet, wildcardValue, extension, omit_decode_cache);
 				}
 				else
 					break;
@@ -1871,9 +1896,6 @@ public class AnalyticsProcessor {
 					break;
 			} while (true);
 
-			// set to false as we are looping through this existing formula, gets reset upon a new parseFormula
-			newFormula = false;
-			
 			LogManager.getRootLogger().debug("AnalyticsProcessor::parseFormula formula : " + formula.getIdentifier()
 					+ " -- document sets matched: " + documentSet.size());
 
@@ -1941,11 +1963,9 @@ public class AnalyticsProcessor {
 						if (docID > 0 && expNodeID > 0) {
 							// grab the prev node and see if we are required as
 							// part of the operation
-							Node prevExpNode = expressionNodes.item(expNodeID - 1);
-							String conditionNextOperation = AnalyticsFunctions
-									.getAttributeByName(prevExpNode, "NextOperation").toLowerCase();
+							Expression prevExp = expressions.get(expNodeID - 1);
 
-							if (conditionNextOperation.equals("and")) {
+							if ((boolean) prevExp.getItem("NextOperationAnd").getObject()) {
 
 								// get the first position node and clone it
 								ArrayList<ConditionsNode> list = (ArrayList<ConditionsNode>) conditionDocMetList.get(0);
@@ -1964,15 +1984,6 @@ public class AnalyticsProcessor {
 					}
 				}
 
-				ArrayList<ConditionField> fields = new ArrayList<ConditionField>();
-				NodeList conditionNodes = expElement.getElementsByTagName("Condition");
-
-				for (int cNode = 0; cNode < conditionNodes.getLength(); cNode++) {
-					Node condNode = conditionNodes.item(cNode);
-					ConditionField field = AnalyticsFunctions.getConditionField(condNode);
-					fields.add(field);
-				}
-
 				DocumentSection documentSect = documentSet.get(docID);
 
 				int formulaID = formula.getItem("ID") != null ? (int)formula.getItem("ID").getObject() : -1;
@@ -1980,7 +1991,9 @@ public class AnalyticsProcessor {
 						+ " -- RunFormula instantiating for " + documentSect.GetSectionName() + ", formulaID: " + formulaID + ", docID: " + docID);
 				
 				RunFormula rFormula = new RunFormula(this, documentSect, docID, condNodes, formula,
-						cidSectionID, expElement, nextExpressionAnd, fields, requiredFile);
+						cidSectionID, exp, nextExpressionAnd, exp.getConditions(), requiredFile);
+				if (profile != null)
+					rFormula.profile = profile.getExpression(expNodeID);
 						runList.add(rFormula);
 						
 				// if RequiredFile is not being used we can multi-thread the formula results
@@ -1993,34 +2006,9 @@ public class AnalyticsProcessor {
 			/* requiredFile results in ConditionsNode'/document sections being shared with multiple RunFormulas
 			** we must handle a single RunFormula at one time
 			*/
-			if (requiredFile.length() > 0) {
-				for (int rls = 0; rls < runList.size(); rls++) {
-					futureList.add(eService.submit(runList.get(rls)));
-
-					// wait until the first RunFormula (document result) is done, before adding
-					// another (1 at a time, single threaded)
-					boolean isDone = false;
-					while (!isDone) {
-						for (int f = 0; f < futureList.size(); f++) {
-							
-							Future<RunFormula> future = null;
-							future = futureList.get(f);
-							if (!future.isCancelled() && !future.isDone()) {
-								// work still being done, break out and sleep
-								isDone = false;
-								break;
-							} else {
-								isDone = true;
-							}
-						}
-						try {
-							Thread.sleep(1);
-						} catch (InterruptedException e) {
-						}
-					}
-				}
-			}
-			
+			if (requiredFile.length() > 0)
+				futureList = runInOrder(runList);
+
 			Object taskResult;
 			for (int f=0;f<futureList.size();f++)
 			{
@@ -2033,6 +2021,8 @@ public class AnalyticsProcessor {
 						future.cancel(true);
 						
 						RunFormula cancelledRun = runList.get(f);
+						if (cancelledRun.profile != null)
+							cancelledRun.profile.add(FormulaProfile.Counter.TIMEOUTS, 1);
 
 						ConditionsNode cancelNode = AnalyticsFunctions.instantiateNode(cancelledRun);
 
@@ -2112,10 +2102,8 @@ public class AnalyticsProcessor {
 
 				// check for an ExpressionGroup attribute at the Expression
 				// level, this allows us to 'reset' the counters for matching
-				for (int a = expNodeID; a < expressionNodes.getLength(); a++) {
-					Node nextNode = expressionNodes.item(a);
-					Element nextElement = (Element) nextNode;
-					String expressionGroup = nextElement.getAttribute("ExpressionGroup");
+				for (int a = expNodeID; a < expressions.size(); a++) {
+					String expressionGroup = (String) expressions.get(a).getItem("ExpressionGroup").getObject();
 					if (expressionGroup != null && !expressionGroup.equals(expExpressionGroup)) {
 						expNodeID = a - 1; // set the proper next position, we
 											// skip the expressions we don't
@@ -2139,102 +2127,140 @@ public class AnalyticsProcessor {
 	 * subsequently begins processing the error report formulas
 	 */
 	private ArrayList<ConditionsNode> parse(boolean printResults, String outFile) throws SAXException, IOException {
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder dBuilder;
-		Document doc;
-
 		ArrayList<ConditionsNode> formulaConditionsMet = new ArrayList<ConditionsNode>();
 
-		LogManager.getRootLogger().debug("AnalyticsProcessor::parse DocBuilder loading xml formulas.");
-
-		try {
-			dBuilder = dbFactory.newDocumentBuilder();
-			doc = dBuilder.parse(mAnalytics);
-			doc.getDocumentElement().normalize();
-		} catch (ParserConfigurationException e) {
-			LogManager.getRootLogger()
-					.debug("AnalyticsProcessor::parse DocBuilder loading xml failed with message: " + e.getMessage());
-			e.printStackTrace();
+		if (mPlan == null)
 			return formulaConditionsMet;
-		}
 
-		Element eElement = (Element) doc.getElementsByTagName("Analytics").item(0);
-
-		String versionAttrib = "Unknown";
-
-		if (eElement != null)
-			versionAttrib = eElement.getAttribute("version");
+		String versionAttrib = mPlan.getVersion();
 
 		LogManager.getRootLogger().info("AnalyticsProcessor::parse version: " + versionAttrib);
 
-		for (int i = 0; i < eElement.getChildNodes().getLength(); i++) {
-			Node formulaNode = eElement.getChildNodes().item(i); // formula
-																	// nodes
-			if (formulaNode.getNodeType() != Node.ELEMENT_NODE)
-				continue;
-
-			// base element from document
-			Element formulaElement = (Element) formulaNode;
-
-			boolean multiDocs = false;
-			if (mFrameworks.size() > 1 || (mFrameworks.size() == 1 && mFrameworks.get(0).GetHighestPhase() > 0))
-				multiDocs = true;
+		boolean multiDocs = false;
+		if (mFrameworks.size() > 1 || (mFrameworks.size() == 1 && mFrameworks.get(0).GetHighestPhase() > 0))
+			multiDocs = true;
 
-			Formula formula = new Formula(formulaElement, i, multiDocs);
+		List<Formula> formulas = mPlan.getFormulas();
 
-			LogManager.getRootLogger().debug("AnalyticsProcessor::parse instantiated formula : " + formula.getIdentifier());
+		// with -retrieveallfiles the first pulls also write out every other section,
+		// which formulas those are has to stay the same
+		boolean retrieveAllFiles = false;
+		for (int i = 0; i < mFrameworks.size(); i++) {
+			if (mFrameworks.get(i).getRetrieveAllFiles())
+				retrieveAllFiles = true;
+		}
 
-			long startTime = System.nanoTime();
+		FormulaGraph graph = new FormulaGraph(formulas, retrieveAllFiles);
+		LogManager.getRootLogger().debug("AnalyticsProcessor::parse " + graph.size() + " formulas, "
+				+ graph.getEdgeCount() + " dependencies, longest chain " + graph.getDepth() + ", parallelism "
+				+ String.format("%.1f", graph.size() / (double) Math.max(graph.getDepth(), 1))
+				+ ", retrieve all files: " + retrieveAllFiles);
+
+		// formulas of one section at a time, the others wait for their section to
+		// come up
+		SectionSchedule schedule = null;
+		if (mSectionOrder && !retrieveAllFiles) {
+			schedule = new SectionSchedule(formulas, graph, mFrameworks);
+			LogManager.getRootLogger().info("AnalyticsProcessor::parse section order, " + schedule.getSectionCount()
+					+ " sections, " + schedule.getGroups().size() + " formula groups");
+		} else if (mSectionOrder)
+			LogManager.getRootLogger()
+					.info("AnalyticsProcessor::parse section order not used, all files are retrieved in rules order");
+
+		List<int[]> groups = new ArrayList<int[]>();
+		if (schedule != null)
+			groups = schedule.getGroups();
+		else {
+			int[] all = new int[formulas.size()];
+			for (int i = 0; i < all.length; i++)
+				all[i] = i;
+			groups.add(all);
+		}
 
-			ArrayList<ConditionsNode> tmpConditionMetList = new ArrayList<ConditionsNode>();
+		// a formula waits on the RunFormulas it submits to eService, so formulas
+		// get threads of their own
+		eService = ExecutionBackend.newComputePool();
+		int procs = Runtime.getRuntime().availableProcessors();
+		ExecutorService formulaService = ExecutionBackend.newWaitingPool("ertool-formula-", procs);
+
+		// the results of each formula, set once the formula is done
+		final ArrayList<ArrayList<ConditionsNode>> results = new ArrayList<ArrayList<ConditionsNode>>();
+		ArrayList<CompletableFuture<Void>> done = new ArrayList<CompletableFuture<Void>>();
+		String profileFormat = mProfileFormat;
+		ArrayList<FormulaProfile> profiles = new ArrayList<FormulaProfile>();
+		for (int i = 0; i < formulas.size(); i++) {
+			results.add(null);
+			done.add(null);
+			profiles.add(null);
+		}
 
-			// determine our results
-			try {
-			parseFormula(formula, tmpConditionMetList, formulaConditionsMet);
-			}
-			catch (OutOfMemoryError e) {
-				System.exit(0);
-			}
-			// sort the results
-			tmpConditionMetList = AnalyticsFunctions.condenseConditions(tmpConditionMetList);
-			String sortOpt = (String) formula.getItem("SortOption").getObject();
-			String sortMethod = (String) formula.getItem("SortMethod").getObject();
+		for (int[] group : groups) {
+			for (int g = 0; g < group.length; g++) {
+				final int position = group[g];
+				final int[] dependencies = graph.getDependencies(position);
+				final Formula formula = new Formula(formulas.get(position), multiDocs);
+				final FormulaProfile profile = profileFormat != null ? new FormulaProfile(formula) : null;
+				profiles.set(position, profile);
+
+				CompletableFuture<?>[] waitFor = new CompletableFuture<?>[dependencies.length];
+				for (int d = 0; d < dependencies.length; d++)
+					waitFor[d] = done.get(dependencies[d]);
+
+				// a formula that fails leaves no results, the formulas waiting for it
+				// still run
+				done.set(position, CompletableFuture.allOf(waitFor).thenRunAsync(new Runnable() {
+					public void run() {
+						// the formulas it names are all this formula looks for in the
+						// results of others
+						ArrayList<ConditionsNode> othersMatched = new ArrayList<ConditionsNode>();
+						for (int d = 0; d < dependencies.length; d++) {
+							ArrayList<ConditionsNode> matched = results.get(dependencies[d]);
+							if (matched != null)
+								othersMatched.addAll(matched);
+						}
 
-			if (sortOpt.length() < 1 && sortMethod.length() > 0) {
-				if (sortMethod.equals("reverse")) {
-					try {
-						Collections.reverse(tmpConditionMetList);
-					} catch (Exception ex) {
-						LogManager.getRootLogger()
-								.error("AnalyticsProcessor::parse Formula FAILED REVERSE Collections sorting! "
-										+ ex.getMessage());
+						results.set(position, runFormula(formula, othersMatched, profile));
 					}
-				}
-			}
-
-			try {
-				Collections.sort(tmpConditionMetList, new ConditionSort());
-			} catch (Exception ex) {
-				LogManager.getRootLogger()
-						.error("AnalyticsProcessor::parse Formula FAILED Collections sorting! " + ex.getMessage());
+				}, formulaService).handle(new BiFunction<Void, Throwable, Void>() {
+					public Void apply(Void value, Throwable failure) {
+						if (failure != null) {
+							LogManager.getRootLogger().error(
+									"AnalyticsProcessor::parse Formula FAILED " + formula.getIdentifier() + ": " + failure);
+							results.set(position, new ArrayList<ConditionsNode>());
+						}
+						return null;
+					}
+				}));
 			}
 
-			// add to the overall list
-			formulaConditionsMet.addAll(tmpConditionMetList);
+			if (schedule == null)
+				continue;
 
-			// Todo: Store time diff result for reference/statistics?
-			long endTime = System.nanoTime();
-			double difference = (endTime - startTime) / 1e6;
-			if (mDebug) {
-				String subStr = (String) formula.getItem("Name").getObject();
-				if (subStr.length() > 80)
-					subStr = subStr.substring(0, 80);
-				int formulaID = formula.getItem("ID") != null ? (int)formula.getItem("ID").getObject() : -1;
-				LogManager.getRootLogger().info("AnalyticsProcessor::parse Formula completion " + subStr + " took "
-						+ difference + " milliseconds to complete.  Formula ID: " + formulaID);
+			// the group is done with its section before the next one is read
+			for (int g = 0; g < group.length; g++) {
+				done.get(group[g]).join();
+				for (String cidName : schedule.release(group[g]))
+					releaseSection(cidName);
 			}
 		}
 
+		for (int i = 0; i < done.size(); i++) {
+			done.get(i).join();
+			// add to the overall list, in the order of the rules file
+			formulaConditionsMet.addAll(results.get(i));
+		}
+		ExecutionBackend.release(formulaService);
+		ExecutionBackend.release(eService);
+
+		LogManager.getRootLogger().info("AnalyticsProcessor::parse section cache " + SectionCache.getStatistics());
+		LogManager.getRootLogger().info("AnalyticsProcessor::parse RegExp runs skipped by literals: " + mPrefiltered.get());
+		LogManager.getRootLogger().info("AnalyticsProcessor::parse RegExp patterns " + PatternCache.getStatistics());
+		LogManager.getRootLogger().info("AnalyticsProcessor::parse XPath expressions " + XPathExpressionCache.getStatistics());
+		LogManager.getRootLogger().info("AnalyticsProcessor::parse XPath results " + DocumentSection.GetXPathStatistics());
+
+		if (profileFormat != null)
+			FormulaProfile.write(profiles, profileFormat, outFile);
+
 		PrintStream stream = new PrintStream(System.out);
 
 		if (outFile.length() > 0)
@@ -2246,13 +2272,91 @@ public class AnalyticsProcessor {
 		return formulaConditionsMet;
 	}
 
+	/**
+	 * Runs a formula and sorts its results
+	 * 
+	 * @param formula
+	 *            Formula - copy of the formula for this run
+	 * @param otherFormulasMatched
+	 *            ArrayList<ConditionsNode> - results of the formulas named in
+	 *            its FormulaIDMatch attributes
+	 * @param profile
+	 *            FormulaProfile - counters of the formula, null if it is not
+	 *            profiled
+	 * @return results of the formula
+	 */
+	private ArrayList<ConditionsNode> runFormula(Formula formula, ArrayList<ConditionsNode> otherFormulasMatched,
+			FormulaProfile profile) {
+		LogManager.getRootLogger().debug("AnalyticsProcessor::parse instantiated formula : " + formula.getIdentifier());
+
+		long startTime = System.nanoTime();
+		long cpuStartTime = profile != null ? FormulaProfile.cpuTime() : -1;
+		FormulaProfile.Counters previousProfile = profile != null ? FormulaProfile.enter(profile.getFormula()) : null;
+
+		ArrayList<ConditionsNode> tmpConditionMetList = new ArrayList<ConditionsNode>();
+
+		// determine our results
+		try {
+			parseFormula(formula, tmpConditionMetList, otherFormulasMatched, profile);
+		} catch (OutOfMemoryError e) {
+			System.exit(0);
+		} catch (Exception e) {
+			LogManager.getRootLogger().error("AnalyticsProcessor::parse Formula FAILED " + formula.getIdentifier()
+					+ ": " + e);
+			tmpConditionMetList.clear();
+		}
+		if (profile != null)
+			FormulaProfile.enter(profile.getFormula());
+		// sort the results
+		tmpConditionMetList = AnalyticsFunctions.condenseConditions(tmpConditionMetList);
+		String sortOpt = (String) formula.getItem("SortOption").getObject();
+		String sortMethod = (String) formula.getItem("SortMethod").getObject();
+
+		if (sortOpt.length() < 1 && sortMethod.length() > 0) {
+			if (sortMethod.equals("reverse")) {
+				try {
+					Collections.reverse(tmpConditionMetList);
+				} catch (Exception ex) {
+					LogManager.getRootLogger()
+							.error("AnalyticsProcessor::parse Formula FAILED REVERSE Collections sorting! "
+									+ ex.getMessage());
+				}
+			}
+		}
+
+		try {
+			Collections.sort(tmpConditionMetList, new ConditionSort());
+		} catch (Exception ex) {
+			LogManager.getRootLogger()
+					.error("AnalyticsProcessor::parse Formula FAILED Collections sorting! " + ex.getMessage());
+		}
+
+		if (profile != null) {
+			profile.getFormula().addTime(startTime, cpuStartTime);
+			FormulaProfile.leave(previousProfile);
+		}
+
+		long endTime = System.nanoTime();
+		double difference = (endTime - startTime) / 1e6;
+		if (mDebug) {
+			String subStr = (String) formula.getItem("Name").getObject();
+			if (subStr.length() > 80)
+				subStr = subStr.substring(0, 80);
+			int formulaID = formula.getItem("ID") != null ? (int)formula.getItem("ID").getObject() : -1;
+			LogManager.getRootLogger().info("AnalyticsProcessor::parse Formula completion " + subStr + " took "
+					+ difference + " milliseconds to complete.  Formula ID: " + formulaID);
+		}
+
+		return tmpConditionMetList;
+	}
+
 	/**
 	 * Takes in a string and throws in any xpath or conditions (which we already
 	 * cached) {Condition:xyz}
 	 * 
-	 * @param section
-	 *            DocumentSection - current xml document from error report
-	 *            (parsing the formula)
+	 * @param formula
+	 *            RunFormula - run of the formula on the current xml document
+	 *            from error report
 	 * @param message
 	 *            String - Message requiring parsing for {xpath} attributes
 	 * @param matchedPosition
@@ -2262,8 +2366,9 @@ public class AnalyticsProcessor {
 	 *            ConditionsNode - this is the node reference which has the
 	 *            Condition historical values (for parsing)
 	 */
-	private String parseStringWithConditions(DocumentSection section, String message, int matchedPosition,
+	private String parseStringWithConditions(RunFormula formula, String message, int matchedPosition,
 			ConditionsNode node) {
+		DocumentSection section = formula.documentSet;
 		String str = "";
 
 		for (int i = 0; i < message.length();) {
@@ -2321,9 +2426,7 @@ public class AnalyticsProcessor {
 					// use the xpath value and check in the document at the
 					// position we are currently parsing
 					if (!conditionBasedValue) {
-						synchronized (ERFramework.mDocBuilderFactory) {
-							output = getNodeValue(section.GetDocument(), xpath, matchedPosition, null);
-						}
+						output = getNodeValue(formula, xpath, matchedPosition, null);
 					}
 
 					// if no result reset the string with the xpath
@@ -2355,9 +2458,9 @@ public class AnalyticsProcessor {
 				MappedCondition mc = (MappedCondition)entry.getValue();
 				newNode.addCondition(mc.MappedConditionNameOriginalCase, mc.MappedConditionValue, mc.MappedConditionPosition);
 
-				newNode.setDisplayName(parseMessage(formula.documentSet, newNode.getDisplayName(), modPos, mc.MappedConditionValue,
+				newNode.setDisplayName(parseMessage(formula, newNode.getDisplayName(), modPos, mc.MappedConditionValue,
 						entry.getKey(), formula.bIsSectionVariable));
-				newNode.setDisplayMessage(parseMessage(formula.documentSet, newNode.getDisplayMessage(), modPos, mc.MappedConditionValue,
+				newNode.setDisplayMessage(parseMessage(formula, newNode.getDisplayMessage(), modPos, mc.MappedConditionValue,
 						entry.getKey(), formula.bIsSectionVariable));
 			}
 		}
@@ -2374,9 +2477,9 @@ public class AnalyticsProcessor {
 	 * against the Section (cid), then testing the conditions that must be met
 	 * for the expression to succeed
 	 * 
-	 * @param section
-	 *            DocumentSection - current xml document from error report
-	 *            (parsing the formula)
+	 * @param formula
+	 *            RunFormula - run of the formula on the current xml document
+	 *            from error report
 	 * @param message
 	 *            String - Message requiring parsing for {xpath} attributes
 	 * @param matchedPosition
@@ -2391,8 +2494,9 @@ public class AnalyticsProcessor {
 	 * @return String, returns the output after xpath sections that can match
 	 *         are met
 	 */
-	private String parseMessage(DocumentSection section, String message, int matchedPosition,
+	private String parseMessage(RunFormula formula, String message, int matchedPosition,
 			String conditionParsedValue, String conditionName, boolean isSectionNameVar) {
+		DocumentSection section = formula.documentSet;
 		StringBuilder str = new StringBuilder("");
 
 		String inConditionName = conditionName.toLowerCase();
@@ -2458,9 +2562,7 @@ public class AnalyticsProcessor {
 					// position we are currently parsing
 					if (!conditionBasedValue) {
 
-						synchronized (ERFramework.mDocBuilderFactory) {
-							output = getNodeValue(section.GetDocument(), xpath, matchedPosition, null);
-						}
+						output = getNodeValue(formula, xpath, matchedPosition, null);
 					}
 
 					// if no result reset the string with the xpath
@@ -2488,65 +2590,46 @@ public class AnalyticsProcessor {
 		return str.toString();
 	}
 
-	private XPathCache getDocCachedList(Document cidDoc, String xPathQuery) {
-		// might want to make this a hash map someday.
-		for (int i = 0; i < mCacheList.size(); i++) {
-			XPathCache cache = mCacheList.get(i);
-			if (cache.getCidDoc() == cidDoc && cache.getXPathQuery().equals(xPathQuery))
-				return cache;
-		}
-		XPathCache cache = null;
-		XPathFactory xfactory = XPathFactory.newInstance();
-		XPath xpath = null;
-		synchronized(xfactory) {
-			xpath = xfactory.newXPath();
-		}
-		NodeList resultList = null;
-		// simple cache for avoiding retrieving multiple times
-		try {
-			synchronized(xfactory) {
-				XPathExpression expr = (XPathExpression) xpath.compile(xPathQuery);
-				resultList = (NodeList) expr.evaluate(cidDoc, XPathConstants.NODESET);
-			}
-			cache = new XPathCache(resultList, cidDoc, xPathQuery);
-			mCacheList.add(cache);
-		} catch (XPathExpressionException e) {
-
-		}
-
-		return cache;
-	}
-
-	private RegEXPCache getRegExpCache(RunFormula formula, String regexpQuery, String value) {
-		// might want to make this a hash map someday.
-		try {
-			for (int i = 0; i < mCurRegCache.size(); i++) {
-				RegEXPCache cache = mCurRegCache.get(i);
-				if (cache.getRegEXPQuery().equals(regexpQuery)
-						&& cache.getRunFormula().documentSet == formula.documentSet
-						// checking the string value will stop XML sections from
-						// sending the first node-set matched back
-						&& cache.getQueryValue().equals(value)) {
-					cache.getMatcher().reset();
-					LogManager.getRootLogger().debug("Cache of pattern found for document: "
-							+ formula.documentSet.GetOriginalSectionName() + " - pattern: " + regexpQuery);
-					return cache;
-				}
-			}
-		} catch (Exception ex) {
-
+	private RegEXPCache getRegExpCache(RunFormula formula, String regexpQuery, Pattern pattern, String value) {
+		// a RunFormula reads one section, its matchers are kept by pattern. The
+		// value is told apart by identity, it is the same string while the
+		// conditions of a node are checked, and a section text is never compared
+		// to find its matcher
+		HashMap<String, RegEXPCache> cacheMap = formula.regExpCache;
+		RegEXPCache found = cacheMap.get(regexpQuery);
+		if (found != null && found.getQueryValue() == value) {
+			found.getMatcher().reset();
+			FormulaProfile.count(FormulaProfile.Counter.REGEXP_HITS);
+			LogManager.getRootLogger().debug("Cache of pattern found for document: "
+					+ formula.documentSet.GetOriginalSectionName() + " - pattern: " + regexpQuery);
+			return found;
 		}
 
 		// pass the regular expression value we have
 		// from the expression
-		Pattern pattern = null;
 		try {
 			LogManager.getRootLogger().debug("Compiling pattern and attempting match for document: "
 					+ formula.documentSet.GetOriginalSectionName() + " - pattern: " + regexpQuery);
-			pattern = Pattern.compile(regexpQuery);
-			Matcher matcher = pattern.matcher(value);
+			Matcher matcher = null;
+			if (pattern == null)
+				pattern = PatternCache.compile(regexpQuery);
+			else if (value.length() >= PREFILTER_LENGTH) {
+				// a pattern that can not find what it needs in the value is run over
+				// nothing, it finds no match either way
+				int[] required = mPlan.getLiteralFilter().getRequired(regexpQuery);
+				if (required != null && !LiteralFilter.mayMatch(required,
+						formula.documentSet.GetLiterals(mPlan.getLiteralFilter(), value))) {
+					matcher = pattern.matcher("");
+					mPrefiltered.incrementAndGet();
+					FormulaProfile.count(FormulaProfile.Counter.REGEXP_SKIPPED);
+				}
+			}
+			if (matcher == null) {
+				matcher = pattern.matcher(value);
+				FormulaProfile.count(FormulaProfile.Counter.REGEXP_EVALUATIONS);
+			}
 			RegEXPCache cache = new RegEXPCache(formula, regexpQuery, value, matcher);
-			mCurRegCache.add(cache);
+			cacheMap.put(regexpQuery, cache);
 			return cache;
 		} catch (Exception ex) {
 
@@ -2555,7 +2638,7 @@ public class AnalyticsProcessor {
 		return null;
 	}
 
-	private String getNodeValue(Document cidDoc, String xPathQuery, int position, ConditionsNode node) {
+	private String getNodeValue(RunFormula formula, String xPathQuery, int position, ConditionsNode node) {
 		if (node != null) {
 			int idxColon = xPathQuery.indexOf(":");
 			if (idxColon > 0 && idxColon < xPathQuery.length()) {
@@ -2566,18 +2649,23 @@ public class AnalyticsProcessor {
 				}
 			}
 		}
-		XPathCache cache = getDocCachedList(cidDoc, xPathQuery);
+		NodeList nodes = null;
+		try {
+			nodes = formula.documentSet.GetXPathNodes(xPathQuery);
+		} catch (XPathExpressionException e) {
+
+		}
 
-		if (cache == null || cache.getNodeList() == null)
+		if (nodes == null)
 			return null;
 
 		Node resultNode = null;
-		resultNode = cache.getNodeList().item(position);
+		resultNode = nodes.item(position);
 
 		/* for some reason in debug mode, pulling position 0 returns a null node, but second call returns the node
 		* this suggests some threading issue, but it only occurs in debug intermittently and not release builds */
 		if ( position == 0 && resultNode == null )
-			resultNode = cache.getNodeList().item(position);
+			resultNode = nodes.item(position);
 		
 		if (resultNode == null)
 			return null;
@@ -2596,24 +2684,46 @@ public class AnalyticsProcessor {
 	}
 
 	private void PullDocSection(String cidName, ArrayList<DocumentSection> documentSet, boolean wildcardValue,
-			String extension, boolean newFormula, boolean omit_doc_cache) {
+			String extension, boolean omit_doc_cache) {
+		// formulas running at the same time wait for the one reading the section
+		// instead of each reading it again
+		Object lock = mSectionLoads.get(cidName);
+		if (lock == null) {
+			mSectionLoads.putIfAbsent(cidName, new Object());
+			lock = mSectionLoads.get(cidName);
+		}
+
+		FormulaProfile.Counters profile = FormulaProfile.current();
+		long wallStart = System.nanoTime();
+		long cpuStart = profile != null ? FormulaProfile.cpuTime() : -1;
+		int pulled = documentSet.size();
+
+		synchronized (lock) {
+			loadDocSection(cidName, documentSet, wildcardValue, extension, omit_doc_cache);
+		}
+
+		if (profile != null) {
+			profile.addTime(wallStart, cpuStart);
+			for (int i = pulled; i < documentSet.size(); i++) {
+				profile.add(FormulaProfile.Counter.SECTIONS, 1);
+				byte[] bytes = documentSet.get(i).GetBytes();
+				if (bytes != null)
+					profile.add(FormulaProfile.Counter.SECTION_BYTES, bytes.length);
+			}
+		}
+	}
+
+	private void loadDocSection(String cidName, ArrayList<DocumentSection> documentSet, boolean wildcardValue,
+			String extension, boolean omit_doc_cache) {
 		DSCacheEntry entry = mDocumentSections.get(cidName);
 		if (entry != null && entry.wildcardValue == wildcardValue && entry.extension == extension) {
 			LogManager.getRootLogger().debug("AnalyticsProcessor::parseFormula formula -- found DSCacheEntry for " + cidName
 					+ ", entries: " + entry.documentSet.size());
 
-			// reset the document if we are parsing a new formula
-			if (newFormula) {
-				for (int i = 0; i < entry.documentSet.size(); i++) {
-					DocumentSection section = entry.documentSet.get(i);
-					if (!section.IsXMLSection()) {
-						synchronized (ERFramework.mDocBuilderFactory) {
-							section.GetDocument().normalize();
-						}
-					}
-				}
-			}
+			// the documents were normalized when the sections were made and are not
+			// changed after, other formulas may be reading them
 			documentSet.addAll(entry.documentSet);
+			FormulaProfile.count(FormulaProfile.Counter.SECTION_HITS);
 			return; // we are good, don't bother with the rest!
 		} else if (entry != null) // we got an entry back, but the cached entry
 									// isn't valid for us
@@ -2626,6 +2736,7 @@ public class AnalyticsProcessor {
 
 		// build a temporary list to hold the cache, the documentSet passed in
 		// can contain other sections from other pullDocSection attempts
+		FormulaProfile.count(FormulaProfile.Counter.SECTION_MISSES);
 		ArrayList<DocumentSection> tmpList = new ArrayList<DocumentSection>();
 		try {
 			for (int i = 0; i < mFrameworks.size(); i++) {
@@ -2657,23 +2768,63 @@ public class AnalyticsProcessor {
 		}
 	}
 
-	private InputStream mAnalytics = null;
+	/**
+	 * Drop the sections kept for cidName, no formula left reads them
+	 */
+	private void releaseSection(String cidName) {
+		DSCacheEntry entry = mDocumentSections.remove(cidName);
+		LogManager.getRootLogger().debug("AnalyticsProcessor::releaseSection " + cidName);
+		if (entry == null)
+			return;
+
+		for (DocumentSection section : entry.documentSet)
+			section.GetFramework().releaseSection(section.GetOriginalSectionName());
+	}
+
+	/**
+	 * Run formulas section by section in the order of the report, releasing each
+	 * section once the formulas reading it are done
+	 * 
+	 * @param enabled true to use the order of the report
+	 */
+	public static void setSectionOrderEnabled(boolean enabled) {
+		mSectionOrder = enabled;
+	}
+
+	public static boolean getSectionOrderEnabled() {
+		return mSectionOrder;
+	}
+
+	/**
+	 * Profile what each formula costs and write it next to the output file
+	 *
+	 * @param format json or csv, null to not profile
+	 */
+	public void setProfileFormat(String format) {
+		mProfileFormat = format == null ? null : format.toLowerCase();
+	}
+
+	private RulePlan mPlan = null;
 	private ArrayList<ERFramework> mFrameworks = new ArrayList<ERFramework>();
 	private String mFormatType = "txt";
 	private int mFormulaRuntimeMaxSeconds = 300; // maximum time a future will spend to get a result
+	private String mProfileFormat = null; // json or csv when formulas are profiled
 	private boolean mDebug = true; // get formula runtimes in console
 	private PRINT_MET_CONDITIONS mprintConditionsSetting = PRINT_MET_CONDITIONS.HIDEALL;
-	// tracks a list of entries from previous xpath queries on a document
-	private ArrayList<XPathCache> mCacheList = null;
-	private ArrayList<RegEXPCache> mCurRegCache = null; // used for running a
-														// loop of conditions
-														// with the same regexp
 	private REPORT_TYPE mReportType; // determined type of report we are reading
 
 	public static String outputFileName = "";
 	public static String GENERATED_FILES_DIR = "related_files";
 
+	private static boolean mSectionOrder = false;
+
 	private ExecutorService eService = null;
 
-	private Hashtable<String, DSCacheEntry> mDocumentSections = new Hashtable<String, DSCacheEntry>();
+	private SectionCache<DSCacheEntry> mDocumentSections = null;
+	private ConcurrentHashMap<String, Object> mSectionLoads = new ConcurrentHashMap<String, Object>();
+	private AtomicLong mPrefiltered = new AtomicLong();
+
+	// values shorter than this are run through the pattern without the literal
+	// filter
+	private static final int PREFILTER_LENGTH = 1024;
 } // end AnalyticsProcessor class
@@ -16,7 +16,14 @@
 
 package com.ibm.datapower.er.Analytics;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import com.ibm.datapower.er.SectionCache;
 import com.ibm.datapower.er.Analytics.MappedCondition.MAPPED_TABLE_POSITION;
+import com.ibm.datapower.er.Analytics.Structure.RulePlan;
 
 public class ConditionField {
 	private int mFieldPosition = 0;
@@ -46,8 +53,10 @@ public class ConditionField {
 	private REG_GROUP_TYPE mRegGroupType = REG_GROUP_TYPE.MATCH_NONE;
 	private String mConditionName = "";
 	private String mOperation = "";
+	private String mOperationLwr = "";
 	private String mValue = "";
 	private String mCondRegExp = "";
+	private Pattern mCondPattern = null; // mCondRegExp compiled, null if it is not a pattern of its own
 	private String mCondNextOperation = "";
 	private boolean mConditionOperAnd = false;
 	
@@ -132,6 +141,7 @@ public class ConditionField {
 	public void setOperation(String oper)
 	{
 		mOperation = oper;
+		mOperationLwr = oper.toLowerCase();
 	}
 	
 	public void setValue(String val)
@@ -142,6 +152,14 @@ public class ConditionField {
 	public void setConditionRegEXP(String regexp)
 	{
 		mCondRegExp = regexp;
+		mCondPattern = null;
+		if (regexp.length() > 0 && !regexp.equals("*")) {
+			try {
+				mCondPattern = PatternCache.compile(regexp);
+			} catch (Exception ex) {
+				// it may only be a pattern once {Condition:} values are put in
+			}
+		}
 	}
 
 	public void setConditionNextOperation(String nextOper)
@@ -178,11 +196,52 @@ public class ConditionField {
 	public REG_GROUP_TYPE getRegGroupType() { return mRegGroupType; }
 	public String getConditionName() { return mConditionName; }
 	public String getOperation() { return mOperation; }
+	public String getOperationLwr() { return mOperationLwr; }
 	public String getValue() { return mValue; }
 	public String getConditionRegEXP() { return mCondRegExp; }
+	public Pattern getConditionPattern() { return mCondPattern; }
 	public String getConditionNextOperation() { return mCondNextOperation; }
 	public boolean getConditionOperAnd() { return mConditionOperAnd; }
 	public String getConversionType() { return mConversionType; }
 	public String getOverrideValue() { return mOverrideValue; }
 	public int getMappedTablePosition() { return mMappedTablePosition; }
+
+	/**
+	 * Write the attributes of the condition, read back with read()
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(mFieldPosition);
+		SectionCache.writeString(out, mFieldValue);
+		SectionCache.writeString(out, mRegGroup);
+		SectionCache.writeString(out, mConditionName);
+		SectionCache.writeString(out, mOperation);
+		SectionCache.writeString(out, mValue);
+		SectionCache.writeString(out, mCondRegExp);
+		SectionCache.writeString(out, mCondNextOperation);
+		SectionCache.writeString(out, mConversionType);
+		SectionCache.writeString(out, mOverrideValue);
+		out.writeInt(mMappedTablePosition);
+	}
+
+	/**
+	 * @return the condition written by write(), with the values derived from
+	 *         the attributes set again
+	 */
+	public static ConditionField read(DataInputStream in) throws IOException {
+		int fieldPos = in.readInt();
+		String fieldPosValue = RulePlan.readString(in);
+		String reggroup = RulePlan.readString(in);
+		String condName = RulePlan.readString(in);
+		String oper = RulePlan.readString(in);
+		String value = RulePlan.readString(in);
+		String condRegEXP = RulePlan.readString(in);
+		String nextOper = RulePlan.readString(in);
+		String conversionType = RulePlan.readString(in);
+		String overrideValue = RulePlan.readString(in);
+		int mappedTablePosition = in.readInt();
+		if (fieldPosValue == null || reggroup == null || oper == null || condRegEXP == null || nextOper == null)
+			throw new IOException("incomplete condition");
+		return new ConditionField(fieldPos, fieldPosValue, reggroup, condName, oper, value, condRegEXP, nextOper,
+				conversionType, overrideValue, mappedTablePosition);
+	}
 }
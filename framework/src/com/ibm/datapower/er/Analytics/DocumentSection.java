@@ -25,16 +25,112 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
+import com.ibm.datapower.er.CompactDocument;
+import com.ibm.datapower.er.ERException;
 import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.SectionCache;
+import com.ibm.datapower.er.Analytics.Structure.LiteralFilter;
 
 public class DocumentSection {
+	/**
+	 * XPath formulas use to run their regular expression over a text section
+	 */
+	public static final String TEXT_XPATH = "/Root/text()";
+
+	/**
+	 * A text section, doc holds text as the only content of its Root element
+	 * 
+	 * @param text content of the Root element
+	 */
+	public DocumentSection(Document doc, String text, String cidName, String outFileExtension, ERFramework framework,
+			int phase, String phaseFileName) {
+		this(doc, cidName, outFileExtension, framework, phase, phaseFileName);
+		mText = text;
+	}
+
 	public DocumentSection(Document doc, String cidName, String outFileExtension, ERFramework framework, int phase,
 			String phaseFileName) {
 		mCidDoc = doc;
+		SetNames(cidName, outFileExtension);
+
+		NodeList nl = doc.getElementsByTagName("Root");
+		if (nl.getLength() == 0) {
+			mIsXML = true;
+
+			Transformer transformer;
+			try {
+				transformer = TransformerFactory.newInstance().newTransformer();
+
+				ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+				Source input = new DOMSource(doc);
+
+				transformer.transform(input, new StreamResult(outputStream));
+
+				byte[] bytes = outputStream.toByteArray();
+				SetBytes(bytes);
+			} catch (TransformerConfigurationException | TransformerFactoryConfigurationError e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (TransformerException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		} else {
+			byte[] data = nl.item(0).getTextContent().getBytes();
+			SetBytes(data);
+		}
+
+		mFramework = framework;
+
+		mPhase = phase;
+
+		mPhaseFileName = phaseFileName;
+
+		freeze();
+	}
+
+	/**
+	 * A section made again from what Write() wrote, bytes are not serialized
+	 * again
+	 */
+	private DocumentSection(Document doc, String text, byte[] bytes, boolean isXML, String cidName,
+			String outFileExtension, ERFramework framework, int phase, String phaseFileName) {
+		mCidDoc = doc;
+		SetNames(cidName, outFileExtension);
+		mText = text;
+		mData = bytes;
+		mIsXML = isXML;
+		mFramework = framework;
+		mPhase = phase;
+		mPhaseFileName = phaseFileName;
+
+		freeze();
+	}
+
+	/**
+	 * Put the document in the form formulas read it in, it is not changed after
+	 * so formulas on any number of threads can read it at once
+	 */
+	private void freeze() {
+		if (!mIsXML)
+			mCidDoc.normalize();
+	}
+
+	private void SetNames(String cidName, String outFileExtension) {
 		// need to remove the tags so it shows up in HTML
 		mOrigCidName = cidName;
 		mCidName = cidName.replace("<", "[").replace(">", "]");
@@ -50,47 +146,185 @@ public class DocumentSection {
 
 		if (outFileExtension != null)
 			mOutExtension = outFileExtension;
+	}
 
-		NodeList nl = doc.getElementsByTagName("Root");
-		if (nl.getLength() == 0) {
-			mIsXML = true;
+	/**
+	 * @return estimated bytes the section holds in memory
+	 */
+	public long GetEstimatedSize() {
+		long size = mData == null ? 0 : mData.length;
+		if (!mIsXML)
+			// the text is held once more as characters
+			return size + 2 * size;
+		// tree per byte of XML, as CompactDocumentBench measures it
+		return size + size * (mCidDoc instanceof CompactDocument ? COMPACT_TREE_BYTES : DOM_TREE_BYTES);
+	}
+
+	/**
+	 * Write the section so Read() can make it again
+	 * 
+	 * @return false if it can not be made again
+	 */
+	public boolean Write(DataOutputStream out) throws IOException {
+		// a parsed section with a Root element is only known as its tree
+		if (mText == null && (!mIsXML || mData == null))
+			return false;
+		SectionCache.writeString(out, mOrigCidName);
+		SectionCache.writeString(out, mOutExtension);
+		out.writeInt(mPhase);
+		SectionCache.writeString(out, mPhaseFileName);
+		out.writeBoolean(mIsXML);
+		SectionCache.writeString(out, mText);
+		if (mText == null)
+			SectionCache.writeBytes(out, mData);
+		return true;
+	}
 
-			synchronized (ERFramework.mDocBuilderFactory) {
-				Transformer transformer;
-				try {
-					transformer = TransformerFactory.newInstance().newTransformer();
-
-					ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-					Source input = new DOMSource(doc);
-
-					transformer.transform(input, new StreamResult(outputStream));
-
-					byte[] bytes = outputStream.toByteArray();
-					SetBytes(bytes);
-				} catch (TransformerConfigurationException | TransformerFactoryConfigurationError e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (TransformerException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+	/**
+	 * Make a section again from what Write() wrote. A text section is held as
+	 * text again, other sections are parsed from their bytes.
+	 */
+	public static DocumentSection Read(DataInputStream in, ERFramework framework) throws IOException {
+		String cidName = SectionCache.readString(in);
+		String outFileExtension = SectionCache.readString(in);
+		int phase = in.readInt();
+		String phaseFileName = SectionCache.readString(in);
+		boolean isXML = in.readBoolean();
+		String text = SectionCache.readString(in);
+
+		try {
+			Document doc = null;
+			byte[] bytes = null;
+			if (text != null) {
+				doc = ERFramework.getTextDOM(text);
+				bytes = text.getBytes();
+			} else {
+				bytes = SectionCache.readBytes(in);
+				doc = framework.getSerializedDOM(bytes);
 			}
-		} else {
-			byte[] data = nl.item(0).getTextContent().getBytes();
-			SetBytes(data);
+			return new DocumentSection(doc, text, bytes, isXML, cidName, outFileExtension, framework, phase,
+					phaseFileName);
+		} catch (ERException e) {
+			throw new IOException(e.toString());
 		}
+	}
 
-		mFramework = framework;
+	/**
+	 * Keeps the sections of one ERFramework in a SectionCache
+	 */
+	public static class CacheCodec implements SectionCache.Codec<DocumentSection> {
+		public CacheCodec(ERFramework framework) {
+			mFramework = framework;
+		}
 
-		mPhase = phase;
+		public long weigh(DocumentSection section) {
+			return section.GetEstimatedSize();
+		}
 
-		mPhaseFileName = phaseFileName;
+		public boolean write(DocumentSection section, DataOutputStream out) throws IOException {
+			return section.Write(out);
+		}
+
+		public DocumentSection read(DataInputStream in) throws IOException {
+			return Read(in, mFramework);
+		}
+
+		private ERFramework mFramework;
 	}
 
 	public Document GetDocument() {
 		return mCidDoc;
 	}
 
+	/**
+	 * @return true if the section text is held as it is, see GetText()
+	 */
+	public boolean IsTextSection() {
+		return mText != null;
+	}
+
+	/**
+	 * @return the text of a text section, null for other sections
+	 */
+	public String GetText() {
+		return mText;
+	}
+
+	/**
+	 * @return the nodes TEXT_XPATH selects in a text section, without evaluating
+	 *         it
+	 */
+	public NodeList GetTextNodes() {
+		return FrozenNodeList.children(mCidDoc.getDocumentElement());
+	}
+
+	/**
+	 * @return the literals of filter found in value, a value of the section is
+	 *         read once for all the formulas running over it
+	 */
+	public BitSet GetLiterals(LiteralFilter filter, String value) {
+		// formulas over a section go through its values in turn, only the
+		// literals of the last one are kept so no other value is held on to. The
+		// value is told apart by identity, a section text is never compared
+		LiteralsFound last = mLiterals;
+		if (last != null && last.mValue == value)
+			return last.mFound;
+		BitSet found = filter.scan(value);
+		mLiterals = new LiteralsFound(value, found);
+		return found;
+	}
+
+	private static class LiteralsFound {
+		LiteralsFound(String value, BitSet found) {
+			mValue = value;
+			mFound = found;
+		}
+
+		private final String mValue;
+		private final BitSet mFound;
+	}
+
+	/**
+	 * @return the nodes xPathQuery selects in the section, evaluated once for
+	 *         all the formulas reading the section. The nodes go with the
+	 *         section when it is released or written out of memory.
+	 * @throws XPathExpressionException if the query does not compile or does
+	 *                                  not select nodes
+	 */
+	public NodeList GetXPathNodes(String xPathQuery) throws XPathExpressionException {
+		NodeList nodes = mXPathNodes.get(xPathQuery);
+		if (nodes != null) {
+			mXPathHits.incrementAndGet();
+			FormulaProfile.count(FormulaProfile.Counter.XPATH_HITS);
+			return nodes;
+		}
+
+		XPathExpression expr = null;
+		try {
+			expr = XPathExpressionCache.acquire(xPathQuery);
+			mXPathMisses.incrementAndGet();
+			FormulaProfile.count(FormulaProfile.Counter.XPATH_EVALUATIONS);
+			// the list is read by any formula on the section, an XPath result
+			// list changes as it is read
+			nodes = FrozenNodeList.copy((NodeList) expr.evaluate(mCidDoc, XPathConstants.NODESET));
+		} finally {
+			XPathExpressionCache.release(xPathQuery, expr);
+		}
+		if (nodes == null)
+			return null;
+
+		// another formula may have evaluated it meanwhile, both hold the same nodes
+		NodeList previous = mXPathNodes.putIfAbsent(xPathQuery, nodes);
+		return previous == null ? nodes : previous;
+	}
+
+	/**
+	 * @return counters of the XPath results of all sections, for logging
+	 */
+	public static String GetXPathStatistics() {
+		return "hits: " + mXPathHits.get() + ", evaluated: " + mXPathMisses.get();
+	}
+
 	public String GetSectionName() {
 		return mCidName;
 	}
@@ -139,6 +373,9 @@ public class DocumentSection {
 		return mParsedCidName;
 	}
 
+	private static final int DOM_TREE_BYTES = 6;
+	private static final int COMPACT_TREE_BYTES = 3;
+
 	private Document mCidDoc = null;
 	private String mCidName = "";
 	private String mOrigCidName = "";
@@ -150,4 +387,10 @@ public class DocumentSection {
 	private String mPhaseFileName = "";
 	private String mParsedCidName = "";
 	private byte[] mData = null;
+	private String mText = null;
+	private volatile LiteralsFound mLiterals = null;
+	private ConcurrentHashMap<String, NodeList> mXPathNodes = new ConcurrentHashMap<String, NodeList>();
+
+	private static AtomicLong mXPathHits = new AtomicLong();
+	private static AtomicLong mXPathMisses = new AtomicLong();
 }
\ No newline at end of file
@@ -16,8 +16,16 @@
 
 package com.ibm.datapower.er.Analytics;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+import org.apache.commons.io.IOUtils;
+
+import com.ibm.datapower.er.SectionCache;
+
 public class ERMimeSection {
 	public InputStream mInput = null;
 	public int mPhase = 0;
@@ -35,4 +43,46 @@ public class ERMimeSection {
 		mIterator = itr;
 		mCidName = cidName;
 	}
+
+	/**
+	 * Keeps decoded sections in a SectionCache, those held in memory can be
+	 * written out
+	 */
+	public static class CacheCodec implements SectionCache.Codec<ERMimeSection> {
+		public long weigh(ERMimeSection section) {
+			if (!(section.mInput instanceof ByteArrayInputStream))
+				return 0;
+			synchronized (section.mInput) {
+				return ((ByteArrayInputStream) section.mInput).available();
+			}
+		}
+
+		public boolean write(ERMimeSection section, DataOutputStream out) throws IOException {
+			if (!(section.mInput instanceof ByteArrayInputStream))
+				return false;
+
+			byte[] bytes = null;
+			// the stream may be in use, it is left where it was
+			synchronized (section.mInput) {
+				int remaining = section.mInput.available();
+				section.mInput.reset();
+				bytes = IOUtils.toByteArray(section.mInput);
+				section.mInput.reset();
+				section.mInput.skip(bytes.length - remaining);
+			}
+			out.writeInt(section.mPhase);
+			out.writeInt(section.mIterator);
+			SectionCache.writeString(out, section.mCidName);
+			SectionCache.writeBytes(out, bytes);
+			return true;
+		}
+
+		public ERMimeSection read(DataInputStream in) throws IOException {
+			int phase = in.readInt();
+			int iterator = in.readInt();
+			String cidName = SectionCache.readString(in);
+			byte[] bytes = SectionCache.readBytes(in);
+			return new ERMimeSection(new ByteArrayInputStream(bytes), phase, iterator, cidName);
+		}
+	}
 }
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.ibm.datapower.er.Analytics.Structure.Expression;
+import com.ibm.datapower.er.Analytics.Structure.Formula;
+
+/**
+ * Which formulas have to be done before a formula can run. Run one after the
+ * other, a formula sees the results of every formula before it, but all it
+ * looks for in them are the FormulaIDs it names in a FormulaIDMatch of the
+ * formula, of an expression or of a URL. So a formula waits for the earlier
+ * formulas with those FormulaIDs and for nothing else.
+ *
+ * Some formulas also leave files behind in related_files that decide what
+ * later formulas write there, they are barriers: a barrier waits for every
+ * formula before it and every formula after it waits for the barrier. The
+ * first pull of the report writes out each section it reads undecoded, so the
+ * formulas up to the first one sure to pull a section are barriers. Formulas
+ * with a MIME expression replace files other formulas wrote, they are barriers
+ * too.
+ *
+ * With retrieveAllFiles every pull writes out the sections of the report it
+ * walks past until a wildcard pull has done so for the whole report. The
+ * formulas pulling sections up to the first one sure to pull a wildcard section
+ * are that pass, they are barriers, and the one ending it is the barrier the
+ * rest of the formulas wait for.
+ */
+public class FormulaGraph {
+	/**
+	 * @param formulas         formulas in the order of the rules file
+	 * @param retrieveAllFiles true if the first pulls write out every section of
+	 *                         the report
+	 */
+	public FormulaGraph(List<Formula> formulas, boolean retrieveAllFiles) {
+		// earlier formulas by FormulaID, several formulas can share one
+		HashMap<String, ArrayList<Integer>> byID = new HashMap<String, ArrayList<Integer>>();
+		int lastBarrier = -1;
+		ArrayList<Integer> sinceBarrier = new ArrayList<Integer>();
+		boolean pulled = false;
+
+		for (int i = 0; i < formulas.size(); i++) {
+			Formula formula = formulas.get(i);
+			TreeSet<Integer> dependencies = new TreeSet<Integer>();
+
+			for (String name : getMatchedIDs(formula)) {
+				ArrayList<Integer> named = byID.get(name);
+				if (named != null)
+					dependencies.addAll(named);
+			}
+
+			boolean barrier = hasMimeExpression(formula);
+			if (!pulled && hasSection(formula)) {
+				barrier = true;
+				pulled = isSurePull(formula, retrieveAllFiles);
+			}
+
+			if (lastBarrier >= 0)
+				dependencies.add(lastBarrier);
+			if (barrier) {
+				dependencies.addAll(sinceBarrier);
+				sinceBarrier.clear();
+				lastBarrier = i;
+			} else
+				sinceBarrier.add(i);
+
+			int[] list = new int[dependencies.size()];
+			int pos = 0;
+			for (Integer dependency : dependencies)
+				list[pos++] = dependency;
+			mDependencies.add(list);
+			mEdges += list.length;
+
+			int depth = 0;
+			for (int d = 0; d < list.length; d++)
+				depth = Math.max(depth, mDepths.get(list[d]));
+			mDepths.add(depth + 1);
+			mDepth = Math.max(mDepth, depth + 1);
+
+			String formulaID = (String) formula.getItem("FormulaID").getObject();
+			if (formulaID != null && formulaID.length() > 0) {
+				ArrayList<Integer> named = byID.get(formulaID);
+				if (named == null) {
+					named = new ArrayList<Integer>();
+					byID.put(formulaID, named);
+				}
+				named.add(i);
+			}
+		}
+	}
+
+	/**
+	 * @return positions of the formulas that have to be done before the formula
+	 *         at position, in ascending order
+	 */
+	public int[] getDependencies(int position) {
+		return mDependencies.get(position);
+	}
+
+	public int size() {
+		return mDependencies.size();
+	}
+
+	/**
+	 * @return number of dependencies of all formulas
+	 */
+	public int getEdgeCount() {
+		return mEdges;
+	}
+
+	/**
+	 * @return number of formulas in the longest chain of formulas waiting for
+	 *         each other
+	 */
+	public int getDepth() {
+		return mDepth;
+	}
+
+	/**
+	 * @return FormulaIDs the formula looks for in results of other formulas,
+	 *         without the ! of a negated match
+	 */
+	private static ArrayList<String> getMatchedIDs(Formula formula) {
+		ArrayList<String> names = new ArrayList<String>();
+		addMatchedID(names, (String) formula.getItem("FormulaIDMatch").getObject());
+		for (Expression exp : formula.getExpressions())
+			addMatchedID(names, (String) exp.getItem("FormulaIDMatch").getObject());
+		for (Formula.Url url : formula.getUrls())
+			addMatchedID(names, url.getFormulaIDMatch());
+		return names;
+	}
+
+	private static void addMatchedID(ArrayList<String> names, String match) {
+		if (match == null)
+			return;
+		if (match.startsWith("!"))
+			match = match.substring(1);
+		if (match.length() > 0)
+			names.add(match);
+	}
+
+	/**
+	 * @return true if an expression of the formula pulls sections from the report
+	 */
+	private static boolean hasSection(Formula formula) {
+		for (Expression exp : formula.getExpressions()) {
+			if (!(boolean) exp.getItem("SectionMIME").getObject() && exp.getSection(0).getName().length() > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param wildcard true if the sections have to be a wildcard
+	 * @return true if the first expression of the formula pulls its sections
+	 *         whatever other formulas matched
+	 */
+	private static boolean isSurePull(Formula formula, boolean wildcard) {
+		List<Expression> expressions = formula.getExpressions();
+		if (expressions.size() == 0 || ((String) formula.getItem("FormulaIDMatch").getObject()).length() > 0)
+			return false;
+		Expression exp = expressions.get(0);
+		return !(boolean) exp.getItem("SectionMIME").getObject() && exp.getSection(0).getName().length() > 0
+				&& ((String) exp.getItem("FormulaIDMatch").getObject()).length() == 0
+				&& (!wildcard || (boolean) exp.getItem("SectionWildcard").getObject());
+	}
+
+	private static boolean hasMimeExpression(Formula formula) {
+		for (Expression exp : formula.getExpressions()) {
+			if ((boolean) exp.getItem("SectionMIME").getObject())
+				return true;
+		}
+		return false;
+	}
+
+	private ArrayList<int[]> mDependencies = new ArrayList<int[]>();
+	private ArrayList<Integer> mDepths = new ArrayList<Integer>();
+	private int mEdges = 0;
+	private int mDepth = 0;
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.LogManager;
+
+import com.ibm.datapower.er.Analytics.Structure.Formula;
+
+/**
+ * What a formula cost, with -profile json|csv, in total and for each of its
+ * expressions.
+ *
+ * An expression is charged for pulling its sections and for its RunFormulas,
+ * work of the formula outside its expressions, such as sorting its results,
+ * is charged to the formula. Times of RunFormulas are added up, so
+ * the time of an expression run over several sections at once can be more
+ * than the wall time of its formula. CPU time is only known for platform
+ * threads, virtual threads add none.
+ *
+ * The report is written next to the analytics output as
+ * [outfile].profile.json or .csv, or to ertool-profile.json or .csv when the
+ * results go to the console.
+ */
+public class FormulaProfile {
+	public static final String JSON = "json";
+	public static final String CSV = "csv";
+
+	/**
+	 * What is counted, by the name it has in the report
+	 */
+	public enum Counter {
+		WALL_NANOS("wallNanos"), CPU_NANOS("cpuNanos"),
+		SECTIONS("sections"), SECTION_BYTES("sectionBytes"),
+		SECTION_HITS("sectionCacheHits"), SECTION_MISSES("sectionCacheMisses"),
+		XPATH_EVALUATIONS("xpathEvaluations"), XPATH_HITS("xpathCacheHits"),
+		REGEXP_EVALUATIONS("regexpEvaluations"), REGEXP_HITS("regexpCacheHits"), REGEXP_SKIPPED("regexpSkipped"),
+		MATCHES("matches"), TIMEOUTS("timeouts");
+
+		Counter(String name) {
+			mName = name;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		private final String mName;
+	}
+
+	/**
+	 * Counters of a formula or of one of its expressions, any thread can add to
+	 * them
+	 */
+	public static class Counters {
+		Counters(FormulaProfile owner) {
+			mOwner = owner;
+		}
+
+		public void add(Counter counter, long amount) {
+			mValues.addAndGet(counter.ordinal(), amount);
+		}
+
+		public long get(Counter counter) {
+			return mValues.get(counter.ordinal());
+		}
+
+		/**
+		 * Add the time since wallStart and cpuStart, taken with System.nanoTime()
+		 * and cpuTime() on this thread
+		 */
+		public void addTime(long wallStart, long cpuStart) {
+			add(Counter.WALL_NANOS, System.nanoTime() - wallStart);
+			add(Counter.CPU_NANOS, cpuSince(cpuStart));
+		}
+
+		/**
+		 * addTime() for a RunFormula, its CPU time is the formula's as well
+		 */
+		public void addRunTime(long wallStart, long cpuStart) {
+			long cpu = cpuSince(cpuStart);
+			add(Counter.WALL_NANOS, System.nanoTime() - wallStart);
+			add(Counter.CPU_NANOS, cpu);
+			mOwner.mRunCpu.addAndGet(cpu);
+		}
+
+		private static long cpuSince(long cpuStart) {
+			long cpu = cpuTime();
+			return cpuStart >= 0 && cpu >= 0 ? cpu - cpuStart : 0;
+		}
+
+		private final FormulaProfile mOwner;
+		private final AtomicLongArray mValues = new AtomicLongArray(Counter.values().length);
+	}
+
+	public FormulaProfile(Formula formula) {
+		mId = formula.getItem("ID") != null ? (int) formula.getItem("ID").getObject() : -1;
+		mIdentifier = formula.getIdentifier();
+		String name = (String) formula.getItem("Name").getObject();
+		mName = name == null ? "" : name;
+		mFormula = new Counters(this);
+		for (int i = 0; i < formula.getExpressions().size(); i++)
+			mExpressions.add(new Counters(this));
+	}
+
+	/**
+	 * @return true if format is json or csv
+	 */
+	public static boolean isFormat(String format) {
+		String name = format == null ? "" : format.toLowerCase();
+		return name.equals(JSON) || name.equals(CSV);
+	}
+
+	/**
+	 * @return counters of the work the formula does outside its expressions
+	 */
+	public Counters getFormula() {
+		return mFormula;
+	}
+
+	public Counters getExpression(int expNodeID) {
+		return mExpressions.get(expNodeID);
+	}
+
+	/**
+	 * @return the formula and its expressions added up, with the wall and CPU
+	 *         time of the formula
+	 */
+	public long getTotal(Counter counter) {
+		if (counter == Counter.WALL_NANOS)
+			return mFormula.get(counter);
+		if (counter == Counter.CPU_NANOS)
+			return mFormula.get(counter) + mRunCpu.get();
+
+		long total = mFormula.get(counter);
+		for (Counters expression : mExpressions)
+			total += expression.get(counter);
+		return total;
+	}
+
+	/**
+	 * Counters the work of this thread is charged to, DocumentSection counts its
+	 * XPath evaluations in them
+	 *
+	 * @return null when the thread is not working on a profiled formula
+	 */
+	public static Counters current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Charge the work of this thread to counters until leave()
+	 *
+	 * @return the counters to hand leave()
+	 */
+	public static Counters enter(Counters counters) {
+		Counters previous = CURRENT.get();
+		CURRENT.set(counters);
+		return previous;
+	}
+
+	public static void leave(Counters previous) {
+		if (previous == null)
+			CURRENT.remove();
+		else
+			CURRENT.set(previous);
+	}
+
+	/**
+	 * Add one to counter of the work of this thread, if it is profiled
+	 */
+	public static void count(Counter counter) {
+		Counters counters = CURRENT.get();
+		if (counters != null)
+			counters.add(counter, 1);
+	}
+
+	/**
+	 * @return CPU nanoseconds of this thread, -1 if the JVM does not tell
+	 */
+	public static long cpuTime() {
+		try {
+			if (THREADS.isCurrentThreadCpuTimeSupported())
+				return THREADS.getCurrentThreadCpuTime();
+		} catch (UnsupportedOperationException e) {
+		}
+		return -1;
+	}
+
+	/**
+	 * @return file the profile of a run writing to outFile goes to
+	 */
+	public static File getFile(String outFile, String format) {
+		if (outFile == null || outFile.length() < 1)
+			return new File("ertool-profile." + format);
+		return new File(outFile + ".profile." + format);
+	}
+
+	/**
+	 * @return the count formulas that took the longest, longest first
+	 */
+	public static List<FormulaProfile> getHottest(List<FormulaProfile> profiles, int count) {
+		ArrayList<FormulaProfile> sorted = new ArrayList<FormulaProfile>();
+		for (FormulaProfile profile : profiles) {
+			if (profile != null)
+				sorted.add(profile);
+		}
+		Collections.sort(sorted, new Comparator<FormulaProfile>() {
+			public int compare(FormulaProfile a, FormulaProfile b) {
+				return Long.compare(b.getTotal(Counter.WALL_NANOS), a.getTotal(Counter.WALL_NANOS));
+			}
+		});
+		return sorted.subList(0, Math.min(count, sorted.size()));
+	}
+
+	/**
+	 * Write the profiles of the formulas of a run, in the order of the rules
+	 * file, and log the hottest
+	 */
+	public static void write(List<FormulaProfile> profiles, String format, String outFile) {
+		List<FormulaProfile> hottest = getHottest(profiles, HOTTEST);
+		for (int i = 0; i < hottest.size(); i++) {
+			FormulaProfile profile = hottest.get(i);
+			LogManager.getRootLogger().info("FormulaProfile::write hottest #" + (i + 1) + " " + profile.mIdentifier
+					+ " (ID " + profile.mId + ") " + profile.getTotal(Counter.WALL_NANOS) / 1000000 + " ms");
+		}
+
+		File file = getFile(outFile, format);
+		PrintWriter out = null;
+		try {
+			out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, false), "UTF-8"));
+			if (format.equals(CSV))
+				writeCSV(out, profiles, hottest);
+			else
+				writeJSON(out, profiles, hottest);
+			out.flush();
+			LogManager.getRootLogger().info("FormulaProfile::write profile written to " + file.getPath());
+		} catch (IOException e) {
+			LogManager.getRootLogger()
+					.error("FormulaProfile::write unable to write " + file.getPath() + ": " + e.getMessage());
+		} finally {
+			if (out != null)
+				out.close();
+		}
+	}
+
+	private static void writeJSON(PrintWriter out, List<FormulaProfile> profiles, List<FormulaProfile> hottest) {
+		out.println("{");
+		out.println("  \"hottest\": [");
+		for (int i = 0; i < hottest.size(); i++) {
+			FormulaProfile profile = hottest.get(i);
+			out.print("    {\"rank\": " + (i + 1) + ", \"id\": " + profile.mId + ", \"formula\": "
+					+ quote(profile.mIdentifier) + ", \"" + Counter.WALL_NANOS.getName() + "\": "
+					+ profile.getTotal(Counter.WALL_NANOS) + "}");
+			out.println(i < hottest.size() - 1 ? "," : "");
+		}
+		out.println("  ],");
+
+		out.println("  \"formulas\": [");
+		boolean first = true;
+		for (FormulaProfile profile : profiles) {
+			if (profile == null)
+				continue;
+			if (!first)
+				out.println(",");
+			first = false;
+
+			out.print("    {\"id\": " + profile.mId + ", \"formula\": " + quote(profile.mIdentifier) + ", \"name\": "
+					+ quote(profile.mName));
+			for (Counter counter : Counter.values())
+				out.print(", \"" + counter.getName() + "\": " + profile.getTotal(counter));
+			out.println(", \"expressions\": [");
+			for (int e = 0; e < profile.mExpressions.size(); e++) {
+				Counters expression = profile.mExpressions.get(e);
+				out.print("      {\"expression\": " + e);
+				for (Counter counter : Counter.values())
+					out.print(", \"" + counter.getName() + "\": " + expression.get(counter));
+				out.println(e < profile.mExpressions.size() - 1 ? "}," : "}");
+			}
+			out.print("    ]}");
+		}
+		out.println();
+		out.println("  ]");
+		out.println("}");
+	}
+
+	/**
+	 * A row for each formula, with expression "all", followed by a row for each
+	 * of its expressions. Rank is the place of the formula among the hottest.
+	 */
+	private static void writeCSV(PrintWriter out, List<FormulaProfile> profiles, List<FormulaProfile> hottest) {
+		out.print("id,formula,name,expression,rank");
+		for (Counter counter : Counter.values())
+			out.print("," + counter.getName());
+		out.println();
+
+		for (FormulaProfile profile : profiles) {
+			if (profile == null)
+				continue;
+			int rank = hottest.indexOf(profile) + 1;
+			String prefix = profile.mId + "," + csv(profile.mIdentifier) + "," + csv(profile.mName) + ",";
+
+			out.print(prefix + "all," + (rank > 0 ? String.valueOf(rank) : ""));
+			for (Counter counter : Counter.values())
+				out.print("," + profile.getTotal(counter));
+			out.println();
+
+			for (int e = 0; e < profile.mExpressions.size(); e++) {
+				Counters expression = profile.mExpressions.get(e);
+				out.print(prefix + e + ",");
+				for (Counter counter : Counter.values())
+					out.print("," + expression.get(counter));
+				out.println();
+			}
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder str = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				str.append('\\').append(c);
+			else if (c < 0x20)
+				str.append(String.format("\\u%04x", (int) c));
+			else
+				str.append(c);
+		}
+		return str.append('"').toString();
+	}
+
+	private static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	// formulas named in the hottest summary
+	private static final int HOTTEST = 10;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final ThreadLocal<Counters> CURRENT = new ThreadLocal<Counters>();
+
+
+	private final int mId;
+	private final String mIdentifier;
+	private final String mName;
+	private final Counters mFormula;
+	private final ArrayList<Counters> mExpressions = new ArrayList<Counters>();
+	// CPU time of the RunFormulas of all expressions, on threads of their own
+	private final AtomicLong mRunCpu = new AtomicLong();
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.util.ArrayList;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A NodeList that does not change once made. The NodeLists of the DOM and of
+ * an XPath result find their items as they are asked for and keep what they
+ * found, so a thread reading one changes it; this one only holds the nodes, so
+ * any number of threads can read it.
+ */
+public class FrozenNodeList implements NodeList {
+	private FrozenNodeList(Node[] nodes) {
+		mNodes = nodes;
+	}
+
+	/**
+	 * @return a list of the nodes list holds now, null if list is null
+	 */
+	public static FrozenNodeList copy(NodeList list) {
+		if (list == null)
+			return null;
+		if (list instanceof FrozenNodeList)
+			return (FrozenNodeList) list;
+
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		for (int i = 0;; i++) {
+			Node node = list.item(i);
+			if (node == null)
+				break;
+			nodes.add(node);
+		}
+		return new FrozenNodeList(nodes.toArray(new Node[nodes.size()]));
+	}
+
+	/**
+	 * @return a list of the children of parent, found without its child list
+	 */
+	public static FrozenNodeList children(Node parent) {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling())
+			nodes.add(child);
+		return new FrozenNodeList(nodes.toArray(new Node[nodes.size()]));
+	}
+
+	public Node item(int index) {
+		if (index < 0 || index >= mNodes.length)
+			return null;
+		return mNodes[index];
+	}
+
+	public int getLength() {
+		return mNodes.length;
+	}
+
+	private final Node[] mNodes;
+}
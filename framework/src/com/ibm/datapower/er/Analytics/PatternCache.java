@@ -0,0 +1,65 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expressions compiled once for the whole process, by their text. A
+ * Pattern can be used by any number of threads, each makes a Matcher of its
+ * own.
+ *
+ * Patterns with {Condition:} values put in are compiled as formulas run and
+ * can be as many as the values, so only the first MAX_PATTERNS are kept.
+ */
+public class PatternCache {
+	private PatternCache() {
+	}
+
+	/**
+	 * @return regex compiled
+	 * @throws java.util.regex.PatternSyntaxException if regex is not a pattern
+	 */
+	public static Pattern compile(String regex) {
+		Pattern pattern = mPatterns.get(regex);
+		if (pattern != null) {
+			mHits.incrementAndGet();
+			return pattern;
+		}
+
+		mMisses.incrementAndGet();
+		pattern = Pattern.compile(regex);
+		if (mPatterns.size() < MAX_PATTERNS) {
+			Pattern previous = mPatterns.putIfAbsent(regex, pattern);
+			if (previous != null)
+				return previous;
+		}
+		return pattern;
+	}
+
+	public static String getStatistics() {
+		return "patterns: " + mPatterns.size() + ", hits: " + mHits.get() + ", compiled: " + mMisses.get();
+	}
+
+	private static final int MAX_PATTERNS = 4096;
+
+	private static final ConcurrentHashMap<String, Pattern> mPatterns = new ConcurrentHashMap<String, Pattern>();
+	private static final AtomicLong mHits = new AtomicLong();
+	private static final AtomicLong mMisses = new AtomicLong();
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.Analytics.Structure.Expression;
+import com.ibm.datapower.er.Analytics.Structure.Formula;
+
+/**
+ * The order to run formulas in when a report is read section by section. Each
+ * formula goes with the first of its sections in the report (from the Name and
+ * Wildcard of its Section elements), the formulas of a section run together,
+ * and once no formula left needs a section it is released.
+ *
+ * A formula that reads several sections keeps the later ones loaded until the
+ * formulas of those sections are done too. Formulas still wait for what
+ * FormulaGraph has them wait for, which may move formulas ahead of their own
+ * section.
+ */
+public class SectionSchedule {
+	/**
+	 * @param formulas   formulas in the order of the rules file
+	 * @param graph      which formulas have to be done before each formula
+	 * @param frameworks reports the formulas run against
+	 */
+	public SectionSchedule(List<Formula> formulas, FormulaGraph graph, List<ERFramework> frameworks) {
+		// sections in the order they are first named in the rules
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		HashMap<String, Boolean> wildcards = new HashMap<String, Boolean>();
+		for (int i = 0; i < formulas.size(); i++) {
+			ArrayList<String> sections = getSections(formulas.get(i), wildcards);
+			mSections.add(sections);
+			names.addAll(sections);
+			for (String name : sections) {
+				Integer users = mUsers.get(name);
+				mUsers.put(name, users == null ? 1 : users + 1);
+			}
+		}
+
+		// where each section is in the report, sections that can not be found
+		// go after the others in the order of the rules
+		final HashMap<String, Long> rank = new HashMap<String, Long>();
+		int named = 0;
+		for (String name : names) {
+			long position = Integer.MAX_VALUE;
+			for (int f = 0; f < frameworks.size(); f++) {
+				int found = frameworks.get(f).getSectionPosition(name, wildcards.get(name));
+				if (found >= 0 && found < position)
+					position = found;
+			}
+			rank.put(name, (position << 20) + named++);
+		}
+
+		// formulas without sections (MIME only, or FormulaIDMatch only) go first
+		ArrayList<Integer> sorted = new ArrayList<Integer>();
+		final long[] formulaRank = new long[formulas.size()];
+		for (int i = 0; i < formulas.size(); i++) {
+			formulaRank[i] = -1;
+			for (String name : mSections.get(i)) {
+				long r = rank.get(name);
+				if (formulaRank[i] < 0 || r < formulaRank[i]) {
+					formulaRank[i] = r;
+					mLeading.put(i, name);
+				}
+			}
+			sorted.add(i);
+		}
+		// stable, formulas of one section stay in the order of the rules
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(formulaRank[a], formulaRank[b]);
+			}
+		});
+
+		boolean[] placed = new boolean[formulas.size()];
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (Integer position : sorted)
+			place(position, graph, placed, order);
+
+		// consecutive formulas led by the same section make a group
+		ArrayList<Integer> group = new ArrayList<Integer>();
+		String groupSection = null;
+		for (Integer position : order) {
+			String section = getLeadingSection(position);
+			if (group.size() > 0 && !section.equals(groupSection)) {
+				mGroups.add(toArray(group));
+				group.clear();
+			}
+			groupSection = section;
+			group.add(position);
+		}
+		if (group.size() > 0)
+			mGroups.add(toArray(group));
+	}
+
+	/**
+	 * @return positions of formulas that run together, groups in the order to
+	 *         run them
+	 */
+	public List<int[]> getGroups() {
+		return Collections.unmodifiableList(mGroups);
+	}
+
+	/**
+	 * @return the section the formula at position runs with, "" if it reads none
+	 */
+	public String getLeadingSection(int position) {
+		String name = mLeading.get(position);
+		return name == null ? "" : name;
+	}
+
+	/**
+	 * @return number of sections the formulas read
+	 */
+	public int getSectionCount() {
+		return mUsers.size();
+	}
+
+	/**
+	 * Note the formula at position is done
+	 *
+	 * @return sections no formula still has to read
+	 */
+	public synchronized ArrayList<String> release(int position) {
+		ArrayList<String> released = new ArrayList<String>();
+		for (String name : mSections.get(position)) {
+			int users = mUsers.get(name) - 1;
+			mUsers.put(name, users);
+			if (users == 0)
+				released.add(name);
+		}
+		return released;
+	}
+
+	/**
+	 * Add position to order after the formulas it has to wait for
+	 */
+	private static void place(int position, FormulaGraph graph, boolean[] placed, ArrayList<Integer> order) {
+		if (placed[position])
+			return;
+		placed[position] = true;
+		int[] dependencies = graph.getDependencies(position);
+		for (int d = 0; d < dependencies.length; d++)
+			place(dependencies[d], graph, placed, order);
+		order.add(position);
+	}
+
+	/**
+	 * @return names of the sections the formula pulls, each once, as
+	 *         PullDocSection keeps them
+	 */
+	private static ArrayList<String> getSections(Formula formula, HashMap<String, Boolean> wildcards) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (Expression exp : formula.getExpressions()) {
+			// MIME sections are read as streams, they are not kept
+			if ((boolean) exp.getItem("SectionMIME").getObject())
+				continue;
+
+			boolean wildcard = (boolean) exp.getItem("SectionWildcard").getObject();
+			for (int s = 0;; s++) {
+				String name = exp.getSection(s).getName();
+				if (name.length() == 0)
+					break;
+				if (!names.contains(name))
+					names.add(name);
+				if (!wildcards.containsKey(name))
+					wildcards.put(name, wildcard);
+			}
+		}
+		return names;
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	private ArrayList<ArrayList<String>> mSections = new ArrayList<ArrayList<String>>();
+	private HashMap<String, Integer> mUsers = new HashMap<String, Integer>();
+	private HashMap<Integer, String> mLeading = new HashMap<Integer, String>();
+	private ArrayList<int[]> mGroups = new ArrayList<int[]>();
+}
@@ -16,8 +16,13 @@
 
 package com.ibm.datapower.er.Analytics.Structure;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
+import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.SectionCache;
 import com.ibm.datapower.er.Analytics.DocumentSection;
 
 public class DSCacheEntry {
@@ -26,4 +31,54 @@ public class DSCacheEntry {
 	public ArrayList<DocumentSection> documentSet = new ArrayList<DocumentSection>();
 	public boolean wildcardValue = false;
 	public String extension = "";
+
+	/**
+	 * Keeps the entries of an AnalyticsProcessor in a SectionCache, each section
+	 * is made again for the framework it came from
+	 */
+	public static class CacheCodec implements SectionCache.Codec<DSCacheEntry> {
+		public CacheCodec(ArrayList<ERFramework> frameworks) {
+			mFrameworks = frameworks;
+		}
+
+		public long weigh(DSCacheEntry entry) {
+			long size = 0;
+			for (DocumentSection section : entry.documentSet)
+				size += section.GetEstimatedSize();
+			return size;
+		}
+
+		public boolean write(DSCacheEntry entry, DataOutputStream out) throws IOException {
+			SectionCache.writeString(out, entry.cidName);
+			out.writeBoolean(entry.wildcardValue);
+			SectionCache.writeString(out, entry.extension);
+			out.writeInt(entry.documentSet.size());
+			for (DocumentSection section : entry.documentSet) {
+				int framework = mFrameworks.indexOf(section.GetFramework());
+				if (framework < 0)
+					return false;
+				out.writeInt(framework);
+				if (!section.Write(out))
+					return false;
+			}
+			return true;
+		}
+
+		public DSCacheEntry read(DataInputStream in) throws IOException {
+			DSCacheEntry entry = new DSCacheEntry();
+			entry.cidName = SectionCache.readString(in);
+			entry.wildcardValue = in.readBoolean();
+			// entries are matched on the extension instance, as a section without
+			// one uses the "" constant
+			entry.extension = SectionCache.readString(in).intern();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				ERFramework framework = mFrameworks.get(in.readInt());
+				entry.documentSet.add(DocumentSection.Read(in, framework));
+			}
+			return entry;
+		}
+
+		private ArrayList<ERFramework> mFrameworks;
+	}
 }
@@ -16,11 +16,65 @@
 
 package com.ibm.datapower.er.Analytics.Structure;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.ibm.datapower.er.FirmwareInputStream;
+import com.ibm.datapower.er.SectionCache;
 import com.ibm.datapower.er.Analytics.Structure.ItemObject.OBJECT_TYPE;
 import com.ibm.datapower.er.Analytics.AnalyticsFunctions;
+import com.ibm.datapower.er.Analytics.ConditionField;
+import com.ibm.datapower.er.Analytics.PatternCache;
 
+/**
+ * An Expression element of a formula, read once when the rules are compiled.
+ * It is not changed after, so every run of the formula shares it.
+ */
 public class Expression extends ItemStructure {
+	/**
+	 * A Section element of the expression
+	 */
+	public static class Section {
+		Section(Element sElement) {
+			mName = sElement.getAttribute("Name");
+			mReadNextSection = sElement.getAttribute("ReadNextSection");
+			mExtension = sElement.getAttribute("Extension");
+			mXPath = sElement.getAttribute("XPath");
+		}
+
+		private Section() {
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public String getReadNextSection() {
+			return mReadNextSection;
+		}
+
+		public String getExtension() {
+			return mExtension;
+		}
+
+		public String getXPath() {
+			return mXPath;
+		}
+
+		private String mName = "";
+		private String mReadNextSection = "";
+		private String mExtension = "";
+		private String mXPath = "";
+	}
+
 
 	public Expression(Element eElement)
 	{
@@ -79,5 +133,124 @@ public class Expression extends ItemStructure {
 		addItem("NoDecodeCache", Boolean.parseBoolean(AnalyticsFunctions.getAttributeByTag("Section", "NoDecodeCache", eElement, 0)), OBJECT_TYPE.BOOLEAN);
 		
 		addItem("NoEnumeration", Boolean.parseBoolean(AnalyticsFunctions.getAttributeByTag("Section", "NoEnumeration", eElement, 0)), OBJECT_TYPE.BOOLEAN);
+
+		NodeList sectionNodes = eElement.getElementsByTagName("Section");
+		for (int i = 0; i < sectionNodes.getLength(); i++)
+			mSections.add(new Section((Element) sectionNodes.item(i)));
+
+		NodeList conditionNodes = eElement.getElementsByTagName("Condition");
+		for (int i = 0; i < conditionNodes.getLength(); i++)
+			mConditions.add(AnalyticsFunctions.getConditionField(conditionNodes.item(i)));
+
+		// if set to false then we don't use it for the Condition:SectionName
+		// variable in parsing the message
+		mSectionVariable = AnalyticsFunctions.getAttributeByTag("Section", "SectionName", eElement, 0);
+
+		// This is the regular expression we use to break apart the value in
+		// the error report (from xPath)
+		setRegExp(FirmwareInputStream.getValueByTag("RegExp", eElement));
+
+		// narrow down document by indexOf instead of regexp
+		mIndexSearch = FirmwareInputStream.getValueByTag("IndexSearch", eElement);
+	}
+
+	private Expression() {
+	}
+
+	/**
+	 * Write the compiled expression into a plan file, read back with read()
+	 */
+	void write(DataOutputStream out) throws IOException {
+		writeItems(out);
+		out.writeInt(mSections.size());
+		for (Section section : mSections) {
+			SectionCache.writeString(out, section.mName);
+			SectionCache.writeString(out, section.mReadNextSection);
+			SectionCache.writeString(out, section.mExtension);
+			SectionCache.writeString(out, section.mXPath);
+		}
+		out.writeInt(mConditions.size());
+		for (ConditionField field : mConditions)
+			field.write(out);
+		SectionCache.writeString(out, mSectionVariable);
+		SectionCache.writeString(out, mRegExp);
+		SectionCache.writeString(out, mIndexSearch);
+	}
+
+	static Expression read(DataInputStream in) throws IOException {
+		Expression exp = new Expression();
+		exp.readItems(in);
+		int sections = in.readInt();
+		for (int i = 0; i < sections; i++) {
+			Section section = new Section();
+			section.mName = RulePlan.readString(in);
+			section.mReadNextSection = RulePlan.readString(in);
+			section.mExtension = RulePlan.readString(in);
+			section.mXPath = RulePlan.readString(in);
+			exp.mSections.add(section);
+		}
+		int conditions = in.readInt();
+		for (int i = 0; i < conditions; i++)
+			exp.mConditions.add(ConditionField.read(in));
+		exp.mSectionVariable = RulePlan.readString(in);
+		exp.setRegExp(RulePlan.readString(in));
+		exp.mIndexSearch = RulePlan.readString(in);
+		return exp;
+	}
+
+	private void setRegExp(String regExp) {
+		mRegExp = regExp;
+		if (mRegExp != null && mRegExp.length() > 0 && !mRegExp.equals("*")) {
+			try {
+				mRegExpPattern = PatternCache.compile(mRegExp);
+			} catch (Exception ex) {
+				// it may only be a pattern once {Condition:} values are put in
+			}
+		}
 	}
+
+	/**
+	 * @return the Section element at position, one with no attributes past the
+	 *         last
+	 */
+	public Section getSection(int position) {
+		if (position < 0 || position >= mSections.size())
+			return NO_SECTION;
+		return mSections.get(position);
+	}
+
+	/**
+	 * @return the conditions of the expression, shared by every run
+	 */
+	public List<ConditionField> getConditions() {
+		return Collections.unmodifiableList(mConditions);
+	}
+
+	public String getSectionVariable() {
+		return mSectionVariable;
+	}
+
+	public String getRegExp() {
+		return mRegExp;
+	}
+
+	/**
+	 * @return RegExp compiled, null if it is empty, * or not a pattern as it is
+	 */
+	public Pattern getRegExpPattern() {
+		return mRegExpPattern;
+	}
+
+	public String getIndexSearch() {
+		return mIndexSearch;
+	}
+
+	private static final Section NO_SECTION = new Section();
+
+	private ArrayList<Section> mSections = new ArrayList<Section>();
+	private ArrayList<ConditionField> mConditions = new ArrayList<ConditionField>();
+	private String mSectionVariable = "";
+	private String mRegExp = "";
+	private Pattern mRegExpPattern = null;
+	private String mIndexSearch = "";
 }
@@ -16,29 +16,68 @@
 
 package com.ibm.datapower.er.Analytics.Structure;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import com.ibm.datapower.er.FirmwareInputStream;
+import com.ibm.datapower.er.SectionCache;
+import com.ibm.datapower.er.Analytics.AnalyticsFunctions;
 import com.ibm.datapower.er.Analytics.Structure.ItemObject.OBJECT_TYPE;
 
+/**
+ * A formula of the rules file, read once by RulePlan and not changed after.
+ * Each run works on a copy of its own made with Formula(Formula, boolean),
+ * which takes the items a run adds such as ExpressionID.
+ */
 public class Formula extends ItemStructure {
+	/**
+	 * A URL element of the formula
+	 */
+	public static class Url {
+		Url(Element uElement) {
+			mDescription = AnalyticsFunctions.getAttributeByName(uElement, "description");
+			mFormulaIDMatch = AnalyticsFunctions.getAttributeByName(uElement, "FormulaIDMatch");
+			mURL = uElement.getTextContent();
+		}
+
+		private Url(String description, String formulaIDMatch, String url) {
+			mDescription = description;
+			mFormulaIDMatch = formulaIDMatch;
+			mURL = url;
+		}
+
+		public String getDescription() {
+			return mDescription;
+		}
+
+		public String getFormulaIDMatch() {
+			return mFormulaIDMatch;
+		}
+
+		public String getURL() {
+			return mURL;
+		}
+
+		private final String mDescription;
+		private final String mFormulaIDMatch;
+		private final String mURL;
+	}
 
-	public Formula(Element fElement, int id, boolean multiDocs) {
+	public Formula(Element fElement, int id) {
 		addItem("ID", id, OBJECT_TYPE.INTEGER);
 
-		addItem("Element", fElement, OBJECT_TYPE.ELEMENT);
 		// the header 'name' of the formula, this will require parsing of {
 		// } tag sections which denote XML sections we pull from
 		// expressions
 		// <Name>This is an error!</Name>
-
-		String dispName = FirmwareInputStream.getValueByTag("Name", fElement);
-		mMultiDocs = multiDocs;
-		if (multiDocs && dispName != null && dispName.length() > 0) {
-			addItem("Name", "{Condition:ReportFile} - " + dispName, OBJECT_TYPE.STRING);
-		} else {
-			addItem("Name", dispName, OBJECT_TYPE.STRING);
-		}
+		addItem("Name", FirmwareInputStream.getValueByTag("Name", fElement), OBJECT_TYPE.STRING);
 
 		// This is the description message which serves as a subnode to
 		// provide more detail of the error, it also requires parsing of { }
@@ -48,7 +87,9 @@ public class Formula extends ItemStructure {
 
 		// List of URLs the user can use to understand the problem better
 		// <URL description="Blah blah: " >http://somelink/</URL>
-		addItem("UrlNodes", fElement.getElementsByTagName("URL"), OBJECT_TYPE.NODELIST);
+		NodeList urlNodes = fElement.getElementsByTagName("URL");
+		for (int i = 0; i < urlNodes.getLength(); i++)
+			mUrls.add(new Url((Element) urlNodes.item(i)));
 
 		// If set to 'true' then we omit printing the conditions met by the
 		// formula
@@ -62,7 +103,9 @@ public class Formula extends ItemStructure {
 		// Expressions to match on, LogLevel: Critical, Error, Warning, Notice.
 		// NextOperation of And / Or.
 		// <Expression LogLevel="Severity" NextOperation="And|Or
-		addItem("Expression", fElement.getElementsByTagName("Expression"), OBJECT_TYPE.NODELIST);
+		NodeList expressionNodes = fElement.getElementsByTagName("Expression");
+		for (int i = 0; i < expressionNodes.getLength(); i++)
+			mExpressions.add(new Expression((Element) expressionNodes.item(i)));
 
 		// grab the collapse attribute and see if we want the result to be
 		// collapsed in HTML
@@ -107,6 +150,63 @@ public class Formula extends ItemStructure {
 																													// case
 	}
 
+	/**
+	 * Copy of a compiled formula for one run
+	 *
+	 * @param multiDocs true if the run reads more than one report, results are
+	 *                  then named after the report they came from
+	 */
+	public Formula(Formula formula, boolean multiDocs) {
+		super(formula);
+		mUrls = formula.mUrls;
+		mExpressions = formula.mExpressions;
+
+		String dispName = (String) formula.getItem("Name").getObject();
+		mMultiDocs = multiDocs;
+		if (multiDocs && dispName != null && dispName.length() > 0)
+			addItem("Name", "{Condition:ReportFile} - " + dispName, OBJECT_TYPE.STRING);
+	}
+
+	private Formula() {
+	}
+
+	/**
+	 * Write the compiled formula into a plan file, read back with read()
+	 */
+	void write(DataOutputStream out) throws IOException {
+		writeItems(out);
+		out.writeInt(mUrls.size());
+		for (Url url : mUrls) {
+			SectionCache.writeString(out, url.mDescription);
+			SectionCache.writeString(out, url.mFormulaIDMatch);
+			SectionCache.writeString(out, url.mURL);
+		}
+		out.writeInt(mExpressions.size());
+		for (Expression exp : mExpressions)
+			exp.write(out);
+	}
+
+	static Formula read(DataInputStream in) throws IOException {
+		Formula formula = new Formula();
+		formula.readItems(in);
+		int urls = in.readInt();
+		for (int i = 0; i < urls; i++)
+			formula.mUrls.add(new Url(RulePlan.readString(in), RulePlan.readString(in),
+					RulePlan.readString(in)));
+		int expressions = in.readInt();
+		for (int i = 0; i < expressions; i++)
+			formula.mExpressions.add(Expression.read(in));
+		return formula;
+	}
+
+	public List<Url> getUrls() {
+		return Collections.unmodifiableList(mUrls);
+	}
+
+	public List<Expression> getExpressions() {
+		return Collections.unmodifiableList(mExpressions);
+	}
+
 	public String getIdentifier() {
 		if (mIdent.length() > 0)
 			return mIdent;
@@ -131,6 +231,8 @@ public class Formula extends ItemStructure {
 		return shortFormulaName;
 	}
 
+	private ArrayList<Url> mUrls = new ArrayList<Url>();
+	private ArrayList<Expression> mExpressions = new ArrayList<Expression>();
 	private String mIdent = "";
 	public boolean mMultiDocs = false;
 }
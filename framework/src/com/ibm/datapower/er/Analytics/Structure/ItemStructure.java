@@ -16,9 +16,13 @@
 
 package com.ibm.datapower.er.Analytics.Structure;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.ibm.datapower.er.SectionCache;
 import com.ibm.datapower.er.Analytics.Structure.ItemObject.OBJECT_TYPE;
 
 public class ItemStructure {
@@ -27,6 +31,14 @@ public class ItemStructure {
 	{
 		
 	}
+
+	/**
+	 * Start with the items of structure, items added after are this one's own
+	 */
+	public ItemStructure(ItemStructure structure)
+	{
+		mItems.putAll(structure.mItems);
+	}
 	
 	public ItemObject getItem(String name)
 	{
@@ -40,7 +52,64 @@ public class ItemStructure {
 		ItemObject itmObj = new ItemObject(name,obj,type);
 		mItems.put(name, itmObj);
 	}
-	
-	
+
+	/**
+	 * Write the items, only string, boolean and integer items can be written
+	 */
+	void writeItems(DataOutputStream out) throws IOException
+	{
+		out.writeInt(mItems.size());
+		for (ItemObject item : mItems.values()) {
+			Object value = item.getObject();
+			SectionCache.writeString(out, item.getObjectName());
+			out.writeByte(item.getType().ordinal());
+			out.writeBoolean(value != null);
+			if (value == null)
+				continue;
+			switch (item.getType()) {
+			case STRING:
+				SectionCache.writeString(out, (String) value);
+				break;
+			case BOOLEAN:
+				out.writeBoolean((Boolean) value);
+				break;
+			case INTEGER:
+				out.writeInt((Integer) value);
+				break;
+			default:
+				throw new IOException("item " + item.getObjectName() + " of type " + item.getType() + " can not be written");
+			}
+		}
+	}
+
+	void readItems(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String name = RulePlan.readString(in);
+			int type = in.readByte();
+			if (type < 0 || type >= OBJECT_TYPE.values().length)
+				throw new IOException("item " + name + " of unknown type " + type);
+			OBJECT_TYPE objectType = OBJECT_TYPE.values()[type];
+			Object value = null;
+			if (in.readBoolean()) {
+				switch (objectType) {
+				case STRING:
+					value = RulePlan.readString(in);
+					break;
+				case BOOLEAN:
+					value = in.readBoolean();
+					break;
+				case INTEGER:
+					value = in.readInt();
+					break;
+				default:
+					throw new IOException("item " + name + " of type " + objectType + " can not be read");
+				}
+			}
+			addItem(name, value, objectType);
+		}
+	}
+
 	private Map<String, ItemObject> mItems = new HashMap<String, ItemObject>();
 }
@@ -0,0 +1,380 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics.Structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Text a regular expression can not match without. When the rules are compiled
+ * the literals each RegExp needs are taken from it, and all of them go into one
+ * Aho-Corasick automaton, so a section value is read once to know which
+ * patterns could match it. A pattern missing any of its literals does not have
+ * to be run over the value at all, the way IndexSearch skips a value.
+ *
+ * Only plain runs of characters outside groups and classes are taken; a
+ * pattern with | at the top, flags, \Q or a case-insensitive match has none.
+ */
+public class LiteralFilter {
+	/**
+	 * Note the literals regex needs, before the filter is used
+	 */
+	public void add(String regex) {
+		if (regex == null || mRequired.containsKey(regex))
+			return;
+
+		ArrayList<String> literals = getRequiredLiterals(regex);
+		if (literals.size() == 0)
+			return;
+
+		int[] ids = new int[literals.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Integer id = mLiteralIds.get(literals.get(i));
+			if (id == null) {
+				id = mLiterals.size();
+				mLiterals.add(literals.get(i));
+				mLiteralIds.put(literals.get(i), id);
+			}
+			ids[i] = id;
+		}
+		mRequired.put(regex, ids);
+	}
+
+	/**
+	 * @return literals regex needs, null if it has none
+	 */
+	public int[] getRequired(String regex) {
+		return mRequired.get(regex);
+	}
+
+	/**
+	 * @return number of literals the filter looks for
+	 */
+	public int size() {
+		return mLiterals.size();
+	}
+
+	/**
+	 * @return the literals found in text
+	 */
+	public BitSet scan(String text) {
+		Automaton automaton = getAutomaton();
+		BitSet found = new BitSet(mLiterals.size());
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			state = automaton.mNext[state * automaton.mWidth + (c < 128 ? automaton.mClass[c] : 0)];
+			int[] output = automaton.mOutput[state];
+			if (output != null) {
+				for (int o = 0; o < output.length; o++)
+					found.set(output[o]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return false if a text with found literals can not match a pattern that
+	 *         needs required
+	 */
+	public static boolean mayMatch(int[] required, BitSet found) {
+		for (int i = 0; i < required.length; i++) {
+			if (!found.get(required[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs of characters every match of regex holds, the regex is read as Pattern
+	 * reads it with no flags
+	 *
+	 * @return the literals, none if regex can not be read this way
+	 */
+	public static ArrayList<String> getRequiredLiterals(String regex) {
+		ArrayList<String> literals = new ArrayList<String>();
+		if (regex.indexOf("(?") >= 0 || regex.indexOf("\\Q") >= 0 || hasTopLevelAlternation(regex))
+			return literals;
+
+		StringBuilder run = new StringBuilder();
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			int next;
+			boolean literal = false;
+			char value = c;
+
+			if (c == '\\') {
+				if (i + 1 >= regex.length())
+					break;
+				char escaped = regex.charAt(i + 1);
+				// \d, \s, \x41, \p{..} and the like are not read any further
+				if (Character.isLetterOrDigit(escaped))
+					break;
+				literal = true;
+				value = escaped;
+				next = i + 2;
+			} else if (c == '[') {
+				next = skipClass(regex, i);
+			} else if (c == '(') {
+				next = skipGroup(regex, i);
+			} else if (c == '.' || c == '^' || c == '$') {
+				next = i + 1;
+			} else if (c == '?' || c == '*' || c == '+' || c == '{' || c == ')' || c == '|') {
+				// a quantifier here follows something that was not a literal
+				break;
+			} else {
+				literal = true;
+				next = i + 1;
+			}
+			if (next < 0)
+				break;
+
+			// what follows decides if the element is there at least once
+			int quantifierEnd = next;
+			boolean optional = false;
+			boolean repeated = false;
+			if (next < regex.length()) {
+				char q = regex.charAt(next);
+				if (q == '?' || q == '*') {
+					optional = true;
+					quantifierEnd = next + 1;
+				} else if (q == '+') {
+					repeated = true;
+					quantifierEnd = next + 1;
+				} else if (q == '{') {
+					int close = regex.indexOf('}', next);
+					if (close < 0)
+						break;
+					String bounds = regex.substring(next + 1, close);
+					int comma = bounds.indexOf(',');
+					String min = comma >= 0 ? bounds.substring(0, comma) : bounds;
+					try {
+						optional = Integer.parseInt(min.trim()) == 0;
+					} catch (NumberFormatException e) {
+						break;
+					}
+					repeated = !optional;
+					quantifierEnd = close + 1;
+				}
+				// lazy and possessive quantifiers
+				if (quantifierEnd > next && quantifierEnd < regex.length()
+						&& (regex.charAt(quantifierEnd) == '?' || regex.charAt(quantifierEnd) == '+'))
+					quantifierEnd++;
+			}
+
+			if (literal && !optional) {
+				run.append(value);
+				if (repeated)
+					addRun(literals, run);
+			} else
+				addRun(literals, run);
+			i = quantifierEnd;
+		}
+		addRun(literals, run);
+		return literals;
+	}
+
+	private static void addRun(ArrayList<String> literals, StringBuilder run) {
+		String literal = run.toString();
+		run.setLength(0);
+		if (literal.length() < MIN_LITERAL)
+			return;
+		for (int i = 0; i < literal.length(); i++) {
+			if (literal.charAt(i) >= 128)
+				return;
+		}
+		if (!literals.contains(literal))
+			literals.add(literal);
+	}
+
+	private static boolean hasTopLevelAlternation(String regex) {
+		int depth = 0;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[') {
+				i = skipClass(regex, i) - 1;
+				if (i < 0)
+					return true;
+			} else if (c == '(')
+				depth++;
+			else if (c == ')')
+				depth--;
+			else if (c == '|' && depth == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return position after the character class starting at start, -1 if it
+	 *         does not end
+	 */
+	private static int skipClass(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^')
+			i++;
+		// a ] first is part of the class
+		if (i < regex.length() && regex.charAt(i) == ']')
+			i++;
+		int depth = 1;
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[')
+				depth++;
+			else if (c == ']' && --depth == 0)
+				return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return position after the group starting at start, -1 if it does not end
+	 */
+	private static int skipGroup(String regex, int start) {
+		int depth = 0;
+		for (int i = start; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[') {
+				i = skipClass(regex, i) - 1;
+				if (i < 0)
+					return -1;
+			} else if (c == '(')
+				depth++;
+			else if (c == ')' && --depth == 0)
+				return i + 1;
+		}
+		return -1;
+	}
+
+	private Automaton getAutomaton() {
+		Automaton automaton = mAutomaton;
+		if (automaton == null) {
+			synchronized (this) {
+				if (mAutomaton == null)
+					mAutomaton = new Automaton(mLiterals);
+				automaton = mAutomaton;
+			}
+		}
+		return automaton;
+	}
+
+	/**
+	 * Aho-Corasick automaton of the literals, states with a row of next states
+	 * for each character the literals use, every other character is class 0.
+	 * Made again when a plan is loaded rather than written with it.
+	 */
+	private static class Automaton {
+		Automaton(ArrayList<String> literals) {
+			for (String literal : literals) {
+				for (int i = 0; i < literal.length(); i++) {
+					char c = literal.charAt(i);
+					if (mClass[c] == 0)
+						mClass[c] = mWidth++;
+				}
+			}
+
+			// the trie, -1 where it has no edge
+			ArrayList<int[]> edges = new ArrayList<int[]>();
+			ArrayList<ArrayList<Integer>> outputs = new ArrayList<ArrayList<Integer>>();
+			edges.add(newRow());
+			outputs.add(new ArrayList<Integer>());
+			for (int l = 0; l < literals.size(); l++) {
+				String literal = literals.get(l);
+				int state = 0;
+				for (int i = 0; i < literal.length(); i++) {
+					int cls = mClass[literal.charAt(i)];
+					if (edges.get(state)[cls] < 0) {
+						edges.get(state)[cls] = edges.size();
+						edges.add(newRow());
+						outputs.add(new ArrayList<Integer>());
+					}
+					state = edges.get(state)[cls];
+				}
+				outputs.get(state).add(l);
+			}
+
+			// breadth first, each state takes the edges and output of its fail state
+			int states = edges.size();
+			mNext = new int[states * mWidth];
+			int[] fail = new int[states];
+			LinkedList<Integer> queue = new LinkedList<Integer>();
+			for (int cls = 0; cls < mWidth; cls++) {
+				int child = edges.get(0)[cls];
+				if (child < 0 || cls == 0)
+					mNext[cls] = 0;
+				else {
+					mNext[cls] = child;
+					fail[child] = 0;
+					queue.add(child);
+				}
+			}
+			while (!queue.isEmpty()) {
+				int state = queue.removeFirst();
+				outputs.get(state).addAll(outputs.get(fail[state]));
+				for (int cls = 0; cls < mWidth; cls++) {
+					int child = edges.get(state)[cls];
+					if (child < 0 || cls == 0)
+						mNext[state * mWidth + cls] = mNext[fail[state] * mWidth + cls];
+					else {
+						mNext[state * mWidth + cls] = child;
+						fail[child] = mNext[fail[state] * mWidth + cls];
+						queue.add(child);
+					}
+				}
+			}
+
+			mOutput = new int[states][];
+			for (int s = 0; s < states; s++) {
+				ArrayList<Integer> output = outputs.get(s);
+				if (output.size() == 0)
+					continue;
+				mOutput[s] = new int[output.size()];
+				for (int o = 0; o < output.size(); o++)
+					mOutput[s][o] = output.get(o);
+			}
+		}
+
+		private int[] newRow() {
+			int[] row = new int[mWidth];
+			Arrays.fill(row, -1);
+			return row;
+		}
+
+		private final int[] mClass = new int[128];
+		private int mWidth = 1;
+		private int[] mNext;
+		private int[][] mOutput;
+	}
+
+	// literals shorter than this are found in most text
+	private static final int MIN_LITERAL = 3;
+
+	private final HashMap<String, int[]> mRequired = new HashMap<String, int[]>();
+	private final ArrayList<String> mLiterals = new ArrayList<String>();
+	private final HashMap<String, Integer> mLiteralIds = new HashMap<String, Integer>();
+	private volatile Automaton mAutomaton = null;
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics.Structure;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.SectionCache;
+import com.ibm.datapower.er.SectionIndexFile;
+import com.ibm.datapower.er.Analytics.ConditionField;
+
+/**
+ * The formulas of a rules file (Analytics.xml, postmortem.xml,
+ * AnalyticsLegacy.xml) read once into Formula, Expression and ConditionField
+ * objects that do not change while formulas run.
+ *
+ * A plan is written into the index cache directory, or with -indexcache report
+ * next to the rules file as [rules].erplan, keyed by the SHA-256 of the rules
+ * file. A run with the same rules loads the plan instead of parsing them. The
+ * plan file holds the attributes the objects are made from, the patterns and
+ * the literal filter are made again when it is read.
+ */
+public class RulePlan {
+	private RulePlan(String version) {
+		mVersion = version;
+	}
+
+	/**
+	 * The plan of a rules file, from its plan file if the rules did not change
+	 * since it was written
+	 */
+	public static RulePlan load(String filename) throws IOException, SAXException {
+		File rules = new File(filename);
+		byte[] content;
+		FileInputStream in = new FileInputStream(rules);
+		try {
+			content = IOUtils.toByteArray(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+
+		String cacheDir = ERFramework.getIndexCacheDir();
+		boolean usePlanFile = !ERFramework.INDEX_CACHE_NONE.equals(cacheDir);
+		byte[] hash = usePlanFile ? hash(content) : null;
+
+		if (hash != null) {
+			File[] candidates = { getPlanFile(rules, cacheDir, false), getPlanFile(rules, cacheDir, true) };
+			for (File candidate : candidates) {
+				if (candidate == null || !candidate.isFile())
+					continue;
+				RulePlan plan = read(candidate, hash);
+				if (plan != null) {
+					LogManager.getRootLogger().debug("RulePlan::load using " + candidate.getPath());
+					return plan;
+				}
+			}
+		}
+
+		RulePlan plan = compile(content);
+		if (plan != null && hash != null) {
+			if (!plan.save(getPlanFile(rules, cacheDir, false), hash))
+				plan.save(getPlanFile(rules, cacheDir, true), hash);
+		}
+		return plan;
+	}
+
+	/**
+	 * Read the formulas of a rules file
+	 *
+	 * @return the plan, null if no XML parser could be made
+	 */
+	public static RulePlan compile(byte[] content) throws IOException, SAXException {
+		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+		Document doc;
+		try {
+			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+			doc = dBuilder.parse(new ByteArrayInputStream(content));
+			doc.getDocumentElement().normalize();
+		} catch (ParserConfigurationException e) {
+			LogManager.getRootLogger()
+					.debug("RulePlan::compile DocBuilder loading xml failed with message: " + e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+
+		Element eElement = (Element) doc.getElementsByTagName("Analytics").item(0);
+		if (eElement == null)
+			return new RulePlan("Unknown");
+
+		RulePlan plan = new RulePlan(eElement.getAttribute("version"));
+
+		// the ID of a formula is its position among all the children, as
+		// results have always been numbered
+		NodeList children = eElement.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node formulaNode = children.item(i);
+			if (formulaNode.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+
+			plan.addFormula(new Formula((Element) formulaNode, i));
+		}
+
+		LogManager.getRootLogger().debug("RulePlan::compile " + plan.mFormulas.size() + " formulas, "
+				+ plan.mLiteralFilter.size() + " RegExp literals");
+		return plan;
+	}
+
+	public String getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * @return the formulas in the order of the rules file, shared by every run
+	 */
+	public List<Formula> getFormulas() {
+		return Collections.unmodifiableList(mFormulas);
+	}
+
+	/**
+	 * @return the literals the RegExp patterns of the formulas need
+	 */
+	public LiteralFilter getLiteralFilter() {
+		return mLiteralFilter;
+	}
+
+	private void addFormula(Formula formula) {
+		mFormulas.add(formula);
+
+		for (Expression exp : formula.getExpressions()) {
+			if (exp.getRegExpPattern() != null)
+				mLiteralFilter.add(exp.getRegExp());
+			for (ConditionField field : exp.getConditions()) {
+				if (field.getConditionPattern() != null)
+					mLiteralFilter.add(field.getConditionRegEXP());
+			}
+		}
+	}
+
+	/**
+	 * Write the plan, read back with read()
+	 */
+	void write(DataOutputStream out, byte[] hash) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(hash.length);
+		out.write(hash);
+		SectionCache.writeString(out, mVersion);
+		out.writeInt(mFormulas.size());
+		for (Formula formula : mFormulas)
+			formula.write(out);
+	}
+
+	/**
+	 * @return the plan, null if it was written for other rules or by another
+	 *         version
+	 */
+	static RulePlan read(DataInputStream in, byte[] hash) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != hash.length)
+			return null;
+		// nothing past the key is read for rules the plan was not written for
+		byte[] key = new byte[hash.length];
+		in.readFully(key);
+		if (!MessageDigest.isEqual(hash, key))
+			return null;
+
+		RulePlan plan = new RulePlan(readString(in));
+		int formulas = in.readInt();
+		for (int i = 0; i < formulas; i++)
+			plan.addFormula(Formula.read(in));
+		return plan;
+	}
+
+	/**
+	 * @return string written with SectionCache.writeString(), an empty one is
+	 *         the literal "" as the DOM gives for attributes not set, which the
+	 *         formulas compare with ==
+	 */
+	public static String readString(DataInputStream in) throws IOException {
+		String value = SectionCache.readString(in);
+		if (value != null && value.length() == 0)
+			return "";
+		return value;
+	}
+
+	private static RulePlan read(File file, byte[] hash) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return read(in, hash);
+		} catch (IOException e) {
+			// not written completely
+			LogManager.getRootLogger().debug("RulePlan::read ignoring unreadable plan " + file.getPath());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private boolean save(File target, byte[] hash) {
+		if (target == null)
+			return false;
+
+		File dir = target.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			return false;
+
+		// write to a temporary file of this run first and move it into place, a
+		// concurrent run never reads half a plan
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(target.getName(), ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			write(out, hash);
+			out.close();
+			out = null;
+			try {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			LogManager.getRootLogger().debug("RulePlan::save wrote " + target.getPath());
+			return true;
+		} catch (IOException e) {
+			LogManager.getRootLogger().debug("RulePlan::save unable to write " + target.getPath());
+			return false;
+		} finally {
+			IOUtils.closeQuietly(out);
+			if (temp != null)
+				temp.delete();
+		}
+	}
+
+	private static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	private static File getPlanFile(File rules, String cacheDir, boolean fallback) {
+		return SectionIndexFile.getCacheFile(rules, cacheDir, EXTENSION, fallback);
+	}
+
+	public static final String EXTENSION = ".erplan";
+
+	private static final int MAGIC = 0x45525250; // ERRP
+	private static final int VERSION = 4;
+
+	private final String mVersion;
+	private final ArrayList<Formula> mFormulas = new ArrayList<Formula>();
+	private final LiteralFilter mLiteralFilter = new LiteralFilter();
+}
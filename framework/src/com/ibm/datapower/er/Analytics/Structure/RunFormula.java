@@ -17,48 +17,52 @@
 package com.ibm.datapower.er.Analytics.Structure;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
-import org.w3c.dom.Element;
-
-import com.ibm.datapower.er.FirmwareInputStream;
 import com.ibm.datapower.er.Analytics.AnalyticsProcessor;
 import com.ibm.datapower.er.Analytics.ConditionField;
 import com.ibm.datapower.er.Analytics.ConditionsNode;
 import com.ibm.datapower.er.Analytics.DocumentSection;
-import com.ibm.datapower.er.Analytics.AnalyticsFunctions;
+import com.ibm.datapower.er.Analytics.FormulaProfile;
+import com.ibm.datapower.er.Analytics.RegEXPCache;
 
-public class RunFormula implements Callable {
+public class RunFormula implements Callable<RunFormula> {
 
 	public DocumentSection documentSet = null;
 	public ArrayList<ConditionsNode> condNodes;
 	public Formula formula;
 	public int cidSectionID;
-	public Element expElement;
+	public Expression expression;
 	public boolean expressionsMatched = false;
 	public boolean nextExpressionAnd = false;
 	public int formulaPos;
 	public AnalyticsProcessor mProc = null;
 	public int docID = 0;
 	public boolean anyExpressionsMatched = false;
-	public ArrayList<ConditionField> cFields = null;
+	public List<ConditionField> cFields = null;
 	public String xPathQuery = "";
 	public String isSectionVariable = "";
 	public boolean bIsSectionVariable = true;
 	public String regExp = "";
+	public Pattern regExpPattern = null; // regExp compiled with the rules
 	public String idxSearch = ""; // narrow down document by indexOf instead of regexp
 	public String requiredFile = ""; // narrow down document by indexOf instead of regexp
+	public HashMap<String, RegEXPCache> regExpCache = new HashMap<String, RegEXPCache>(); // matchers on the section by pattern
+	public FormulaProfile.Counters profile = null; // expression counters with -profile
 	
 	public RunFormula(AnalyticsProcessor proc, DocumentSection docSet,
 			int docPos, ArrayList<ConditionsNode> nodes, Formula formulaData,
-			int sectionID, Element ele, boolean expressionAnd, ArrayList<ConditionField> fields, String reqFile) {
+			int sectionID, Expression exp, boolean expressionAnd, List<ConditionField> fields, String reqFile) {
 		docID = docPos;
 		mProc = proc;
 		documentSet = docSet;
 		condNodes = nodes;
 		formula = formulaData;
 		cidSectionID = sectionID;
-		expElement = ele;
+		expression = exp;
 		nextExpressionAnd = expressionAnd;
 		formulaPos = (int) formula.getItem("ID").getObject();
 
@@ -71,15 +75,15 @@ public class RunFormula implements Callable {
 
 	public RunFormula(AnalyticsProcessor proc, DocumentSection docSet,
 			int docPos, ArrayList<ConditionsNode> nodes, Formula formulaData,
-			int sectionID, Element ele, boolean expressionAnd,
-			ArrayList<ConditionField> fields, boolean multicore) {
+			int sectionID, Expression exp, boolean expressionAnd,
+			List<ConditionField> fields, boolean multicore) {
 		docID = docPos;
 		mProc = proc;
 		documentSet = docSet;
 		condNodes = nodes;
 		formula = formulaData;
 		cidSectionID = sectionID;
-		expElement = ele;
+		expression = exp;
 		nextExpressionAnd = expressionAnd;
 		formulaPos = (int) formula.getItem("ID").getObject();
 		cFields = fields;
@@ -95,13 +99,11 @@ public class RunFormula implements Callable {
 	{
 		// this is the XPath expression of the value we are trying to extract to
 		// compare against our condition
-		xPathQuery = AnalyticsFunctions.getAttributeByTag("Section", "XPath", expElement,
-				cidSectionID);
+		xPathQuery = expression.getSection(cidSectionID).getXPath();
 
 		// if set to false then we don't use it for the Condition:SectionName
 		// variable in parsing the message
-		isSectionVariable = AnalyticsFunctions.getAttributeByTag("Section", "SectionName",
-				expElement, 0);
+		isSectionVariable = expression.getSectionVariable();
 
 		// this is kind of a reverse operand, if its false then we don't want to
 		// use it, otherwise we leave the old functionality/design of always
@@ -111,22 +113,36 @@ public class RunFormula implements Callable {
 
 		// This is the regular expression we use to break apart the value in
 		// the error report (from xPath)
-		regExp = FirmwareInputStream.getValueByTag("RegExp",
-				expElement);
+		regExp = expression.getRegExp();
+		regExpPattern = expression.getRegExpPattern();
 
 		// This is the regular expression we use to break apart the value in
 		// the error report (from xPath)
-		idxSearch = FirmwareInputStream.getValueByTag("IndexSearch",
-				expElement);
+		idxSearch = expression.getIndexSearch();
 	}
 
-	public Object call() {
+	public RunFormula call() {
 		run();
-		return (Object) this;
+		return this;
 	}
 
 	public void run() {
-		anyExpressionsMatched = mProc.handleRunFormula(this);
+		if (profile == null) {
+			anyExpressionsMatched = mProc.handleRunFormula(this);
+			return;
+		}
+
+		FormulaProfile.Counters previous = FormulaProfile.enter(profile);
+		long wallStart = System.nanoTime();
+		long cpuStart = FormulaProfile.cpuTime();
+		try {
+			anyExpressionsMatched = mProc.handleRunFormula(this);
+		} finally {
+			profile.addRunTime(wallStart, cpuStart);
+			FormulaProfile.leave(previous);
+		}
+		if (anyExpressionsMatched)
+			profile.add(FormulaProfile.Counter.MATCHES, 1);
 	}
 	
 	public Formula getFormula() {
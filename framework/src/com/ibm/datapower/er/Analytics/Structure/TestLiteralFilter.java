@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics.Structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class TestLiteralFilter extends TestCase {
+	String[] patterns = { "(?i)error code", "(?s)begin.*end", "\\Qa.b|c\\E", "\\Qstatus\\E: up",
+			"error|warning", "level (error|warning) found", "caf\u00e9 latte", "latte\\s+caf\u00e9", "ab.cd",
+			"x+yz", "colou?r value", "status: (\\w+) code ([0-9]+)", "[Ee]rror: (.*)", "tid\\((\\d+)\\)",
+			"memory{2,} low", "a{0}bcdef", "obj\\.name=\\S+", "^\\s*(\\S+) (up|down)$", "(?<name>\\w+) ready",
+			"retries \\d+ of \\d+", "[^|]+\\|latte" };
+
+	String[] fragments = { "error code", "ERROR CODE", "Error: ", "warning", "level error found", "begin",
+			"\nend", "a.b|c", "status: up", "status: ", "caf\u00e9 latte", "latte  caf\u00e9", "latte caf\u00e9",
+			"abxcd", "xxyz", "color value", "colour value", "code 42", "tid(123)", "memoryy low", "memory low",
+			"bcdef", "obj.name=x", "  obj up", "eth0 down", "node ready", "retries 3 of 5", "a|latte",
+			"\u20ac", "\u00e9", " ", "\n" };
+
+	/**
+	 * Patterns with flags, quoting, | at the top, or only literals that are
+	 * short or outside ASCII need no literals, so they are never skipped
+	 */
+	public void testRequiredLiterals() {
+		assertEquals(0, LiteralFilter.getRequiredLiterals("(?i)error code").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("(?s)begin.*end").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("\\Qstatus\\E: up").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("error|warning").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("caf\u00e9 latte").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("ab.cd").size());
+		assertEquals(0, LiteralFilter.getRequiredLiterals("a{0}bc").size());
+
+		assertEquals(Arrays.asList("level ", " found"),
+				LiteralFilter.getRequiredLiterals("level (error|warning) found"));
+		assertEquals(Arrays.asList("latte"), LiteralFilter.getRequiredLiterals("latte\\s+caf\u00e9"));
+		assertEquals(Arrays.asList("colo", "r value"), LiteralFilter.getRequiredLiterals("colou?r value"));
+		assertEquals(Arrays.asList("tid("), LiteralFilter.getRequiredLiterals("tid\\((\\d+)\\)"));
+
+		LiteralFilter filter = new LiteralFilter();
+		filter.add("(?i)error code");
+		filter.add("error|warning");
+		filter.add("ab.cd");
+		assertEquals(0, filter.size());
+		assertNull(filter.getRequired("(?i)error code"));
+	}
+
+	/**
+	 * A pattern skipped for a text does not find anything in it when run
+	 */
+	public void testPrefilteredMatchesUnfiltered() {
+		LiteralFilter filter = new LiteralFilter();
+		for (int p = 0; p < patterns.length; p++)
+			filter.add(patterns[p]);
+
+		int skipped = 0;
+		Random random = new Random(0);
+		for (int t = 0; t < 2000; t++) {
+			String text = buildText(random);
+			BitSet found = filter.scan(text);
+			for (int p = 0; p < patterns.length; p++) {
+				boolean matched = Pattern.compile(patterns[p]).matcher(text).find();
+				int[] required = filter.getRequired(patterns[p]);
+				if (required != null && !LiteralFilter.mayMatch(required, found)) {
+					assertFalse(patterns[p] + " skipped over \"" + text + "\"", matched);
+					skipped++;
+				}
+			}
+		}
+		assertTrue(skipped > 0);
+	}
+
+	/**
+	 * The literals scan finds are the ones indexOf finds, with text and
+	 * literals outside ASCII
+	 */
+	public void testScanMatchesIndexOf() {
+		LiteralFilter filter = new LiteralFilter();
+		for (int p = 0; p < patterns.length; p++)
+			filter.add(patterns[p]);
+		ArrayList<String> literals = new ArrayList<String>();
+		for (int p = 0; p < patterns.length; p++) {
+			for (String literal : LiteralFilter.getRequiredLiterals(patterns[p])) {
+				if (!literals.contains(literal))
+					literals.add(literal);
+			}
+		}
+		assertEquals(literals.size(), filter.size());
+
+		Random random = new Random(1);
+		for (int t = 0; t < 500; t++) {
+			String text = buildText(random);
+			BitSet found = filter.scan(text);
+			for (int p = 0; p < patterns.length; p++) {
+				int[] required = filter.getRequired(patterns[p]);
+				if (required == null)
+					continue;
+				ArrayList<String> needed = LiteralFilter.getRequiredLiterals(patterns[p]);
+				for (int r = 0; r < required.length; r++)
+					assertEquals(needed.get(r) + " in \"" + text + "\"", text.indexOf(needed.get(r)) >= 0,
+							found.get(required[r]));
+			}
+		}
+	}
+
+	private String buildText(Random random) {
+		StringBuilder text = new StringBuilder();
+		int count = random.nextInt(6);
+		for (int f = 0; f < count; f++) {
+			String fragment = fragments[random.nextInt(fragments.length)];
+			// a fragment cut short leaves part of a literal
+			if (random.nextInt(4) == 0)
+				fragment = fragment.substring(0, random.nextInt(fragment.length() + 1));
+			text.append(fragment);
+		}
+		return text.toString();
+	}
+}
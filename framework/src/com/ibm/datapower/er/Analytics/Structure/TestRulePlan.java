@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics.Structure;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.ibm.datapower.er.Analytics.ConditionField;
+
+import junit.framework.TestCase;
+
+public class TestRulePlan extends TestCase {
+	String[] rules = { "Analytics.xml", "postmortem.xml", "AnalyticsLegacy.xml" };
+
+	/**
+	 * A plan read from its file is the plan compiled from the rules
+	 */
+	public void testRoundTrip() throws Exception {
+		for (int r = 0; r < rules.length; r++) {
+			byte[] content = FileUtils.readFileToByteArray(new File(rules[r]));
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+			RulePlan compiled = RulePlan.compile(content);
+			byte[] written = write(compiled, hash);
+
+			RulePlan loaded = RulePlan.read(new DataInputStream(new ByteArrayInputStream(written)), hash);
+			assertNotNull(rules[r], loaded);
+			assertSamePlan(rules[r], compiled, loaded);
+			assertTrue(rules[r], Arrays.equals(written, write(loaded, hash)));
+		}
+	}
+
+	public void testOtherRulesNotRead() throws Exception {
+		byte[] content = FileUtils.readFileToByteArray(new File(rules[0]));
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+		byte[] written = write(RulePlan.compile(content), hash);
+
+		byte[] other = hash.clone();
+		other[other.length - 1] ^= 1;
+		assertNull(RulePlan.read(new DataInputStream(new ByteArrayInputStream(written)), other));
+
+		// only the key is read, what follows it may be anything
+		byte[] key = Arrays.copyOf(written, 12 + hash.length);
+		byte[] garbage = Arrays.copyOf(key, key.length + 64);
+		Arrays.fill(garbage, key.length, garbage.length, (byte) 0xff);
+		assertNull(RulePlan.read(new DataInputStream(new ByteArrayInputStream(garbage)), other));
+	}
+
+	private static byte[] write(RulePlan plan, byte[] hash) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		plan.write(data, hash);
+		data.flush();
+		return out.toByteArray();
+	}
+
+	private static void assertSamePlan(String at, RulePlan expected, RulePlan actual) {
+		assertEquals(at, expected.getVersion(), actual.getVersion());
+		assertEquals(at, expected.getLiteralFilter().size(), actual.getLiteralFilter().size());
+		List<Formula> formulas = expected.getFormulas();
+		assertEquals(at, formulas.size(), actual.getFormulas().size());
+		for (int f = 0; f < formulas.size(); f++) {
+			Formula formula = formulas.get(f);
+			Formula other = actual.getFormulas().get(f);
+			assertEquals(at, formula.getIdentifier(), other.getIdentifier());
+			assertEquals(at, formula.getItem("ID").getObject(), other.getItem("ID").getObject());
+			assertEquals(at, formula.getUrls().size(), other.getUrls().size());
+			for (int u = 0; u < formula.getUrls().size(); u++) {
+				assertEquals(at, formula.getUrls().get(u).getURL(), other.getUrls().get(u).getURL());
+				assertEquals(at, formula.getUrls().get(u).getDescription(), other.getUrls().get(u).getDescription());
+			}
+
+			List<Expression> expressions = formula.getExpressions();
+			assertEquals(at, expressions.size(), other.getExpressions().size());
+			for (int e = 0; e < expressions.size(); e++)
+				assertSameExpression(at, expected.getLiteralFilter(), expressions.get(e), actual.getLiteralFilter(),
+						other.getExpressions().get(e));
+		}
+	}
+
+	private static void assertSameExpression(String at, LiteralFilter filter, Expression expected,
+			LiteralFilter otherFilter, Expression actual) {
+		assertEquals(at, expected.getRegExp(), actual.getRegExp());
+		assertEquals(at, expected.getRegExpPattern() == null, actual.getRegExpPattern() == null);
+		assertTrue(at, Arrays.equals(filter.getRequired(expected.getRegExp()),
+				otherFilter.getRequired(actual.getRegExp())));
+		assertEquals(at, expected.getIndexSearch(), actual.getIndexSearch());
+		assertEquals(at, expected.getSectionVariable(), actual.getSectionVariable());
+		for (int s = 0; s < 3; s++) {
+			assertEquals(at, expected.getSection(s).getName(), actual.getSection(s).getName());
+			assertEquals(at, expected.getSection(s).getXPath(), actual.getSection(s).getXPath());
+			assertEquals(at, expected.getSection(s).getReadNextSection(), actual.getSection(s).getReadNextSection());
+		}
+		assertEquals(at, expected.getItem("CIDSectionName").getObject(), actual.getItem("CIDSectionName").getObject());
+		assertEquals(at, expected.getItem("NextOperationAnd").getObject(),
+				actual.getItem("NextOperationAnd").getObject());
+		// formulas compare FormulaIDMatch with the literal ""
+		assertEquals(at, expected.getItem("FormulaIDMatch").getObject() == "",
+				actual.getItem("FormulaIDMatch").getObject() == "");
+
+		List<ConditionField> conditions = expected.getConditions();
+		assertEquals(at, conditions.size(), actual.getConditions().size());
+		for (int c = 0; c < conditions.size(); c++) {
+			ConditionField field = conditions.get(c);
+			ConditionField other = actual.getConditions().get(c);
+			assertEquals(at, field.getConditionName(), other.getConditionName());
+			assertEquals(at, field.getParsedFieldValue(), other.getParsedFieldValue());
+			assertEquals(at, field.isParsedFieldValue(), other.isParsedFieldValue());
+			assertEquals(at, field.getRegGroupType(), other.getRegGroupType());
+			assertEquals(at, field.getOperationLwr(), other.getOperationLwr());
+			assertEquals(at, field.getValue(), other.getValue());
+			assertEquals(at, field.getConditionPattern() == null, other.getConditionPattern() == null);
+			assertEquals(at, field.getConditionOperAnd(), other.getConditionOperAnd());
+			assertEquals(at, field.getConversionType(), other.getConversionType());
+			assertEquals(at, field.getOverrideValue(), other.getOverrideValue());
+			assertEquals(at, field.getMappedTablePosition(), other.getMappedTablePosition());
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.ibm.datapower.er.Analytics.Structure.Expression;
+import com.ibm.datapower.er.Analytics.Structure.Formula;
+import com.ibm.datapower.er.Analytics.Structure.RulePlan;
+
+import junit.framework.TestCase;
+
+public class TestFormulaGraph extends TestCase {
+	String rules = "<Analytics version=\"1\">"
+			// 0: pulls a section only once zz matched, a barrier that is not a sure pull
+			+ "<Formula FormulaIDMatch=\"zz\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			// 1: no section
+			+ "<Formula FormulaID=\"n\"><Name>N</Name></Formula>"
+			// 2: the first sure pull, the last barrier of the first pull
+			+ "<Formula FormulaID=\"a\"><Expression><Section Name=\"ErrorReport\"/></Expression></Formula>"
+			+ "<Formula FormulaID=\"b\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula FormulaIDMatch=\"a\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula FormulaIDMatch=\"!b\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			// 6: replaces files, a barrier
+			+ "<Formula><Expression><Section Name=\"S\" MIME=\"true\"/></Expression></Formula>"
+			+ "<Formula FormulaID=\"b\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula><URL FormulaIDMatch=\"b\">http://u/</URL><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula><Expression FormulaIDMatch=\"n\"><Section Name=\"S\"/></Expression></Formula>"
+			+ "</Analytics>";
+
+	int[][] expected = { {}, { 0 }, { 0, 1 }, { 2 }, { 2 }, { 2, 3 }, { 2, 3, 4, 5 }, { 6 }, { 3, 6, 7 }, { 1, 6 } };
+
+	public void testDependencies() throws Exception {
+		FormulaGraph graph = new FormulaGraph(RulePlan.compile(rules.getBytes("UTF-8")).getFormulas(), false);
+		assertEquals(expected.length, graph.size());
+		int edges = 0;
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue("formula " + i + ": " + Arrays.toString(graph.getDependencies(i)),
+					Arrays.equals(expected[i], graph.getDependencies(i)));
+			edges += expected[i].length;
+		}
+		assertEquals(edges, graph.getEdgeCount());
+	}
+
+	String pullAll = "<Analytics version=\"1\">"
+			// 0: writes out the sections it walks past, a barrier
+			+ "<Formula><Expression><Section Name=\"A\"/></Expression></Formula>"
+			+ "<Formula FormulaID=\"n\"><Name>N</Name></Formula>"
+			// 2: the first sure wildcard pull ends the pass
+			+ "<Formula><Expression><Section Name=\".cfg\" Wildcard=\"True\"/></Expression></Formula>"
+			+ "<Formula><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "<Formula FormulaIDMatch=\"n\"><Expression><Section Name=\"S\"/></Expression></Formula>"
+			+ "</Analytics>";
+
+	/**
+	 * With retrieveAllFiles the pulls up to the first sure wildcard pull run in
+	 * order, the formulas after it only wait for it
+	 */
+	public void testRetrieveAllFiles() throws Exception {
+		List<Formula> formulas = RulePlan.compile(pullAll.getBytes("UTF-8")).getFormulas();
+		int[][] pass = { {}, { 0 }, { 0, 1 }, { 2 }, { 2 }, { 1, 2 } };
+		FormulaGraph graph = new FormulaGraph(formulas, true);
+		for (int i = 0; i < pass.length; i++)
+			assertTrue("formula " + i + ": " + Arrays.toString(graph.getDependencies(i)),
+					Arrays.equals(pass[i], graph.getDependencies(i)));
+		assertEquals(4, graph.getDepth());
+
+		int[][] firstPull = { {}, { 0 }, { 0 }, { 0 }, { 0 }, { 0, 1 } };
+		graph = new FormulaGraph(formulas, false);
+		for (int i = 0; i < firstPull.length; i++)
+			assertTrue("formula " + i + ": " + Arrays.toString(graph.getDependencies(i)),
+					Arrays.equals(firstPull[i], graph.getDependencies(i)));
+		assertEquals(3, graph.getDepth());
+	}
+
+	/**
+	 * The pass of the rules shipped ends early enough for most formulas to run
+	 * alongside others with retrieveAllFiles
+	 */
+	public void testShippedRulesParallel() throws Exception {
+		List<Formula> formulas = RulePlan.compile(FileUtils.readFileToByteArray(new File("Analytics.xml")))
+				.getFormulas();
+		FormulaGraph graph = new FormulaGraph(formulas, true);
+		assertTrue(graph.getDepth() + " of " + graph.size(), graph.getDepth() * 2 < graph.size());
+	}
+
+	/**
+	 * With the rules shipped, a formula waits for every earlier formula whose
+	 * results it looks at, and for the last formula replacing files before it
+	 */
+	public void testShippedRules() throws Exception {
+		String[] files = { "Analytics.xml", "postmortem.xml", "AnalyticsLegacy.xml" };
+		for (int r = 0; r < files.length * 2; r++) {
+			List<Formula> formulas = RulePlan.compile(FileUtils.readFileToByteArray(new File(files[r / 2])))
+					.getFormulas();
+			FormulaGraph graph = new FormulaGraph(formulas, r % 2 == 1);
+			BitSet[] before = getReachable(graph);
+
+			int lastMime = -1;
+			for (int i = 0; i < formulas.size(); i++) {
+				int[] dependencies = graph.getDependencies(i);
+				for (int d = 0; d < dependencies.length; d++) {
+					assertTrue(dependencies[d] < i);
+					if (d > 0)
+						assertTrue(dependencies[d - 1] < dependencies[d]);
+				}
+				if (lastMime >= 0)
+					assertTrue(files[r / 2] + " formula " + i, before[i].get(lastMime));
+				for (int j = 0; j < i; j++) {
+					String formulaID = (String) formulas.get(j).getItem("FormulaID").getObject();
+					if (formulaID.length() > 0 && matches(formulas.get(i), formulaID))
+						assertTrue(files[r / 2] + " formula " + i + " on " + j, before[i].get(j));
+				}
+				if (hasMime(formulas.get(i))) {
+					assertEquals(files[r / 2] + " formula " + i, i, before[i].cardinality());
+					lastMime = i;
+				}
+			}
+		}
+	}
+
+	// formulas each formula waits for, directly or through others
+	private static BitSet[] getReachable(FormulaGraph graph) {
+		BitSet[] reachable = new BitSet[graph.size()];
+		for (int i = 0; i < graph.size(); i++) {
+			reachable[i] = new BitSet();
+			for (int dependency : graph.getDependencies(i)) {
+				reachable[i].set(dependency);
+				reachable[i].or(reachable[dependency]);
+			}
+		}
+		return reachable;
+	}
+
+	private static boolean matches(Formula formula, String formulaID) {
+		if (matches((String) formula.getItem("FormulaIDMatch").getObject(), formulaID))
+			return true;
+		for (Expression exp : formula.getExpressions()) {
+			if (matches((String) exp.getItem("FormulaIDMatch").getObject(), formulaID))
+				return true;
+		}
+		for (Formula.Url url : formula.getUrls()) {
+			if (matches(url.getFormulaIDMatch(), formulaID))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean matches(String match, String formulaID) {
+		return match != null && (match.equals(formulaID) || match.equals("!" + formulaID));
+	}
+
+	private static boolean hasMime(Formula formula) {
+		for (Expression exp : formula.getExpressions()) {
+			if ((boolean) exp.getItem("SectionMIME").getObject())
+				return true;
+		}
+		return false;
+	}
+}
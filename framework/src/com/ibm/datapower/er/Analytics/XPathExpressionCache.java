@@ -0,0 +1,118 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er.Analytics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Compiled XPath queries kept for the whole process, so every formula and every
+ * report of a run compiles a query once.
+ *
+ * An XPathExpression can only be used by one thread at a time, so a query is
+ * taken with acquire() and given back with release() when its evaluation is
+ * done; a thread that finds every compiled copy in use compiles another one.
+ * A query that does not compile throws the same exception each time.
+ * Each thread compiles with an XPath of its own.
+ */
+public class XPathExpressionCache {
+	private XPathExpressionCache() {
+	}
+
+	/**
+	 * @return the query compiled, to give back with release() once evaluated
+	 * @throws XPathExpressionException if the query does not compile
+	 */
+	public static XPathExpression acquire(String query) throws XPathExpressionException {
+		ConcurrentLinkedQueue<XPathExpression> idle = mIdle.get(query);
+		if (idle != null) {
+			XPathExpression expr = idle.poll();
+			if (expr != null) {
+				mHits.incrementAndGet();
+				return expr;
+			}
+		}
+
+		// queries that do not compile are not compiled again, formulas hand
+		// getNodeValue() group positions as well as XPaths
+		XPathExpressionException invalid = mInvalid.get(query);
+		if (invalid != null) {
+			mHits.incrementAndGet();
+			throw invalid;
+		}
+
+		mMisses.incrementAndGet();
+		try {
+			return getXPath().compile(query);
+		} catch (XPathExpressionException e) {
+			mInvalid.put(query, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Give back an expression acquire() returned for query
+	 */
+	public static void release(String query, XPathExpression expr) {
+		if (expr == null)
+			return;
+
+		ConcurrentLinkedQueue<XPathExpression> idle = mIdle.get(query);
+		if (idle == null) {
+			ConcurrentLinkedQueue<XPathExpression> created = new ConcurrentLinkedQueue<XPathExpression>();
+			idle = mIdle.putIfAbsent(query, created);
+			if (idle == null)
+				idle = created;
+		}
+		idle.add(expr);
+	}
+
+	/**
+	 * @return the XPath of the calling thread, an XPath can only be used by one
+	 *         thread at a time
+	 */
+	public static XPath getXPath() {
+		return XPATH.get();
+	}
+
+	public static String getStatistics() {
+		long hits = mHits.get();
+		long misses = mMisses.get();
+		long total = hits + misses;
+		return "queries: " + (mIdle.size() + mInvalid.size()) + ", hits: " + hits + ", compiled: " + misses + ", hit rate: "
+				+ (total > 0 ? (hits * 100 / total) + "%" : "none");
+	}
+
+	// finding an XPathFactory is slow, each thread keeps an XPath to compile with
+	private static final ThreadLocal<XPath> XPATH = new ThreadLocal<XPath>() {
+		@Override
+		protected XPath initialValue() {
+			return XPathFactory.newInstance().newXPath();
+		}
+	};
+
+	private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<XPathExpression>> mIdle = new ConcurrentHashMap<String, ConcurrentLinkedQueue<XPathExpression>>();
+	private static final ConcurrentHashMap<String, XPathExpressionException> mInvalid = new ConcurrentHashMap<String, XPathExpressionException>();
+	private static final AtomicLong mHits = new AtomicLong();
+	private static final AtomicLong mMisses = new AtomicLong();
+}
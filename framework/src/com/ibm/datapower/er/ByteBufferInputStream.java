@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream view of a ByteBuffer, used to read sections out of a mapped
+ * spill file without copying them onto the heap. The buffer passed in is
+ * duplicated so the caller's position is left alone.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private ByteBuffer mBuffer;
+	private int mMark = 0;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		mBuffer = buffer.duplicate();
+		mMark = mBuffer.position();
+	}
+
+	@Override
+	public int read() {
+		if (!mBuffer.hasRemaining())
+			return -1;
+		return mBuffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!mBuffer.hasRemaining())
+			return -1;
+		if (len > mBuffer.remaining())
+			len = mBuffer.remaining();
+		mBuffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+		if (n > mBuffer.remaining())
+			n = mBuffer.remaining();
+		mBuffer.position(mBuffer.position() + (int) n);
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return mBuffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mMark = mBuffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		mBuffer.position(mMark);
+	}
+}
@@ -0,0 +1,663 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Read-only DOM of a report section held in a few arrays instead of one object
+ * per node. Nodes are numbered in document order, the document itself is node
+ * 0, and each node has a type, a name from a shared name table, its parent,
+ * first child and next sibling, and for text, comments and processing
+ * instructions a range of one string holding all the character data of the
+ * section. Elements use the range for their attributes instead, which are kept
+ * in arrays of their own.
+ *
+ * The tree is the one DocumentBuilder builds with ERFramework's settings:
+ * adjacent text is merged, CDATA sections and comments are kept, attributes
+ * are sorted by name and nothing is namespace aware. That is all the Analytics
+ * XPath evaluation and the section serialization look at.
+ *
+ * XPath tells nodes apart by identity, so a node object is created the first
+ * time it is asked for and the same object is returned while it is in use. The
+ * node objects are only weakly held by the document, once none of them is
+ * referenced anymore they are dropped and the section is back to its arrays.
+ */
+public class CompactDocument extends CompactNode implements Document {
+	/**
+	 * Node objects handed out for a document, reachable from each of them
+	 */
+	private static class Materialized {
+		Materialized(int nodes, int attrs) {
+			mNodeObjects = new CompactNode[nodes];
+			mAttrObjects = new CompactNode[attrs];
+		}
+
+		CompactNode[] mNodeObjects;
+		CompactNode[] mAttrObjects;
+	}
+
+	private CompactDocument() {
+		super(null, null, 0);
+		mDoc = this;
+	}
+
+	/**
+	 * Parse a section
+	 *
+	 * @param in character stream of the section
+	 */
+	public static CompactDocument parse(Reader in) throws IOException, SAXException, ParserConfigurationException {
+		return parse(in, System.err);
+	}
+
+	/**
+	 * Parse a section
+	 *
+	 * @param in     character stream of the section
+	 * @param errors stream parse problems are reported to
+	 */
+	public static CompactDocument parse(Reader in, PrintStream errors)
+			throws IOException, SAXException, ParserConfigurationException {
+		CompactDocument doc = new CompactDocument();
+		BufferedReader reader = new BufferedReader(in);
+		doc.readDeclaration(reader);
+
+		Builder builder = new Builder(doc, new ParseErrorHandler(errors));
+		SAXParser parser = mParserFactory.newSAXParser();
+		parser.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+		parser.parse(new InputSource(reader), builder);
+		builder.finish();
+		return doc;
+	}
+
+	/**
+	 * Pick up the version, encoding and standalone values of the XML
+	 * declaration, which the SAX events do not carry. The serializer writes
+	 * them back out.
+	 */
+	private void readDeclaration(BufferedReader reader) throws IOException {
+		char[] head = new char[DECLARATION_LIMIT];
+		reader.mark(head.length);
+		int len = 0;
+		int read;
+		while (len < head.length && (read = reader.read(head, len, head.length - len)) != -1)
+			len += read;
+		reader.reset();
+
+		Matcher matcher = DECLARATION.matcher(new String(head, 0, len));
+		if (matcher.lookingAt()) {
+			mXmlVersion = matcher.group(2);
+			mXmlEncoding = matcher.group(4);
+			mXmlStandalone = "yes".equals(matcher.group(6));
+		}
+	}
+
+	/**
+	 * @return node object for a node number, null for -1
+	 */
+	synchronized CompactNode node(int index) {
+		if (index <= 0)
+			return index == 0 ? this : null;
+
+		Materialized materialized = materialized();
+		CompactNode node = materialized.mNodeObjects[index];
+		if (node == null) {
+			switch (mTypes[index]) {
+			case ELEMENT_NODE:
+				node = new CompactElement(this, materialized, index);
+				break;
+			case TEXT_NODE:
+				node = new CompactText(this, materialized, index);
+				break;
+			case CDATA_SECTION_NODE:
+				node = new CompactCDATASection(this, materialized, index);
+				break;
+			case COMMENT_NODE:
+				node = new CompactComment(this, materialized, index);
+				break;
+			default:
+				node = new CompactProcessingInstruction(this, materialized, index);
+				break;
+			}
+			materialized.mNodeObjects[index] = node;
+		}
+		return node;
+	}
+
+	/**
+	 * @return attribute object for an attribute number, null for -1
+	 */
+	synchronized CompactAttr attr(int index) {
+		if (index < 0)
+			return null;
+
+		Materialized materialized = materialized();
+		CompactNode attr = materialized.mAttrObjects[index];
+		if (attr == null) {
+			attr = new CompactAttr(this, materialized, index);
+			materialized.mAttrObjects[index] = attr;
+		}
+		return (CompactAttr) attr;
+	}
+
+	private Materialized materialized() {
+		Materialized materialized = mMaterialized == null ? null : mMaterialized.get();
+		if (materialized == null) {
+			materialized = new Materialized(mCount, mAttrCount);
+			mMaterialized = new WeakReference<Materialized>(materialized);
+		}
+		return materialized;
+	}
+
+	String text(int index) {
+		return mText.substring(mStarts[index], mEnds[index]);
+	}
+
+	String attrText(int index) {
+		return mText.substring(mAttrStarts[index], mAttrEnds[index]);
+	}
+
+	/**
+	 * @return position of a name in the name table, -1 if no node has it
+	 */
+	int nameIndex(String name) {
+		for (int i = 0; i < mNameTable.length; i++) {
+			if (mNameTable[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of nodes, not counting attributes
+	 */
+	public int getNodeCount() {
+		return mCount;
+	}
+
+	public short getNodeType() {
+		return DOCUMENT_NODE;
+	}
+
+	public String getNodeName() {
+		return "#document";
+	}
+
+	public String getNodeValue() {
+		return null;
+	}
+
+	public String getTextContent() {
+		return null;
+	}
+
+	public Node getParentNode() {
+		return null;
+	}
+
+	public Node getPreviousSibling() {
+		return null;
+	}
+
+	public Node getNextSibling() {
+		return null;
+	}
+
+	public Document getOwnerDocument() {
+		return null;
+	}
+
+	public DocumentType getDoctype() {
+		return null;
+	}
+
+	public DOMImplementation getImplementation() {
+		return scratch().getImplementation();
+	}
+
+	public Element getDocumentElement() {
+		for (int child = mFirstChildren[0]; child != -1; child = mNextSiblings[child]) {
+			if (mTypes[child] == ELEMENT_NODE)
+				return (Element) node(child);
+		}
+		return null;
+	}
+
+	public NodeList getElementsByTagName(String tagname) {
+		return CompactNode.getElementsByTagName(this, 0, tagname);
+	}
+
+	public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+		throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "CompactDocument is not namespace aware");
+	}
+
+	public Element getElementById(String elementId) {
+		throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "CompactDocument has no ID attributes");
+	}
+
+	/**
+	 * Nodes created from a read-only document do not belong to it, they come
+	 * from a scratch document and stay detached
+	 */
+	private synchronized Document scratch() {
+		if (mScratch == null) {
+			try {
+				mScratch = ERFramework.mDocBuilderFactory.newDocumentBuilder().newDocument();
+			} catch (ParserConfigurationException e) {
+				throw new DOMException(DOMException.NOT_SUPPORTED_ERR, e.toString());
+			}
+		}
+		return mScratch;
+	}
+
+	public Element createElement(String tagName) throws DOMException {
+		return scratch().createElement(tagName);
+	}
+
+	public DocumentFragment createDocumentFragment() {
+		return scratch().createDocumentFragment();
+	}
+
+	public Text createTextNode(String data) {
+		return scratch().createTextNode(data);
+	}
+
+	public Comment createComment(String data) {
+		return scratch().createComment(data);
+	}
+
+	public CDATASection createCDATASection(String data) throws DOMException {
+		return scratch().createCDATASection(data);
+	}
+
+	public ProcessingInstruction createProcessingInstruction(String target, String data) throws DOMException {
+		return scratch().createProcessingInstruction(target, data);
+	}
+
+	public Attr createAttribute(String name) throws DOMException {
+		return scratch().createAttribute(name);
+	}
+
+	public EntityReference createEntityReference(String name) throws DOMException {
+		return scratch().createEntityReference(name);
+	}
+
+	public Node importNode(Node importedNode, boolean deep) throws DOMException {
+		return scratch().importNode(importedNode, deep);
+	}
+
+	public Element createElementNS(String namespaceURI, String qualifiedName) throws DOMException {
+		return scratch().createElementNS(namespaceURI, qualifiedName);
+	}
+
+	public Attr createAttributeNS(String namespaceURI, String qualifiedName) throws DOMException {
+		return scratch().createAttributeNS(namespaceURI, qualifiedName);
+	}
+
+	public String getInputEncoding() {
+		return null;
+	}
+
+	public String getXmlEncoding() {
+		return mXmlEncoding;
+	}
+
+	public boolean getXmlStandalone() {
+		return mXmlStandalone;
+	}
+
+	public void setXmlStandalone(boolean xmlStandalone) throws DOMException {
+		throw readOnly();
+	}
+
+	public String getXmlVersion() {
+		return mXmlVersion;
+	}
+
+	public void setXmlVersion(String xmlVersion) throws DOMException {
+		throw readOnly();
+	}
+
+	public boolean getStrictErrorChecking() {
+		return true;
+	}
+
+	public void setStrictErrorChecking(boolean strictErrorChecking) {
+	}
+
+	public String getDocumentURI() {
+		return null;
+	}
+
+	public void setDocumentURI(String documentURI) {
+		throw readOnly();
+	}
+
+	public Node adoptNode(Node source) throws DOMException {
+		throw readOnly();
+	}
+
+	public DOMConfiguration getDomConfig() {
+		return scratch().getDomConfig();
+	}
+
+	public void normalizeDocument() {
+	}
+
+	public Node renameNode(Node n, String namespaceURI, String qualifiedName) throws DOMException {
+		throw readOnly();
+	}
+
+	/**
+	 * Fills in the arrays from SAX events
+	 */
+	private static class Builder extends DefaultHandler implements LexicalHandler {
+		Builder(CompactDocument doc, ParseErrorHandler errors) {
+			mDoc = doc;
+			mErrors = errors;
+			doc.mTypes = new byte[INITIAL_NODES];
+			doc.mNames = new int[INITIAL_NODES];
+			doc.mParents = new int[INITIAL_NODES];
+			doc.mFirstChildren = new int[INITIAL_NODES];
+			doc.mNextSiblings = new int[INITIAL_NODES];
+			doc.mStarts = new int[INITIAL_NODES];
+			doc.mEnds = new int[INITIAL_NODES];
+			doc.mAttrNames = new int[INITIAL_NODES];
+			doc.mAttrOwners = new int[INITIAL_NODES];
+			doc.mAttrStarts = new int[INITIAL_NODES];
+			doc.mAttrEnds = new int[INITIAL_NODES];
+
+			doc.mTypes[0] = DOCUMENT_NODE;
+			doc.mParents[0] = -1;
+			doc.mFirstChildren[0] = -1;
+			doc.mNextSiblings[0] = -1;
+			doc.mCount = 1;
+			mLastChild[0] = -1;
+		}
+
+		private int addNode(short type, int name) {
+			CompactDocument doc = mDoc;
+			if (doc.mCount == doc.mTypes.length) {
+				int size = doc.mCount * 2;
+				doc.mTypes = Arrays.copyOf(doc.mTypes, size);
+				doc.mNames = Arrays.copyOf(doc.mNames, size);
+				doc.mParents = Arrays.copyOf(doc.mParents, size);
+				doc.mFirstChildren = Arrays.copyOf(doc.mFirstChildren, size);
+				doc.mNextSiblings = Arrays.copyOf(doc.mNextSiblings, size);
+				doc.mStarts = Arrays.copyOf(doc.mStarts, size);
+				doc.mEnds = Arrays.copyOf(doc.mEnds, size);
+			}
+
+			int index = doc.mCount++;
+			int parent = mStack[mDepth];
+			doc.mTypes[index] = (byte) type;
+			doc.mNames[index] = name;
+			doc.mParents[index] = parent;
+			doc.mFirstChildren[index] = -1;
+			doc.mNextSiblings[index] = -1;
+			doc.mStarts[index] = mText.length();
+			doc.mEnds[index] = mText.length();
+			if (mLastChild[mDepth] == -1)
+				doc.mFirstChildren[parent] = index;
+			else
+				doc.mNextSiblings[mLastChild[mDepth]] = index;
+			mLastChild[mDepth] = index;
+			mOpenText = -1;
+			return index;
+		}
+
+		private int name(String name) {
+			Integer index = mNameIndex.get(name);
+			if (index == null) {
+				index = mNameIndex.size();
+				mNameIndex.put(name, index);
+			}
+			return index;
+		}
+
+		private void appendText(char[] ch, int start, int length) {
+			if (mOpenText == -1)
+				mOpenText = addNode(mInCDATA ? CDATA_SECTION_NODE : TEXT_NODE, -1);
+			mText.append(ch, start, length);
+			mDoc.mEnds[mOpenText] = mText.length();
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			CompactDocument doc = mDoc;
+			int index = addNode(ELEMENT_NODE, name(qName));
+
+			// attributes sorted by name, as the parser's tree returns them
+			int count = attributes.getLength();
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++)
+				order[i] = i;
+			if (count > 1) {
+				final Attributes attrs = attributes;
+				Arrays.sort(order, (a, b) -> attrs.getQName(a).compareTo(attrs.getQName(b)));
+			}
+
+			if (doc.mAttrCount + count > doc.mAttrNames.length) {
+				int size = Math.max(doc.mAttrNames.length * 2, doc.mAttrCount + count);
+				doc.mAttrNames = Arrays.copyOf(doc.mAttrNames, size);
+				doc.mAttrOwners = Arrays.copyOf(doc.mAttrOwners, size);
+				doc.mAttrStarts = Arrays.copyOf(doc.mAttrStarts, size);
+				doc.mAttrEnds = Arrays.copyOf(doc.mAttrEnds, size);
+			}
+			doc.mStarts[index] = doc.mAttrCount;
+			for (int i = 0; i < count; i++) {
+				int attr = doc.mAttrCount++;
+				doc.mAttrNames[attr] = name(attributes.getQName(order[i]));
+				doc.mAttrOwners[attr] = index;
+				doc.mAttrStarts[attr] = mText.length();
+				mText.append(attributes.getValue(order[i]));
+				doc.mAttrEnds[attr] = mText.length();
+			}
+			doc.mEnds[index] = doc.mAttrCount;
+
+			if (++mDepth == mStack.length) {
+				mStack = Arrays.copyOf(mStack, mDepth * 2);
+				mLastChild = Arrays.copyOf(mLastChild, mDepth * 2);
+			}
+			mStack[mDepth] = index;
+			mLastChild[mDepth] = -1;
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			mDepth--;
+			mOpenText = -1;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			appendText(ch, start, length);
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) {
+			appendText(ch, start, length);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) {
+			if (mInDTD)
+				return;
+			int index = addNode(PROCESSING_INSTRUCTION_NODE, name(target));
+			mText.append(data);
+			mDoc.mEnds[index] = mText.length();
+		}
+
+		public void comment(char[] ch, int start, int length) {
+			if (mInDTD)
+				return;
+			int index = addNode(COMMENT_NODE, -1);
+			mText.append(ch, start, length);
+			mDoc.mEnds[index] = mText.length();
+		}
+
+		public void startCDATA() {
+			// an empty CDATA section still is a node
+			mInCDATA = true;
+			mOpenText = addNode(CDATA_SECTION_NODE, -1);
+		}
+
+		public void endCDATA() {
+			mInCDATA = false;
+			mOpenText = -1;
+		}
+
+		public void startDTD(String name, String publicId, String systemId) {
+			mInDTD = true;
+		}
+
+		public void endDTD() {
+			mInDTD = false;
+		}
+
+		public void startEntity(String name) {
+		}
+
+		public void endEntity(String name) {
+		}
+
+		// report problems the way DocumentBuilder's default error handler does
+		@Override
+		public void warning(SAXParseException e) {
+			mErrors.warning(e);
+		}
+
+		@Override
+		public void error(SAXParseException e) {
+			mErrors.error(e);
+		}
+
+		@Override
+		public void fatalError(SAXParseException e) throws SAXException {
+			mErrors.fatalError(e);
+		}
+
+		/**
+		 * Trim the arrays to the nodes that were added
+		 */
+		void finish() {
+			CompactDocument doc = mDoc;
+			int count = doc.mCount;
+			doc.mTypes = Arrays.copyOf(doc.mTypes, count);
+			doc.mNames = Arrays.copyOf(doc.mNames, count);
+			doc.mParents = Arrays.copyOf(doc.mParents, count);
+			doc.mFirstChildren = Arrays.copyOf(doc.mFirstChildren, count);
+			doc.mNextSiblings = Arrays.copyOf(doc.mNextSiblings, count);
+			doc.mStarts = Arrays.copyOf(doc.mStarts, count);
+			doc.mEnds = Arrays.copyOf(doc.mEnds, count);
+
+			int attrCount = doc.mAttrCount;
+			doc.mAttrNames = Arrays.copyOf(doc.mAttrNames, attrCount);
+			doc.mAttrOwners = Arrays.copyOf(doc.mAttrOwners, attrCount);
+			doc.mAttrStarts = Arrays.copyOf(doc.mAttrStarts, attrCount);
+			doc.mAttrEnds = Arrays.copyOf(doc.mAttrEnds, attrCount);
+
+			doc.mNameTable = new String[mNameIndex.size()];
+			for (Map.Entry<String, Integer> entry : mNameIndex.entrySet())
+				doc.mNameTable[entry.getValue()] = entry.getKey();
+
+			doc.mText = mText.toString();
+		}
+
+		private CompactDocument mDoc;
+		private ParseErrorHandler mErrors;
+		private StringBuilder mText = new StringBuilder();
+		private HashMap<String, Integer> mNameIndex = new HashMap<String, Integer>();
+		private int[] mStack = new int[32];
+		private int[] mLastChild = new int[32];
+		private int mDepth = 0;
+		private int mOpenText = -1; // text node characters are appended to
+		private boolean mInCDATA = false;
+		private boolean mInDTD = false;
+
+		private static final int INITIAL_NODES = 64;
+	}
+
+	private static SAXParserFactory mParserFactory = SAXParserFactory.newInstance();
+
+	private static final int DECLARATION_LIMIT = 512;
+	private static final Pattern DECLARATION = Pattern.compile(
+			"\\uFEFF?<\\?xml\\s+version\\s*=\\s*(['\"])([^'\"]*)\\1(?:\\s+encoding\\s*=\\s*(['\"])([^'\"]*)\\3)?(?:\\s+standalone\\s*=\\s*(['\"])(yes|no)\\5)?\\s*\\?>");
+
+	// nodes, the document is node 0
+	int mCount = 0;
+	byte[] mTypes;
+	int[] mNames; // position in mNameTable, -1 for unnamed nodes
+	int[] mParents;
+	int[] mFirstChildren;
+	int[] mNextSiblings;
+	int[] mStarts; // character data range in mText, attribute range for elements
+	int[] mEnds;
+
+	// attributes, sorted by name within each element
+	int mAttrCount = 0;
+	int[] mAttrNames;
+	int[] mAttrOwners;
+	int[] mAttrStarts;
+	int[] mAttrEnds;
+
+	String[] mNameTable;
+	String mText;
+
+	private String mXmlVersion = "1.0";
+	private String mXmlEncoding = null;
+	private boolean mXmlStandalone = false;
+
+	private WeakReference<Materialized> mMaterialized = null;
+	private Document mScratch = null;
+}
@@ -0,0 +1,777 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.util.ArrayList;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * Node of a CompactDocument. A node only holds its document and its position
+ * in the document's arrays, everything else is looked up there. Nodes are
+ * read-only, every method that would change the tree throws a DOMException.
+ * Like the tree the parser builds, nodes are not namespace aware.
+ */
+public abstract class CompactNode implements Node {
+	CompactNode(CompactDocument doc, Object nodes, int index) {
+		mDoc = doc;
+		mNodes = nodes;
+		mIndex = index;
+	}
+
+	static DOMException readOnly() {
+		return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "CompactDocument is read-only");
+	}
+
+	int getIndex() {
+		return mIndex;
+	}
+
+	public String getNodeName() {
+		return mDoc.mNameTable[mDoc.mNames[mIndex]];
+	}
+
+	public String getNodeValue() throws DOMException {
+		return mDoc.text(mIndex);
+	}
+
+	public void setNodeValue(String nodeValue) throws DOMException {
+		throw readOnly();
+	}
+
+	public Node getParentNode() {
+		return mDoc.node(mDoc.mParents[mIndex]);
+	}
+
+	public NodeList getChildNodes() {
+		return new ChildList(this);
+	}
+
+	public Node getFirstChild() {
+		return mDoc.node(mDoc.mFirstChildren[mIndex]);
+	}
+
+	public Node getLastChild() {
+		int child = mDoc.mFirstChildren[mIndex];
+		if (child == -1)
+			return null;
+		while (mDoc.mNextSiblings[child] != -1)
+			child = mDoc.mNextSiblings[child];
+		return mDoc.node(child);
+	}
+
+	public Node getPreviousSibling() {
+		int parent = mDoc.mParents[mIndex];
+		if (parent == -1)
+			return null;
+		int previous = -1;
+		for (int child = mDoc.mFirstChildren[parent]; child != mIndex; child = mDoc.mNextSiblings[child])
+			previous = child;
+		return mDoc.node(previous);
+	}
+
+	public Node getNextSibling() {
+		return mDoc.node(mDoc.mNextSiblings[mIndex]);
+	}
+
+	public NamedNodeMap getAttributes() {
+		return null;
+	}
+
+	public Document getOwnerDocument() {
+		return mDoc;
+	}
+
+	public Node insertBefore(Node newChild, Node refChild) throws DOMException {
+		throw readOnly();
+	}
+
+	public Node replaceChild(Node newChild, Node oldChild) throws DOMException {
+		throw readOnly();
+	}
+
+	public Node removeChild(Node oldChild) throws DOMException {
+		throw readOnly();
+	}
+
+	public Node appendChild(Node newChild) throws DOMException {
+		throw readOnly();
+	}
+
+	public boolean hasChildNodes() {
+		return mDoc.mFirstChildren[mIndex] != -1;
+	}
+
+	public Node cloneNode(boolean deep) {
+		throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "CompactDocument nodes can not be cloned");
+	}
+
+	/**
+	 * Adjacent text is merged while the tree is built, there is nothing left to
+	 * normalize
+	 */
+	public void normalize() {
+	}
+
+	public boolean isSupported(String feature, String version) {
+		return false;
+	}
+
+	public String getNamespaceURI() {
+		return null;
+	}
+
+	public String getPrefix() {
+		return null;
+	}
+
+	public void setPrefix(String prefix) throws DOMException {
+		throw readOnly();
+	}
+
+	public String getLocalName() {
+		return null;
+	}
+
+	public boolean hasAttributes() {
+		return false;
+	}
+
+	public String getBaseURI() {
+		return null;
+	}
+
+	public short compareDocumentPosition(Node other) throws DOMException {
+		if (other == this)
+			return 0;
+		if (!(other instanceof CompactNode) || ((CompactNode) other).mDoc != mDoc)
+			return DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+
+		// nodes are numbered in document order, attributes sort right after
+		// their element
+		long position = getDocumentOrder();
+		long otherPosition = ((CompactNode) other).getDocumentOrder();
+		for (Node node = other; node != null; node = ancestor(node)) {
+			if (node == this)
+				return DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING;
+		}
+		for (Node node = this; node != null; node = ancestor(node)) {
+			if (node == other)
+				return DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING;
+		}
+		return otherPosition < position ? DOCUMENT_POSITION_PRECEDING : DOCUMENT_POSITION_FOLLOWING;
+	}
+
+	private static Node ancestor(Node node) {
+		if (node.getNodeType() == ATTRIBUTE_NODE)
+			return ((Attr) node).getOwnerElement();
+		return node.getParentNode();
+	}
+
+	long getDocumentOrder() {
+		return ((long) mIndex) << 32;
+	}
+
+	public String getTextContent() throws DOMException {
+		return getNodeValue();
+	}
+
+	public void setTextContent(String textContent) throws DOMException {
+		throw readOnly();
+	}
+
+	public boolean isSameNode(Node other) {
+		return this == other;
+	}
+
+	public String lookupPrefix(String namespaceURI) {
+		return null;
+	}
+
+	public boolean isDefaultNamespace(String namespaceURI) {
+		return false;
+	}
+
+	public String lookupNamespaceURI(String prefix) {
+		return null;
+	}
+
+	public boolean isEqualNode(Node arg) {
+		if (arg == this)
+			return true;
+		if (arg == null || arg.getNodeType() != getNodeType() || !equal(getNodeName(), arg.getNodeName())
+				|| !equal(getNodeValue(), arg.getNodeValue()))
+			return false;
+
+		NamedNodeMap attributes = getAttributes();
+		NamedNodeMap otherAttributes = arg.getAttributes();
+		if (attributes != null) {
+			if (otherAttributes == null || otherAttributes.getLength() != attributes.getLength())
+				return false;
+			for (int i = 0; i < attributes.getLength(); i++) {
+				Node attribute = otherAttributes.getNamedItem(attributes.item(i).getNodeName());
+				if (attribute == null || !attributes.item(i).isEqualNode(attribute))
+					return false;
+			}
+		}
+
+		Node child = getFirstChild();
+		Node otherChild = arg.getFirstChild();
+		while (child != null && otherChild != null) {
+			if (!child.isEqualNode(otherChild))
+				return false;
+			child = child.getNextSibling();
+			otherChild = otherChild.getNextSibling();
+		}
+		return child == null && otherChild == null;
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	public Object getFeature(String feature, String version) {
+		return null;
+	}
+
+	public Object setUserData(String key, Object data, UserDataHandler handler) {
+		throw readOnly();
+	}
+
+	public Object getUserData(String key) {
+		return null;
+	}
+
+	/**
+	 * Append the text of every text and CDATA node below a node
+	 */
+	static void appendText(CompactDocument doc, int index, StringBuilder out) {
+		for (int child = doc.mFirstChildren[index]; child != -1; child = doc.mNextSiblings[child]) {
+			switch (doc.mTypes[child]) {
+			case TEXT_NODE:
+			case CDATA_SECTION_NODE:
+				out.append(doc.mText, doc.mStarts[child], doc.mEnds[child]);
+				break;
+			case ELEMENT_NODE:
+				appendText(doc, child, out);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Elements named name below a node in document order, every element for *
+	 */
+	static NodeList getElementsByTagName(CompactDocument doc, int index, String name) {
+		ArrayList<Node> found = new ArrayList<Node>();
+		boolean all = name.equals("*");
+		int nameIndex = doc.nameIndex(name);
+		if (all || nameIndex != -1) {
+			// descendants of a node are numbered after it, up to the next node
+			// that is not below it
+			int end = doc.mCount;
+			for (int node = index; node != -1; node = doc.mParents[node]) {
+				if (doc.mNextSiblings[node] != -1) {
+					end = doc.mNextSiblings[node];
+					break;
+				}
+			}
+			for (int i = index + 1; i < end; i++) {
+				if (doc.mTypes[i] == ELEMENT_NODE && (all || doc.mNames[i] == nameIndex))
+					found.add(doc.node(i));
+			}
+		}
+		return new ArrayNodeList(found);
+	}
+
+	static class CompactElement extends CompactNode implements Element {
+		CompactElement(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return ELEMENT_NODE;
+		}
+
+		public String getNodeValue() {
+			return null;
+		}
+
+		public String getTextContent() {
+			int child = mDoc.mFirstChildren[mIndex];
+			if (child == -1)
+				return "";
+			// the common case of an element holding just text
+			if (mDoc.mNextSiblings[child] == -1
+					&& (mDoc.mTypes[child] == TEXT_NODE || mDoc.mTypes[child] == CDATA_SECTION_NODE))
+				return mDoc.text(child);
+			StringBuilder out = new StringBuilder();
+			appendText(mDoc, mIndex, out);
+			return out.toString();
+		}
+
+		public NamedNodeMap getAttributes() {
+			return new AttributeMap(this);
+		}
+
+		public boolean hasAttributes() {
+			return mDoc.mEnds[mIndex] > mDoc.mStarts[mIndex];
+		}
+
+		public String getTagName() {
+			return getNodeName();
+		}
+
+		int findAttribute(String name) {
+			for (int i = mDoc.mStarts[mIndex]; i < mDoc.mEnds[mIndex]; i++) {
+				if (mDoc.mNameTable[mDoc.mAttrNames[i]].equals(name))
+					return i;
+			}
+			return -1;
+		}
+
+		public String getAttribute(String name) {
+			int attr = findAttribute(name);
+			return attr == -1 ? "" : mDoc.attrText(attr);
+		}
+
+		public Attr getAttributeNode(String name) {
+			return mDoc.attr(findAttribute(name));
+		}
+
+		public boolean hasAttribute(String name) {
+			return findAttribute(name) != -1;
+		}
+
+		public NodeList getElementsByTagName(String name) {
+			return CompactNode.getElementsByTagName(mDoc, mIndex, name);
+		}
+
+		// attributes were not parsed with namespaces so none of them has a
+		// local name to match
+		public String getAttributeNS(String namespaceURI, String localName) {
+			return "";
+		}
+
+		public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+			return null;
+		}
+
+		public boolean hasAttributeNS(String namespaceURI, String localName) {
+			return false;
+		}
+
+		public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+			throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "CompactDocument is not namespace aware");
+		}
+
+		public void setAttribute(String name, String value) {
+			throw readOnly();
+		}
+
+		public void removeAttribute(String name) {
+			throw readOnly();
+		}
+
+		public Attr setAttributeNode(Attr newAttr) {
+			throw readOnly();
+		}
+
+		public Attr removeAttributeNode(Attr oldAttr) {
+			throw readOnly();
+		}
+
+		public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+			throw readOnly();
+		}
+
+		public void removeAttributeNS(String namespaceURI, String localName) {
+			throw readOnly();
+		}
+
+		public Attr setAttributeNodeNS(Attr newAttr) {
+			throw readOnly();
+		}
+
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		public void setIdAttribute(String name, boolean isId) {
+			throw readOnly();
+		}
+
+		public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+			throw readOnly();
+		}
+
+		public void setIdAttributeNode(Attr idAttr, boolean isId) {
+			throw readOnly();
+		}
+	}
+
+	/**
+	 * Attribute, its index points into the attribute arrays rather than the
+	 * node arrays. Unlike the parser's attributes it has no text child, the
+	 * value is only available through getNodeValue and getValue.
+	 */
+	static class CompactAttr extends CompactNode implements Attr {
+		CompactAttr(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return ATTRIBUTE_NODE;
+		}
+
+		public String getNodeName() {
+			return mDoc.mNameTable[mDoc.mAttrNames[mIndex]];
+		}
+
+		public String getNodeValue() {
+			return mDoc.attrText(mIndex);
+		}
+
+		public Node getParentNode() {
+			return null;
+		}
+
+		public Node getFirstChild() {
+			return null;
+		}
+
+		public Node getLastChild() {
+			return null;
+		}
+
+		public Node getPreviousSibling() {
+			return null;
+		}
+
+		public Node getNextSibling() {
+			return null;
+		}
+
+		public NodeList getChildNodes() {
+			return new ArrayNodeList(new ArrayList<Node>());
+		}
+
+		public boolean hasChildNodes() {
+			return false;
+		}
+
+		long getDocumentOrder() {
+			return (((long) mDoc.mAttrOwners[mIndex]) << 32) + 1 + mIndex - mDoc.mStarts[mDoc.mAttrOwners[mIndex]];
+		}
+
+		public String getName() {
+			return getNodeName();
+		}
+
+		public boolean getSpecified() {
+			return true;
+		}
+
+		public String getValue() {
+			return getNodeValue();
+		}
+
+		public void setValue(String value) {
+			throw readOnly();
+		}
+
+		public Element getOwnerElement() {
+			return (Element) mDoc.node(mDoc.mAttrOwners[mIndex]);
+		}
+
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		public boolean isId() {
+			return false;
+		}
+	}
+
+	static class CompactText extends CompactNode implements Text {
+		CompactText(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return TEXT_NODE;
+		}
+
+		public String getNodeName() {
+			return "#text";
+		}
+
+		public String getData() {
+			return getNodeValue();
+		}
+
+		public void setData(String data) {
+			throw readOnly();
+		}
+
+		public int getLength() {
+			return mDoc.mEnds[mIndex] - mDoc.mStarts[mIndex];
+		}
+
+		public String substringData(int offset, int count) {
+			if (offset < 0 || count < 0 || offset > getLength())
+				throw new DOMException(DOMException.INDEX_SIZE_ERR, "CompactDocument offset out of range");
+			int start = mDoc.mStarts[mIndex] + offset;
+			return mDoc.mText.substring(start, Math.min(start + count, mDoc.mEnds[mIndex]));
+		}
+
+		public void appendData(String arg) {
+			throw readOnly();
+		}
+
+		public void insertData(int offset, String arg) {
+			throw readOnly();
+		}
+
+		public void deleteData(int offset, int count) {
+			throw readOnly();
+		}
+
+		public void replaceData(int offset, int count, String arg) {
+			throw readOnly();
+		}
+
+		public Text splitText(int offset) {
+			throw readOnly();
+		}
+
+		public boolean isElementContentWhitespace() {
+			return false;
+		}
+
+		public String getWholeText() {
+			Node first = this;
+			for (Node node = getPreviousSibling(); node != null && isText(node); node = node.getPreviousSibling())
+				first = node;
+			StringBuilder out = new StringBuilder();
+			for (Node node = first; node != null && isText(node); node = node.getNextSibling())
+				out.append(node.getNodeValue());
+			return out.toString();
+		}
+
+		private static boolean isText(Node node) {
+			return node.getNodeType() == TEXT_NODE || node.getNodeType() == CDATA_SECTION_NODE;
+		}
+
+		public Text replaceWholeText(String content) {
+			throw readOnly();
+		}
+	}
+
+	static class CompactCDATASection extends CompactText implements CDATASection {
+		CompactCDATASection(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return CDATA_SECTION_NODE;
+		}
+
+		public String getNodeName() {
+			return "#cdata-section";
+		}
+	}
+
+	static class CompactComment extends CompactNode implements Comment {
+		CompactComment(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return COMMENT_NODE;
+		}
+
+		public String getNodeName() {
+			return "#comment";
+		}
+
+		public String getData() {
+			return getNodeValue();
+		}
+
+		public void setData(String data) {
+			throw readOnly();
+		}
+
+		public int getLength() {
+			return mDoc.mEnds[mIndex] - mDoc.mStarts[mIndex];
+		}
+
+		public String substringData(int offset, int count) {
+			return getData().substring(offset, Math.min(offset + count, getLength()));
+		}
+
+		public void appendData(String arg) {
+			throw readOnly();
+		}
+
+		public void insertData(int offset, String arg) {
+			throw readOnly();
+		}
+
+		public void deleteData(int offset, int count) {
+			throw readOnly();
+		}
+
+		public void replaceData(int offset, int count, String arg) {
+			throw readOnly();
+		}
+	}
+
+	static class CompactProcessingInstruction extends CompactNode implements ProcessingInstruction {
+		CompactProcessingInstruction(CompactDocument doc, Object nodes, int index) {
+			super(doc, nodes, index);
+		}
+
+		public short getNodeType() {
+			return PROCESSING_INSTRUCTION_NODE;
+		}
+
+		public String getTarget() {
+			return getNodeName();
+		}
+
+		public String getData() {
+			return getNodeValue();
+		}
+
+		public void setData(String data) {
+			throw readOnly();
+		}
+	}
+
+	/**
+	 * Children of a node, the tree never changes so the list is never stale
+	 */
+	static class ChildList implements NodeList {
+		ChildList(CompactNode parent) {
+			mParent = parent;
+		}
+
+		public Node item(int index) {
+			if (index < 0)
+				return null;
+			CompactDocument doc = mParent.mDoc;
+			int child = doc.mFirstChildren[mParent.mIndex];
+			for (int i = 0; i < index && child != -1; i++)
+				child = doc.mNextSiblings[child];
+			return doc.node(child);
+		}
+
+		public int getLength() {
+			CompactDocument doc = mParent.mDoc;
+			int length = 0;
+			for (int child = doc.mFirstChildren[mParent.mIndex]; child != -1; child = doc.mNextSiblings[child])
+				length++;
+			return length;
+		}
+
+		private CompactNode mParent;
+	}
+
+	static class ArrayNodeList implements NodeList {
+		ArrayNodeList(ArrayList<Node> nodes) {
+			mNodes = nodes;
+		}
+
+		public Node item(int index) {
+			return index >= 0 && index < mNodes.size() ? mNodes.get(index) : null;
+		}
+
+		public int getLength() {
+			return mNodes.size();
+		}
+
+		private ArrayList<Node> mNodes;
+	}
+
+	/**
+	 * Attributes of an element, sorted by name as the parser's tree keeps them
+	 */
+	static class AttributeMap implements NamedNodeMap {
+		AttributeMap(CompactElement element) {
+			mElement = element;
+		}
+
+		public Node getNamedItem(String name) {
+			return mElement.getAttributeNode(name);
+		}
+
+		public Node item(int index) {
+			CompactDocument doc = mElement.mDoc;
+			int start = doc.mStarts[mElement.mIndex];
+			if (index < 0 || start + index >= doc.mEnds[mElement.mIndex])
+				return null;
+			return doc.attr(start + index);
+		}
+
+		public int getLength() {
+			CompactDocument doc = mElement.mDoc;
+			return doc.mEnds[mElement.mIndex] - doc.mStarts[mElement.mIndex];
+		}
+
+		public Node getNamedItemNS(String namespaceURI, String localName) {
+			return null;
+		}
+
+		public Node setNamedItem(Node arg) {
+			throw readOnly();
+		}
+
+		public Node removeNamedItem(String name) {
+			throw readOnly();
+		}
+
+		public Node setNamedItemNS(Node arg) {
+			throw readOnly();
+		}
+
+		public Node removeNamedItemNS(String namespaceURI, String localName) {
+			throw readOnly();
+		}
+
+		private CompactElement mElement;
+	}
+
+	CompactDocument mDoc;
+	// the materialized nodes this node belongs to, kept reachable while the
+	// node is so the document hands out the same node objects
+	Object mNodes;
+	int mIndex;
+}
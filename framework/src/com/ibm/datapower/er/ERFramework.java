@@ -18,17 +18,17 @@ package com.ibm.datapower.er;
 
 // Utility imports
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Enumeration;
@@ -40,8 +40,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.FileNotFoundException;
-import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -49,8 +49,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ResourceBundle;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 // MIME content transfer encoding
 import com.ibm.datapower.er.mgmt.Base64;
@@ -88,7 +86,6 @@ import org.apache.commons.io.IOUtils;
 import org.apache.james.mime4j.parser.MimeEntityConfig;
 import org.apache.james.mime4j.parser.MimeTokenStream;
 import org.apache.james.mime4j.MimeException;
-import org.apache.commons.lang3.StringEscapeUtils;
 
 import com.ibm.datapower.er.Analytics.AnalyticsFunctions;
 // Analytics imports (document section + sorting support)
@@ -148,7 +145,83 @@ public class ERFramework extends ClassLoader {
 	 */
 	public void setFileLocation(String file) {
 		mFileLocation = file;
+		mHandle = new ReportHandle(file);
+		if (mZipContainer != null) {
+			mZipContainer.close();
+			mZipContainer = null;
+		}
+		for (TarIndex tarIndex : mTarIndexList) {
+			if (tarIndex != null)
+				tarIndex.close();
+		}
+		mTarIndexList = new ArrayList<TarIndex>();
+		mSectionIndexList = new ArrayList<SectionIndex>();
+		mArchiveEntryList = new ArrayList<Hashtable<String, Boolean>>();
+		mGzipIndexList = new ArrayList<GzipIndex>();
+		mSpillList = new ArrayList<SpillFile>();
+		mSpillSkipped = new Hashtable<Integer, Boolean>();
+		mPhaseSpill = null;
+
+		// reuse what a previous run found out about this report if we can
+		SectionIndexFile indexFile = null;
+		File report = new File(file);
+		if (!INDEX_CACHE_NONE.equals(mIndexCacheDir) && report.isFile())
+			indexFile = new SectionIndexFile(report, mIndexCacheDir);
+
+		if (indexFile != null && indexFile.load()) {
+			mHighestPhase = indexFile.getHighestPhase();
+			mSectionIndexList = indexFile.getSectionIndexes();
+			mArchiveEntryList = indexFile.getArchiveEntries();
+			mGzipIndexList = indexFile.getGzipIndexes();
+			return;
+		}
+
 		EstablishHighPhase();
+		if (indexFile != null && indexPhases())
+			saveSectionIndexFile(indexFile);
+	}
+
+	/**
+	 * Set where section index files are kept
+	 * 
+	 * @param dir Directory for index files, null for the per-user cache
+	 *            directory, "report" to write them next to the report or "none"
+	 *            to not use index files
+	 */
+	public static void setIndexCacheDir(String dir) {
+		mIndexCacheDir = dir;
+	}
+
+	public static String getIndexCacheDir() {
+		return mIndexCacheDir;
+	}
+
+	/**
+	 * Inflate each report phase once into a memory mapped temporary file and
+	 * read sections from the mapping
+	 * 
+	 * @param enabled true to use spill files
+	 */
+	public static void setSpillEnabled(boolean enabled) {
+		mSpillEnabled = enabled;
+	}
+
+	public static boolean getSpillEnabled() {
+		return mSpillEnabled;
+	}
+
+	/**
+	 * Parse sections handed to Analytics into a read-only CompactDocument
+	 * instead of a full DOM
+	 * 
+	 * @param enabled true to use compact documents
+	 */
+	public static void setCompactDOMEnabled(boolean enabled) {
+		mCompactDOMEnabled = enabled;
+	}
+
+	public static boolean getCompactDOMEnabled() {
+		return mCompactDOMEnabled;
 	}
 
 	/**
@@ -240,6 +313,98 @@ public class ERFramework extends ClassLoader {
 		return matches;
 	}
 
+	/**
+	 * Drop a section Analytics is done with from the sections kept by name
+	 * 
+	 * @param name name of the section, as GetOriginalSectionName() returns it
+	 */
+	public void releaseSection(String name) {
+		mDocCache.remove(name);
+	}
+
+	/**
+	 * Where the first section getCidListAsDocument() would find for cid is in the
+	 * report, counted over all phases
+	 * 
+	 * @param cid      Content ID, or name of an archive entry, of the section
+	 * @param wildcard boolean - If multiple sections would be returned
+	 * @return position of the section, -1 if it is not found or the report does
+	 *         not tell where its sections are without reading them
+	 */
+	public int getSectionPosition(String cid, boolean wildcard) {
+		ArrayList<String> names = getSectionOrder();
+		if (names == null || cid.length() == 0)
+			return -1;
+
+		Pattern pattern = null;
+		if (!mSectionOrderPostMortem) {
+			try {
+				pattern = Pattern.compile(cid);
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+		for (int i = 0; i < names.size(); i++) {
+			String name = names.get(i);
+			if (pattern != null ? pattern.matcher(name).find()
+					: (!wildcard && name.equals(cid)) || (wildcard && name.indexOf(cid) != -1))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return names of the sections of all phases in the order of the report,
+	 *         null if a phase is not indexed
+	 */
+	private ArrayList<String> getSectionOrder() {
+		synchronized (mSectionOrderLock) {
+			if (mSectionOrderRead)
+				return mSectionOrder;
+			mSectionOrderRead = true;
+
+			ArrayList<String> names = new ArrayList<String>();
+			try {
+				for (int f = 0; f < MAX_ZIPPED_FILES; f++) {
+					ReportHandle.Phase indexed = getIndexedPhase(f);
+					if (indexed == null)
+						break;
+
+					if (indexed.isPostMortem()) {
+						mSectionOrderPostMortem = true;
+						mReportLock.lock();
+						try {
+							if (!erParse(f, false, false))
+								break;
+							// only a tar is listed in the order of its entries
+							TarIndex tarIndex = getTarIndex(f);
+							if (tarIndex == null)
+								return null;
+							for (TarIndex.Entry entry : tarIndex.getEntries())
+								names.add(entry.getName());
+						} finally {
+							mReportLock.unlock();
+						}
+						continue;
+					}
+
+					SectionIndex index = indexed.getIndex();
+					if (index == null)
+						return null;
+					for (SectionIndexEntry entry : index.getEntries()) {
+						if (entry.getContentId() != null)
+							names.add(entry.getContentId());
+					}
+				}
+			} catch (ERException e) {
+				return null;
+			}
+
+			mSectionOrder = names;
+			return mSectionOrder;
+		}
+	}
+
 	/**
 	 * Locate an ErrorReport section by content ID and return an InputStream. The
 	 * first byte returned by the InputStream is the first byte of the entity data
@@ -304,64 +469,54 @@ public class ERFramework extends ClassLoader {
 			}
 		}
 
-		boolean succeed = erParse(phase, false);
-
-		if (!succeed)
+		ReportHandle.Phase indexed = getIndexedPhase(phase);
+		if (indexed == null)
 			return null;
 
 		int count = 0;
 		boolean noFields = true;
-		// run through parsed tokens
-		try {
-			if (mIsMIME) {
-				for (int state = mtStream.getState(); state != MimeTokenStream.T_END_OF_STREAM; state = mtStream
-						.next()) {
-					switch (state) {
-					case MimeTokenStream.T_BODY:
-						if (sectionFound == true) {
-							if (count < iter) {
-								count++;
-								sectionFound = false;
-								continue;
-							}
-							if (mContentEncoding.equalsIgnoreCase("base64")) {
-								if (returnMimeStream)
-									return new ERMimeSection(mtStream.getInputStream(), phase, iter, sectionName);
-								else {
-									InputStream streamOut = new Base64.InputStream(mtStream.getInputStream());
-									return new ERMimeSection(streamOut, phase, iter, sectionName);
-								}
-							} else if (returnMimeStream)
-								return new ERMimeSection(mtStream.getInputStream(), phase, iter, sectionName);
-							else
-								return new ERMimeSection(decodeBacktrace(sectionName, mtStream.getInputStream()), phase,
-										iter, sectionName);
+		// run through the indexed sections, the body handed out reads from a
+		// cursor of its own
+		SectionIndex index = indexed.getIndex();
+		if (index != null && cid.length() > 0) {
+			SectionCursor cursor = indexed.open();
+			try {
+				noFields = !index.hasContentIds();
+				Pattern pattern = Pattern.compile(cid);
+				for (SectionIndexEntry entry : index.getEntries()) {
+					if (entry.getContentId() != null && pattern.matcher(entry.getContentId()).find()) {
+						sectionFound = true;
+						sectionName = entry.getContentId().trim();
+					}
+
+					if (sectionFound == true) {
+						if (count < iter) {
+							count++;
+							sectionFound = false;
+							continue;
 						}
-						break;
-					case MimeTokenStream.T_FIELD:
-						setContentType();
-						if (cid.length() > 0 && mtStream.getField().getName().equals("Content-ID")) {
-							noFields = false;
-
-							Pattern pattern = Pattern.compile(cid);
-							Matcher matcher = pattern.matcher(mtStream.getField().getBody());
-							if (matcher.find()) {
-								sectionFound = true;
-								sectionName = mtStream.getField().getBody().trim();
+						InputStream body = cursor.openLastBody(entry);
+						keepContentType(cursor);
+						if ("base64".equalsIgnoreCase(cursor.getContentEncoding())) {
+							if (returnMimeStream)
+								return new ERMimeSection(body, phase, iter, sectionName);
+							else {
+								InputStream streamOut = new Base64.InputStream(body);
+								return new ERMimeSection(streamOut, phase, iter, sectionName);
 							}
-						}
-						break;
-					default:
+						} else if (returnMimeStream)
+							return new ERMimeSection(body, phase, iter, sectionName);
+						else
+							return new ERMimeSection(decodeBacktrace(sectionName, body), phase, iter, sectionName);
 					}
 				}
-			}
-		} catch (IOException e) {
-
-		} catch (MimeException e) {
+			} catch (IOException e) {
 
+			}
+			cursor.close();
 		}
 
-		if (noFields && !mIsPostMortem) {
+		if (noFields && !indexed.isPostMortem()) {
 			Pattern pattern = Pattern.compile(cid);
 			Matcher matcher = pattern.matcher(mFileLocation);
 			// try to read it just in as a file
@@ -409,67 +564,64 @@ public class ERFramework extends ClassLoader {
 			}
 		}
 
-		boolean succeed = erParse(phase, false);
-
-		if (!succeed)
+		ReportHandle.Phase indexed = getIndexedPhase(phase);
+		if (indexed == null)
 			return null;
 
 		int count = 0;
 		boolean noFields = true;
-		// run through parsed tokens
-		try {
-			if (mIsMIME) {
-				for (int state = mtStream.getState(); state != MimeTokenStream.T_END_OF_STREAM; state = mtStream
-						.next()) {
-					switch (state) {
-					case MimeTokenStream.T_BODY:
-						if (sectionFound == true) {
-							ERMimeSection ems = null;
-							if (mContentEncoding.equalsIgnoreCase("base64")) {
-								if (returnMimeStream)
-									ems = new ERMimeSection(readArchiveFile(mtStream.getInputStream()), phase, count, sectionName);
-								else {
-									InputStream streamOut = new Base64.InputStream(mtStream.getInputStream());
-									ems = new ERMimeSection(streamOut, phase, count, sectionName);
-								}
-							}
-							else if (returnMimeStream)
-								ems = new ERMimeSection(readArchiveFile(mtStream.getInputStream()), phase, count, sectionName);
-							else
-								ems = new ERMimeSection(decodeBacktrace(sectionName, mtStream.getInputStream()), phase,
-										count, sectionName);
-
-							if (ems != null) {
-								count++;
-								resSections.add(ems);
-							}
-						}
-						break;
-					case MimeTokenStream.T_FIELD:
-						setContentType();
+		// run through the indexed sections with a cursor of our own
+		SectionIndex index = indexed.getIndex();
+		if (index != null) {
+			SectionCursor cursor = indexed.open();
+			try {
+				Pattern pattern = Pattern.compile(cid);
+				for (SectionIndexEntry entry : index.getEntries()) {
+					// a match only holds if Content-ID was the last header of the part,
+					// a part without any headers keeps the previous result
+					if (entry.getFieldCount() > 0)
 						sectionFound = false;
-						if (cid.length() > 0 && mtStream.getField().getName().equals("Content-ID")) {
-							sectionName = mtStream.getField().getBody().trim();
-							noFields = false;
-
-							Pattern pattern = Pattern.compile(cid);
-							Matcher matcher = pattern.matcher(mtStream.getField().getBody());
-							if (matcher.find()) {
-								sectionFound = true;
+					if (cid.length() > 0 && entry.getContentId() != null) {
+						sectionName = entry.getContentId().trim();
+						noFields = false;
+						if (entry.isContentIdLast() && pattern.matcher(entry.getContentId()).find())
+							sectionFound = true;
+					}
+
+					if (sectionFound == true) {
+						// a body is read out before moving on to the next section unless
+						// it is a view of the spill file
+						InputStream body = cursor.openBody(entry);
+						keepContentType(cursor);
+						if (!cursor.isSpill())
+							body = readArchiveFile(body);
+						ERMimeSection ems = null;
+						if ("base64".equalsIgnoreCase(cursor.getContentEncoding())) {
+							if (returnMimeStream)
+								ems = new ERMimeSection(body, phase, count, sectionName);
+							else {
+								InputStream streamOut = new Base64.InputStream(body);
+								ems = new ERMimeSection(streamOut, phase, count, sectionName);
 							}
+						} else if (returnMimeStream)
+							ems = new ERMimeSection(body, phase, count, sectionName);
+						else
+							ems = new ERMimeSection(decodeBacktrace(sectionName, body), phase, count, sectionName);
+
+						if (ems != null) {
+							count++;
+							resSections.add(ems);
 						}
-						break;
-					default:
 					}
 				}
-			}
-		} catch (IOException e) {
-
-		} catch (MimeException e) {
+			} catch (IOException e) {
 
+			} finally {
+				cursor.close();
+			}
 		}
 
-		if (noFields && !mIsPostMortem) {
+		if (noFields && !indexed.isPostMortem()) {
 			Pattern pattern = Pattern.compile(cid);
 			Matcher matcher = pattern.matcher(mFileLocation);
 			// try to read it just in as a file
@@ -499,7 +651,7 @@ public class ERFramework extends ClassLoader {
 		ArrayList<String> matches = new ArrayList<String>();
 		for (int f = 0; f < MAX_ZIPPED_FILES; f++) {
 			// parse input file
-			boolean succeed = erParse(f, false);
+			boolean succeed = erParse(f, false, false);
 
 			if (!succeed)
 				break;
@@ -508,25 +660,18 @@ public class ERFramework extends ClassLoader {
 
 			boolean noFields = true;
 
-			// run through parsed tokens
-			try {
-				for (int state = mtStream.getState(); state != MimeTokenStream.T_END_OF_STREAM; state = mtStream
-						.next()) {
-					switch (state) {
-					case MimeTokenStream.T_FIELD:
-						setContentType();
-						if (cid.length() > 0 && mtStream.getField().getName().equals("Content-ID")) {
-							noFields = false;
-							if (mtStream.getField().getBody().toLowerCase().indexOf(cid) != -1)
-								matches.add(mtStream.getField().getBody());
-						}
-						break;
+			// run through the indexed sections
+			SectionIndex index = null;
+			if (!mIsPostMortem)
+				index = getSectionIndex(f);
+			if (index != null && cid.length() > 0) {
+				for (SectionIndexEntry entry : index.getEntries()) {
+					if (entry.getContentId() != null) {
+						noFields = false;
+						if (entry.getContentId().toLowerCase().indexOf(cid) != -1)
+							matches.add(entry.getContentId());
 					}
 				}
-			} catch (IOException e) {
-
-			} catch (MimeException e) {
-
 			}
 
 			// try to read it just in as a file
@@ -547,55 +692,21 @@ public class ERFramework extends ClassLoader {
 	 * @return InputStream in XML format
 	 */
 	public SectionStream inputStreamXmlEncapsulate(InputStream stream) {
-		String frontNode = "<Root>";
-		String endNode = "</Root>";
-
-		Future<String> ioCall = streamToString(stream);
-		String sectionData = "";
-		try {
-			sectionData = ioCall.get(60, TimeUnit.SECONDS);
-		} catch (OutOfMemoryError e) {
-			LogManager.getRootLogger()
-					.error("ERFramework::inputStreamXmlEncapsulate FAILED DUE TO OUT OF MEMORY ON " + e.getMessage());
-			System.exit(0);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			LogManager.getRootLogger().error(
-					"ERFramework::inputStreamXmlEncapsulate -- stream to string failed (Likely timed out on IOUtils.toString, it failed us!).");
-			e.printStackTrace();
-		}
-		byte[] bytes = sectionData.getBytes();
-		InputStream origStream = new ByteArrayInputStream(bytes);
-		IOUtils.closeQuietly(stream);
-
-		sectionData = sectionData.replaceAll("\\u0000", "");
-		String escapedXml = StringEscapeUtils.escapeXml(sectionData);
-
-		List<InputStream> xmlStreamList = Arrays.asList(new ByteArrayInputStream(frontNode.getBytes()),
-				(InputStream) new ByteArrayInputStream(escapedXml.getBytes()),
-				new ByteArrayInputStream(endNode.getBytes()));
-		InputStream endStream = new SequenceInputStream(Collections.enumeration(xmlStreamList));
-		SectionStream sectionOut = new SectionStream(origStream, endStream);
-		return sectionOut;
+		return inputStreamXmlEncapsulate(stream, false);
 	}
 
-	private final ExecutorService pool_ = Executors.newFixedThreadPool(1);
-
-	public Future<String> streamToString(final InputStream stream) {
-		return pool_.submit(new Callable<String>() {
-			@Override
-			public String call() throws Exception {
-				String sectionData = "";
-				try {
-					sectionData = IOUtils.toString(stream);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
-				return sectionData;
-			}
-		});
+	/**
+	 * Take a non XML section and make it XML just by adding a open and close Root
+	 * element. The section is escaped as it is read rather than loaded first.
+	 * 
+	 * @param stream       InputStream to encapsulate in xml
+	 * @param keepOriginal true to also keep the section text, OriginalStream is
+	 *                     readable once EncapsulatedStream was read to the end
+	 * @return InputStream in XML format
+	 */
+	public SectionStream inputStreamXmlEncapsulate(InputStream stream, boolean keepOriginal) {
+		XmlEncapsulatedInputStream encapsulated = new XmlEncapsulatedInputStream(stream, keepOriginal);
+		return new SectionStream(encapsulated.getOriginal(), encapsulated);
 	}
 
 	/**
@@ -626,150 +737,176 @@ public class ERFramework extends ClassLoader {
 					break;
 				}
 			}
-			// parse input file
-			boolean succeed = erParse(f, false);
+			// an indexed phase is read with a cursor of our own, so other threads can
+			// read the report at the same time
+			ReportHandle.Phase indexed = getIndexedPhase(f);
 
-			if (!succeed)
+			if (indexed == null)
 				break;
 
 			String curSectionName = "";
 
 			// used for building table of sections that exist or not
 			Hashtable<String, Boolean> mSectionsExist = null;
-			try {
-				mSectionsExist = mSectionList.get(f);
-			} catch (Exception ex) {
-				// captures length issues and things of that nature with ArrayList get.. we just
-				// want null if it doesn't exist.
-			}
-
-			// instantiate the table if it does not exist for use further below
-			if (mSectionsExist == null) {
-				// if the mSectionList does not have previous built up entries we need to add
-				// empty hashtables in place
-				if (f > mSectionList.size())
-					for (int t = mSectionList.size(); t < f; t++)
-						mSectionList.add(t, new Hashtable<String, Boolean>());
-
-				mSectionsExist = new Hashtable<String, Boolean>();
-				mSectionList.add(f, mSectionsExist);
-				sectionListLive = false;
+			synchronized (mSectionList) {
+				if (f < mSectionList.size())
+					mSectionsExist = mSectionList.get(f);
+
+				// instantiate the table if it does not exist for use further below
+				if (mSectionsExist == null) {
+					// if the mSectionList does not have previous built up entries we need to add
+					// empty hashtables in place
+					if (f > mSectionList.size())
+						for (int t = mSectionList.size(); t < f; t++)
+							mSectionList.add(t, new Hashtable<String, Boolean>());
+
+					mSectionsExist = new Hashtable<String, Boolean>();
+					mSectionList.add(f, mSectionsExist);
+					sectionListLive = false;
+				}
 			}
 
 			// if this is a postmortem we follow different rules to get what we
-			// want
-			if (mIsPostMortem) {
-				// if on a previous wildcard run we passed through entire archive, we can
-				// establish if the cid exists or not
-				if (!checkArchiveSections(mSectionsExist, cid, wildcard))
-					continue; // check other files (f)
-
-				ArchiveEntry ent = null;
+			// want, the archive is walked by the framework so one thread at a time
+			if (indexed.isPostMortem()) {
+				mReportLock.lock();
 				try {
-					while ((ent = mArchiveStream.getNextEntry()) != null) {
-						Boolean existRes = mSectionsExist.get(ent.getName());
-						if (existRes == null) {
-							mSectionsExist.put(ent.getName(), true);
-						}
-						// either wildcard (return multiple entries) is not set
-						// and
-						// the cid is exact, or we check the
-						// cid to see if it 'contains' the cid phrase
-						/*
-						 * april 22 2018 - updated or operand to include wildcard on wildcard attribute
-						 * needs to be honored to try a wildcard match, wildcard off means no wildcard
-						 * attempt
-						 */
-						boolean cidMatch = false;
-
-						if ((!wildcard && ent.getName().equals(cid))
-								|| (wildcard && ent.getName().indexOf(cid) != -1)) {
-							cidMatch = true;
-						}
-						if (!cidMatch && (existRes != null || !mRetrieveAllFiles))
-							continue;
-						else if (mRetrieveAllFiles && wildcard)
-							mTriggeredPullFiles = true;
-
-						curSectionName = ent.getName();
-						LogManager.getRootLogger()
-								.debug("ERFramework::getCidListAsDocument -- getCidListAsDocument for " + cid
-										+ " found a result of " + curSectionName);
-
-						Boolean res = mOutOfMemSections.get(curSectionName);
-						if (res != null && res == true) {
-							LogManager.getRootLogger().info(
-									"ERFramework::getCidListAsDocument(postmortem) - Skipping load attempt section as it previously caused out of memory: "
-											+ curSectionName);
-						} else {
-							InputStream inArchStream = readArchiveFile(mArchiveStream);
+					if (!erParse(f, false, false))
+						break;
+
+					// if on a previous wildcard run we passed through entire archive, we can
+					// establish if the cid exists or not
+					if (!checkArchiveSections(mSectionsExist, cid, wildcard))
+						continue; // check other files (f)
+
+					// an indexed tar is read entry by entry from disk, otherwise walk the
+					// archive stream
+					TarIndex tarIndex = getTarIndex(f);
+					int tarEntry = 0;
+					ArchiveEntry ent = null;
+					try {
+						while (true) {
+							TarIndex.Entry indexEntry = null;
+							String entName = null;
+							if (tarIndex != null) {
+								if (tarEntry >= tarIndex.getEntries().size())
+									break;
+								indexEntry = tarIndex.getEntries().get(tarEntry++);
+								entName = indexEntry.getName();
+							} else {
+								if ((ent = mArchiveStream.getNextEntry()) == null)
+									break;
+								entName = ent.getName();
+							}
 
-							// take care of the gzip files inside the
-							// .tar.gz,
-							// iterative files
-							if (ent.getName().endsWith(".gz"))
-								inArchStream = new GZIPInputStream(inArchStream);
+							Boolean existRes = mSectionsExist.get(entName);
+							if (existRes == null) {
+								mSectionsExist.put(entName, true);
+							}
+							// either wildcard (return multiple entries) is not set
+							// and
+							// the cid is exact, or we check the
+							// cid to see if it 'contains' the cid phrase
+							/*
+							 * april 22 2018 - updated or operand to include wildcard on wildcard attribute
+							 * needs to be honored to try a wildcard match, wildcard off means no wildcard
+							 * attempt
+							 */
+							boolean cidMatch = false;
+
+							if ((!wildcard && entName.equals(cid))
+									|| (wildcard && entName.indexOf(cid) != -1)) {
+								cidMatch = true;
+							}
+							if (!cidMatch && (existRes != null || !mRetrieveAllFiles))
+								continue;
+							else if (mRetrieveAllFiles && wildcard)
+								mTriggeredPullFiles = true;
 
-							InputStream encapsulatedStream = null;
+							curSectionName = entName;
+							LogManager.getRootLogger()
+									.debug("ERFramework::getCidListAsDocument -- getCidListAsDocument for " + cid
+											+ " found a result of " + curSectionName);
 
-							// xml support inside post mortems
-							if (ent.getName().endsWith(".xml"))
-								encapsulatedStream = inArchStream;
-							else
-								// else throw the data into XML for the
-								// DocSection
-								encapsulatedStream = inputStreamXmlEncapsulate(inArchStream).EncapsulatedStream;
-
-							if (encapsulatedStream != null) {
-								try {
-									DocumentSection section = new DocumentSection(getDOM(encapsulatedStream),
-											ent.getName(), addedExtension, this, mPhase, mPhaseFile);
-									if (cidMatch)
-										cidList.add(section);
-									AnalyticsFunctions.generateFileFromContent(section, null);
-								} catch (Exception ex) {
-									// if we fail lets not skip out on the
-									// rest of
-									// the possibilities
+							Boolean res = mOutOfMemSections.get(curSectionName);
+							if (res != null && res == true) {
+								LogManager.getRootLogger().info(
+										"ERFramework::getCidListAsDocument(postmortem) - Skipping load attempt section as it previously caused out of memory: "
+												+ curSectionName);
+							} else {
+								InputStream inArchStream = null;
+								if (indexEntry != null)
+									inArchStream = tarIndex.open(indexEntry);
+								else
+									inArchStream = readArchiveFile(mArchiveStream);
+
+								// take care of the gzip files inside the
+								// .tar.gz,
+								// iterative files
+								if (entName.endsWith(".gz"))
+									inArchStream = new GZIPInputStream(inArchStream);
+
+								if (inArchStream != null) {
+									try {
+										DocumentSection section = null;
+										// xml support inside post mortems
+										if (entName.endsWith(".xml"))
+											section = new DocumentSection(getSectionDOM(inArchStream), entName,
+													addedExtension, this, mPhase, mPhaseFile);
+										else
+											// else the data is the text of the
+											// DocSection
+											section = getTextSection(SectionText.read(inArchStream, encoding(), false),
+													entName, addedExtension);
+										if (cidMatch)
+											cidList.add(section);
+										AnalyticsFunctions.generateFileFromContent(section, null);
+									} catch (Exception ex) {
+										// if we fail lets not skip out on the
+										// rest of
+										// the possibilities
+									}
 								}
+								// we only return one entry because wildcard isn't
+								// set
+								if (!wildcard)
+									break;
 							}
-							// we only return one entry because wildcard isn't
-							// set
-							if (!wildcard)
-								break;
 						}
+					} catch (IOException ex) {
+
+					} catch (OutOfMemoryError e) {
+						if (curSectionName.length() > 0)
+							mOutOfMemSections.put(curSectionName, true);
+						LogManager.getRootLogger().info(
+								"ERFramework::getCidListAsDocument(postmortem) - Out of Memory error has occurred in retrieving the document section: "
+										+ curSectionName);
 					}
-				} catch (IOException ex) {
-
-				} catch (OutOfMemoryError e) {
-					if (curSectionName.length() > 0)
-						mOutOfMemSections.put(curSectionName, true);
-					LogManager.getRootLogger().info(
-							"ERFramework::getCidListAsDocument(postmortem) - Out of Memory error has occurred in retrieving the document section: "
-									+ curSectionName);
-				}
 
-				if (wildcard) {
-					sectionListLive = true;
-				}
+					if (wildcard) {
+						sectionListLive = true;
+					}
 
-				if (cidList.size() < 1) {
-					Boolean existRes = mSectionsExist.get(cid);
-					if (existRes == null) {
-						mSectionsExist.put(cid, false);
+					if (cidList.size() < 1) {
+						Boolean existRes = mSectionsExist.get(cid);
+						if (existRes == null) {
+							mSectionsExist.put(cid, false);
+						}
 					}
-				}
-				// this is to get the sections in the proper order (file,
-				// file.1,
-				// file.2 etc)
-				Collections.sort(cidList, new DocSort());
+					// this is to get the sections in the proper order (file,
+					// file.1,
+					// file.2 etc)
+					Collections.sort(cidList, new DocSort());
 
-				if (wildcard && mTriggeredPullFiles && mRetrieveAllFiles) {
-					mRetrieveAllFiles = false;
+					if (wildcard && mTriggeredPullFiles && mRetrieveAllFiles) {
+						mRetrieveAllFiles = false;
+					}
+					return; // we don't go any further because we have our list from
+							// the
+							// postmortem
+				} finally {
+					mReportLock.unlock();
 				}
-				return; // we don't go any further because we have our list from
-						// the
-						// postmortem
 			}
 
 			// run through parsed tokens
@@ -789,8 +926,8 @@ public class ERFramework extends ClassLoader {
 							} catch (IOException e) {
 								continue;
 							}
-							DocumentSection section = new DocumentSection(getDOM(inputStreamXmlEncapsulate(ers.mInput).EncapsulatedStream),
-									ers.mCidName, addedExtension, this, mPhase, mPhaseFile);
+							DocumentSection section = getTextSection(SectionText.read(ers.mInput, encoding(), false),
+									ers.mCidName, addedExtension, encoding(), null, f, indexed.getPhaseFile());
 							cidList.add(section);
 
 							if (!wildcard)
@@ -804,98 +941,29 @@ public class ERFramework extends ClassLoader {
 				}
 			}
 
+			// sections are decoded and parsed while the next ones are read
+			SectionPipeline pipeline = new SectionPipeline(this, cidList, mDocCache, mSectionsExist);
+			String outOfMemSection = null;
+			ERException readError = null;
+			SectionCursor cursor = indexed.open();
 			try {
-				if (mIsMIME) {
-					for (int state = mtStream.getState(); state != MimeTokenStream.T_END_OF_STREAM; state = mtStream
-							.next()) {
-						switch (state) {
-						case MimeTokenStream.T_BODY:
-							SectionStream sectionStream = null;
-							Boolean existRes = mSectionsExist.get(curSectionName);
-							if (existRes == null) {
-								mSectionsExist.put(curSectionName, true);
-							}
-							if (!sectionFound && (existRes != null || !mRetrieveAllFiles)) {
-								String resultBool = "false";
-								if (existRes != null)
-									resultBool = existRes.toString();
-								LogManager.getRootLogger()
-										.debug("Section: " + curSectionName + ", SectionFound: " + sectionFound
-												+ ", existRes " + resultBool + ", retrieveFiles: " + mRetrieveAllFiles);
-								continue;
-							} else if (mRetrieveAllFiles && wildcard)
-								mTriggeredPullFiles = true;
-
-							if (sectionFound == true || existRes == null) {
-								Boolean res = mOutOfMemSections.get(curSectionName);
-								if (res != null && res == true) {
-									LogManager.getRootLogger().info(
-											"ERFramework::getCidListAsDocument(mime) - Skipping load attempt section as it previously caused out of memory: "
-													+ curSectionName);
-								} else {
-									LogManager.getRootLogger().debug("Reading body of section: " + curSectionName);
-									DocumentSection section = null;
-									if (curSectionName.contains("backtrace")) {
-										sectionStream = inputStreamXmlEncapsulate(
-												decodeBacktrace(curSectionName, mtStream.getInputStream()));
-										section = new DocumentSection(
-												getDOM(sectionStream.EncapsulatedStream),
-												curSectionName, addedExtension, this, mPhase, mPhaseFile);
-									} else if (mContentType.contains("text/plain")) {
-										try {
-											sectionStream = inputStreamXmlEncapsulate(
-													mtStream.getInputStream());
-											if (sectionStream.EncapsulatedStream != null) {
-												section = new DocumentSection(getDOM(sectionStream.EncapsulatedStream),
-														curSectionName, addedExtension, this, mPhase, mPhaseFile);
-											}
-										} catch (Exception e) {
-											// may fail
-										}
-									} else if (mContentEncoding.equalsIgnoreCase("base64")) {
-										try {
-											section = new DocumentSection(
-													getDOM(new Base64.InputStream(mtStream.getInputStream())),
-													curSectionName, addedExtension, this, mPhase, mPhaseFile);
-										} catch (Exception e) {
-											// may fail
-										}
-									} else {
-										section = new DocumentSection(getDOM(mtStream.getInputStream()), curSectionName,
-												addedExtension, this, mPhase, mPhaseFile);
-									}
-
-									if (section != null) {
-										if (existRes == null) {
-											InputStream endStream = null;
-											if(sectionStream != null)
-												endStream = sectionStream.OriginalStream;
-											AnalyticsFunctions.generateFileFromContent(section, endStream);
-										}
-										LogManager.getRootLogger().debug("Added to cache section: " + curSectionName);
-										DocumentSection tmpSection = mDocCache.get(curSectionName);
-										if (tmpSection == null) {
-											mDocCache.put(curSectionName, section);
-										}
-
-										// resolves attempting to run formula against each section (when we really just
-										// want to create files for unmatched results)
-										if (sectionFound)
-											cidList.add(section);
-									}
-								}
-								if (!wildcard)
-									break;
-							}
-							break;
-						case MimeTokenStream.T_FIELD:
-							sectionFound = false; // reset the sectionFound flag
-													// since
-													// we are in a new section
-							setContentType();
-
-							if (mtStream.getField().getName().equals("Content-ID")) {
-								String newSectionName = mtStream.getField().getBody().trim();
+				try {
+					SectionIndex index = indexed.getIndex();
+					if (index != null) {
+						Pattern pattern = null;
+						if (cid.length() > 0)
+							pattern = Pattern.compile(cid);
+
+						for (SectionIndexEntry entry : index.getEntries()) {
+							// a match only holds if Content-ID was the last header of the part,
+							// a part without any headers keeps the previous result
+							if (entry.getFieldCount() > 0)
+								sectionFound = false; // reset the sectionFound flag
+														// since
+														// we are in a new section
+
+							if (entry.getContentId() != null) {
+								String newSectionName = entry.getContentId().trim();
 
 								if (curSectionName.length() > 0 && newSectionName.equals(curSectionName)) {
 									LogManager.getRootLogger().error(
@@ -905,43 +973,87 @@ public class ERFramework extends ClassLoader {
 								curSectionName = newSectionName;
 								noFields = false;
 
-								if (cid.length() > 0) {
-									Pattern pattern = Pattern.compile(cid);
-									Matcher matcher = pattern.matcher(mtStream.getField().getBody());
+								if (pattern != null && entry.isContentIdLast()) {
+									Matcher matcher = pattern.matcher(entry.getContentId());
 									if (matcher.find()) {
 										LogManager.getRootLogger().debug("Identified section: " + curSectionName);
 										sectionFound = true;
 									}
 								}
 							}
-							break;
-						default:
+
+							Boolean existRes = mSectionsExist.putIfAbsent(curSectionName, true);
+							if (existRes == null)
+								pipeline.seen(curSectionName);
+							if (!sectionFound && (existRes != null || !mRetrieveAllFiles)) {
+								String resultBool = "false";
+								if (existRes != null)
+									resultBool = existRes.toString();
+								LogManager.getRootLogger()
+										.debug("Section: " + curSectionName + ", SectionFound: " + sectionFound
+												+ ", existRes " + resultBool + ", retrieveFiles: " + mRetrieveAllFiles);
+								continue;
+							} else if (mRetrieveAllFiles && wildcard)
+								mTriggeredPullFiles = true;
+
+							Boolean res = mOutOfMemSections.get(curSectionName);
+							if (res != null && res == true) {
+								LogManager.getRootLogger().info(
+										"ERFramework::getCidListAsDocument(mime) - Skipping load attempt section as it previously caused out of memory: "
+												+ curSectionName);
+								continue;
+							}
+
+							LogManager.getRootLogger().debug("Reading body of section: " + curSectionName);
+							InputStream body = cursor.openBody(entry);
+							SectionPipeline.Section section = new SectionPipeline.Section(curSectionName, addedExtension,
+									f, indexed.getPhaseFile(), cursor.getContentType(), cursor.getContentEncoding(),
+									cursor.getEncoding(), existRes == null, sectionFound);
+							section.read(body);
+							pipeline.add(section);
 						}
 					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
+				} catch (ERException e) {
+					readError = e;
+				} catch (IOException e) {
+					e.printStackTrace();
 
-			} catch (MimeException e) {
-				e.printStackTrace();
+				} catch (OutOfMemoryError e) {
+					// a section that failed to decode came before the one being read
+					outOfMemSection = pipeline.getFailedSection() != null ? pipeline.getFailedSection()
+							: curSectionName;
+				}
 
+				// sections read before the report failed are kept, as far as they decode
+				pipeline.finish();
+				if (readError != null)
+					throw readError;
 			} catch (OutOfMemoryError e) {
-				if (curSectionName.length() > 0)
-					mOutOfMemSections.put(curSectionName, true);
+				outOfMemSection = pipeline.getFailedSection();
+			} finally {
+				pipeline.close();
+				if (cursor.getContentType() != null)
+					keepContentType(cursor);
+				cursor.close();
+			}
+
+			if (outOfMemSection != null) {
+				if (outOfMemSection.length() > 0)
+					mOutOfMemSections.put(outOfMemSection, true);
 				LogManager.getRootLogger().info(
 						"ERFramework::getCidListAsDocument(mime) - Out of Memory error has occurred in retrieving the document section: "
-								+ curSectionName);
+								+ outOfMemSection);
 			}
 
 			// try to read it just in as a file
-			if (noFields && !mIsPostMortem) {
+			if (noFields) {
 				Pattern pattern = Pattern.compile(cid);
 				Matcher matcher = pattern.matcher(mFileLocation);
 				if (matcher.find()) {
-					InputStream encapsulatedStream = LoadFileStream();
-					if (encapsulatedStream != null) {
-						DocumentSection section = new DocumentSection(getDOM(encapsulatedStream), mFileLocation,
-								addedExtension, this, mPhase, mPhaseFile);
+					InputStream fileStream = OpenFileStream();
+					if (fileStream != null) {
+						DocumentSection section = getTextSection(SectionText.read(fileStream, encoding(), false),
+								mFileLocation, addedExtension, encoding(), null, f, indexed.getPhaseFile());
 						cidList.add(section);
 					}
 				}
@@ -958,8 +1070,16 @@ public class ERFramework extends ClassLoader {
 	 * bypass these sections
 	 */
 	public boolean checkArchiveSections(Hashtable<String, Boolean> sectionExist, String cid, boolean wildcard) {
-		if (!sectionListLive)
-			return true;
+		if (!sectionListLive) {
+			// an archive listing from the index file stands in for a previous walk,
+			// unless the walk still has to pull all files out
+			Hashtable<String, Boolean> entries = null;
+			if (mPhase < mArchiveEntryList.size())
+				entries = mArchiveEntryList.get(mPhase);
+			if (entries == null || mRetrieveAllFiles)
+				return true;
+			sectionExist = entries;
+		}
 
 		if (!wildcard) {
 			Boolean existRes = sectionExist.get(cid);
@@ -1015,52 +1135,45 @@ public class ERFramework extends ClassLoader {
 
 		for (int f = 0; f < MAX_ZIPPED_FILES; f++) {
 			// parse input file
-			boolean succeed = erParse(f, false);
+			boolean succeed = erParse(f, false, false);
 
 			if (!succeed)
 				break;
 
-			// run through parsed tokens
+			// run through the indexed sections
 			try {
-				for (int state = mtStream.getState(); state != MimeTokenStream.T_END_OF_STREAM; state = mtStream
-						.next()) {
-					switch (state) {
-
-					case MimeTokenStream.T_BODY:
-						if (cid.length() == 0 || cid.indexOf(thisCid) >= 0) {
-							InputStream in = decodeBacktrace(cid, mtStream.getInputStream());
+				SectionIndex index = null;
+				if (!mIsPostMortem)
+					index = getSectionIndex(f);
+				if (index == null)
+					continue;
+
+				for (SectionIndexEntry entry : index.getEntries()) {
+					if (entry.getContentId() != null) {
+						// extract section name
+						thisCid = entry.getContentId().trim();
+						if (thisCid.indexOf('<') >= 0)
+							thisCid = thisCid.substring(thisCid.indexOf('<') + 1);
+						if (thisCid.indexOf('@') >= 0)
+							thisCid = thisCid.substring(0, thisCid.indexOf('@'));
+					}
 
-							// process as plain text
-							out = new FileWriter(prefix + "." + thisCid);
-							for (int ch = in.read(); ch >= 0; ch = in.read()) {
-								out.write(ch);
-							}
-							in.close();
-							out.close();
+					if (cid.length() == 0 || cid.indexOf(thisCid) >= 0) {
+						InputStream in = decodeBacktrace(cid, openSectionBody(entry));
 
+						// process as plain text
+						out = new FileWriter(prefix + "." + thisCid);
+						for (int ch = in.read(); ch >= 0; ch = in.read()) {
+							out.write(ch);
 						}
-						break;
-
-					case MimeTokenStream.T_FIELD:
-						setContentType();
-						if (mtStream.getField().getName().equals("Content-ID")) {
-							// extract section name
-							thisCid = mtStream.getField().getBody().trim();
-							if (thisCid.indexOf('<') >= 0)
-								thisCid = thisCid.substring(thisCid.indexOf('<') + 1);
-							if (thisCid.indexOf('@') >= 0)
-								thisCid = thisCid.substring(0, thisCid.indexOf('@'));
-						}
-						break;
-					default:
+						in.close();
+						out.close();
 					}
 				}
 			} catch (FileNotFoundException e) {
 				throw new ERFrameworkFileException(msgs.getString("bad_filename") + " - expand " + e.toString());
 			} catch (IOException e) {
 				throw new ERFrameworkIOException(msgs.getString("token_error") + " expand " + e.toString());
-			} catch (MimeException e) {
-				throw new ERFrameworkMimeException(msgs.getString("token_error") + " expand " + e.toString());
 			}
 		}
 	}
@@ -1224,9 +1337,18 @@ public class ERFramework extends ClassLoader {
 	 * @return Document (DOM tree) representing the parsed XML entity
 	 */
 	private Document getDOM(InputStream in) throws ERException {
+		return getDOM(in, encoding(), null);
+	}
+
+	/**
+	 * @param errors stream parse problems are reported to, null for stderr
+	 */
+	private Document getDOM(InputStream in, String encoding, PrintStream errors) throws ERException {
 		try {
 			DocumentBuilder db = mDocBuilderFactory.newDocumentBuilder();
-			Document result = db.parse(new InputSource(new InputStreamReader(in, encoding())));
+			if (errors != null)
+				db.setErrorHandler(new ParseErrorHandler(errors));
+			Document result = db.parse(new InputSource(new InputStreamReader(in, encoding)));
 			return result;
 		} catch (IOException e) {
 			throw new ERFrameworkIOException(" getCidAsXML " + e.toString());
@@ -1237,6 +1359,140 @@ public class ERFramework extends ClassLoader {
 		}
 	}
 
+	/**
+	 * Parse a section for a DocumentSection, into a CompactDocument when those
+	 * are enabled
+	 */
+	private Document getSectionDOM(InputStream in) throws ERException {
+		return getSectionDOM(in, encoding(), null);
+	}
+
+	private Document getSectionDOM(InputStream in, String encoding, PrintStream errors) throws ERException {
+		if (!mCompactDOMEnabled)
+			return getDOM(in, encoding, errors);
+		try {
+			return CompactDocument.parse(new InputStreamReader(in, encoding), errors != null ? errors : System.err);
+		} catch (IOException e) {
+			throw new ERFrameworkIOException(" getCidAsXML " + e.toString());
+		} catch (ParserConfigurationException e) {
+			throw new ERFrameworkParseException("getCidAsXML " + e.toString());
+		} catch (SAXException e) {
+			throw new ERFrameworkXMLException("getCidAsXML " + e.toString());
+		}
+	}
+
+	/**
+	 * Read a text section for a DocumentSection. Its text is held as the only
+	 * content of a Root element rather than parsed, unless the parse would not
+	 * give that text back.
+	 */
+	private DocumentSection getTextSection(SectionText text, String cidName, String addedExtension)
+			throws ERException {
+		return getTextSection(text, cidName, addedExtension, encoding(), null, mPhase, mPhaseFile);
+	}
+
+	private DocumentSection getTextSection(SectionText text, String cidName, String addedExtension, String encoding,
+			PrintStream errors, int phase, String phaseFile) throws ERException {
+		if (text.getText() == null)
+			return new DocumentSection(getSectionDOM(text.getEncapsulated(), encoding, errors), cidName,
+					addedExtension, this, phase, phaseFile);
+		return new DocumentSection(getTextDOM(text.getText()), text.getText(), cidName, addedExtension, this, phase,
+				phaseFile);
+	}
+
+	/**
+	 * Decode and parse a MIME section read for the section pipeline. Runs on a
+	 * pipeline thread, the phase, content type and encoding are taken from the
+	 * section rather than the current section of the framework, and parse problems are
+	 * kept with the section until it is taken back.
+	 * 
+	 * @return the section, or null if a text or base64 section fails
+	 */
+	DocumentSection decodeSection(SectionPipeline.Section pending) throws ERException {
+		PrintStream errors = pending.getErrors();
+		InputStream body = pending.open();
+		SectionText sectionText = null;
+		DocumentSection section = null;
+		if (pending.mName.contains("backtrace")) {
+			sectionText = SectionText.read(decodeBacktrace(pending.mName, body), pending.mEncoding,
+					pending.mKeepOriginal);
+			section = getTextSection(sectionText, pending.mName, pending.mExtension, pending.mEncoding, errors,
+					pending.mPhase, pending.mPhaseFile);
+		} else if (pending.mContentType.contains("text/plain")) {
+			try {
+				sectionText = SectionText.read(body, pending.mEncoding, pending.mKeepOriginal);
+				section = getTextSection(sectionText, pending.mName, pending.mExtension, pending.mEncoding, errors,
+					pending.mPhase, pending.mPhaseFile);
+			} catch (Exception e) {
+				// may fail
+			}
+		} else if ("base64".equalsIgnoreCase(pending.mContentEncoding)) {
+			try {
+				section = new DocumentSection(getSectionDOM(new Base64.InputStream(body), pending.mEncoding, errors),
+						pending.mName, pending.mExtension, this, pending.mPhase, pending.mPhaseFile);
+			} catch (Exception e) {
+				// may fail
+			}
+		} else {
+			section = new DocumentSection(getSectionDOM(body, pending.mEncoding, errors), pending.mName,
+					pending.mExtension, this, pending.mPhase, pending.mPhaseFile);
+		}
+
+		if (sectionText != null)
+			pending.mOriginal = sectionText.getOriginal();
+		return section;
+	}
+
+	/**
+	 * A DOM that expands its nodes as they are first read changes the document
+	 * on a read, so nodes are expanded while parsing
+	 */
+	private static DocumentBuilderFactory newDocBuilderFactory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		try {
+			factory.setFeature(DEFER_NODE_EXPANSION, false);
+		} catch (ParserConfigurationException e) {
+			LogManager.getRootLogger().info("ERFramework::newDocBuilderFactory unable to turn off deferred nodes " + e);
+		}
+		return factory;
+	}
+
+	/**
+	 * @return a document holding text as the only content of its Root element,
+	 *         as parsing the encapsulated text gives it
+	 */
+	public static Document getTextDOM(String text) throws ERException {
+		try {
+			Document doc = mDocBuilderFactory.newDocumentBuilder().newDocument();
+			Element root = doc.createElement("Root");
+			doc.appendChild(root);
+			if (text.length() > 0)
+				root.appendChild(doc.createTextNode(text));
+			return doc;
+		} catch (ParserConfigurationException e) {
+			throw new ERFrameworkParseException("getCidAsXML " + e.toString());
+		}
+	}
+
+	/**
+	 * Parse an XML section again from the bytes DocumentSection serialized it
+	 * to, which declare their own encoding
+	 */
+	public Document getSerializedDOM(byte[] data) throws ERException {
+		try {
+			if (mCompactDOMEnabled)
+				return CompactDocument.parse(new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+			DocumentBuilder db = mDocBuilderFactory.newDocumentBuilder();
+			return db.parse(new ByteArrayInputStream(data));
+		} catch (IOException e) {
+			throw new ERFrameworkIOException(" getCidAsXML " + e.toString());
+		} catch (ParserConfigurationException e) {
+			throw new ERFrameworkParseException("getCidAsXML " + e.toString());
+		} catch (SAXException e) {
+			throw new ERFrameworkXMLException("getCidAsXML " + e.toString());
+		}
+	}
+
 	/**
 	 * Output the complete report in HTML format
 	 * 
@@ -1581,17 +1837,21 @@ public class ERFramework extends ClassLoader {
 		return false;
 	}
 
+	/**
+	 * Reads through the framework that do not name a section go on with the
+	 * content type of the last section a cursor read, as if the framework had
+	 * read it itself
+	 */
+	private void keepContentType(SectionCursor cursor) {
+		mContentType = cursor.getContentType();
+		mContentEncoding = cursor.getContentEncoding();
+	}
+
 	/*
 	 * Identify character encoding for current section
 	 */
 	private String encoding() {
-		String encoding = "UTF-8";
-		if (mContentType.indexOf("charset=") >= 0) {
-			encoding = mContentType.substring(mContentType.indexOf("charset=") + 8);
-			if (encoding.indexOf(";") > 0)
-				encoding = encoding.substring(0, encoding.indexOf(";"));
-		}
-		return encoding;
+		return SectionCursor.getEncoding(mContentType);
 	}
 
 	/**
@@ -1620,16 +1880,40 @@ public class ERFramework extends ClassLoader {
 	 * need to be processed
 	 */
 	private boolean erParse(int attempt, boolean determinePhase) throws ERException {
+		return erParse(attempt, determinePhase, true);
+	}
+
+	/**
+	 * Same as above, tokenize false leaves the decompressed report in
+	 * mPhaseStream for use with the section index instead of handing it to the
+	 * MIME token stream
+	 */
+	private boolean erParse(int attempt, boolean determinePhase, boolean tokenize) throws ERException {
+		// a phase already inflated to a spill file is read from the mapping
+		if (!determinePhase && !tokenize && attempt < mSpillList.size() && mSpillList.get(attempt) != null) {
+			SpillFile spill = mSpillList.get(attempt);
+			mIsPostMortem = false;
+			mPhase = attempt;
+			mPhaseFile = spill.getPhaseFile();
+			mPhaseSpill = spill;
+			mPhaseGzip = false;
+			mPhaseStream = spill.open();
+			mPhasePosition = 0;
+			mSectionStream = null;
+			return true;
+		}
+
 		boolean mBasePostMortem = false; // if its a zip file post mortem
 											// without .tar.gz archive
 		mIsPostMortem = false;
+		mPhaseGzip = false;
+		mPhaseZipGzip = false;
+		mArchiveIsTar = false;
 		mPhase = attempt;
 
 		mPhaseFile = this.getFileLocation();
-		String oldFile = mPhaseFile;
 		boolean skipPhase = false;
 		boolean attemptsMade = false;
-		int maxAttempts = 0;
 		try {
 			MimeEntityConfig config = new MimeEntityConfig();
 			config.setMaxLineLen(0);
@@ -1640,85 +1924,41 @@ public class ERFramework extends ClassLoader {
 
 			InputStream zippedStream = null; // file pulled from zip
 
-			// attempt a zip decode for post mortem
+			// phases of a zip input are its entries, listed once from the central
+			// directory
 			if (mFileLocation.endsWith(".zip")) {
-				ZipInputStream inputStream = null;
-				try {
-					inputStream = new ZipInputStream(new FileInputStream(mFileLocation));
-				} catch (FileNotFoundException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
-
-				InputStream tmpStream = null;
-				if (inputStream != null) {
-					// find out what type of report if its a zip
-					ZipEntry entry = inputStream.getNextEntry();
-					try {
-						for (int i = 0; i < attempt; i++) {
-							attemptsMade = true;
-							entry = inputStream.getNextEntry();
-							if (entry != null && entry.getName().endsWith(".zip")) {
-								// since we have a zip match inside the main archive then we set maxAttempts to
-								// the current iteration
-								maxAttempts = i;
-								tmpStream = readArchiveFile(inputStream);
-								ZipInputStream inputStream2 = new ZipInputStream(tmpStream);
-								entry = inputStream2.getNextEntry();
-								skipPhase = true;
-							}
-
-							if (entry == null) {
-								/*
-								 * we are aborting out cause this is likely not a postmortem (or its a dual zip
-								 * with ER+postmortem or ER+ER or postmortem + postmortem combination, we still
-								 * need to honor the full list to pull results from those unique files
-								 */
-								if (determinePhase && i > mHighestPhase)
-									mHighestPhase = i;
-
-								return false;
-							}
-						}
-						// we only care about the first entry really, we can't
-						// handle multiple docs less its a post mortem .tar.gz
-						// which is handled in getCidListAsDocument
-						if (entry != null) {
-							if (entry.getName().startsWith("var/") || entry.getName().startsWith("etc/"))
-								mBasePostMortem = true;
-
-							if (skipPhase && tmpStream != null) {
-								stream = tmpStream;
-								stream.reset();
-								try {
-									inputStream = new ZipInputStream(stream);
-								} catch (Exception e1) {
-									// TODO Auto-generated catch block
-									e1.printStackTrace();
-								}
-							} else {
-								if (stream != null)
-									stream.close();
-
-								oldFile = mPhaseFile;
-
-								mPhaseFile = entry.getName();
-								stream = readArchiveFile(inputStream);
+				ZipPhaseContainer container = getZipContainer();
+				if (container != null) {
+					int phases = container.getPhaseCount();
+					if (determinePhase) {
+						if (Math.min(phases - 1, attempt) > mHighestPhase)
+							mHighestPhase = Math.min(phases - 1, attempt);
+						stream.close();
+						return attempt < phases;
+					}
+					if (attempt >= phases) {
+						stream.close();
+						return false;
+					}
+					attemptsMade = true;
 
-							}
-							zippedStream = stream;
-						}
-					} catch (IOException e) {
-						e.printStackTrace();
+					stream.close();
+					if (container.isArchive(attempt)) {
+						// a nested post-mortem zip is read as an archive as a whole
+						mBasePostMortem = true;
+						skipPhase = true;
+					} else {
+						if (ZipPhaseContainer.isPostMortemName(container.getName(attempt)))
+							mBasePostMortem = true;
+						mPhaseFile = container.getName(attempt);
 					}
+					stream = readArchiveFile(container.open(attempt));
+					zippedStream = stream;
 				}
 			} // end of ".zip" block
 
 			if (attempt > 0 && !attemptsMade)
 				return false;
-			// only update if we are in the initial parsing of the file on startup
-			else if (determinePhase && maxAttempts > mHighestPhase)
-				mHighestPhase = maxAttempts;
 
 			// we can abort out at this point, we are just determining how many inner files
 			// we need to parse for results
@@ -1738,6 +1978,9 @@ public class ERFramework extends ClassLoader {
 									// any further than the postmortem with the
 									// file contents of the linux filesystem
 					try {
+						InputStream tarSource = stream;
+						int entriesRead = 0;
+
 						// determine if this is a .tar.gz file
 						if (gzipStage)
 							tarInputStream = new TarArchiveInputStream(new GZIPInputStream(stream));
@@ -1747,14 +1990,27 @@ public class ERFramework extends ClassLoader {
 						TarArchiveEntry ent = null;
 
 						while ((ent = tarInputStream.getNextTarEntry()) != null) {
+							entriesRead++;
 							String name = ent.getName();
 							if (contLoop && name.endsWith(".gz")) {
 								stream = readArchiveFile(tarInputStream);
 							} else {
-								if (gzipStage)
+								// remember where the tar came from so it can be indexed, the
+								// entries read so far are not seen by the archive walk
+								mArchiveIsTar = true;
+								if (gzipStage) {
 									mArchiveStream = tarInputStream;
-								else
+									mArchiveTarSource = tarSource instanceof ByteArrayInputStream
+											? (ByteArrayInputStream) tarSource
+											: null;
+									mArchiveTarGzip = true;
+									mArchiveTarSkipped = entriesRead;
+								} else {
 									mArchiveStream = new TarArchiveInputStream(new FileInputStream(mFileLocation));
+									mArchiveTarSource = null;
+									mArchiveTarGzip = false;
+									mArchiveTarSkipped = 0;
+								}
 
 								/*
 								 * we dug into the .tar.gz and found the source post mortem
@@ -1794,6 +2050,7 @@ public class ERFramework extends ClassLoader {
 
 						BufferedInputStream buf = new BufferedInputStream(stream);
 						mArchiveStream = new ArchiveStreamFactory().createArchiveInputStream(buf);
+						mArchiveIsTar = false;
 						mIsPostMortem = true;
 					} catch (ArchiveException e) {
 						// TODO Auto-generated catch block
@@ -1805,9 +2062,11 @@ public class ERFramework extends ClassLoader {
 						// decode, so we have to reset the buffer
 						zippedStream.reset();
 						stream = new GZIPInputStream(zippedStream);
+						mPhaseZipGzip = true;
 					} else {
 						stream = new FileInputStream(mFileLocation);
 						stream = new GZIPInputStream(stream);
+						mPhaseGzip = true;
 
 						if (!mIsMIME) {
 							FileInputStream secondaryStream = new FileInputStream(mFileLocation);
@@ -1846,7 +2105,27 @@ public class ERFramework extends ClassLoader {
 					secondaryStream.close();
 				}
 
-				mtStream.parse(stream);
+				if (tokenize)
+					mtStream.parse(stream);
+				else {
+					mPhaseStream = new BufferedInputStream(stream, 65536);
+					mPhasePosition = 0;
+					mSectionStream = null;
+					mPhaseSpill = null;
+					if (mSpillEnabled && mSpillSkipped.get(attempt) == null) {
+						SpillFile spill = SpillFile.create(mPhaseStream, mPhaseFile, null);
+						IOUtils.closeQuietly(mPhaseStream);
+						if (spill == null) {
+							// too large to map, stay with the stream
+							mSpillSkipped.put(attempt, true);
+						} else {
+							while (mSpillList.size() <= attempt)
+								mSpillList.add(null);
+							mSpillList.set(attempt, spill);
+						}
+						return erParse(attempt, determinePhase, tokenize);
+					}
+				}
 			}
 
 		} catch (IOException e) {
@@ -1866,9 +2145,367 @@ public class ERFramework extends ClassLoader {
 			mContentEncoding = mtStream.getField().getBody().trim();
 	}
 
+	/**
+	 * Return the entry index of a post-mortem tar, building it the first time the
+	 * phase is walked. A compressed tar is decompressed once into a spill file
+	 * while it is indexed. erParse(phase, false, false) must have been called.
+	 * Null if the archive is not a tar or cannot be indexed.
+	 */
+	private TarIndex getTarIndex(int phase) {
+		TarIndex index = null;
+		if (phase < mTarIndexList.size())
+			index = mTarIndexList.get(phase);
+		if (index != null || !mIsPostMortem || !mArchiveIsTar)
+			return index;
+
+		InputStream source = null;
+		try {
+			if (!mArchiveTarGzip)
+				index = TarIndex.build(new File(mFileLocation), mArchiveTarSkipped);
+			else {
+				if (mArchiveTarSource != null) {
+					mArchiveTarSource.reset();
+					source = mArchiveTarSource;
+				} else
+					source = new FileInputStream(mFileLocation);
+				index = TarIndex.build(new GZIPInputStream(source), mArchiveTarSkipped);
+			}
+		} catch (Exception e) {
+			LogManager.getRootLogger().debug("ERFramework::getTarIndex unable to index " + mPhaseFile + " " + e);
+			// the archive stream shares its source with the failed attempt
+			try {
+				erParse(phase, false, false);
+			} catch (ERException e1) {
+			}
+			return null;
+		} finally {
+			IOUtils.closeQuietly(source);
+		}
+
+		while (mTarIndexList.size() <= phase)
+			mTarIndexList.add(null);
+		mTarIndexList.set(phase, index);
+		return index;
+	}
+
+	/**
+	 * Return the phases of a zip input, reading its central directory the first
+	 * time. Null if the file cannot be read as a zip.
+	 */
+	private ZipPhaseContainer getZipContainer() {
+		if (mZipContainer == null) {
+			try {
+				mZipContainer = ZipPhaseContainer.open(new File(mFileLocation));
+			} catch (IOException e) {
+				LogManager.getRootLogger()
+						.error("ERFramework::getZipContainer unable to read " + mFileLocation + " " + e);
+			}
+		}
+		return mZipContainer;
+	}
+
+	/**
+	 * Return the section index of a phase, scanning the decompressed report the
+	 * first time the phase is requested. erParse(phase, false, false) must have
+	 * been called, mPhaseStream is left at the start of the report.
+	 */
+	private SectionIndex getSectionIndex(int phase) throws ERException {
+		SectionIndex index = null;
+		if (phase < mSectionIndexList.size())
+			index = mSectionIndexList.get(phase);
+		if (index != null)
+			return index;
+
+		GzipCheckpointStream gzipStream = null;
+		try {
+			// a gzip report is inflated here by the checkpointing decoder so later
+			// reads can start near the section they want
+			if (mPhaseGzip && mPhaseSpill == null) {
+				IOUtils.closeQuietly(mPhaseStream);
+				gzipStream = new GzipCheckpointStream(new FileInputStream(mFileLocation), GzipIndex.DEFAULT_SPAN);
+				index = SectionIndex.build(gzipStream);
+
+				while (mGzipIndexList.size() <= phase)
+					mGzipIndexList.add(null);
+				mGzipIndexList.set(phase, gzipStream.getIndex());
+			} else
+				index = SectionIndex.build(mPhaseStream);
+		} catch (IOException e) {
+			throw new ERFrameworkIOException(msgs.getString("mime_error") + " getSectionIndex() " + e.toString());
+		} finally {
+			IOUtils.closeQuietly(mPhaseStream);
+			IOUtils.closeQuietly(gzipStream);
+		}
+		LogManager.getRootLogger().debug("ERFramework::getSectionIndex phase " + phase + " indexed "
+				+ index.getEntries().size() + " sections, " + index.getLength() + " bytes");
+
+		while (mSectionIndexList.size() <= phase)
+			mSectionIndexList.add(null);
+		mSectionIndexList.set(phase, index);
+
+		// reopen the phase so callers start reading from the beginning
+		erParse(phase, false, false);
+		return index;
+	}
+
+	/**
+	 * Return how a phase is read, indexing it the first time. Phases read
+	 * through a section index, and post-mortem phases, are kept in the report
+	 * handle; other phases are looked at again on every call, as the report may
+	 * yet turn out to be MIME.
+	 * 
+	 * @return null if the report does not have the phase
+	 */
+	private ReportHandle.Phase getIndexedPhase(int phase) throws ERException {
+		ReportHandle.Phase indexed = mHandle.getPhase(phase);
+		if (indexed != null)
+			return indexed;
+
+		mReportLock.lock();
+		try {
+			indexed = mHandle.getPhase(phase);
+			if (indexed != null)
+				return indexed;
+			if (!erParse(phase, false, false))
+				return null;
+
+			if (mIsPostMortem)
+				return mHandle.setPhase(new ReportHandle.Phase(mFileLocation, phase, mPhaseFile,
+						ReportHandle.Source.POST_MORTEM, null, null, null, null));
+			if (!mIsMIME)
+				return new ReportHandle.Phase(mFileLocation, phase, mPhaseFile, ReportHandle.Source.FILE, null,
+						null, null, null);
+
+			SectionIndex index = getSectionIndex(phase);
+			ReportHandle.Source source = ReportHandle.Source.FILE;
+			if (mPhaseSpill != null)
+				source = ReportHandle.Source.SPILL;
+			else if (mPhaseGzip)
+				source = ReportHandle.Source.GZIP;
+			else if (mPhaseZipGzip)
+				source = ReportHandle.Source.ZIP_GZIP;
+			GzipIndex gzipIndex = source == ReportHandle.Source.GZIP ? getPhase(mGzipIndexList, phase) : null;
+			return mHandle.setPhase(new ReportHandle.Phase(mFileLocation, phase, mPhaseFile, source, index,
+					gzipIndex, mPhaseSpill, mZipContainer));
+		} finally {
+			mReportLock.unlock();
+		}
+	}
+
+	/**
+	 * Scan every phase of the report. A report with more than one phase has its
+	 * phases loaded at the same time, each by an ERFramework of its own, and the
+	 * results are kept in phase order.
+	 * 
+	 * @return false if a phase could not be read
+	 */
+	private boolean indexPhases() {
+		if (mHighestPhase == 0) {
+			try {
+				indexPhase(0);
+			} catch (ERException e) {
+				LogManager.getRootLogger().debug("ERFramework::indexPhases unable to index report " + e);
+				return false;
+			}
+			return true;
+		}
+
+		int threads = Math.min(mHighestPhase + 1, Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1),
+				ExecutionBackend.getIOThreadFactory("ertool-phase-"));
+		ArrayList<Future<ERFramework>> futures = new ArrayList<Future<ERFramework>>();
+		for (int f = 0; f <= mHighestPhase; f++) {
+			final int phase = f;
+			futures.add(pool.submit(new Callable<ERFramework>() {
+				public ERFramework call() throws ERException {
+					ERFramework worker = new ERFramework(mID);
+					worker.mFileLocation = mFileLocation;
+					worker.mPhaseIndexed = worker.indexPhase(phase);
+					return worker;
+				}
+			}));
+		}
+		pool.shutdown();
+
+		// a phase that does not exist or fails ends the report, as it does when
+		// the phases are read one after another
+		boolean indexed = true;
+		boolean ended = false;
+		for (int f = 0; f < futures.size(); f++) {
+			ERFramework worker = null;
+			try {
+				worker = futures.get(f).get();
+			} catch (InterruptedException | ExecutionException e) {
+				LogManager.getRootLogger().debug("ERFramework::indexPhases unable to index phase " + f + " " + e);
+				if (!ended)
+					indexed = false;
+				ended = true;
+				continue;
+			}
+
+			if (!worker.mPhaseIndexed)
+				ended = true;
+			if (!ended)
+				takePhase(worker, f);
+			else
+				worker.closePhases();
+			if (worker.mZipContainer != null)
+				worker.mZipContainer.close();
+		}
+		return indexed;
+	}
+
+	/**
+	 * Load and index a phase, as the first lookup of a section in it does
+	 * 
+	 * @return false if the report does not have the phase
+	 */
+	private boolean indexPhase(int phase) throws ERException {
+		if (!erParse(phase, false, false))
+			return false;
+
+		if (mIsPostMortem)
+			getArchiveEntries(phase);
+		else
+			getSectionIndex(phase);
+		return true;
+	}
+
+	/**
+	 * Keep what another ERFramework found out about a phase of the same report
+	 */
+	private void takePhase(ERFramework worker, int phase) {
+		setPhase(mSectionIndexList, phase, getPhase(worker.mSectionIndexList, phase));
+		setPhase(mArchiveEntryList, phase, getPhase(worker.mArchiveEntryList, phase));
+		setPhase(mGzipIndexList, phase, getPhase(worker.mGzipIndexList, phase));
+		setPhase(mTarIndexList, phase, getPhase(worker.mTarIndexList, phase));
+		setPhase(mSpillList, phase, getPhase(worker.mSpillList, phase));
+		if (worker.mSpillSkipped.get(phase) != null)
+			mSpillSkipped.put(phase, true);
+	}
+
+	private void closePhases() {
+		for (TarIndex tarIndex : mTarIndexList) {
+			if (tarIndex != null)
+				tarIndex.close();
+		}
+	}
+
+	private static <T> T getPhase(ArrayList<T> list, int phase) {
+		return phase < list.size() ? list.get(phase) : null;
+	}
+
+	private static <T> void setPhase(ArrayList<T> list, int phase, T value) {
+		if (value == null)
+			return;
+		while (list.size() <= phase)
+			list.add(null);
+		list.set(phase, value);
+	}
+
+	/**
+	 * Write what indexPhases() found to the index file so the next run can skip
+	 * the discovery
+	 */
+	private void saveSectionIndexFile(SectionIndexFile indexFile) {
+		indexFile.setHighestPhase(mHighestPhase);
+		indexFile.getSectionIndexes().addAll(mSectionIndexList);
+		indexFile.getArchiveEntries().addAll(mArchiveEntryList);
+		indexFile.getGzipIndexes().addAll(mGzipIndexList);
+		indexFile.save();
+	}
+
+	/**
+	 * Return the entry names of a post-mortem archive, walking mArchiveStream the
+	 * first time. erParse(phase, false, false) must have been called.
+	 */
+	private Hashtable<String, Boolean> getArchiveEntries(int phase) {
+		Hashtable<String, Boolean> entries = null;
+		if (phase < mArchiveEntryList.size())
+			entries = mArchiveEntryList.get(phase);
+		if (entries != null || mArchiveStream == null)
+			return entries;
+
+		entries = new Hashtable<String, Boolean>();
+		TarIndex tarIndex = getTarIndex(phase);
+		if (tarIndex != null) {
+			for (TarIndex.Entry entry : tarIndex.getEntries())
+				entries.put(entry.getName(), true);
+		} else {
+			try {
+				ArchiveEntry ent = null;
+				while ((ent = mArchiveStream.getNextEntry()) != null)
+					entries.put(ent.getName(), true);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		while (mArchiveEntryList.size() <= phase)
+			mArchiveEntryList.add(null);
+		mArchiveEntryList.set(phase, entries);
+		return entries;
+	}
+
+	/**
+	 * Position mPhaseStream at the body of an indexed section and return a stream
+	 * limited to that body. Sections are expected in ascending order, going back
+	 * reopens the phase. Sets the content type and encoding of the section.
+	 */
+	private InputStream openSectionBody(SectionIndexEntry entry) throws ERException, IOException {
+		if (mPhaseSpill != null) {
+			mContentType = entry.getContentType();
+			mContentEncoding = entry.getContentEncoding();
+			return mPhaseSpill.open(entry.getBodyStart(), entry.getBodyEnd());
+		}
+
+		if (mSectionStream != null) {
+			mPhasePosition += mSectionStream.getConsumed();
+			mSectionStream = null;
+		}
+
+		// a gzip index lets us resume inflating at the checkpoint before the
+		// section instead of rewinding or skipping a long way
+		long target = entry.getBodyStart();
+		GzipIndex gzipIndex = null;
+		if (mPhaseGzip && mPhase < mGzipIndexList.size())
+			gzipIndex = mGzipIndexList.get(mPhase);
+		if (gzipIndex != null && (target < mPhasePosition || target - mPhasePosition > gzipIndex.getSpan())) {
+			GzipIndex.Checkpoint checkpoint = gzipIndex.find(target);
+			if (checkpoint != null && (target < mPhasePosition || checkpoint.getOffset() > mPhasePosition)) {
+				LogManager.getRootLogger().debug("ERFramework::openSectionBody resuming at checkpoint "
+						+ checkpoint.getOffset() + " for section at " + target);
+				InputStream stream = gzipIndex.open(new File(mFileLocation), target);
+				IOUtils.closeQuietly(mPhaseStream);
+				mPhaseStream = new BufferedInputStream(stream, 65536);
+				mPhasePosition = target;
+			}
+		}
+
+		if (target < mPhasePosition)
+			erParse(mPhase, false, false);
+
+		long skip = entry.getBodyStart() - mPhasePosition;
+		while (skip > 0) {
+			long skipped = mPhaseStream.skip(skip);
+			if (skipped <= 0) {
+				if (mPhaseStream.read() == -1)
+					break;
+				skipped = 1;
+			}
+			skip -= skipped;
+			mPhasePosition += skipped;
+		}
+
+		mContentType = entry.getContentType();
+		mContentEncoding = entry.getContentEncoding();
+		mSectionStream = new SectionInputStream(mPhaseStream, entry.getBodyLength());
+		return mSectionStream;
+	}
+
 	private InputStream readArchiveFile(InputStream archiveStream) {
 		ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-		byte[] buffer = new byte[1024];
+		byte[] buffer = new byte[65536];
 		int len = 0;
 		try {
 			while ((len = archiveStream.read(buffer)) != -1) {
@@ -1883,6 +2520,11 @@ public class ERFramework extends ClassLoader {
 	}
 
 	private InputStream LoadFileStream() {
+		InputStream encapsulatedStream = inputStreamXmlEncapsulate(OpenFileStream()).EncapsulatedStream;
+		return encapsulatedStream;
+	}
+
+	private InputStream OpenFileStream() {
 		try {
 			mOriginalStream = new FileInputStream(mFileLocation);
 		} catch (FileNotFoundException e) {
@@ -1890,8 +2532,7 @@ public class ERFramework extends ClassLoader {
 			e.printStackTrace();
 		}
 
-		InputStream encapsulatedStream = inputStreamXmlEncapsulate(mOriginalStream).EncapsulatedStream;
-		return encapsulatedStream;
+		return mOriginalStream;
 	}
 
 	public int GetID() {
@@ -1955,7 +2596,44 @@ public class ERFramework extends ClassLoader {
 	private int mHighestPhase = 0;
 	private String mPhaseFile = "";
 
-	public static DocumentBuilderFactory mDocBuilderFactory = DocumentBuilderFactory.newInstance();
+	// section offsets per phase, built once by getSectionIndex
+	private ArrayList<SectionIndex> mSectionIndexList = new ArrayList<SectionIndex>();
+	private ZipPhaseContainer mZipContainer; // phases of a .zip input
+	private ArrayList<TarIndex> mTarIndexList = new ArrayList<TarIndex>();
+	private boolean mArchiveIsTar = false; // mArchiveStream reads a tar
+	private ByteArrayInputStream mArchiveTarSource; // in-memory source of the tar, null for the report file
+	private boolean mArchiveTarGzip = false;
+	private int mArchiveTarSkipped = 0; // entries read before mArchiveStream was handed over
+	private ArrayList<GzipIndex> mGzipIndexList = new ArrayList<GzipIndex>();
+	private boolean mPhaseGzip = false; // phase is the report itself gzip compressed
+	private boolean mPhaseZipGzip = false; // phase is a gzip compressed entry of a zip input
+	private InputStream mPhaseStream; // decompressed report when erParse does not tokenize
+	private long mPhasePosition = 0; // bytes of mPhaseStream consumed before mSectionStream
+	private SectionInputStream mSectionStream; // body handed out by openSectionBody
+	// post-mortem archive entry names per phase, filled from the index file
+	private ArrayList<Hashtable<String, Boolean>> mArchiveEntryList = new ArrayList<Hashtable<String, Boolean>>();
+
+	// phases inflated once to a mapped temporary file when spilling is enabled
+	private ArrayList<SpillFile> mSpillList = new ArrayList<SpillFile>();
+	private Hashtable<Integer, Boolean> mSpillSkipped = new Hashtable<Integer, Boolean>();
+	private SpillFile mPhaseSpill; // spill file behind mPhaseStream, if any
+	private boolean mPhaseIndexed = false; // indexPhases() found the phase
+
+	// indexed phases, read through cursors of their own
+	private ReportHandle mHandle = new ReportHandle("");
+	// held while reading through the framework's own streams above
+	private ReentrantLock mReportLock = new ReentrantLock();
+	private static boolean mSpillEnabled = false;
+	private static boolean mCompactDOMEnabled = false;
+
+	// where index files go, null is next to the report
+	private static String mIndexCacheDir = null;
+	public static final String INDEX_CACHE_NONE = "none";
+
+	// documents are built in full as they are parsed and not changed after, so
+	// any number of formulas can read one at the same time
+	public static DocumentBuilderFactory mDocBuilderFactory = newDocBuilderFactory();
+	private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
 
 	/*
 	 * Prevents going OOM continuously on the same sections in the
@@ -1967,16 +2645,24 @@ public class ERFramework extends ClassLoader {
 	// track all the active document contents we are reviewing via erParse
 	ArrayList<Hashtable<String, Boolean>> mSectionList = new ArrayList<Hashtable<String, Boolean>>();
 	// if the current file has the Hashtable above loaded or not
-	boolean sectionListLive = false;
+	volatile boolean sectionListLive = false;
 
 	private static int MAX_ZIPPED_FILES = 255;
 	private int mID = -1;
 
 	// if we want to pull all files and put it into a generated dir for Analytics
 	// functionality
-	private boolean mRetrieveAllFiles = false;
-	private boolean mTriggeredPullFiles = false;
-
-	public Hashtable<String, ERMimeSection> mDecodedCache = new Hashtable<String, ERMimeSection>();
-	public Hashtable<String, DocumentSection> mDocCache = new Hashtable<String, DocumentSection>();
+	private volatile boolean mRetrieveAllFiles = false;
+	private volatile boolean mTriggeredPullFiles = false;
+
+	public SectionCache<ERMimeSection> mDecodedCache = new SectionCache<ERMimeSection>("decoded",
+			new ERMimeSection.CacheCodec());
+	public SectionCache<DocumentSection> mDocCache = new SectionCache<DocumentSection>("section",
+			new DocumentSection.CacheCodec(this));
+
+	// names of the sections in the order of the report, see getSectionPosition()
+	private ArrayList<String> mSectionOrder = null;
+	private boolean mSectionOrderRead = false;
+	private boolean mSectionOrderPostMortem = false;
+	private final Object mSectionOrderLock = new Object();
 }
@@ -27,6 +27,7 @@ import org.xml.sax.SAXException;
 
 import com.ibm.datapower.er.Analytics.AnalyticsProcessor;
 import com.ibm.datapower.er.Analytics.ERMimeSection;
+import com.ibm.datapower.er.Analytics.FormulaProfile;
 import com.ibm.datapower.er.ERCommandLineArgs.CommandLineEvent;
 import com.ibm.datapower.er.Transactions.ParseTransx;
 import com.ibm.datapower.er.mgmt.ERXmlMgmt;
@@ -56,13 +57,14 @@ public final class ERTool implements Runnable, ERCommandLineArgs.CommandLineList
 	boolean printTransactions = false;
 	boolean printTransactionsInXML = false;
 	boolean retrieveAllFiles = true;
+	String profileFormat = null;
 	String logLevel = "info";
 	InputStream in;
 	ERFramework fm;
 	boolean gui;
 	// signifies the end of the usage entries in ERMessages.properties
 	// (ERTOOL...I)
-	private final int USAGE_PROPERTIES_END = 55;
+	private final int USAGE_PROPERTIES_END = 62;
 
 	/**
 	 * Constructor
@@ -226,6 +228,7 @@ public final class ERTool implements Runnable, ERCommandLineArgs.CommandLineList
 		if (analyticsFile.length() > 0 && fileNames.size() > 0) {
 			ranAnalytics = true;
 			AnalyticsProcessor analytics = new AnalyticsProcessor();
+			analytics.setProfileFormat(profileFormat);
 			ArrayList<ERFramework> frameworks = new ArrayList<ERFramework>();
 
 			for (int i = 0; i < fileNames.size(); i++) {
@@ -493,6 +496,63 @@ public final class ERTool implements Runnable, ERCommandLineArgs.CommandLineList
 			else
 				retrieveAllFiles = Boolean.parseBoolean(cle.getSwitchValue());
 		}
+		else if (cle.getSwitch().equals("-spill")) {
+			int val = 0;
+			try
+			{
+			val = Integer.parseInt(cle.getSwitchValue());
+			}catch(Exception ex) { }
+
+			if ( val == 1 )
+				ERFramework.setSpillEnabled(true);
+			else
+				ERFramework.setSpillEnabled(Boolean.parseBoolean(cle.getSwitchValue()));
+		}
+		else if (cle.getSwitch().equals("-compactdom")) {
+			int val = 0;
+			try
+			{
+			val = Integer.parseInt(cle.getSwitchValue());
+			}catch(Exception ex) { }
+
+			if ( val == 1 )
+				ERFramework.setCompactDOMEnabled(true);
+			else
+				ERFramework.setCompactDOMEnabled(Boolean.parseBoolean(cle.getSwitchValue()));
+		}
+		else if (cle.getSwitch().equals("-sectioncache")) {
+			try
+			{
+			SectionCache.setBudget(Long.parseLong(cle.getSwitchValue()) * 1024 * 1024);
+			}catch(Exception ex) { }
+		}
+		else if (cle.getSwitch().equals("-sectionorder")) {
+			int val = 0;
+			try
+			{
+			val = Integer.parseInt(cle.getSwitchValue());
+			}catch(Exception ex) { }
+
+			if ( val == 1 )
+				AnalyticsProcessor.setSectionOrderEnabled(true);
+			else
+				AnalyticsProcessor.setSectionOrderEnabled(Boolean.parseBoolean(cle.getSwitchValue()));
+		}
+		else if (cle.getSwitch().equals("-executor")) {
+			if (!ExecutionBackend.setBackend(cle.getSwitchValue()))
+				erLogger.log(Level.ERROR, ERTool.class, "performCommand", "ERMessages", "ERTOOL021E", cle.getSwitchValue());
+		}
+		else if (cle.getSwitch().equals("-profile")) {
+			if (FormulaProfile.isFormat(cle.getSwitchValue()))
+				profileFormat = cle.getSwitchValue();
+			else
+				erLogger.log(Level.ERROR, ERTool.class, "performCommand", "ERMessages", "ERTOOL022E", cle.getSwitchValue());
+		}
+		else if (cle.getSwitch().equals("-indexcache")) {
+			String dir = cle.getSwitchValue();
+			if (dir.length() > 0)
+				ERFramework.setIndexCacheDir(dir);
+		}
 		// invalid option
 		else {
 			erLogger.log(Level.ERROR, ERTool.class, "performCommand", "ERMessages", "ERTOOL015E", cle.getSwitch());
@@ -538,6 +598,14 @@ public final class ERTool implements Runnable, ERCommandLineArgs.CommandLineList
 	public static void main(String[] args) {
 		ERTool ertool = null;
 
+		// the shared pools are shut down however the tool ends, a System.exit
+		// elsewhere or an exception included
+		Runtime.getRuntime().addShutdownHook(new Thread("ertool-shutdown") {
+			public void run() {
+				ExecutionBackend.shutdown();
+			}
+		});
+
 		try {
 			ertool = new ERTool(args);
 			ertool.run(); // normal processing
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * The threads the tool runs its work on, chosen with -executor:
+ *
+ * fixed - each formula run and transaction parse has a pool of its own, shut
+ * down when it is done. The default.
+ *
+ * forkjoin - RunFormula and transaction work of every report shares one
+ * work-stealing pool.
+ *
+ * virtual - as forkjoin, and section loading, related_files writes and
+ * formulas waiting on their RunFormulas use virtual threads. A JVM without
+ * virtual threads uses daemon threads instead.
+ *
+ * Pools are sized from the processors and the heap left, each thread that
+ * works on sections needs room for them.
+ */
+public class ExecutionBackend {
+	public static final String FIXED = "fixed";
+	public static final String FORKJOIN = "forkjoin";
+	public static final String VIRTUAL = "virtual";
+
+	private ExecutionBackend() {
+	}
+
+	/**
+	 * @return false if name is not a backend, the backend is left as it was
+	 */
+	public static synchronized boolean setBackend(String name) {
+		String backend = name == null ? "" : name.toLowerCase();
+		if (!backend.equals(FIXED) && !backend.equals(FORKJOIN) && !backend.equals(VIRTUAL))
+			return false;
+		mBackend = backend;
+		return true;
+	}
+
+	public static synchronized String getBackend() {
+		return mBackend;
+	}
+
+	/**
+	 * @return threads for work on sections, the processors or fewer when the
+	 *         heap has not the room for that many
+	 */
+	public static int getThreads() {
+		Runtime runtime = Runtime.getRuntime();
+		long headroom = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long byMemory = headroom / THREAD_MEMORY;
+		return (int) Math.max(1, Math.min(runtime.availableProcessors(), byMemory));
+	}
+
+	/**
+	 * @return pool for RunFormula and transaction work, give it back with
+	 *         release() once done
+	 */
+	public static ExecutorService newComputePool() {
+		if (getBackend().equals(FIXED))
+			return Executors.newFixedThreadPool(getThreads(), new DaemonThreadFactory("ertool-run-"));
+		return getSharedPool();
+	}
+
+	/**
+	 * @return pool for work that waits on other work, such as formulas waiting
+	 *         on their RunFormulas, give it back with release() once done
+	 */
+	public static ExecutorService newWaitingPool(String prefix, int threads) {
+		return Executors.newFixedThreadPool(Math.max(threads, 1), getIOThreadFactory(prefix));
+	}
+
+	/**
+	 * Shut down a pool newComputePool() or newWaitingPool() returned, unless
+	 * it is shared
+	 */
+	public static void release(ExecutorService pool) {
+		if (pool != null && pool != mSharedPool)
+			pool.shutdown();
+	}
+
+	/**
+	 * @return threads for work that waits on files or other threads, virtual
+	 *         with the virtual backend, daemon threads otherwise
+	 */
+	public static ThreadFactory getIOThreadFactory(String prefix) {
+		if (getBackend().equals(VIRTUAL)) {
+			ThreadFactory factory = getVirtualThreadFactory(prefix);
+			if (factory != null)
+				return factory;
+		}
+		return new DaemonThreadFactory(prefix);
+	}
+
+	/**
+	 * Have shutdown() end pool with the others, for pools kept for the life of
+	 * the tool
+	 */
+	public static synchronized void share(ExecutorService pool) {
+		mShared.add(pool);
+	}
+
+	/**
+	 * Shut down the shared pools once the work given to them is done, work left
+	 * after SHUTDOWN_SECONDS is interrupted
+	 */
+	public static void shutdown() {
+		ArrayList<ExecutorService> pools;
+		synchronized (ExecutionBackend.class) {
+			pools = new ArrayList<ExecutorService>(mShared);
+			mShared.clear();
+			if (mSharedPool != null)
+				pools.add(mSharedPool);
+			mSharedPool = null;
+		}
+
+		for (ExecutorService pool : pools)
+			pool.shutdown();
+		for (ExecutorService pool : pools) {
+			try {
+				// a RunFormula that ran out of time may still be running, it is
+				// interrupted rather than waited for
+				if (!pool.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+					LogManager.getRootLogger().info("ExecutionBackend::shutdown work still running after "
+							+ SHUTDOWN_SECONDS + " seconds, interrupting it");
+					pool.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getSharedPool() {
+		if (mSharedPool == null) {
+			int threads = getThreads();
+			mSharedPool = new ForkJoinPool(threads);
+			LogManager.getRootLogger().info("ExecutionBackend::getSharedPool " + mBackend + " with " + threads
+					+ " threads");
+		}
+		return mSharedPool;
+	}
+
+	/**
+	 * Thread.ofVirtual().name(prefix, 1).factory(), looked up so the tool still
+	 * builds and runs on a JVM without virtual threads
+	 *
+	 * @return the factory, null if the JVM has no virtual threads
+	 */
+	private static ThreadFactory getVirtualThreadFactory(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			synchronized (ExecutionBackend.class) {
+				if (!mNoVirtualLogged) {
+					mNoVirtualLogged = true;
+					LogManager.getRootLogger().info("ExecutionBackend::getIOThreadFactory virtual threads are not "
+							+ "available in this JVM, using platform threads");
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Daemon threads, a pool left running does not keep the tool alive
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		DaemonThreadFactory(String prefix) {
+			mPrefix = prefix;
+		}
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, mPrefix + (++mCount));
+			thread.setDaemon(true);
+			return thread;
+		}
+
+		private String mPrefix;
+		private int mCount = 0;
+	}
+
+	// heap each thread working on sections is expected to need
+	private static final long THREAD_MEMORY = 64L * 1024 * 1024;
+	private static final int SHUTDOWN_SECONDS = 5;
+
+	private static String mBackend = FIXED;
+	private static volatile ExecutorService mSharedPool = null;
+	private static ArrayList<ExecutorService> mShared = new ArrayList<ExecutorService>();
+	private static boolean mNoVirtualLogged = false;
+}
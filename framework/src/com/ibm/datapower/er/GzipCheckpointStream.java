@@ -0,0 +1,530 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip decoder that either records GzipIndex checkpoints while it inflates a
+ * report from the start, or resumes inflating at one of those checkpoints.
+ * java.util.zip.Inflater can neither report where deflate blocks begin nor
+ * start at a bit offset, so the deflate format (RFC 1951) is decoded here.
+ * Concatenated gzip members are read one after another as GZIPInputStream
+ * does.
+ */
+public class GzipCheckpointStream extends InputStream {
+	/**
+	 * Inflate a gzip stream from its start
+	 *
+	 * @param in   compressed report
+	 * @param span uncompressed bytes between checkpoints, 0 for no index
+	 */
+	public GzipCheckpointStream(InputStream in, long span) {
+		mIn = in;
+		mCrc = new CRC32();
+		if (span > 0) {
+			mIndex = new GzipIndex(span);
+			mSpan = span;
+		}
+		mState = STATE_MEMBER;
+	}
+
+	/**
+	 * Resume inflating at a checkpoint, in must be positioned at the byte
+	 * holding the first bit of the checkpoint
+	 */
+	GzipCheckpointStream(InputStream in, GzipIndex.Checkpoint checkpoint) throws IOException {
+		mIn = in;
+		mInConsumed = checkpoint.getBitOffset() >>> 3;
+		int bits = (int) (checkpoint.getBitOffset() & 7);
+		if (bits > 0)
+			bits(bits);
+
+		byte[] window = checkpoint.getWindow();
+		mOut = checkpoint.getOffset();
+		mHistoryStart = mOut - window.length;
+		for (int i = 0; i < window.length; i++)
+			mWindow[(int) (mHistoryStart + i) & WINDOW_MASK] = window[i];
+
+		// the trailer of the member being resumed cannot be verified
+		mMemberStart = -1;
+		mState = STATE_BLOCK;
+	}
+
+	/**
+	 * @return checkpoints recorded so far, complete once the stream is read to
+	 *         the end
+	 */
+	public GzipIndex getIndex() {
+		return mIndex;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int len = read(mSingle, 0, 1);
+		return len == -1 ? -1 : mSingle[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+
+		int p = off, end = off + len, checked = off;
+		while (p < end && mState != STATE_DONE) {
+			if (mCopyLength > 0) {
+				int count = Math.min(mCopyLength, end - p);
+				long from = mOut - mCopyDistance;
+				for (int i = 0; i < count; i++) {
+					byte v = mWindow[(int) (from + i) & WINDOW_MASK];
+					mWindow[(int) (mOut + i) & WINDOW_MASK] = v;
+					b[p + i] = v;
+				}
+				mOut += count;
+				p += count;
+				mCopyLength -= count;
+				continue;
+			}
+
+			switch (mState) {
+			case STATE_CODES:
+				while (p < end) {
+					int symbol = decode(mLiteralCode);
+					if (symbol < 256) {
+						mWindow[(int) mOut & WINDOW_MASK] = (byte) symbol;
+						mOut++;
+						b[p++] = (byte) symbol;
+					} else if (symbol == 256) {
+						mState = STATE_BLOCK;
+						break;
+					} else {
+						symbol -= 257;
+						if (symbol >= 29)
+							throw new ZipException("invalid literal/length code");
+						mCopyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+						symbol = decode(mDistanceCode);
+						if (symbol >= 30)
+							throw new ZipException("invalid distance code");
+						mCopyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+						if (mCopyDistance > mOut - mHistoryStart)
+							throw new ZipException("invalid distance too far back");
+						break;
+					}
+				}
+				break;
+			case STATE_STORED:
+				while (p < end && mStoredLength > 0) {
+					byte v = (byte) bits(8);
+					mWindow[(int) mOut & WINDOW_MASK] = v;
+					mOut++;
+					b[p++] = v;
+					mStoredLength--;
+				}
+				if (mStoredLength == 0)
+					mState = STATE_BLOCK;
+				break;
+			case STATE_BLOCK:
+				if (mLastBlock)
+					mState = STATE_TRAILER;
+				else
+					readBlockHeader();
+				break;
+			case STATE_TRAILER:
+				if (mCrc != null)
+					mCrc.update(b, checked, p - checked);
+				checked = p;
+				readTrailer();
+				break;
+			case STATE_MEMBER:
+				if (readMemberHeader()) {
+					mMemberStart = mOut;
+					mHistoryStart = mOut;
+					mLastBlock = false;
+					if (mCrc != null)
+						mCrc.reset();
+					mState = STATE_BLOCK;
+				} else
+					mState = STATE_DONE;
+				break;
+			}
+		}
+
+		if (mCrc != null)
+			mCrc.update(b, checked, p - checked);
+		return p == off ? -1 : p - off;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		if (mSkipBuffer == null)
+			mSkipBuffer = new byte[65536];
+		long remaining = n;
+		while (remaining > 0) {
+			int len = read(mSkipBuffer, 0, (int) Math.min(mSkipBuffer.length, remaining));
+			if (len == -1)
+				break;
+			remaining -= len;
+		}
+		return n - remaining;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mIn.close();
+	}
+
+	private void readBlockHeader() throws IOException {
+		if (mIndex != null && mOut - mLastCheckpoint >= mSpan)
+			addCheckpoint();
+
+		mLastBlock = bits(1) == 1;
+		int type = bits(2);
+		if (type == 0) {
+			bits(mBitCount & 7);
+			int length = bits(16);
+			if (length != (~bits(16) & 0xffff))
+				throw new ZipException("invalid stored block lengths");
+			mStoredLength = length;
+			mState = STATE_STORED;
+		} else if (type == 1) {
+			if (FIXED_LITERAL_CODE == null)
+				buildFixedCodes();
+			mLiteralCode = FIXED_LITERAL_CODE;
+			mDistanceCode = FIXED_DISTANCE_CODE;
+			mState = STATE_CODES;
+		} else if (type == 2) {
+			readDynamicCodes();
+			mState = STATE_CODES;
+		} else
+			throw new ZipException("invalid block type");
+	}
+
+	private void addCheckpoint() {
+		int size = (int) Math.min(WINDOW_SIZE, mOut - mHistoryStart);
+		byte[] window = new byte[size];
+		for (int i = 0; i < size; i++)
+			window[i] = mWindow[(int) (mOut - size + i) & WINDOW_MASK];
+		mIndex.addCheckpoint(new GzipIndex.Checkpoint(mOut, mInConsumed * 8 - mBitCount, window));
+		mLastCheckpoint = mOut;
+	}
+
+	private void readDynamicCodes() throws IOException {
+		int literals = bits(5) + 257;
+		int distances = bits(5) + 1;
+		int codes = bits(4) + 4;
+		if (literals > 286 || distances > 30)
+			throw new ZipException("too many length or distance symbols");
+
+		int[] lengths = new int[19];
+		for (int i = 0; i < codes; i++)
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		Huffman lengthCode = new Huffman(lengths, 0, 19);
+
+		lengths = new int[literals + distances];
+		int index = 0;
+		while (index < lengths.length) {
+			int symbol = decode(lengthCode);
+			if (symbol < 16) {
+				lengths[index++] = symbol;
+				continue;
+			}
+
+			int length = 0, repeat;
+			if (symbol == 16) {
+				if (index == 0)
+					throw new ZipException("invalid bit length repeat");
+				length = lengths[index - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17)
+				repeat = 3 + bits(3);
+			else
+				repeat = 11 + bits(7);
+			if (index + repeat > lengths.length)
+				throw new ZipException("invalid bit length repeat");
+			while (repeat-- > 0)
+				lengths[index++] = length;
+		}
+		if (lengths[256] == 0)
+			throw new ZipException("invalid code -- missing end-of-block");
+
+		mLiteralCode = new Huffman(lengths, 0, literals);
+		mDistanceCode = new Huffman(lengths, literals, distances);
+	}
+
+	private void readTrailer() throws IOException {
+		bits(mBitCount & 7);
+		long crc = bits(32) & 0xffffffffL;
+		long size = bits(32) & 0xffffffffL;
+		if (mMemberStart >= 0) {
+			if (crc != mCrc.getValue() || size != ((mOut - mMemberStart) & 0xffffffffL))
+				throw new ZipException("Corrupt GZIP trailer");
+		} else if (mCrc == null) {
+			// members after the one resumed in are verified as usual
+			mCrc = new CRC32();
+		}
+		mState = hasMoreInput() ? STATE_MEMBER : STATE_DONE;
+	}
+
+	/**
+	 * @return false if what follows the previous member is not a gzip member
+	 */
+	private boolean readMemberHeader() throws IOException {
+		boolean first = mOut == 0 && mMemberStart == 0;
+		try {
+			if (bits(8) != 0x1f || bits(8) != 0x8b) {
+				if (first)
+					throw new ZipException("Not in GZIP format");
+				return false;
+			}
+		} catch (EOFException e) {
+			if (first)
+				throw e;
+			return false;
+		}
+		if (bits(8) != 8)
+			throw new ZipException("Unsupported compression method");
+
+		int flags = bits(8);
+		bits(32); // modification time
+		bits(16); // extra flags and operating system
+		if ((flags & FEXTRA) != 0) {
+			int length = bits(16);
+			while (length-- > 0)
+				bits(8);
+		}
+		if ((flags & FNAME) != 0)
+			while (bits(8) != 0)
+				;
+		if ((flags & FCOMMENT) != 0)
+			while (bits(8) != 0)
+				;
+		if ((flags & FHCRC) != 0)
+			bits(16);
+		return true;
+	}
+
+	private boolean hasMoreInput() throws IOException {
+		if (mBitCount > 0 || mInPosition < mInLength)
+			return true;
+		mInLength = mIn.read(mInBuffer);
+		mInPosition = 0;
+		if (mInLength <= 0) {
+			mInLength = 0;
+			return false;
+		}
+		return true;
+	}
+
+	private void need(int n) throws IOException {
+		while (mBitCount < n) {
+			if (mInPosition == mInLength) {
+				do {
+					mInLength = mIn.read(mInBuffer);
+				} while (mInLength == 0);
+				mInPosition = 0;
+				if (mInLength < 0) {
+					mInLength = 0;
+					throw new EOFException("Unexpected end of ZLIB input stream");
+				}
+			}
+			mBitBuffer |= (long) (mInBuffer[mInPosition++] & 0xff) << mBitCount;
+			mBitCount += 8;
+			mInConsumed++;
+		}
+	}
+
+	private int bits(int n) throws IOException {
+		if (n == 0)
+			return 0;
+		if (mBitCount < n)
+			need(n);
+		int value = (int) (mBitBuffer & ((1L << n) - 1));
+		mBitBuffer >>>= n;
+		mBitCount -= n;
+		return value;
+	}
+
+	private int decode(Huffman code) throws IOException {
+		if (mBitCount < MAX_BITS) {
+			// the gzip trailer follows the last code so a complete stream
+			// always has the bits to look ahead
+			need(MAX_BITS);
+		}
+
+		int entry = code.mFast[(int) mBitBuffer & FAST_MASK];
+		if (entry != 0) {
+			int length = entry & 15;
+			mBitBuffer >>>= length;
+			mBitCount -= length;
+			return entry >>> 4;
+		}
+
+		// codes longer than the fast table, decoded a bit at a time
+		long bits = mBitBuffer;
+		int value = 0, first = 0, index = 0;
+		for (int length = 1; length <= MAX_BITS; length++) {
+			value |= (int) (bits & 1);
+			bits >>>= 1;
+			int count = code.mCount[length];
+			if (value - count < first) {
+				mBitBuffer >>>= length;
+				mBitCount -= length;
+				return code.mSymbol[index + (value - first)];
+			}
+			index += count;
+			first += count;
+			first <<= 1;
+			value <<= 1;
+		}
+		throw new ZipException("invalid code");
+	}
+
+	private static synchronized void buildFixedCodes() throws ZipException {
+		if (FIXED_LITERAL_CODE != null)
+			return;
+		int[] lengths = new int[288];
+		for (int i = 0; i < 288; i++)
+			lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+		FIXED_DISTANCE_CODE = new Huffman(new int[] { 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5,
+				5, 5, 5, 5, 5, 5, 5, 5 }, 0, 30);
+		FIXED_LITERAL_CODE = new Huffman(lengths, 0, 288);
+	}
+
+	/**
+	 * Canonical Huffman code, symbols up to FAST_BITS long are looked up
+	 * directly by the next input bits
+	 */
+	private static class Huffman {
+		Huffman(int[] lengths, int offset, int n) throws ZipException {
+			for (int i = 0; i < n; i++)
+				mCount[lengths[offset + i]]++;
+			mCount[0] = 0;
+
+			int left = 1;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				left <<= 1;
+				left -= mCount[length];
+				if (left < 0)
+					throw new ZipException("over-subscribed code lengths");
+			}
+
+			int[] offsets = new int[MAX_BITS + 2];
+			for (int length = 1; length <= MAX_BITS; length++)
+				offsets[length + 1] = offsets[length] + mCount[length];
+			mSymbol = new int[n];
+			for (int i = 0; i < n; i++)
+				if (lengths[offset + i] != 0)
+					mSymbol[offsets[lengths[offset + i]]++] = i;
+
+			int[] next = new int[MAX_BITS + 1];
+			int code = 0;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				code = (code + mCount[length - 1]) << 1;
+				next[length] = code;
+			}
+			for (int i = 0; i < n; i++) {
+				int length = lengths[offset + i];
+				if (length == 0)
+					continue;
+				int value = next[length]++;
+				if (length > FAST_BITS)
+					continue;
+
+				// deflate sends codes starting with the most significant bit
+				int reversed = 0;
+				for (int b = 0; b < length; b++) {
+					reversed = (reversed << 1) | (value & 1);
+					value >>>= 1;
+				}
+				for (int j = reversed; j < FAST_SIZE; j += 1 << length)
+					mFast[j] = (i << 4) | length;
+			}
+		}
+
+		int[] mCount = new int[MAX_BITS + 1];
+		int[] mSymbol;
+		int[] mFast = new int[FAST_SIZE];
+	}
+
+	static final int WINDOW_SIZE = 32768;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+	private static final int MAX_BITS = 15;
+	private static final int FAST_BITS = 10;
+	private static final int FAST_SIZE = 1 << FAST_BITS;
+	private static final int FAST_MASK = FAST_SIZE - 1;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private static final int STATE_MEMBER = 0;
+	private static final int STATE_BLOCK = 1;
+	private static final int STATE_STORED = 2;
+	private static final int STATE_CODES = 3;
+	private static final int STATE_TRAILER = 4;
+	private static final int STATE_DONE = 5;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59,
+			67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4,
+			4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+			513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9,
+			10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+			15 };
+
+	private static Huffman FIXED_LITERAL_CODE;
+	private static Huffman FIXED_DISTANCE_CODE;
+
+	private InputStream mIn;
+	private byte[] mInBuffer = new byte[65536];
+	private int mInPosition = 0;
+	private int mInLength = 0;
+	private long mInConsumed = 0; // compressed bytes moved into mBitBuffer
+	private long mBitBuffer = 0;
+	private int mBitCount = 0;
+
+	private byte[] mWindow = new byte[WINDOW_SIZE];
+	private long mOut = 0; // uncompressed bytes produced
+	private long mHistoryStart = 0; // oldest offset a match may refer to
+	private long mMemberStart = 0;
+	private CRC32 mCrc;
+
+	private int mState;
+	private boolean mLastBlock = false;
+	private int mStoredLength = 0;
+	private int mCopyLength = 0;
+	private int mCopyDistance = 0;
+	private Huffman mLiteralCode;
+	private Huffman mDistanceCode;
+	private byte[] mSkipBuffer;
+	private byte[] mSingle = new byte[1];
+
+	private GzipIndex mIndex;
+	private long mSpan = 0;
+	private long mLastCheckpoint = 0;
+}
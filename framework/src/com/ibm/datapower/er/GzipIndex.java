@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Random access into a gzip compressed report. While the report is inflated
+ * the first time a checkpoint is taken at the start of a deflate block about
+ * every span bytes of output, holding the bit offset of the block in the
+ * compressed file and the last 32 KB of output the block may refer back to.
+ * Reading from an uncompressed offset then starts at the nearest checkpoint
+ * before it instead of at the start of the report.
+ */
+public class GzipIndex {
+	/**
+	 * Point a GzipCheckpointStream can resume inflating from
+	 */
+	public static class Checkpoint {
+		public Checkpoint(long offset, long bitOffset, byte[] window) {
+			mOffset = offset;
+			mBitOffset = bitOffset;
+			mWindow = window;
+		}
+
+		/**
+		 * @return offset in the uncompressed report
+		 */
+		public long getOffset() {
+			return mOffset;
+		}
+
+		/**
+		 * @return offset of the deflate block in the compressed file, in bits
+		 */
+		public long getBitOffset() {
+			return mBitOffset;
+		}
+
+		/**
+		 * @return uncompressed data preceding the checkpoint, up to 32 KB
+		 */
+		public byte[] getWindow() {
+			return mWindow;
+		}
+
+		private long mOffset;
+		private long mBitOffset;
+		private byte[] mWindow;
+	}
+
+	public GzipIndex(long span) {
+		mSpan = span;
+	}
+
+	public long getSpan() {
+		return mSpan;
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return mCheckpoints;
+	}
+
+	void addCheckpoint(Checkpoint checkpoint) {
+		mCheckpoints.add(checkpoint);
+	}
+
+	/**
+	 * @return last checkpoint at or before offset, null if offset precedes the
+	 *         first one
+	 */
+	public Checkpoint find(long offset) {
+		int low = 0, high = mCheckpoints.size() - 1;
+		Checkpoint found = null;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Checkpoint checkpoint = mCheckpoints.get(mid);
+			if (checkpoint.getOffset() <= offset) {
+				found = checkpoint;
+				low = mid + 1;
+			} else
+				high = mid - 1;
+		}
+		return found;
+	}
+
+	/**
+	 * Open the compressed report at an uncompressed offset
+	 *
+	 * @param gzip   compressed report the index was built from
+	 * @param offset uncompressed offset to start reading at
+	 * @return stream positioned at offset, or null if there is no checkpoint
+	 *         before offset and the report is better read from the start
+	 */
+	public InputStream open(File gzip, long offset) throws IOException {
+		Checkpoint checkpoint = find(offset);
+		if (checkpoint == null)
+			return null;
+
+		FileInputStream in = new FileInputStream(gzip);
+		try {
+			in.getChannel().position(checkpoint.getBitOffset() >>> 3);
+			GzipCheckpointStream stream = new GzipCheckpointStream(in, checkpoint);
+			long skip = offset - checkpoint.getOffset();
+			while (skip > 0) {
+				long skipped = stream.skip(skip);
+				if (skipped <= 0)
+					break;
+				skip -= skipped;
+			}
+			return stream;
+		} catch (IOException e) {
+			IOUtils.closeQuietly(in);
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the checkpoints, windows are deflated as they compress well
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeLong(mSpan);
+		out.writeInt(mCheckpoints.size());
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] buffer = new byte[GzipCheckpointStream.WINDOW_SIZE + 1024];
+		try {
+			for (Checkpoint checkpoint : mCheckpoints) {
+				out.writeLong(checkpoint.getOffset());
+				out.writeLong(checkpoint.getBitOffset());
+				out.writeInt(checkpoint.getWindow().length);
+
+				deflater.reset();
+				deflater.setInput(checkpoint.getWindow());
+				deflater.finish();
+				int len = 0;
+				while (!deflater.finished())
+					len += deflater.deflate(buffer, len, buffer.length - len);
+				out.writeInt(len);
+				out.write(buffer, 0, len);
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Read checkpoints written by write()
+	 */
+	public static GzipIndex read(DataInputStream in) throws IOException {
+		GzipIndex index = new GzipIndex(in.readLong());
+		int count = in.readInt();
+		Inflater inflater = new Inflater();
+		try {
+			for (int i = 0; i < count; i++) {
+				long offset = in.readLong();
+				long bitOffset = in.readLong();
+				byte[] window = new byte[in.readInt()];
+				byte[] packed = new byte[in.readInt()];
+				in.readFully(packed);
+
+				inflater.reset();
+				inflater.setInput(packed);
+				int len = 0;
+				while (len < window.length && !inflater.finished()) {
+					int n = inflater.inflate(window, len, window.length - len);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					len += n;
+				}
+				if (len != window.length)
+					throw new IOException("GzipIndex::read truncated window");
+				index.addCheckpoint(new Checkpoint(offset, bitOffset, window));
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("GzipIndex::read " + e);
+		} finally {
+			inflater.end();
+		}
+		return index;
+	}
+
+	public static final long DEFAULT_SPAN = 1024 * 1024;
+
+	private long mSpan;
+	private ArrayList<Checkpoint> mCheckpoints = new ArrayList<Checkpoint>();
+}
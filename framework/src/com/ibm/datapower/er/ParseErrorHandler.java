@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.PrintStream;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Reports parse problems the way DocumentBuilder's default error handler does,
+ * to a stream of our choosing
+ */
+public class ParseErrorHandler implements ErrorHandler {
+	/**
+	 * @param out stream problems are printed to
+	 */
+	public ParseErrorHandler(PrintStream out) {
+		mOut = out;
+	}
+
+	public void warning(SAXParseException e) {
+		print("Warning", e);
+	}
+
+	public void error(SAXParseException e) {
+		print("Error", e);
+	}
+
+	public void fatalError(SAXParseException e) throws SAXException {
+		print("Fatal Error", e);
+		throw e;
+	}
+
+	private void print(String type, SAXParseException e) {
+		String systemId = e.getSystemId();
+		if (systemId != null)
+			systemId = systemId.substring(systemId.lastIndexOf('/') + 1);
+		mOut.println("[" + type + "] " + (systemId == null ? "" : systemId) + ":" + e.getLineNumber() + ":"
+				+ e.getColumnNumber() + ": " + e.getMessage());
+		mOut.flush();
+	}
+
+	private PrintStream mOut;
+}
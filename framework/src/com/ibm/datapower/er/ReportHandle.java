@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The phases of a report that have been indexed. A phase is set once, when it
+ * is first indexed, and does not change after, so any number of threads can
+ * read sections of the report at the same time, each through a SectionCursor
+ * of its own.
+ */
+public class ReportHandle {
+	/**
+	 * Where the decompressed text of a phase comes from
+	 */
+	public enum Source {
+		FILE, // the report file as it is
+		GZIP, // the report file, gzip compressed
+		ZIP_GZIP, // a gzip compressed entry of a zip input
+		SPILL, // inflated once to a spill file
+		POST_MORTEM // an archive, walked by the framework
+	}
+
+	/**
+	 * An indexed phase, or a post-mortem phase that has no section index
+	 */
+	public static class Phase {
+		public Phase(String fileLocation, int number, String phaseFile, Source source, SectionIndex index,
+				GzipIndex gzipIndex, SpillFile spill, ZipPhaseContainer zip) {
+			mFileLocation = fileLocation;
+			mNumber = number;
+			mPhaseFile = phaseFile;
+			mSource = source;
+			mIndex = index;
+			mGzipIndex = gzipIndex;
+			mSpill = spill;
+			mZip = zip;
+		}
+
+		public int getNumber() {
+			return mNumber;
+		}
+
+		public String getPhaseFile() {
+			return mPhaseFile;
+		}
+
+		public String getFileLocation() {
+			return mFileLocation;
+		}
+
+		public Source getSource() {
+			return mSource;
+		}
+
+		/**
+		 * @return the section index, null for a post-mortem phase
+		 */
+		public SectionIndex getIndex() {
+			return mIndex;
+		}
+
+		/**
+		 * @return checkpoints of a gzip report, null if it has none
+		 */
+		public GzipIndex getGzipIndex() {
+			return mGzipIndex;
+		}
+
+		/**
+		 * @return spill file of the phase, null if it was not spilled
+		 */
+		public SpillFile getSpill() {
+			return mSpill;
+		}
+
+		public boolean isPostMortem() {
+			return mSource == Source.POST_MORTEM;
+		}
+
+		/**
+		 * @return a cursor of its own over the phase
+		 */
+		public SectionCursor open() {
+			return new SectionCursor(this);
+		}
+
+		/**
+		 * @return stream over the decompressed phase from its start
+		 */
+		InputStream openStream() throws IOException {
+			InputStream stream = null;
+			switch (mSource) {
+			case SPILL:
+				return mSpill.open();
+			case GZIP:
+				stream = new FileInputStream(mFileLocation);
+				try {
+					stream = new GZIPInputStream(stream);
+				} catch (IOException e) {
+					IOUtils.closeQuietly(stream);
+					throw e;
+				}
+				break;
+			case ZIP_GZIP:
+				stream = new GZIPInputStream(mZip.open(mNumber));
+				break;
+			case FILE:
+				stream = new FileInputStream(mFileLocation);
+				break;
+			default:
+				throw new IOException("phase " + mNumber + " of " + mFileLocation + " has no section index");
+			}
+			return new BufferedInputStream(stream, BUFFER_SIZE);
+		}
+
+		private final String mFileLocation;
+		private final int mNumber;
+		private final String mPhaseFile;
+		private final Source mSource;
+		private final SectionIndex mIndex;
+		private final GzipIndex mGzipIndex;
+		private final SpillFile mSpill;
+		private final ZipPhaseContainer mZip;
+	}
+
+	public ReportHandle(String fileLocation) {
+		mFileLocation = fileLocation;
+	}
+
+	public String getFileLocation() {
+		return mFileLocation;
+	}
+
+	/**
+	 * @return the phase, null if it has not been set
+	 */
+	public Phase getPhase(int phase) {
+		return mPhases.get(phase);
+	}
+
+	/**
+	 * Set a phase unless it already is
+	 *
+	 * @return the phase that is set
+	 */
+	public Phase setPhase(Phase phase) {
+		Phase previous = mPhases.putIfAbsent(phase.getNumber(), phase);
+		return previous != null ? previous : phase;
+	}
+
+	static final int BUFFER_SIZE = 65536;
+
+	private final String mFileLocation;
+	private final Hashtable<Integer, Phase> mPhases = new Hashtable<Integer, Phase>();
+}
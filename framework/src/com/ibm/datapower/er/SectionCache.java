@@ -0,0 +1,527 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Sections loaded from a report, kept by name. All caches share one budget of
+ * estimated bytes; once it is exceeded the least recently used values are
+ * written to a temporary file and dropped from memory, then read back the next
+ * time they are asked for. The budget is unlimited by default, then nothing is
+ * ever written out.
+ *
+ * The lock shared by the caches only guards the maps and counters. Values are
+ * written out by the thread whose put or get went over the budget, and read
+ * back by the first thread asking for them while others asking wait for that
+ * read, all outside the lock. The space of values that are removed or replaced
+ * is used again for the next values written out.
+ *
+ * @param <V> cached value
+ */
+public class SectionCache<V> {
+	/**
+	 * How the values of a cache are weighed and written out
+	 */
+	public interface Codec<V> {
+		/**
+		 * @return estimated bytes the value holds in memory
+		 */
+		long weigh(V value);
+
+		/**
+		 * @return false if the value can not be read back, it is dropped instead
+		 */
+		boolean write(V value, DataOutputStream out) throws IOException;
+
+		V read(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * @param name  name used in log messages
+	 * @param codec weighs the values and writes them out when they are evicted
+	 */
+	public SectionCache(String name, Codec<V> codec) {
+		mName = name;
+		mCodec = codec;
+	}
+
+	/**
+	 * @return the value for key, read back if it was written out, or null
+	 */
+	public V get(String key) {
+		Entry<V> entry;
+		V value;
+		CompletableFuture<V> loading = null;
+		List<Entry<?>> evicted = null;
+		synchronized (mLock) {
+			entry = mEntries.get(key);
+			if (entry == null) {
+				mMisses++;
+				return null;
+			}
+			value = entry.mValue;
+			if (value != null) {
+				mHits++;
+				if (entry.mEvicting) {
+					// asked for while being written out, it stays
+					entry.mEvicting = false;
+					evicted = admit(entry);
+				} else
+					// moves the entry to the most recently used end
+					mResident.get(entry);
+			} else if (entry.mLoading != null) {
+				// another thread reads it back
+				mHits++;
+				loading = entry.mLoading;
+			} else
+				entry.mLoading = new CompletableFuture<V>();
+		}
+
+		if (loading != null)
+			return loading.join();
+		if (value == null)
+			return reload(entry);
+		spill(evicted);
+		return value;
+	}
+
+	/**
+	 * @return the previous value for key, null if it had none or it was written
+	 *         out
+	 */
+	public V put(String key, V value) {
+		Entry<V> entry = new Entry<V>(this, key, value, mCodec.weigh(value));
+		V previousValue = null;
+		List<Entry<?>> evicted;
+		synchronized (mLock) {
+			Entry<V> previous = mEntries.put(key, entry);
+			if (previous != null) {
+				release(previous);
+				previousValue = previous.mValue;
+			}
+			evicted = admit(entry);
+		}
+		spill(evicted);
+		return previousValue;
+	}
+
+	/**
+	 * @return the value removed, null if there was none or it was written out
+	 */
+	public V remove(String key) {
+		synchronized (mLock) {
+			Entry<V> entry = mEntries.remove(key);
+			if (entry == null)
+				return null;
+			release(entry);
+			return entry.mValue;
+		}
+	}
+
+	public Enumeration<String> keys() {
+		return mEntries.keys();
+	}
+
+	public int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Set the estimated bytes all caches may hold in memory together
+	 *
+	 * @param bytes budget, 0 or less for no limit
+	 */
+	public static void setBudget(long bytes) {
+		synchronized (mLock) {
+			mBudget = bytes;
+		}
+	}
+
+	public static long getBudget() {
+		return mBudget;
+	}
+
+	public static long getHits() {
+		return mHits;
+	}
+
+	public static long getMisses() {
+		return mMisses;
+	}
+
+	public static long getEvictions() {
+		return mEvictions;
+	}
+
+	public static long getReloads() {
+		return mReloads;
+	}
+
+	public static long getResidentBytes() {
+		return mResidentBytes;
+	}
+
+	/**
+	 * @return counters of all caches, for logging
+	 */
+	public static String getStatistics() {
+		synchronized (mLock) {
+			return "hits: " + mHits + ", misses: " + mMisses + ", evictions: " + mEvictions + ", reloads: "
+					+ mReloads + ", resident bytes: " + mResidentBytes + ", budget: "
+					+ (mBudget > 0 ? Long.toString(mBudget) : "none");
+		}
+	}
+
+	public static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	public static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return bytes of the spill file in use by values written out
+	 */
+	public static long getSpillBytes() {
+		synchronized (mLock) {
+			long free = 0;
+			for (Long length : mSpillFree.values())
+				free += length;
+			return mSpillEnd - free;
+		}
+	}
+
+	private static class Entry<V> {
+		Entry(SectionCache<V> cache, String key, V value, long weight) {
+			mCache = cache;
+			mKey = key;
+			mValue = value;
+			mWeight = weight;
+		}
+
+		SectionCache<V> mCache;
+		String mKey;
+		V mValue; // null while written out
+		long mWeight;
+		long mSpillOffset = -1;
+		int mSpillLength = 0;
+		// evicted but not yet dropped from memory
+		boolean mEvicting = false;
+		// being written to the spill file
+		boolean mWriting = false;
+		// being read back, completed with the value
+		CompletableFuture<V> mLoading = null;
+
+		boolean isCurrent() {
+			return mCache.mEntries.get(mKey) == this;
+		}
+	}
+
+	/**
+	 * Read back a value written out, the caller set entry.mLoading
+	 */
+	private V reload(Entry<V> entry) {
+		V value = null;
+		List<Entry<?>> evicted = null;
+		try {
+			value = load(entry);
+		} finally {
+			synchronized (mLock) {
+				CompletableFuture<V> loading = entry.mLoading;
+				entry.mLoading = null;
+				if (!entry.isCurrent())
+					// removed or replaced while it was read
+					freeSpill(entry);
+				else if (value == null) {
+					mEntries.remove(entry.mKey);
+					freeSpill(entry);
+					mMisses++;
+				} else {
+					entry.mValue = value;
+					mReloads++;
+					evicted = admit(entry);
+				}
+				loading.complete(value);
+			}
+		}
+		spill(evicted);
+		return value;
+	}
+
+	/**
+	 * @return entries evicted to keep the budget, to be passed to spill() once
+	 *         the lock is released
+	 */
+	private static List<Entry<?>> admit(Entry<?> entry) {
+		mResident.put(entry, entry);
+		mResidentBytes += entry.mWeight;
+		return evict(entry);
+	}
+
+	/**
+	 * Forget an entry removed from its cache
+	 */
+	private static void release(Entry<?> entry) {
+		if (mResident.remove(entry) != null)
+			mResidentBytes -= entry.mWeight;
+		freeSpill(entry);
+	}
+
+	/**
+	 * Take the least recently used values out of memory until the budget holds.
+	 * Values written out before are dropped right away, the others once spill()
+	 * wrote them.
+	 *
+	 * @param keep entry that stays in memory
+	 * @return entries spill() has to write, null if there are none
+	 */
+	private static List<Entry<?>> evict(Entry<?> keep) {
+		if (mBudget <= 0)
+			return null;
+
+		List<Entry<?>> evicted = null;
+		Iterator<Entry<?>> it = mResident.keySet().iterator();
+		while (mResidentBytes > mBudget && it.hasNext()) {
+			Entry<?> entry = it.next();
+			if (entry == keep)
+				continue;
+
+			it.remove();
+			mResidentBytes -= entry.mWeight;
+			mEvictions++;
+			if (entry.mSpillOffset >= 0)
+				entry.mValue = null;
+			else {
+				entry.mEvicting = true;
+				// an entry being written already is dropped by that write
+				if (!entry.mWriting) {
+					entry.mWriting = true;
+					if (evicted == null)
+						evicted = new ArrayList<Entry<?>>();
+					evicted.add(entry);
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Write evicted values to the spill file and drop them from memory, those
+	 * that can not be written are dropped from their cache
+	 */
+	private static void spill(List<Entry<?>> evicted) {
+		if (evicted == null)
+			return;
+		for (Entry<?> entry : evicted)
+			spill(entry);
+	}
+
+	private static <V> void spill(Entry<V> entry) {
+		byte[] bytes = null;
+		long offset = -1;
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buffer);
+			if (entry.mCache.mCodec.write(entry.mValue, out)) {
+				out.flush();
+				bytes = buffer.toByteArray();
+				FileChannel channel;
+				synchronized (mLock) {
+					channel = getSpillChannel();
+					offset = allocate(bytes.length);
+				}
+				ByteBuffer data = ByteBuffer.wrap(bytes);
+				while (data.hasRemaining())
+					channel.write(data, offset + data.position());
+				LogManager.getRootLogger().debug("SectionCache::spill " + entry.mCache.mName + " " + entry.mKey + ", "
+						+ bytes.length + " bytes");
+			}
+		} catch (IOException e) {
+			LogManager.getRootLogger()
+					.error("SectionCache::spill " + entry.mCache.mName + " " + entry.mKey + " failed: " + e.toString());
+			if (offset >= 0) {
+				synchronized (mLock) {
+					free(offset, bytes.length);
+				}
+				offset = -1;
+			}
+		} finally {
+			synchronized (mLock) {
+				entry.mWriting = false;
+				boolean current = entry.isCurrent();
+				if (offset >= 0) {
+					if (current) {
+						entry.mSpillOffset = offset;
+						entry.mSpillLength = bytes.length;
+					} else
+						free(offset, bytes.length);
+				}
+				// unless it was asked for again meanwhile
+				if (entry.mEvicting) {
+					entry.mEvicting = false;
+					if (current && entry.mSpillOffset < 0)
+						entry.mCache.mEntries.remove(entry.mKey);
+					entry.mValue = null;
+				}
+			}
+		}
+	}
+
+	private static <V> V load(Entry<V> entry) {
+		try {
+			FileChannel channel;
+			synchronized (mLock) {
+				channel = mSpillChannel;
+			}
+			ByteBuffer bytes = ByteBuffer.allocate(entry.mSpillLength);
+			while (bytes.hasRemaining()) {
+				if (channel.read(bytes, entry.mSpillOffset + bytes.position()) < 0)
+					throw new IOException("end of spill file");
+			}
+			LogManager.getRootLogger().debug("SectionCache::load " + entry.mCache.mName + " " + entry.mKey);
+			return entry.mCache.mCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+		} catch (IOException e) {
+			LogManager.getRootLogger()
+					.error("SectionCache::load " + entry.mCache.mName + " " + entry.mKey + " failed: " + e.toString());
+			return null;
+		}
+	}
+
+	private static FileChannel getSpillChannel() throws IOException {
+		if (mSpillChannel == null) {
+			File file = File.createTempFile("ertool", ".sections");
+			file.deleteOnExit();
+			mSpillChannel = new RandomAccessFile(file, "rw").getChannel();
+		}
+		return mSpillChannel;
+	}
+
+	/**
+	 * @return offset of length bytes of the spill file, space freed before is
+	 *         used first
+	 */
+	private static long allocate(int length) {
+		for (Map.Entry<Long, Long> region : mSpillFree.entrySet()) {
+			if (region.getValue() < length)
+				continue;
+			long offset = region.getKey();
+			mSpillFree.remove(offset);
+			if (region.getValue() > length)
+				mSpillFree.put(offset + length, region.getValue() - length);
+			return offset;
+		}
+		long offset = mSpillEnd;
+		mSpillEnd += length;
+		return offset;
+	}
+
+	/**
+	 * Give back the space of a value written out, unless it is being read
+	 */
+	private static void freeSpill(Entry<?> entry) {
+		if (entry.mSpillOffset < 0 || entry.mLoading != null)
+			return;
+		free(entry.mSpillOffset, entry.mSpillLength);
+		entry.mSpillOffset = -1;
+	}
+
+	private static void free(long offset, long length) {
+		// merge with the free space around it
+		Map.Entry<Long, Long> before = mSpillFree.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			mSpillFree.remove(before.getKey());
+			offset = before.getKey();
+			length += before.getValue();
+		}
+		Long after = mSpillFree.remove(offset + length);
+		if (after != null)
+			length += after;
+
+		if (offset + length < mSpillEnd) {
+			mSpillFree.put(offset, length);
+			return;
+		}
+		// the end of the file is free
+		mSpillEnd = offset;
+		try {
+			mSpillChannel.truncate(offset);
+		} catch (IOException e) {
+			LogManager.getRootLogger().debug("SectionCache::free unable to truncate: " + e.toString());
+		}
+	}
+
+	private static final Object mLock = new Object();
+	// every value held in memory, least recently used first
+	private static LinkedHashMap<Entry<?>, Entry<?>> mResident = new LinkedHashMap<Entry<?>, Entry<?>>(16, 0.75f,
+			true);
+	private static long mResidentBytes = 0;
+	private static long mBudget = 0;
+	private static FileChannel mSpillChannel = null;
+	// end of the space in use and free space before it, by offset
+	private static long mSpillEnd = 0;
+	private static TreeMap<Long, Long> mSpillFree = new TreeMap<Long, Long>();
+
+	private static long mHits = 0;
+	private static long mMisses = 0;
+	private static long mEvictions = 0;
+	private static long mReloads = 0;
+
+	private String mName;
+	private Codec<V> mCodec;
+	private Hashtable<String, Entry<V>> mEntries = new Hashtable<String, Entry<V>>();
+}
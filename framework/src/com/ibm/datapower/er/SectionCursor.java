@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Reads section bodies of an indexed phase with a stream of its own. A cursor
+ * belongs to the call that opened it; cursors over the same phase do not share
+ * anything that changes, so they can be used on different threads at once.
+ */
+public class SectionCursor {
+	SectionCursor(ReportHandle.Phase phase) {
+		mPhase = phase;
+	}
+
+	public ReportHandle.Phase getPhase() {
+		return mPhase;
+	}
+
+	public SectionIndex getIndex() {
+		return mPhase.getIndex();
+	}
+
+	/**
+	 * @return true if bodies are views of a spill file rather than read from the
+	 *         phase stream
+	 */
+	public boolean isSpill() {
+		return mPhase.getSpill() != null;
+	}
+
+	/**
+	 * Position the cursor at the body of a section and return a stream limited
+	 * to that body. Sections are expected in ascending order, going back reopens
+	 * the phase. The body is read through before the next one is opened, unless
+	 * it is a view of the spill file.
+	 */
+	public InputStream openBody(SectionIndexEntry entry) throws IOException {
+		mContentType = entry.getContentType();
+		mContentEncoding = entry.getContentEncoding();
+		if (isSpill())
+			return mPhase.getSpill().open(entry.getBodyStart(), entry.getBodyEnd());
+
+		if (mSectionStream != null) {
+			mPosition += mSectionStream.getConsumed();
+			mSectionStream = null;
+		}
+
+		// a gzip index lets us resume inflating at the checkpoint before the
+		// section instead of rewinding or skipping a long way
+		long target = entry.getBodyStart();
+		GzipIndex gzipIndex = mPhase.getGzipIndex();
+		if (gzipIndex != null && (mStream == null || target < mPosition || target - mPosition > gzipIndex.getSpan())) {
+			GzipIndex.Checkpoint checkpoint = gzipIndex.find(target);
+			if (checkpoint != null
+					&& (mStream == null || target < mPosition || checkpoint.getOffset() > mPosition)) {
+				LogManager.getRootLogger().debug("SectionCursor::openBody resuming at checkpoint "
+						+ checkpoint.getOffset() + " for section at " + target);
+				InputStream stream = gzipIndex.open(new File(mPhase.getFileLocation()), target);
+				IOUtils.closeQuietly(mStream);
+				mStream = new BufferedInputStream(stream, ReportHandle.BUFFER_SIZE);
+				mPosition = target;
+			}
+		}
+
+		if (mStream == null || target < mPosition) {
+			IOUtils.closeQuietly(mStream);
+			mStream = mPhase.openStream();
+			mPosition = 0;
+		}
+
+		long skip = target - mPosition;
+		while (skip > 0) {
+			long skipped = mStream.skip(skip);
+			if (skipped <= 0) {
+				if (mStream.read() == -1)
+					break;
+				skipped = 1;
+			}
+			skip -= skipped;
+			mPosition += skipped;
+		}
+
+		mSectionStream = new SectionInputStream(mStream, entry.getBodyLength());
+		return mSectionStream;
+	}
+
+	/**
+	 * Same as openBody, for the last body the cursor reads. Closing the body
+	 * closes the cursor.
+	 */
+	public InputStream openLastBody(SectionIndexEntry entry) throws IOException {
+		InputStream body = openBody(entry);
+		if (isSpill()) {
+			close();
+			return body;
+		}
+		return new FilterInputStream(body) {
+			@Override
+			public void close() {
+				SectionCursor.this.close();
+			}
+		};
+	}
+
+	/**
+	 * @return content type of the last section opened, null before the first
+	 */
+	public String getContentType() {
+		return mContentType;
+	}
+
+	/**
+	 * @return content transfer encoding of the last section opened
+	 */
+	public String getContentEncoding() {
+		return mContentEncoding;
+	}
+
+	/**
+	 * @return character encoding of the last section opened
+	 */
+	public String getEncoding() {
+		return getEncoding(mContentType == null ? "" : mContentType);
+	}
+
+	/**
+	 * @return character encoding named by a content type, UTF-8 if it names none
+	 */
+	public static String getEncoding(String contentType) {
+		String encoding = "UTF-8";
+		if (contentType.indexOf("charset=") >= 0) {
+			encoding = contentType.substring(contentType.indexOf("charset=") + 8);
+			if (encoding.indexOf(";") > 0)
+				encoding = encoding.substring(0, encoding.indexOf(";"));
+		}
+		return encoding;
+	}
+
+	public void close() {
+		IOUtils.closeQuietly(mStream);
+		mStream = null;
+		mSectionStream = null;
+		mPosition = 0;
+	}
+
+	private ReportHandle.Phase mPhase;
+	private InputStream mStream = null; // decompressed phase, opened with the first body
+	private long mPosition = 0; // bytes of mStream consumed before mSectionStream
+	private SectionInputStream mSectionStream = null;
+	private String mContentType = null;
+	private String mContentEncoding = null;
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Table of the MIME body parts found in one decompressed error report.
+ *
+ * The report is scanned a single time and each part's Content-ID,
+ * Content-Type, Content-Transfer-Encoding and body offsets are recorded so
+ * that later lookups can skip straight to the body instead of tokenizing the
+ * whole report again with MimeTokenStream. The scan follows the same rules
+ * MimeTokenStream applies to DataPower reports: a boundary is recognized at
+ * the start of any line, the line break in front of it belongs to the
+ * boundary, and Content-Type/Content-Transfer-Encoding carry over to a part
+ * that does not set them.
+ */
+public class SectionIndex {
+	public SectionIndex() {
+	}
+
+	/**
+	 * Scan a decompressed report stream and build its section table. The stream
+	 * is read to the end but not closed.
+	 *
+	 * @param in decompressed report
+	 * @return SectionIndex describing every body part
+	 */
+	public static SectionIndex build(InputStream in) throws IOException {
+		SectionIndex index = new SectionIndex();
+		index.scan(in);
+		return index;
+	}
+
+	public List<SectionIndexEntry> getEntries() {
+		return mEntries;
+	}
+
+	/**
+	 * @return true if any Content-ID header was seen while scanning
+	 */
+	public boolean hasContentIds() {
+		return mHasContentIds;
+	}
+
+	/**
+	 * @return total length of the decompressed report
+	 */
+	public long getLength() {
+		return mLength;
+	}
+
+	/**
+	 * Write the section table, read back with read()
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeLong(mLength);
+		out.writeBoolean(mHasContentIds);
+		out.writeInt(mEntries.size());
+		for (SectionIndexEntry entry : mEntries) {
+			writeString(out, entry.getContentId());
+			writeString(out, entry.getContentType());
+			writeString(out, entry.getContentEncoding());
+			out.writeBoolean(entry.isContentIdLast());
+			out.writeInt(entry.getFieldCount());
+			out.writeLong(entry.getBodyStart());
+			out.writeLong(entry.getBodyEnd());
+		}
+	}
+
+	public static SectionIndex read(DataInputStream in) throws IOException {
+		SectionIndex index = new SectionIndex();
+		index.mLength = in.readLong();
+		index.mHasContentIds = in.readBoolean();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String contentId = readString(in);
+			String contentType = readString(in);
+			String contentEncoding = readString(in);
+			boolean contentIdLast = in.readBoolean();
+			int fieldCount = in.readInt();
+			long bodyStart = in.readLong();
+			long bodyEnd = in.readLong();
+			index.mEntries.add(new SectionIndexEntry(contentId, contentType, contentEncoding, contentIdLast,
+					fieldCount, bodyStart, bodyEnd));
+		}
+		return index;
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (len < 0)
+			return null;
+		byte[] bytes = new byte[len];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private void scan(InputStream in) throws IOException {
+		mInput = in;
+
+		readHeader(null);
+		String boundary = getBoundary(mContentType);
+		if (boundary == null) {
+			// single part document, the body runs to the end of the stream
+			long start = mPosition;
+			while (read() != -1)
+				;
+			addEntry(start, mPosition);
+			mLength = mPosition;
+			return;
+		}
+
+		byte[] delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+
+		// skip the preamble
+		int state = skipToDelimiter(delimiter);
+		while (state == DELIMITER_NEXT) {
+			readHeader(delimiter);
+			if (mHeaderDelimiter != DELIMITER_NONE) {
+				// a boundary showed up before the header ended, empty body
+				addEntry(mHeaderDelimiterStart, mHeaderDelimiterStart);
+				state = mHeaderDelimiter;
+				continue;
+			}
+			long start = mPosition;
+			state = skipToDelimiter(delimiter);
+			addEntry(start, mBodyEnd);
+		}
+
+		// epilogue
+		while (read() != -1)
+			;
+		mLength = mPosition;
+	}
+
+	private void addEntry(long start, long end) {
+		mEntries.add(new SectionIndexEntry(mPartContentId, mContentType, mContentEncoding, mPartContentIdLast,
+				mPartFieldCount, start, end));
+	}
+
+	/**
+	 * Read lines from a line start until a boundary delimiter line is found.
+	 * mBodyEnd is set to the offset where the content before the delimiter
+	 * ends.
+	 */
+	private int skipToDelimiter(byte[] delimiter) throws IOException {
+		long regionStart = mPosition;
+		int previousBreak = 0;
+		while (true) {
+			long lineStart = mPosition;
+			if (peek() == -1) {
+				mBodyEnd = mPosition;
+				return DELIMITER_NONE;
+			}
+
+			if (matchDelimiter(delimiter)) {
+				long end = lineStart - previousBreak;
+				if (end < regionStart)
+					end = regionStart;
+				mBodyEnd = end;
+
+				int state = DELIMITER_NEXT;
+				if (peek() == '-') {
+					read();
+					if (peek() == '-') {
+						read();
+						state = DELIMITER_CLOSE;
+					}
+				}
+				skipLine();
+				return state;
+			}
+
+			previousBreak = skipLine();
+			if (previousBreak == 0) {
+				mBodyEnd = mPosition;
+				return DELIMITER_NONE;
+			}
+		}
+	}
+
+	/**
+	 * Consume the delimiter if the upcoming bytes match it. On a mismatch the
+	 * bytes matched so far are consumed but the differing byte is not.
+	 */
+	private boolean matchDelimiter(byte[] delimiter) throws IOException {
+		for (int i = 0; i < delimiter.length; i++) {
+			if (peek() != (delimiter[i] & 0xff))
+				return false;
+			read();
+		}
+		return true;
+	}
+
+	/**
+	 * Read one header block and apply its fields to the running Content-Type
+	 * and Content-Transfer-Encoding.
+	 */
+	private void readHeader(byte[] delimiter) throws IOException {
+		mPartContentId = null;
+		mPartContentIdLast = false;
+		mPartFieldCount = 0;
+		mHeaderDelimiter = DELIMITER_NONE;
+
+		String fieldName = null;
+		ByteArrayOutputStream fieldBody = new ByteArrayOutputStream();
+		int lastBreak = 0;
+
+		while (true) {
+			long lineStart = mPosition;
+			int breakLength = readLine();
+			if (breakLength < 0)
+				break;
+
+			byte[] line = mLine.toByteArray();
+			if (delimiter != null && startsWith(line, delimiter)) {
+				mHeaderDelimiterStart = lineStart;
+				mHeaderDelimiter = DELIMITER_NEXT;
+				if (line.length >= delimiter.length + 2 && line[delimiter.length] == '-'
+						&& line[delimiter.length + 1] == '-')
+					mHeaderDelimiter = DELIMITER_CLOSE;
+				break;
+			}
+
+			if (line.length == 0)
+				break;
+
+			if (line[0] == ' ' || line[0] == '\t') {
+				// folded continuation of the previous field
+				if (fieldName != null && fieldBody.size() < MAX_FIELD_LENGTH) {
+					if (lastBreak == 2)
+						fieldBody.write('\r');
+					fieldBody.write('\n');
+					fieldBody.write(line, 0, line.length);
+				}
+			} else {
+				if (fieldName != null)
+					addField(fieldName, fieldBody);
+				fieldName = null;
+				fieldBody.reset();
+
+				int colon = indexOf(line, (byte) ':');
+				if (colon > 0) {
+					String name = new String(line, 0, colon, "ISO-8859-1");
+					int len = name.length();
+					while (len > 0 && (name.charAt(len - 1) == ' ' || name.charAt(len - 1) == '\t'))
+						len--;
+					name = name.substring(0, len);
+					if (isFieldName(name)) {
+						fieldName = name;
+						fieldBody.write(line, colon + 1, line.length - colon - 1);
+					}
+				}
+			}
+
+			lastBreak = breakLength;
+			if (breakLength == 0)
+				break;
+		}
+
+		if (fieldName != null)
+			addField(fieldName, fieldBody);
+	}
+
+	private void addField(String name, ByteArrayOutputStream body) throws IOException {
+		mPartFieldCount++;
+		mPartContentIdLast = false;
+		if (name.equalsIgnoreCase("Content-Type"))
+			mContentType = body.toString("ISO-8859-1").trim();
+		if (name.equalsIgnoreCase("Content-Transfer-Encoding"))
+			mContentEncoding = body.toString("ISO-8859-1").trim();
+		if (name.equals("Content-ID")) {
+			mPartContentId = body.toString("ISO-8859-1");
+			mPartContentIdLast = true;
+			mHasContentIds = true;
+		}
+	}
+
+	private static boolean isFieldName(String name) {
+		if (name.length() == 0)
+			return false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c <= 0x20 || c >= 0x7f)
+				return false;
+		}
+		return true;
+	}
+
+	private static String getBoundary(String contentType) {
+		if (contentType == null || !contentType.toLowerCase().startsWith("multipart/"))
+			return null;
+		Matcher matcher = BOUNDARY_PATTERN.matcher(contentType);
+		if (!matcher.find())
+			return null;
+		if (matcher.group(2) != null)
+			return matcher.group(2);
+		return matcher.group(3);
+	}
+
+	private static boolean startsWith(byte[] line, byte[] prefix) {
+		if (line.length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if (line[i] != prefix[i])
+				return false;
+		return true;
+	}
+
+	private static int indexOf(byte[] line, byte b) {
+		for (int i = 0; i < line.length; i++)
+			if (line[i] == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Read a line into mLine without its terminator. Lines longer than
+	 * MAX_FIELD_LENGTH are truncated.
+	 *
+	 * @return length of the terminator (1 for LF, 2 for CRLF), 0 at the end of
+	 *         the stream, or -1 if nothing was left to read
+	 */
+	private int readLine() throws IOException {
+		mLine.reset();
+		if (peek() == -1)
+			return -1;
+		boolean cr = false;
+		for (int c = read(); c != -1; c = read()) {
+			if (c == '\n') {
+				return cr ? 2 : 1;
+			}
+			if (cr && mLine.size() < MAX_FIELD_LENGTH)
+				mLine.write('\r');
+			cr = (c == '\r');
+			if (!cr && mLine.size() < MAX_FIELD_LENGTH)
+				mLine.write(c);
+		}
+		if (cr)
+			mLine.write('\r');
+		return 0;
+	}
+
+	/**
+	 * Skip to the start of the next line.
+	 *
+	 * @return length of the terminator, 0 at the end of the stream
+	 */
+	private int skipLine() throws IOException {
+		int previous = -1;
+		for (int c = read(); c != -1; c = read()) {
+			if (c == '\n')
+				return previous == '\r' ? 2 : 1;
+			previous = c;
+		}
+		return 0;
+	}
+
+	private int peek() throws IOException {
+		if (mBufferPos >= mBufferLen && !fill())
+			return -1;
+		return mBuffer[mBufferPos] & 0xff;
+	}
+
+	private int read() throws IOException {
+		if (mBufferPos >= mBufferLen && !fill())
+			return -1;
+		mPosition++;
+		return mBuffer[mBufferPos++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		int len = 0;
+		while (len == 0)
+			len = mInput.read(mBuffer, 0, mBuffer.length);
+		if (len < 0) {
+			mBufferLen = 0;
+			mBufferPos = 0;
+			return false;
+		}
+		mBufferLen = len;
+		mBufferPos = 0;
+		return true;
+	}
+
+	private static final Pattern BOUNDARY_PATTERN = Pattern
+			.compile("(?i)(?:^|;)\\s*boundary\\s*=\\s*(\"([^\"]*)\"|([^;\\s]+))");
+	private static final int MAX_FIELD_LENGTH = 65536;
+	private static final int DELIMITER_NONE = 0;
+	private static final int DELIMITER_NEXT = 1;
+	private static final int DELIMITER_CLOSE = 2;
+
+	private ArrayList<SectionIndexEntry> mEntries = new ArrayList<SectionIndexEntry>();
+	private boolean mHasContentIds = false;
+	private long mLength = 0;
+
+	// scanner state
+	private InputStream mInput;
+	private byte[] mBuffer = new byte[65536];
+	private int mBufferLen = 0;
+	private int mBufferPos = 0;
+	private long mPosition = 0;
+	private ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+	private long mBodyEnd = 0;
+
+	// running header state, carries over parts the same way setContentType did
+	private String mContentType = "";
+	private String mContentEncoding = null;
+
+	// header state of the part being scanned
+	private String mPartContentId = null;
+	private boolean mPartContentIdLast = false;
+	private int mPartFieldCount = 0;
+	private int mHeaderDelimiter = DELIMITER_NONE;
+	private long mHeaderDelimiterStart = 0;
+}
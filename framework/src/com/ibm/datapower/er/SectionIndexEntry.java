@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+/**
+ * A single MIME body part recorded by SectionIndex. Offsets are relative to
+ * the decompressed report stream of the phase the entry was scanned from.
+ */
+public class SectionIndexEntry {
+	private String mContentId; // raw body of the last Content-ID field, null if none
+	private String mContentType; // effective Content-Type when the body starts
+	private String mContentEncoding; // effective Content-Transfer-Encoding
+	private boolean mContentIdLast; // Content-ID was the final header field
+	private int mFieldCount; // number of header fields in this part
+	private long mBodyStart; // first byte of the body
+	private long mBodyEnd; // first byte after the body (excludes boundary CRLF)
+
+	public SectionIndexEntry(String contentId, String contentType, String contentEncoding, boolean contentIdLast,
+			int fieldCount, long bodyStart, long bodyEnd) {
+		mContentId = contentId;
+		mContentType = contentType;
+		mContentEncoding = contentEncoding;
+		mContentIdLast = contentIdLast;
+		mFieldCount = fieldCount;
+		mBodyStart = bodyStart;
+		mBodyEnd = bodyEnd;
+	}
+
+	public String getContentId() {
+		return mContentId;
+	}
+
+	public String getContentType() {
+		return mContentType;
+	}
+
+	public String getContentEncoding() {
+		return mContentEncoding;
+	}
+
+	public boolean isContentIdLast() {
+		return mContentIdLast;
+	}
+
+	public int getFieldCount() {
+		return mFieldCount;
+	}
+
+	public long getBodyStart() {
+		return mBodyStart;
+	}
+
+	public long getBodyEnd() {
+		return mBodyEnd;
+	}
+
+	public long getBodyLength() {
+		return mBodyEnd - mBodyStart;
+	}
+}
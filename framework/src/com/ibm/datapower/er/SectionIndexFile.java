@@ -0,0 +1,344 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Sidecar file holding what ERFramework discovers about a report: the number
+ * of phases, the MIME section table of each phase, the inflate checkpoints of
+ * a gzip report and the entry names of each post-mortem archive. It is keyed
+ * by the size and modification time of the report and a CRC32 of its first
+ * and last KEY_SPAN bytes, so a changed report is scanned again without
+ * reading all of it.
+ *
+ * The file is kept in the per-user cache directory .ertool/index under
+ * user.home unless another directory is configured. With -indexcache report
+ * it is written next to the report as [report].erindex, falling back to the
+ * per-user directory when the report directory is not writable.
+ */
+public class SectionIndexFile {
+	/**
+	 * @param report   error report or post-mortem the index describes
+	 * @param cacheDir directory for index files, null for the per-user cache
+	 *                 directory or CACHE_REPORT to keep them next to the report
+	 */
+	public SectionIndexFile(File report, String cacheDir) {
+		mReport = report;
+		mCacheDir = cacheDir;
+	}
+
+	public int getHighestPhase() {
+		return mHighestPhase;
+	}
+
+	public void setHighestPhase(int phase) {
+		mHighestPhase = phase;
+	}
+
+	public ArrayList<SectionIndex> getSectionIndexes() {
+		return mSectionIndexes;
+	}
+
+	public ArrayList<Hashtable<String, Boolean>> getArchiveEntries() {
+		return mArchiveEntries;
+	}
+
+	public ArrayList<GzipIndex> getGzipIndexes() {
+		return mGzipIndexes;
+	}
+
+	/**
+	 * Load the index file if one exists for the current contents of the report
+	 *
+	 * @return true if the index was loaded
+	 */
+	public boolean load() {
+		try {
+			computeKey();
+		} catch (IOException e) {
+			return false;
+		}
+
+		File[] candidates = { getIndexFile(false), getIndexFile(true) };
+		for (File candidate : candidates) {
+			if (candidate == null || !candidate.isFile())
+				continue;
+
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(candidate)));
+				if (read(in)) {
+					LogManager.getRootLogger().debug("SectionIndexFile::load using " + candidate.getPath());
+					return true;
+				}
+			} catch (IOException e) {
+				LogManager.getRootLogger()
+						.debug("SectionIndexFile::load ignoring unreadable index " + candidate.getPath());
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Write the index file, failures are logged and otherwise ignored
+	 */
+	public void save() {
+		try {
+			if (mChecksum == -1)
+				computeKey();
+		} catch (IOException e) {
+			return;
+		}
+
+		if (!save(getIndexFile(false)))
+			save(getIndexFile(true));
+	}
+
+	private boolean save(File target) {
+		if (target == null)
+			return false;
+
+		File dir = target.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			return false;
+
+		// write to a temporary file of this run first and move it into place, a
+		// concurrent run never reads half an index
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(target.getName(), ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			write(out);
+			out.close();
+			out = null;
+			try {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			LogManager.getRootLogger().debug("SectionIndexFile::save wrote " + target.getPath());
+			return true;
+		} catch (IOException e) {
+			LogManager.getRootLogger().debug("SectionIndexFile::save unable to write " + target.getPath());
+			return false;
+		} finally {
+			IOUtils.closeQuietly(out);
+			if (temp != null)
+				temp.delete();
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(mSize);
+		out.writeLong(mModified);
+		out.writeLong(mChecksum);
+		out.writeInt(mHighestPhase);
+
+		int phases = Math.max(mSectionIndexes.size(), mArchiveEntries.size());
+		phases = Math.max(phases, mGzipIndexes.size());
+		out.writeInt(phases);
+		for (int i = 0; i < phases; i++) {
+			SectionIndex index = i < mSectionIndexes.size() ? mSectionIndexes.get(i) : null;
+			Hashtable<String, Boolean> entries = i < mArchiveEntries.size() ? mArchiveEntries.get(i) : null;
+			GzipIndex gzipIndex = i < mGzipIndexes.size() ? mGzipIndexes.get(i) : null;
+			if (index != null) {
+				out.writeByte(PHASE_MIME);
+				index.write(out);
+				out.writeBoolean(gzipIndex != null);
+				if (gzipIndex != null)
+					gzipIndex.write(out);
+			} else if (entries != null) {
+				out.writeByte(PHASE_ARCHIVE);
+				out.writeInt(entries.size());
+				for (String name : entries.keySet())
+					SectionIndex.writeString(out, name);
+			} else
+				out.writeByte(PHASE_NONE);
+		}
+	}
+
+	private boolean read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			return false;
+		if (in.readLong() != mSize || in.readLong() != mModified || in.readLong() != mChecksum)
+			return false;
+
+		int highestPhase = in.readInt();
+		ArrayList<SectionIndex> indexes = new ArrayList<SectionIndex>();
+		ArrayList<Hashtable<String, Boolean>> archives = new ArrayList<Hashtable<String, Boolean>>();
+		ArrayList<GzipIndex> gzipIndexes = new ArrayList<GzipIndex>();
+		int phases = in.readInt();
+		for (int i = 0; i < phases; i++) {
+			SectionIndex index = null;
+			Hashtable<String, Boolean> entries = null;
+			GzipIndex gzipIndex = null;
+			byte kind = in.readByte();
+			if (kind == PHASE_MIME) {
+				index = SectionIndex.read(in);
+				if (in.readBoolean())
+					gzipIndex = GzipIndex.read(in);
+			} else if (kind == PHASE_ARCHIVE) {
+				entries = new Hashtable<String, Boolean>();
+				int count = in.readInt();
+				for (int e = 0; e < count; e++)
+					entries.put(SectionIndex.readString(in), true);
+			} else if (kind != PHASE_NONE)
+				return false;
+			indexes.add(index);
+			archives.add(entries);
+			gzipIndexes.add(gzipIndex);
+		}
+
+		mHighestPhase = highestPhase;
+		mSectionIndexes = indexes;
+		mArchiveEntries = archives;
+		mGzipIndexes = gzipIndexes;
+		return true;
+	}
+
+	private void computeKey() throws IOException {
+		mSize = mReport.length();
+		mModified = mReport.lastModified();
+
+		// the head and tail catch a report rewritten within the mtime resolution
+		CRC32 crc = new CRC32();
+		RandomAccessFile in = new RandomAccessFile(mReport, "r");
+		try {
+			byte[] buffer = new byte[(int) Math.min(KEY_SPAN, mSize)];
+			in.readFully(buffer);
+			crc.update(buffer);
+			if (mSize > KEY_SPAN) {
+				buffer = new byte[(int) Math.min(KEY_SPAN, mSize - KEY_SPAN)];
+				in.seek(mSize - buffer.length);
+				in.readFully(buffer);
+				crc.update(buffer);
+			}
+		} finally {
+			in.close();
+		}
+		mChecksum = crc.getValue();
+	}
+
+	private File getIndexFile(boolean fallback) {
+		return getCacheFile(mReport, mCacheDir, EXTENSION, fallback);
+	}
+
+	/**
+	 * Where a file derived from source is cached, for the index files of reports
+	 * and the plan files of rules
+	 *
+	 * @param source    report or rules file
+	 * @param cacheDir  directory, null for the per-user cache directory or
+	 *                  CACHE_REPORT to use the directory of source
+	 * @param extension added to the name of source
+	 * @param fallback  true for the per-user cache directory when the directory of
+	 *                  source is used and not writable
+	 * @return the file, null if there is none
+	 */
+	public static File getCacheFile(File source, String cacheDir, String extension, boolean fallback) {
+		boolean nextToSource = CACHE_REPORT.equals(cacheDir);
+		if (nextToSource && !fallback)
+			return new File(source.getPath() + extension);
+		if (fallback != nextToSource)
+			return null;
+
+		File dir = cacheDir == null || nextToSource ? getUserCacheDir() : new File(cacheDir);
+		if (dir == null)
+			return null;
+
+		// cache directories are shared between reports, qualify by location
+		CRC32 crc = new CRC32();
+		crc.update(source.getAbsolutePath().getBytes());
+		return new File(dir, source.getName() + "-" + Long.toHexString(crc.getValue()) + extension);
+	}
+
+	/**
+	 * The per-user cache directory, made readable by its owner only
+	 *
+	 * @return the directory, null if it cannot be made
+	 */
+	private static File getUserCacheDir() {
+		String home = System.getProperty("user.home");
+		if (home == null || home.length() == 0)
+			return null;
+
+		File dir = new File(new File(home, ".ertool"), "index");
+		if (dir.isDirectory())
+			return dir;
+		try {
+			Files.createDirectories(dir.toPath(),
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		} catch (UnsupportedOperationException e) {
+			if (!dir.mkdirs())
+				return null;
+			dir.setReadable(false, false);
+			dir.setWritable(false, false);
+			dir.setExecutable(false, false);
+			dir.setReadable(true, true);
+			dir.setWritable(true, true);
+			dir.setExecutable(true, true);
+		} catch (IOException e) {
+			return null;
+		}
+		return dir;
+	}
+
+	public static final String EXTENSION = ".erindex";
+	public static final String CACHE_REPORT = "report";
+
+	private static final int MAGIC = 0x45524958; // ERIX
+	private static final int VERSION = 3;
+	private static final long KEY_SPAN = 64 * 1024;
+	private static final byte PHASE_NONE = 0;
+	private static final byte PHASE_MIME = 1;
+	private static final byte PHASE_ARCHIVE = 2;
+
+	private File mReport;
+	private String mCacheDir;
+	private long mSize = -1;
+	private long mModified = -1;
+	private long mChecksum = -1;
+
+	private int mHighestPhase = 0;
+	private ArrayList<SectionIndex> mSectionIndexes = new ArrayList<SectionIndex>();
+	private ArrayList<Hashtable<String, Boolean>> mArchiveEntries = new ArrayList<Hashtable<String, Boolean>>();
+	private ArrayList<GzipIndex> mGzipIndexes = new ArrayList<GzipIndex>();
+}
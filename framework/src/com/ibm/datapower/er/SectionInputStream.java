@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read a fixed length window out of the report stream, used to hand out a
+ * single section body located through SectionIndex. Closing the stream does
+ * not close the underlying report stream.
+ */
+public class SectionInputStream extends InputStream {
+	private InputStream mInputStream;
+	private long mRemaining;
+	private long mConsumed = 0;
+
+	public SectionInputStream(InputStream in, long length) {
+		mInputStream = in;
+		mRemaining = length;
+	}
+
+	/**
+	 * @return number of bytes taken from the underlying stream so far
+	 */
+	public long getConsumed() {
+		return mConsumed;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (mRemaining <= 0)
+			return -1;
+		int b = mInputStream.read();
+		if (b == -1) {
+			mRemaining = 0;
+			return -1;
+		}
+		mRemaining--;
+		mConsumed++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (mRemaining <= 0)
+			return -1;
+		if (len > mRemaining)
+			len = (int) mRemaining;
+		int count = mInputStream.read(b, off, len);
+		if (count == -1) {
+			mRemaining = 0;
+			return -1;
+		}
+		mRemaining -= count;
+		mConsumed += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n > mRemaining)
+			n = mRemaining;
+		if (n <= 0)
+			return 0;
+		long skipped = mInputStream.skip(n);
+		mRemaining -= skipped;
+		mConsumed += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		int available = mInputStream.available();
+		if (available > mRemaining)
+			available = (int) mRemaining;
+		return available;
+	}
+
+	@Override
+	public void close() {
+		mRemaining = 0;
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+
+import com.ibm.datapower.er.Analytics.AnalyticsFunctions;
+import com.ibm.datapower.er.Analytics.DocumentSection;
+
+/**
+ * Builds the DocumentSections of MIME sections while the report is still being
+ * read. The reading thread hands over the raw body of each section, a pool of
+ * threads decodes and parses them, and a single writer thread writes the
+ * related files. Sections are taken back in the order they were added, so the
+ * section list, the section cache and the files come out as they would reading
+ * one section after another. At most a few sections are held at a time.
+ */
+public class SectionPipeline {
+	/**
+	 * The body of a section and what is needed to decode it, as it was when the
+	 * section was read
+	 */
+	public static class Section {
+		public Section(String name, String extension, int phase, String phaseFile, String contentType,
+				String contentEncoding, String encoding, boolean keepOriginal, boolean sectionFound) {
+			mName = name;
+			mExtension = extension;
+			mPhase = phase;
+			mPhaseFile = phaseFile;
+			mContentType = contentType;
+			mContentEncoding = contentEncoding;
+			mEncoding = encoding;
+			mKeepOriginal = keepOriginal;
+			mSectionFound = sectionFound;
+		}
+
+		/**
+		 * Read the body to the end and close it. A read that fails is kept and
+		 * thrown again once the section has been read up to that point.
+		 */
+		public void read(InputStream body) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try {
+				int len;
+				while ((len = body.read(buffer)) != -1)
+					out.write(buffer, 0, len);
+			} catch (IOException e) {
+				mReadError = e;
+			} finally {
+				try {
+					body.close();
+				} catch (IOException e) {
+				}
+			}
+			mBody = out.toByteArray();
+		}
+
+		/**
+		 * @return the body as it was read
+		 */
+		public InputStream open() {
+			InputStream body = new ByteArrayInputStream(mBody);
+			if (mReadError == null)
+				return body;
+
+			final IOException error = mReadError;
+			return new SequenceInputStream(body, new InputStream() {
+				@Override
+				public int read() throws IOException {
+					throw error;
+				}
+			});
+		}
+
+		/**
+		 * @return stream parse problems of the section are kept in
+		 */
+		public PrintStream getErrors() {
+			mErrors = new ByteArrayOutputStream();
+			return new PrintStream(mErrors, true);
+		}
+
+		public String mName;
+		public String mExtension;
+		public int mPhase;
+		public String mPhaseFile;
+		public String mContentType;
+		public String mContentEncoding;
+		public String mEncoding;
+		public boolean mKeepOriginal; // first time the section is read, write its file
+		public boolean mSectionFound; // add it to the section list
+		public InputStream mOriginal = null; // text to write the file from, set once decoded
+
+		private byte[] mBody = null;
+		private IOException mReadError = null;
+		private ByteArrayOutputStream mErrors = null;
+		private int mIndex = 0;
+		private Future<DocumentSection> mFuture = null;
+	}
+
+	/**
+	 * @param framework     decodes the sections
+	 * @param cidList       list matched sections are added to
+	 * @param docCache      cache sections are kept in
+	 * @param sectionsExist sections seen so far, sections never taken back are
+	 *                      removed again
+	 */
+	public SectionPipeline(ERFramework framework, ArrayList<DocumentSection> cidList,
+			SectionCache<DocumentSection> docCache, Hashtable<String, Boolean> sectionsExist) {
+		mFramework = framework;
+		mCidList = cidList;
+		mDocCache = docCache;
+		mSectionsExist = sectionsExist;
+	}
+
+	/**
+	 * Note a section marked as seen in the sections exist table, so it can be
+	 * unmarked if a section before it fails
+	 */
+	public void seen(String name) {
+		mSeen.add(name);
+		mSeenAt.add(mAdded);
+	}
+
+	/**
+	 * Start decoding a section, taking back the oldest ones while too many are
+	 * pending
+	 */
+	public void add(final Section section) throws ERException {
+		section.mIndex = mAdded++;
+		section.mFuture = getWorkers().submit(new Callable<DocumentSection>() {
+			public DocumentSection call() throws ERException {
+				return mFramework.decodeSection(section);
+			}
+		});
+		mPending.add(section);
+
+		while (mPending.size() > mLimit)
+			take();
+	}
+
+	/**
+	 * Take back every pending section and wait for their files to be written,
+	 * unless a section failed
+	 */
+	public void finish() throws ERException {
+		if (mFailedSection != null)
+			return;
+		while (!mPending.isEmpty())
+			take();
+		waitForWrites();
+	}
+
+	/**
+	 * Drop the sections that were not taken back. After a section failed, the
+	 * sections seen past it count as not read yet, as reading stops at a failed
+	 * section.
+	 */
+	public void close() {
+		while (!mPending.isEmpty())
+			mPending.removeFirst().mFuture.cancel(true);
+
+		if (mFailedIndex >= 0) {
+			for (int i = 0; i < mSeen.size(); i++) {
+				if (mSeenAt.get(i) > mFailedIndex)
+					mSectionsExist.remove(mSeen.get(i));
+			}
+		}
+		waitForWrites();
+	}
+
+	/**
+	 * @return name of the section that failed to decode, null if none did
+	 */
+	public String getFailedSection() {
+		return mFailedSection;
+	}
+
+	private void take() throws ERException {
+		Section pending = mPending.removeFirst();
+		DocumentSection section = null;
+		try {
+			section = pending.mFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(pending);
+			throw new ERFrameworkIOException("SectionPipeline::take interrupted reading " + pending.mName);
+		} catch (ExecutionException e) {
+			fail(pending);
+			Throwable cause = e.getCause();
+			if (cause instanceof ERException)
+				throw (ERException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new ERFrameworkIOException("SectionPipeline::take " + cause.toString());
+		}
+
+		printErrors(pending);
+		if (section == null)
+			return;
+
+		if (pending.mKeepOriginal) {
+			final DocumentSection written = section;
+			final InputStream endStream = pending.mOriginal;
+			mWrites.add(getWriter().submit(new Runnable() {
+				public void run() {
+					AnalyticsFunctions.generateFileFromContent(written, endStream);
+				}
+			}));
+		}
+		LogManager.getRootLogger().debug("Added to cache section: " + pending.mName);
+		DocumentSection tmpSection = mDocCache.get(pending.mName);
+		if (tmpSection == null) {
+			mDocCache.put(pending.mName, section);
+		}
+
+		// resolves attempting to run formula against each section (when we really just
+		// want to create files for unmatched results)
+		if (pending.mSectionFound)
+			mCidList.add(section);
+	}
+
+	private void fail(Section pending) {
+		mFailedSection = pending.mName;
+		mFailedIndex = pending.mIndex;
+		printErrors(pending);
+	}
+
+	// parse problems show up in the order the sections were read
+	private static void printErrors(Section pending) {
+		if (pending.mErrors != null && pending.mErrors.size() > 0) {
+			System.err.write(pending.mErrors.toByteArray(), 0, pending.mErrors.size());
+			System.err.flush();
+		}
+	}
+
+	private void waitForWrites() {
+		for (Future<?> write : mWrites) {
+			try {
+				write.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				LogManager.getRootLogger()
+						.error("SectionPipeline::waitForWrites writing a section failed: " + e.getCause());
+			}
+		}
+		mWrites.clear();
+	}
+
+	/**
+	 * The pools are kept for the life of the tool, ExecutionBackend.shutdown()
+	 * ends them
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if (mWorkers == null) {
+			// sized when first used, after the options have picked the backend
+			mWorkerThreads = ExecutionBackend.getThreads();
+			mWorkers = Executors.newFixedThreadPool(mWorkerThreads, ExecutionBackend.getIOThreadFactory("ertool-section-"));
+			ExecutionBackend.share(mWorkers);
+		}
+		return mWorkers;
+	}
+
+	private static synchronized int getWorkerThreads() {
+		getWorkers();
+		return mWorkerThreads;
+	}
+
+	private static synchronized ExecutorService getWriter() {
+		if (mWriter == null) {
+			mWriter = Executors.newSingleThreadExecutor(ExecutionBackend.getIOThreadFactory("ertool-writer-"));
+			ExecutionBackend.share(mWriter);
+		}
+		return mWriter;
+	}
+
+	private static final int BUFFER_SIZE = 65536;
+	private static ExecutorService mWorkers = null;
+	private static int mWorkerThreads = 0;
+	private static ExecutorService mWriter = null;
+
+	private ERFramework mFramework;
+	private ArrayList<DocumentSection> mCidList;
+	private SectionCache<DocumentSection> mDocCache;
+	private Hashtable<String, Boolean> mSectionsExist;
+	private ArrayDeque<Section> mPending = new ArrayDeque<Section>();
+	private ArrayList<Future<?>> mWrites = new ArrayList<Future<?>>();
+	// sections decoding or waiting to be taken back, two per thread keeps them busy
+	private int mLimit = getWorkerThreads() * 2;
+	private String mFailedSection = null;
+	private int mFailedIndex = -1;
+	private int mAdded = 0;
+	// sections marked as seen and how many sections had been added by then
+	private ArrayList<String> mSeen = new ArrayList<String>();
+	private ArrayList<Integer> mSeenAt = new ArrayList<Integer>();
+}
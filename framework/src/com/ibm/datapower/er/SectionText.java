@@ -0,0 +1,195 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * The text of a text section as a parser would return it from the Root element
+ * XmlEncapsulatedInputStream wraps it in, worked out without the parse. Text
+ * that would not parse as the content of that element has no text, the section
+ * is then parsed from getEncapsulated() as before.
+ */
+public class SectionText {
+	/**
+	 * Read a text section to the end and close it
+	 *
+	 * @param in           section text
+	 * @param encoding     charset the encapsulated section would be parsed with
+	 * @param keepOriginal true to keep a copy of the text for getOriginal()
+	 */
+	public static SectionText read(InputStream in, String encoding, boolean keepOriginal) {
+		SectionText section = new SectionText();
+		byte[] raw = readFully(in);
+
+		try {
+			String decoded = decode(raw, Charset.defaultCharset());
+			if (keepOriginal)
+				section.mOriginal = encode(decoded, Charset.defaultCharset());
+			section.mText = rootText(decoded, encoding);
+		} catch (CharacterCodingException e) {
+			section.mText = null;
+		}
+
+		if (section.mText == null)
+			section.mRaw = raw;
+		return section;
+	}
+
+	/**
+	 * @return the content of the Root element, or null if the section has to
+	 *         be parsed
+	 */
+	public String getText() {
+		return mText;
+	}
+
+	/**
+	 * @return the section wrapped in a Root element, to be parsed when there is
+	 *         no text
+	 */
+	public InputStream getEncapsulated() {
+		byte[] raw = mRaw;
+		if (raw == null)
+			raw = new byte[0];
+		return new XmlEncapsulatedInputStream(new ByteArrayInputStream(raw), false);
+	}
+
+	/**
+	 * @return the section text as it was read, null if it was not kept
+	 */
+	public InputStream getOriginal() {
+		if (mOriginal == null)
+			return null;
+		return new ByteArrayInputStream(mOriginal);
+	}
+
+	private static byte[] readFully(InputStream in) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			int len;
+			while ((len = in.read(buffer)) != -1)
+				out.write(buffer, 0, len);
+		} catch (IOException e) {
+			// the section ends where reading failed, like it does when encapsulated
+			LogManager.getRootLogger().error("SectionText::readFully -- reading the section failed: " + e.toString());
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Follow the section through XmlEncapsulatedInputStream and the parser: NUL
+	 * characters are dropped, the text is encoded with the platform charset and
+	 * decoded with the parser charset, then line ends are normalized
+	 *
+	 * @return null if the parse would not give the same text back or fail
+	 */
+	private static String rootText(String decoded, String encoding) throws CharacterCodingException {
+		Charset parserCharset = null;
+		try {
+			parserCharset = Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		Charset platform = Charset.defaultCharset();
+		// the markup has to come through the charsets unchanged
+		if (!MARKUP.equals(decode(encode(MARKUP, platform), parserCharset)))
+			return null;
+
+		String text = decoded.indexOf('\u0000') >= 0 ? decoded.replace("\u0000", "") : decoded;
+		// decoding and encoding again gives the same text with these
+		if (!platform.equals(parserCharset) || !(platform.equals(StandardCharsets.UTF_8)
+				|| platform.equals(StandardCharsets.ISO_8859_1)))
+			text = decode(encode(text, platform), parserCharset);
+
+		return normalize(text);
+	}
+
+	/**
+	 * Normalize line ends as XML 1.0 does
+	 *
+	 * @return null if the text has a character XML does not allow
+	 */
+	private static String normalize(String text) {
+		StringBuilder out = null;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				if (out == null)
+					out = new StringBuilder(length).append(text, 0, i);
+				out.append('\n');
+				if (i + 1 < length && text.charAt(i + 1) == '\n')
+					i++;
+				continue;
+			}
+
+			if (Character.isHighSurrogate(c)) {
+				if (i + 1 >= length || !Character.isLowSurrogate(text.charAt(i + 1)))
+					return null;
+				if (out != null)
+					out.append(c).append(text.charAt(i + 1));
+				i++;
+				continue;
+			}
+
+			if ((c < 0x20 && c != '\t' && c != '\n') || Character.isLowSurrogate(c) || c == 0xFFFE || c == 0xFFFF)
+				return null;
+			if (out != null)
+				out.append(c);
+		}
+		return out == null ? text : out.toString();
+	}
+
+	// InputStreamReader and the encoders XmlEncapsulatedInputStream uses replace
+	// what they can not read or write
+	private static String decode(byte[] bytes, Charset charset) throws CharacterCodingException {
+		return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(ByteBuffer.wrap(bytes)).toString();
+	}
+
+	private static byte[] encode(String text, Charset charset) throws CharacterCodingException {
+		ByteBuffer bytes = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE).encode(CharBuffer.wrap(text));
+		byte[] out = new byte[bytes.remaining()];
+		bytes.get(out);
+		return out;
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final String MARKUP = "<Root>&quot;&amp;&lt;&gt;&apos;</Root>";
+
+	private String mText = null;
+	private byte[] mRaw = null;
+	private byte[] mOriginal = null;
+}
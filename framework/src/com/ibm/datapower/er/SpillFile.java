@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Decompressed copy of one report phase written to a temporary file and
+ * mapped read-only into memory. Sections are handed out as slices of the
+ * mapping, so the report is inflated once and its contents are served from
+ * the page cache instead of the Java heap.
+ *
+ * The temporary file is removed as soon as it is mapped where the platform
+ * allows it, otherwise when the JVM exits.
+ */
+public class SpillFile {
+	private SpillFile(MappedByteBuffer buffer, String phaseFile) {
+		mBuffer = buffer;
+		mPhaseFile = phaseFile;
+	}
+
+	/**
+	 * Write a decompressed report stream to a temporary file and map it. The
+	 * input stream is read to the end but not closed.
+	 *
+	 * @param in        decompressed report
+	 * @param phaseFile name of the report inside its container
+	 * @param dir       directory for the temporary file, null for java.io.tmpdir
+	 * @return mapped SpillFile, or null if the report is too large to map
+	 */
+	public static SpillFile create(InputStream in, String phaseFile, File dir) throws IOException {
+		File file = File.createTempFile("ertool", ".spill", dir);
+		file.deleteOnExit();
+
+		long length = 0;
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int len = 0;
+			while ((len = in.read(buffer)) != -1) {
+				out.write(buffer, 0, len);
+				length += len;
+			}
+		} finally {
+			out.close();
+		}
+
+		if (length > Integer.MAX_VALUE) {
+			LogManager.getRootLogger()
+					.info("SpillFile::create " + phaseFile + " is too large to map, reading it as a stream");
+			file.delete();
+			return null;
+		}
+
+		MappedByteBuffer buffer = null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+
+		// the mapping stays valid after the file is unlinked
+		file.delete();
+
+		LogManager.getRootLogger().debug("SpillFile::create mapped " + length + " bytes of " + phaseFile);
+		return new SpillFile(buffer, phaseFile);
+	}
+
+	public String getPhaseFile() {
+		return mPhaseFile;
+	}
+
+	public long getLength() {
+		return mBuffer.capacity();
+	}
+
+	/**
+	 * Read-only view of part of the report
+	 *
+	 * @param start first byte
+	 * @param end   first byte after the slice
+	 */
+	public ByteBuffer slice(long start, long end) {
+		ByteBuffer view = mBuffer.asReadOnlyBuffer();
+		view.limit((int) end);
+		view.position((int) start);
+		return view.slice();
+	}
+
+	/**
+	 * @return stream over the whole report
+	 */
+	public InputStream open() {
+		return new ByteBufferInputStream(mBuffer.asReadOnlyBuffer());
+	}
+
+	/**
+	 * @return stream over part of the report
+	 */
+	public InputStream open(long start, long end) {
+		return new ByteBufferInputStream(slice(start, end));
+	}
+
+	private MappedByteBuffer mBuffer;
+	private String mPhaseFile;
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Entry table of a post-mortem tar, built in one pass over the archive. Each
+ * entry records where its header and data start in the uncompressed tar so a
+ * file can be read straight from an uncompressed tar on disk, or from a spill
+ * file the decompressed tar was copied to while it was indexed.
+ */
+public class TarIndex {
+	public static class Entry {
+		public Entry(String name, long headerOffset, long dataOffset, long size) {
+			mName = name;
+			mHeaderOffset = headerOffset;
+			mDataOffset = dataOffset;
+			mSize = size;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public long getHeaderOffset() {
+			return mHeaderOffset;
+		}
+
+		public long getDataOffset() {
+			return mDataOffset;
+		}
+
+		public long getSize() {
+			return mSize;
+		}
+
+		/**
+		 * @return true if the entry is itself gzip compressed
+		 */
+		public boolean isGzip() {
+			return mName.endsWith(".gz");
+		}
+
+		private String mName;
+		private long mHeaderOffset;
+		private long mDataOffset;
+		private long mSize;
+	}
+
+	private TarIndex(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+	}
+
+	/**
+	 * Index an uncompressed tar file in place
+	 *
+	 * @param tar         tar file
+	 * @param skipEntries leading entries left out of the index
+	 */
+	public static TarIndex build(File tar, int skipEntries) throws IOException {
+		TarIndex index = new TarIndex(tar);
+		InputStream in = null;
+		try {
+			in = new FileInputStream(tar);
+			index.scan(in, skipEntries);
+		} catch (IOException e) {
+			index.close();
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return index;
+	}
+
+	/**
+	 * Index a decompressed tar stream, copying it to a temporary file as it is
+	 * read. The stream is read to the end but not closed.
+	 *
+	 * @param tar         decompressed tar
+	 * @param skipEntries leading entries left out of the index
+	 */
+	public static TarIndex build(InputStream tar, int skipEntries) throws IOException {
+		File file = File.createTempFile("ertool", ".tar");
+		file.deleteOnExit();
+
+		TarIndex index = null;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		try {
+			index = new TarIndex(file);
+			index.scan(new SpillingInputStream(tar, out), skipEntries);
+		} catch (IOException e) {
+			if (index != null)
+				index.close();
+			throw e;
+		} finally {
+			out.close();
+			// the open file stays readable after it is unlinked
+			file.delete();
+		}
+		return index;
+	}
+
+	private void scan(InputStream in, int skipEntries) throws IOException {
+		TarArchiveInputStream tar = new TarArchiveInputStream(in);
+		TarArchiveEntry ent = null;
+		long headerOffset = 0;
+		int count = 0;
+		while ((ent = tar.getNextTarEntry()) != null) {
+			long dataOffset = tar.getBytesRead();
+			if (count++ >= skipEntries)
+				mEntries.add(new Entry(ent.getName(), headerOffset, dataOffset, ent.getSize()));
+			headerOffset = dataOffset + ((ent.getSize() + RECORD_SIZE - 1) / RECORD_SIZE) * RECORD_SIZE;
+		}
+		LogManager.getRootLogger().debug("TarIndex::scan indexed " + mEntries.size() + " entries");
+	}
+
+	public List<Entry> getEntries() {
+		return mEntries;
+	}
+
+	/**
+	 * @return stream over the data of an entry
+	 */
+	public InputStream open(Entry entry) {
+		return new EntryInputStream(mFile.getChannel(), entry.getDataOffset(), entry.getSize());
+	}
+
+	public void close() {
+		try {
+			mFile.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Reads part of a file with positional reads, so entries can be open at the
+	 * same time without sharing a file position
+	 */
+	private static class EntryInputStream extends InputStream {
+		EntryInputStream(FileChannel channel, long start, long length) {
+			mChannel = channel;
+			mPosition = start;
+			mEnd = start + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int len = read(mSingle, 0, 1);
+			return len == -1 ? -1 : mSingle[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (mPosition >= mEnd)
+				return -1;
+			len = (int) Math.min(len, mEnd - mPosition);
+			int read = mChannel.read(ByteBuffer.wrap(b, off, len), mPosition);
+			if (read <= 0)
+				return -1;
+			mPosition += read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) {
+			n = Math.max(0, Math.min(n, mEnd - mPosition));
+			mPosition += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition);
+		}
+
+		private FileChannel mChannel;
+		private long mPosition;
+		private long mEnd;
+		private byte[] mSingle = new byte[1];
+	}
+
+	/**
+	 * Copies everything read or skipped to an output stream
+	 */
+	private static class SpillingInputStream extends FilterInputStream {
+		SpillingInputStream(InputStream in, OutputStream out) {
+			super(in);
+			mOut = out;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1)
+				mOut.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read > 0)
+				mOut.write(b, off, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n) {
+				int read = read(mSkipBuffer, 0, (int) Math.min(mSkipBuffer.length, n - skipped));
+				if (read == -1)
+					break;
+				skipped += read;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private OutputStream mOut;
+		private byte[] mSkipBuffer = new byte[65536];
+	}
+
+	private static final int RECORD_SIZE = 512;
+
+	private RandomAccessFile mFile;
+	private ArrayList<Entry> mEntries = new ArrayList<Entry>();
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.StringReader;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import junit.framework.TestCase;
+
+public class TestCompactDocument extends TestCase {
+	String[] documents = {
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<Status xmlns:dp=\"http://www.datapower.com/schemas/management\">"
+					+ "<ObjectStatus><Class>XMLManager</Class><OpState>up</OpState><Name>obj0</Name>"
+					+ "<ErrorCode>Certificate expired</ErrorCode></ObjectStatus>"
+					+ "<ObjectStatus><Class>RBMSettings</Class><OpState>down</OpState><Name>obj1</Name>"
+					+ "<ErrorCode></ErrorCode></ObjectStatus>"
+					+ "<ObjectStatus><Class>SSLProxyProfile</Class><OpState>down</OpState><Name>obj2</Name>"
+					+ "<ErrorCode/></ObjectStatus></Status>",
+			"<?xml version=\"1.0\"?>\n<!-- hardware -->\n<Hardware>\n  <diagcpuok status=\"ok\" z=\"1\" a=\"2\"/>\n"
+					+ "  <group><diagifnum status=\"failed\">3</diagifnum></group>\n"
+					+ "  <?check cpu?>\n  <diagvoltstat status=\"ok\">1.2 &amp; 3.3 &lt;V&gt;</diagvoltstat>\n"
+					+ "  <note><![CDATA[a <raw> & value]]> and text</note>\n</Hardware>",
+			"<Envelope><Body><ErrorReport timestamp=\"2024-05-01T10:00:00\"/></Body></Envelope>",
+			"<Root>20240501T100000Z [mgmt][notice] line 1\n20240501T100001Z [mgmt][error] caf\u00e9 line 2\n</Root>" };
+
+	String[] queries = { "/Status/ObjectStatus[OpState='down']/Name", "/Status//*[starts-with(local-name(),'Object')]",
+			"//ErrorCode", "//ErrorCode/text()", "/Status/ObjectStatus[last()]/preceding-sibling::*",
+			"/Hardware//@status", "/Hardware//diagifnum", "/Hardware/diagcpuok/@*", "/Hardware/node()",
+			"//comment()", "//processing-instruction()", "/Hardware/note/text()", "/Hardware/diagvoltstat",
+			"/Envelope/Body/ErrorReport/@timestamp", "/Root/text()", "//*[contains(., 'error')]",
+			"/*/*[2]/ancestor-or-self::*", "//*[@status='ok']/following::*" };
+
+	String[] values = { "count(//*)", "string(/Status/ObjectStatus[2]/Class)", "count(//@*)", "string(/)",
+			"normalize-space(/Hardware/note)", "name(/*)", "sum(/Hardware//diagifnum)" };
+
+	public void testSameTree() throws Exception {
+		for (int d = 0; d < documents.length; d++)
+			assertSameNode(parseDOM(documents[d]), CompactDocument.parse(new StringReader(documents[d])));
+	}
+
+	public void testSameXPathResults() throws Exception {
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		for (int d = 0; d < documents.length; d++) {
+			Document dom = parseDOM(documents[d]);
+			Document compact = CompactDocument.parse(new StringReader(documents[d]));
+			for (int q = 0; q < queries.length; q++) {
+				NodeList expected = (NodeList) xpath.evaluate(queries[q], dom, XPathConstants.NODESET);
+				NodeList actual = (NodeList) xpath.evaluate(queries[q], compact, XPathConstants.NODESET);
+				assertEquals(queries[q], expected.getLength(), actual.getLength());
+				for (int n = 0; n < expected.getLength(); n++)
+					assertSameNode(expected.item(n), actual.item(n));
+			}
+			for (int v = 0; v < values.length; v++)
+				assertEquals(values[v], xpath.evaluate(values[v], dom), xpath.evaluate(values[v], compact));
+		}
+	}
+
+	public void testUnsupported() throws Exception {
+		Document compact = CompactDocument.parse(new StringReader(documents[0]));
+		try {
+			compact.getElementsByTagNameNS("*", "Name");
+			fail();
+		} catch (DOMException e) {
+			assertEquals(DOMException.NOT_SUPPORTED_ERR, e.code);
+		}
+		try {
+			compact.getElementById("obj0");
+			fail();
+		} catch (DOMException e) {
+			assertEquals(DOMException.NOT_SUPPORTED_ERR, e.code);
+		}
+		try {
+			compact.getDocumentElement().setAttribute("a", "b");
+			fail();
+		} catch (DOMException e) {
+			assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+		}
+		assertEquals(parseDOM(documents[0]).getElementsByTagName("Name").getLength(),
+				compact.getElementsByTagName("Name").getLength());
+	}
+
+	private static Document parseDOM(String xml) throws Exception {
+		return ERFramework.mDocBuilderFactory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+	}
+
+	// type, name, value, parent name, attributes and children
+	private static void assertSameNode(Node expected, Node actual) {
+		String at = actual.getNodeName();
+		assertEquals(at, expected.getNodeType(), actual.getNodeType());
+		assertEquals(at, expected.getNodeName(), actual.getNodeName());
+		assertEquals(at, expected.getNodeValue(), actual.getNodeValue());
+		if (expected.getNodeType() != Node.DOCUMENT_NODE)
+			assertEquals(at, expected.getTextContent(), actual.getTextContent());
+		Node parent = expected.getParentNode();
+		if (parent != null)
+			assertEquals(at, parent.getNodeName(), actual.getParentNode().getNodeName());
+
+		NamedNodeMap attributes = expected.getAttributes();
+		if (attributes == null)
+			assertNull(at, actual.getAttributes());
+		else {
+			assertEquals(at, attributes.getLength(), actual.getAttributes().getLength());
+			for (int a = 0; a < attributes.getLength(); a++)
+				assertSameNode(attributes.item(a), actual.getAttributes().item(a));
+		}
+
+		// the value of an attribute is not kept as a text child
+		if (expected.getNodeType() == Node.ATTRIBUTE_NODE)
+			return;
+		NodeList children = expected.getChildNodes();
+		assertEquals(at, children.getLength(), actual.getChildNodes().getLength());
+		for (int c = 0; c < children.getLength(); c++)
+			assertSameNode(children.item(c), actual.getChildNodes().item(c));
+	}
+}
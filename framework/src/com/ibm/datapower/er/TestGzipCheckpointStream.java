@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import junit.framework.TestCase;
+
+public class TestGzipCheckpointStream extends TestCase {
+	int[] levels = { Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.NO_COMPRESSION };
+
+	protected void setUp() throws IOException {
+		mGzip = File.createTempFile("checkpoint", ".gz");
+		mData = buildData();
+	}
+
+	protected void tearDown() {
+		mGzip.delete();
+	}
+
+	public void testInflateMatchesGZIPInputStream() throws IOException {
+		for (int l = 0; l < levels.length; l++) {
+			writeGzip(levels[l], 1);
+			byte[] expected = IOUtils.toByteArray(new GZIPInputStream(new FileInputStream(mGzip)));
+			assertTrue(Arrays.equals(mData, expected));
+			assertTrue("level " + levels[l], Arrays.equals(expected, inflate(SPAN)));
+		}
+	}
+
+	public void testConcatenatedMembers() throws IOException {
+		writeGzip(Deflater.DEFAULT_COMPRESSION, 3);
+		byte[] expected = IOUtils.toByteArray(new GZIPInputStream(new FileInputStream(mGzip)));
+		assertEquals(mData.length * 3, expected.length);
+		assertTrue(Arrays.equals(expected, inflate(SPAN)));
+	}
+
+	/**
+	 * Reading from a checkpoint gives the bytes GZIPInputStream gives at the
+	 * same offset, also with an index written to and read from a file
+	 */
+	public void testSeekToCheckpoint() throws IOException {
+		for (int l = 0; l < levels.length; l++) {
+			writeGzip(levels[l], 2);
+			byte[] expected = IOUtils.toByteArray(new GZIPInputStream(new FileInputStream(mGzip)));
+			assertTrue(Arrays.equals(expected, inflate(SPAN)));
+			GzipIndex index = mIndex;
+			assertTrue(index.getCheckpoints().size() > 1);
+
+			ByteArrayOutputStream saved = new ByteArrayOutputStream();
+			index.write(new DataOutputStream(saved));
+			GzipIndex loaded = GzipIndex.read(new DataInputStream(new ByteArrayInputStream(saved.toByteArray())));
+			assertEquals(index.getCheckpoints().size(), loaded.getCheckpoints().size());
+
+			// checkpoints are at the first block boundary after each span
+			int first = (int) index.getCheckpoints().get(0).getOffset();
+			assertTrue(first >= SPAN);
+			assertNull(index.open(mGzip, first - 1));
+			Random random = new Random(l);
+			for (int i = 0; i < 20; i++) {
+				long offset = first + random.nextInt(expected.length - first);
+				assertSameAt(index, expected, offset);
+				assertSameAt(loaded, expected, offset);
+			}
+			// on a checkpoint and at the end of the data
+			long checkpoint = index.getCheckpoints().get(index.getCheckpoints().size() - 1).getOffset();
+			assertSameAt(loaded, expected, checkpoint);
+			assertSameAt(loaded, expected, expected.length - 1);
+		}
+	}
+
+	private void assertSameAt(GzipIndex index, byte[] expected, long offset) throws IOException {
+		InputStream in = index.open(mGzip, offset);
+		assertNotNull("no checkpoint before " + offset, in);
+		try {
+			int length = (int) Math.min(READ, expected.length - offset);
+			byte[] read = new byte[length];
+			new DataInputStream(in).readFully(read);
+			assertTrue("offset " + offset,
+					Arrays.equals(Arrays.copyOfRange(expected, (int) offset, (int) offset + length), read));
+			if (offset + length == expected.length)
+				assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+	}
+
+	// the report inflated from its start, the checkpoints recorded go to mIndex
+	private byte[] inflate(long span) throws IOException {
+		GzipCheckpointStream in = new GzipCheckpointStream(new FileInputStream(mGzip), span);
+		try {
+			byte[] inflated = IOUtils.toByteArray(in);
+			mIndex = in.getIndex();
+			return inflated;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeGzip(final int level, int members) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int m = 0; m < members; m++) {
+			GZIPOutputStream gzip = new GZIPOutputStream(out) {
+				{
+					def.setLevel(level);
+				}
+			};
+			gzip.write(mData);
+			gzip.finish();
+		}
+		FileUtils.writeByteArrayToFile(mGzip, out.toByteArray());
+	}
+
+	// log lines that compress well mixed with random bytes that do not, so the
+	// report has stored, fixed and dynamic blocks
+	private static byte[] buildData() throws IOException {
+		Random random = new Random(0);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] noise = new byte[4096];
+		for (int line = 0; data.size() < 3 * 1024 * 1024; line++) {
+			data.write(("20240501T100000Z [mgmt][notice] system(default): tid(" + random.nextInt(100000) + "): line "
+					+ line + "\n").getBytes("UTF-8"));
+			if (line % 2000 == 0) {
+				random.nextBytes(noise);
+				data.write(noise);
+			}
+		}
+		return data.toByteArray();
+	}
+
+	private static final int SPAN = 64 * 1024;
+	private static final int READ = 100000;
+
+	private File mGzip;
+	private byte[] mData;
+	private GzipIndex mIndex;
+}
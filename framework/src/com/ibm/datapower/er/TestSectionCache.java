@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class TestSectionCache extends TestCase {
+	protected void setUp() {
+		SectionCache.setBudget(BUDGET);
+	}
+
+	protected void tearDown() {
+		SectionCache.setBudget(0);
+	}
+
+	public void testSpillAndReload() {
+		SectionCache<String> cache = new SectionCache<String>("test", new StringCodec());
+		long reloads = SectionCache.getReloads();
+		for (int i = 0; i < 50; i++)
+			cache.put(key(i), value(i));
+		assertTrue(SectionCache.getResidentBytes() <= BUDGET);
+		for (int i = 0; i < 50; i++)
+			assertEquals(value(i), cache.get(key(i)));
+		assertTrue(SectionCache.getReloads() > reloads);
+		clear(cache);
+	}
+
+	/**
+	 * Space of values removed or replaced is written again, the spill file
+	 * holds about the values written out that are still cached
+	 */
+	public void testSpillSpaceReused() {
+		SectionCache<String> cache = new SectionCache<String>("test", new StringCodec());
+		long used = SectionCache.getSpillBytes();
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 30; i++)
+				cache.put(key(i), value(i + round));
+			for (int i = 0; i < 30; i++)
+				assertEquals(value(i + round), cache.get(key(i)));
+			assertTrue(SectionCache.getSpillBytes() - used <= 30 * (VALUE_LENGTH + 16));
+		}
+		clear(cache);
+		assertEquals(used, SectionCache.getSpillBytes());
+	}
+
+	public void testConcurrentUse() throws InterruptedException {
+		final SectionCache<String> cache = new SectionCache<String>("test", new StringCodec());
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final Random random = new Random(t);
+			threads.add(new Thread() {
+				public void run() {
+					for (int n = 0; n < 5000; n++) {
+						int i = random.nextInt(40);
+						if (random.nextInt(4) == 0)
+							cache.put(key(i), value(i));
+						else if (random.nextInt(50) == 0)
+							cache.remove(key(i));
+						else {
+							String value = cache.get(key(i));
+							if (value != null && !value.equals(value(i)))
+								failure.set(key(i) + " read back as " + value);
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		assertNull(failure.get());
+		assertTrue(SectionCache.getResidentBytes() <= BUDGET + VALUE_LENGTH);
+		clear(cache);
+	}
+
+	private static void clear(SectionCache<String> cache) {
+		for (String key : Collections.list(cache.keys()))
+			cache.remove(key);
+	}
+
+	private static String key(int i) {
+		return "section" + i;
+	}
+
+	private static String value(int i) {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < VALUE_LENGTH)
+			value.append(i).append(' ');
+		return value.substring(0, VALUE_LENGTH);
+	}
+
+	private static class StringCodec implements SectionCache.Codec<String> {
+		public long weigh(String value) {
+			return value.length();
+		}
+
+		public boolean write(String value, DataOutputStream out) throws IOException {
+			SectionCache.writeString(out, value);
+			return true;
+		}
+
+		public String read(DataInputStream in) throws IOException {
+			return SectionCache.readString(in);
+		}
+	}
+
+	private static final int VALUE_LENGTH = 1000;
+	private static final long BUDGET = 5 * VALUE_LENGTH;
+}
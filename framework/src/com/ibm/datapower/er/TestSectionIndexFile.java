@@ -0,0 +1,189 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.ibm.datapower.er.Analytics.DocumentSection;
+
+import junit.framework.TestCase;
+
+public class TestSectionIndexFile extends TestCase {
+	String[] sections = { "ErrorReport", "FirmwareVersion3", "ObjectStatus", "default-log" };
+
+	protected void setUp() throws IOException {
+		mDir = Files.createTempDirectory("erindex").toFile();
+		mReport = new File(mDir, "error-report.txt");
+		FileUtils.writeStringToFile(mReport, buildReport(), "UTF-8");
+	}
+
+	protected void tearDown() throws IOException {
+		ERFramework.setIndexCacheDir(null);
+		FileUtils.deleteDirectory(mDir);
+	}
+
+	public void testRoundTrip() throws IOException {
+		SectionIndex index = buildIndex();
+		saveIndex(index, mDir.getPath());
+
+		SectionIndexFile loaded = new SectionIndexFile(mReport, mDir.getPath());
+		assertTrue(loaded.load());
+		assertEquals(1, loaded.getSectionIndexes().size());
+		assertSameEntries(index, loaded.getSectionIndexes().get(0));
+		assertEquals(sections.length, index.getEntries().size());
+	}
+
+	public void testReportMode() throws IOException {
+		saveIndex(buildIndex(), SectionIndexFile.CACHE_REPORT);
+		assertTrue(new File(mReport.getPath() + SectionIndexFile.EXTENSION).isFile());
+		assertTrue(new SectionIndexFile(mReport, SectionIndexFile.CACHE_REPORT).load());
+	}
+
+	public void testChangedHeadInvalidates() throws IOException {
+		saveIndex(buildIndex(), mDir.getPath());
+		rewriteByte(10);
+		assertFalse(new SectionIndexFile(mReport, mDir.getPath()).load());
+	}
+
+	public void testChangedTailInvalidates() throws IOException {
+		saveIndex(buildIndex(), mDir.getPath());
+		rewriteByte(mReport.length() - 10);
+		assertFalse(new SectionIndexFile(mReport, mDir.getPath()).load());
+	}
+
+	public void testChangedModifiedInvalidates() throws IOException {
+		saveIndex(buildIndex(), mDir.getPath());
+		assertTrue(mReport.setLastModified(mReport.lastModified() - 60000));
+		assertFalse(new SectionIndexFile(mReport, mDir.getPath()).load());
+	}
+
+	/**
+	 * Sections read through an index file written by a first run are the ones
+	 * read by scanning the report
+	 */
+	public void testSectionsMatchScan() throws ERException {
+		ERFramework.setIndexCacheDir(mDir.getPath());
+		new ERFramework(0).setFileLocation(mReport.getPath());
+		assertTrue(new SectionIndexFile(mReport, mDir.getPath()).load());
+		ERFramework indexed = new ERFramework(0);
+		indexed.setFileLocation(mReport.getPath());
+
+		ERFramework.setIndexCacheDir(ERFramework.INDEX_CACHE_NONE);
+		ERFramework scanned = new ERFramework(0);
+		scanned.setFileLocation(mReport.getPath());
+
+		for (int s = 0; s < sections.length; s++) {
+			assertEquals(scanned.getSectionPosition(sections[s], false),
+					indexed.getSectionPosition(sections[s], false));
+			String expected = new String(getSection(scanned, sections[s]));
+			assertEquals(expected, new String(getSection(indexed, sections[s])));
+		}
+	}
+
+	private SectionIndex buildIndex() throws IOException {
+		FileInputStream in = new FileInputStream(mReport);
+		try {
+			return SectionIndex.build(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void saveIndex(SectionIndex index, String cacheDir) {
+		SectionIndexFile file = new SectionIndexFile(mReport, cacheDir);
+		file.setHighestPhase(0);
+		file.getSectionIndexes().add(index);
+		file.getArchiveEntries().add(null);
+		file.getGzipIndexes().add(null);
+		file.save();
+	}
+
+	// change a byte but keep the size and modification time of the report
+	private void rewriteByte(long offset) throws IOException {
+		long modified = mReport.lastModified();
+		RandomAccessFile file = new RandomAccessFile(mReport, "rw");
+		try {
+			file.seek(offset);
+			int b = file.read();
+			file.seek(offset);
+			file.write(b == 'x' ? 'y' : 'x');
+		} finally {
+			file.close();
+		}
+		assertTrue(mReport.setLastModified(modified));
+	}
+
+	private static byte[] getSection(ERFramework framework, String cid) throws ERException {
+		ArrayList<DocumentSection> found = new ArrayList<DocumentSection>();
+		framework.getCidListAsDocument(cid, found, false, "", true);
+		assertEquals(cid, 1, found.size());
+		return found.get(0).GetBytes();
+	}
+
+	private static void assertSameEntries(SectionIndex expected, SectionIndex actual) {
+		assertEquals(expected.getLength(), actual.getLength());
+		assertEquals(expected.hasContentIds(), actual.hasContentIds());
+		List<SectionIndexEntry> entries = expected.getEntries();
+		assertEquals(entries.size(), actual.getEntries().size());
+		for (int i = 0; i < entries.size(); i++) {
+			SectionIndexEntry entry = entries.get(i);
+			SectionIndexEntry other = actual.getEntries().get(i);
+			assertEquals(entry.getContentId(), other.getContentId());
+			assertEquals(entry.getContentType(), other.getContentType());
+			assertEquals(entry.getContentEncoding(), other.getContentEncoding());
+			assertEquals(entry.isContentIdLast(), other.isContentIdLast());
+			assertEquals(entry.getFieldCount(), other.getFieldCount());
+			assertEquals(entry.getBodyStart(), other.getBodyStart());
+			assertEquals(entry.getBodyEnd(), other.getBodyEnd());
+		}
+	}
+
+	// a report larger than the head and tail of the index key
+	private String buildReport() {
+		StringBuilder report = new StringBuilder();
+		report.append("MIME-Version: 1.0\r\nContent-Type: multipart/related; boundary=\"" + BOUNDARY
+				+ "\"; type=\"text/xml\"\r\n\r\nThis is a multi-part message\r\n");
+		for (int s = 0; s < sections.length; s++) {
+			boolean text = sections[s].endsWith("-log");
+			report.append("--" + BOUNDARY + "\r\n");
+			report.append("Content-Type: " + (text ? "text/plain" : "text/xml") + "\r\n");
+			report.append("Content-Transfer-Encoding: 8bit\r\n");
+			report.append("Content-ID: <" + sections[s] + "@datapower.ibm.com>\r\n\r\n");
+			if (text) {
+				for (int line = 0; line < 4000; line++)
+					report.append("20240501T10000" + (line % 10) + "Z [mgmt][notice] system(default): line " + line + "\r\n");
+			} else
+				report.append("<?xml version=\"1.0\"?>\r\n<Status><" + sections[s] + "><Name>obj" + s + "</Name></"
+						+ sections[s] + "></Status>\r\n");
+		}
+		report.append("--" + BOUNDARY + "--\r\n");
+		return report.toString();
+	}
+
+	private static final String BOUNDARY = "----=_Part_ERTOOL_boundary_42";
+
+	private File mDir;
+	private File mReport;
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+public class TestSectionText extends TestCase {
+	String[] encodings = { "UTF-8", "ISO-8859-1", "UTF-16" };
+
+	public void testEncapsulatedMatchesRootWrapping() throws Exception {
+		byte[][] sections = getSections();
+		for (int s = 0; s < sections.length; s++) {
+			XmlEncapsulatedInputStream encapsulated = new XmlEncapsulatedInputStream(
+					new ByteArrayInputStream(sections[s]), true);
+			byte[] wrapped = IOUtils.toByteArray(encapsulated);
+			assertTrue("section " + s, Arrays.equals(oldEncapsulate(sections[s]), wrapped));
+			assertTrue("section " + s,
+					Arrays.equals(oldOriginal(sections[s]), IOUtils.toByteArray(encapsulated.getOriginal())));
+		}
+	}
+
+	/**
+	 * The text of a section is the text parsing the old Root wrapping gives,
+	 * where there is none the section is parsed from the same bytes as before
+	 */
+	public void testTextMatchesParse() throws Exception {
+		byte[][] sections = getSections();
+		for (int e = 0; e < encodings.length; e++) {
+			for (int s = 0; s < sections.length; s++) {
+				String at = encodings[e] + " section " + s;
+				SectionText text = SectionText.read(new ByteArrayInputStream(sections[s]), encodings[e], true);
+				assertTrue(at, Arrays.equals(oldOriginal(sections[s]), IOUtils.toByteArray(text.getOriginal())));
+
+				String parsed = parseRoot(oldEncapsulate(sections[s]), encodings[e]);
+				if (text.getText() != null)
+					assertEquals(at, parsed, text.getText());
+				else
+					assertTrue(at,
+							Arrays.equals(oldEncapsulate(sections[s]), IOUtils.toByteArray(text.getEncapsulated())));
+			}
+		}
+	}
+
+	// what inputStreamXmlEncapsulate returned before the section was streamed
+	private static byte[] oldEncapsulate(byte[] section) throws IOException {
+		String sectionData = IOUtils.toString(new ByteArrayInputStream(section));
+		sectionData = sectionData.replaceAll("\\u0000", "");
+		String escapedXml = StringEscapeUtils.escapeXml(sectionData);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write("<Root>".getBytes());
+		out.write(escapedXml.getBytes());
+		out.write("</Root>".getBytes());
+		return out.toByteArray();
+	}
+
+	private static byte[] oldOriginal(byte[] section) throws IOException {
+		return IOUtils.toString(new ByteArrayInputStream(section)).getBytes();
+	}
+
+	/**
+	 * @return text of the Root element, null if the section does not parse
+	 */
+	private static String parseRoot(byte[] encapsulated, String encoding) throws Exception {
+		InputStream in = new ByteArrayInputStream(encapsulated);
+		DocumentBuilder db = ERFramework.mDocBuilderFactory.newDocumentBuilder();
+		db.setErrorHandler(new DefaultHandler());
+		Document doc;
+		try {
+			doc = db.parse(new InputSource(new InputStreamReader(in, encoding)));
+		} catch (SAXException e) {
+			return null;
+		}
+		return doc.getDocumentElement().getTextContent();
+	}
+
+	// log text with markup, NULs, line ends, characters outside ASCII, bytes
+	// that do not decode and sections longer than the stream buffers
+	private static byte[][] getSections() throws IOException {
+		StringBuilder longLog = new StringBuilder();
+		for (int line = 0; longLog.length() < 300000; line++)
+			longLog.append("20240501T100000Z [mgmt][error] xmlmgr(default): tid(" + line
+					+ "): <Envelope> & \"quoted\" 'text' caf\u00e9 \u20ac \ud83d\ude00\r\n");
+
+		ByteArrayOutputStream split = new ByteArrayOutputStream();
+		for (int i = 0; i < 8190; i++)
+			split.write('a');
+		// a character across the buffer boundary
+		split.write("\u00e9\u20ac\ud83d\ude00 end".getBytes("UTF-8"));
+
+		return new byte[][] { new byte[0], "plain log line\n".getBytes("UTF-8"),
+				"a < b && c > d \"e\" 'f'\r\nnext\rlast\n".getBytes("UTF-8"),
+				"nul\u0000in\u0000text".getBytes("UTF-8"), "caf\u00e9 \u20ac \ud83d\ude00".getBytes("UTF-8"),
+				"latin caf\u00e9".getBytes("ISO-8859-1"), { 'b', 'a', 'd', (byte) 0xff, (byte) 0xfe, 'x' },
+				"control \u0001 character".getBytes("UTF-8"), "tab\there".getBytes("UTF-8"),
+				longLog.toString().getBytes("UTF-8"), split.toByteArray() };
+	}
+}
@@ -33,7 +33,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -43,6 +42,7 @@ import java.util.regex.Pattern;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.*;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.w3c.dom.Document;
@@ -52,6 +52,7 @@ import org.w3c.dom.NodeList;
 
 import com.ibm.datapower.er.ERException;
 import com.ibm.datapower.er.ERFramework;
+import com.ibm.datapower.er.ExecutionBackend;
 import com.ibm.datapower.er.ErrorReportDetails;
 import com.ibm.datapower.er.IPartInfo;
 import com.ibm.datapower.er.ReportProcessorPartInfo;
@@ -187,14 +188,10 @@ public class ParseTransx extends ERFramework {
 
 			List<Future<RunTransaction>> futureList = new ArrayList<Future<RunTransaction>>();
 
-			int procs = Runtime.getRuntime().availableProcessors() / 2;
-			if (procs < 1)
-				procs = 1;
-
 			LogManager.getRootLogger().info(
-					"ParseTransx::doParse established available processors: " + procs);
+					"ParseTransx::doParse established available processors: " + ExecutionBackend.getThreads());
 			
-			ExecutorService eService = Executors.newFixedThreadPool(procs);
+			ExecutorService eService = ExecutionBackend.newComputePool();
 			
 			// find all cid's with "log" in them
 			ArrayList<String> matches = getMatchesToCid("log");
@@ -205,10 +202,14 @@ public class ParseTransx extends ERFramework {
 				futureList.add(eService.submit(new RunTransaction(this, curMatch)));
 			}
 
+			// matched lines are added in the order the sections were found, not the
+			// order they finished in
 			for (Future<RunTransaction> future : futureList) {
 				try {
 					try {
-						future.get(900, TimeUnit.SECONDS);
+						RunTransaction run = future.get(900, TimeUnit.SECONDS);
+						for (TransactionLine line : run.mLines)
+							handleTransactionLine(line.getFields(), line.getLogType());
 					} catch (TimeoutException e) {
 						// TODO Auto-generated catch block
 						future.cancel(true);
@@ -223,6 +224,7 @@ public class ParseTransx extends ERFramework {
 				} catch (ExecutionException e) {
 				}
 			} // end for loop
+			ExecutionBackend.release(eService);
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -266,62 +268,64 @@ public class ParseTransx extends ERFramework {
 		}
 	}
 
-	public void runTransaction(String logName) {
-		// pull the section using the CID
-		InputStream is = null;
-		BufferedReader bis = null;
+	/**
+	 * Match the lines of a log section in every phase against the log types.
+	 * 
+	 * @return lines matched, in the order they were read
+	 */
+	public ArrayList<TransactionLine> runTransaction(String logName) {
+		ArrayList<TransactionLine> matched = new ArrayList<TransactionLine>();
 		try {
-				for(int p=0;p<this.GetHighestPhase()+1;p++)
-				{
+			for (int p = 0; p < this.GetHighestPhase() + 1; p++) {
+				boolean readFailed = false;
 
-					synchronized (mDocBuilderFactory) {
+				// pull the section using the CID, the section is read with a cursor of
+				// its own so other threads can read the report at the same time
 				ERMimeSection mime = getCidAsInputStreamOld(logName, true, p, 0, false);
-				if ( mime != null )
-					is = mime.mInput;
-				else
-					is = null;
-
-				if ( is == null )
+				if (mime == null || mime.mInput == null)
 					continue;
-				
+
 				// create ReportProcessorPartInfo so we can pull the MIME out
-				HashMap headers = new HashMap<String, String>();
+				HashMap<String, String> headers = new HashMap<String, String>();
 				headers.put("Content-ID", logName);
 				ErrorReportDetails details = new ErrorReportDetails();
-				ReportProcessorPartInfo partInfo = new ReportProcessorPartInfo(
-						IPartInfo.MIME_BODYPART, headers, is, details);
+				ReportProcessorPartInfo partInfo = new ReportProcessorPartInfo(IPartInfo.MIME_BODYPART, headers,
+						mime.mInput, details);
 				InputStream resStream = partInfo.getBodyStream();
 
 				// take the line buffer so we can read it out
-				bis = new BufferedReader(new InputStreamReader(resStream));
+				BufferedReader bis = new BufferedReader(new InputStreamReader(resStream));
 
-				String nextLine = "";
+				// each line is matched as it is read, the log is not held in memory
+				String line = "";
 				try {
-					while ( (nextLine = bis.readLine()) != null ) {
+					while ((line = bis.readLine()) != null) {
 						// we have our line lets see what it can match to
 						for (int f = 0; f < mTypes.size(); f++) {
 							LogType logType = mTypes.get(f);
-							HashMap strList = parseRegExp(logType.getRegEXP(),
-									nextLine, logType);
+							HashMap<String, String> strList = parseRegExp(logType.getRegEXP(), line, logType);
 
 							// if we have a match the list will be populated
 							if (strList.size() > 0) {
-									handleTransactionLine(strList, logType);
+								matched.add(new TransactionLine(strList, logType));
 								break;
 							}
 						} // end for
 					}
 				} catch (IOException e) {
-					return;
-				} // end while
-					}
+					readFailed = true;
+				} finally {
+					IOUtils.closeQuietly(bis);
+				}
+
+				if (readFailed)
+					break;
 			}
 		} catch (ERException e1) {
 			// failed to load correctly
 		}
 
-		if (is == null)
-			return;
+		return matched;
 	}
 
 	public void parseResults(PrintStream stream, String dir, boolean xmlResults) {
@@ -387,7 +391,7 @@ public class ParseTransx extends ERFramework {
 		return true;
 	}
 
-	protected HashMap parseRegExp(String regexp, String line, LogType logType) {
+	protected HashMap<String, String> parseRegExp(String regexp, String line, LogType logType) {
 		HashMap<String, String> map = new HashMap<String, String>();
 
 		Pattern pattern = Pattern.compile(regexp);
@@ -16,12 +16,14 @@
 
 package com.ibm.datapower.er.Transactions;
 
+import java.util.ArrayList;
 import java.util.concurrent.Callable;
 
 public class RunTransaction implements Callable {
 
 	public ParseTransx mTransactions = null;
 	public String mLogName = "";
+	public ArrayList<TransactionLine> mLines = new ArrayList<TransactionLine>();
 	
 	public RunTransaction(ParseTransx transx, String logName)
 	{
@@ -35,7 +37,7 @@ public class RunTransaction implements Callable {
 	}
 
 	public void run() {
-			mTransactions.runTransaction(mLogName);
+			mLines = mTransactions.runTransaction(mLogName);
 	}
 
 }
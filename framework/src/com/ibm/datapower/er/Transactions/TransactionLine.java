@@ -14,24 +14,28 @@
  * limitations under the License.
  **/
 
-package com.ibm.datapower.er.Analytics;
+package com.ibm.datapower.er.Transactions;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import java.util.HashMap;
 
-public class XPathCache {
-	public XPathCache(NodeList xpathList, Document cidDoc, String xpath)
-	{
-		cacheXPathExpList = xpathList;
-		cacheXPathDoc = cidDoc;
-		cacheXPathQuery = xpath;
+/**
+ * A log line matched to a LogType, added to the TransactionHistory once its
+ * section has been read
+ */
+public class TransactionLine {
+	public TransactionLine(HashMap<String, String> fields, LogType logType) {
+		mFields = fields;
+		mLogType = logType;
+	}
+
+	public HashMap<String, String> getFields() {
+		return mFields;
 	}
-	
-	public NodeList getNodeList() { return cacheXPathExpList; }
-	public Document getCidDoc() { return cacheXPathDoc; }
-	public String getXPathQuery() { return cacheXPathQuery; }
-	private NodeList cacheXPathExpList = null;
-	private Document cacheXPathDoc = null;
-	private String cacheXPathQuery = "";
-	
+
+	public LogType getLogType() {
+		return mLogType;
+	}
+
+	private HashMap<String, String> mFields = null;
+	private LogType mLogType = null;
 }
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Wraps a text section in a Root element while it is read. The text is decoded
+ * with the platform charset, NUL characters are dropped and the XML special
+ * characters are escaped, then it is encoded back with the platform charset, a
+ * buffer at a time. Optionally the decoded text is also kept, encoded the same
+ * way, for callers that write the section out as it was once it has been
+ * parsed.
+ */
+public class XmlEncapsulatedInputStream extends InputStream {
+	/**
+	 * @param in           section text, closed once read to the end
+	 * @param keepOriginal true to keep a copy of the text for getOriginal()
+	 */
+	public XmlEncapsulatedInputStream(InputStream in, boolean keepOriginal) {
+		mIn = in;
+		mReader = new InputStreamReader(in, Charset.defaultCharset());
+		mEncoder = newEncoder();
+		if (keepOriginal) {
+			mOriginal = new ByteArrayOutputStream();
+			mOriginalEncoder = newEncoder();
+			mOriginalBytes = ByteBuffer.allocate(BUFFER_SIZE * 2);
+		}
+		mPending.put(ROOT_START);
+		mPending.flip();
+		mOutput.flip();
+	}
+
+	private static CharsetEncoder newEncoder() {
+		// String.getBytes() replaces what it can not encode
+		return Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int len = read(mSingle, 0, 1);
+		return len == -1 ? -1 : mSingle[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (!mOutput.hasRemaining()) {
+			if (!fill())
+				return -1;
+		}
+		len = Math.min(len, mOutput.remaining());
+		mOutput.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public int available() {
+		return mOutput.remaining();
+	}
+
+	/**
+	 * Encode more of the escaped text into mOutput
+	 *
+	 * @return false at the end of the section
+	 */
+	private boolean fill() throws IOException {
+		mOutput.clear();
+		while (!mFinished && mOutput.position() == 0) {
+			if (mUnderflow) {
+				if (mEnded) {
+					mFinished = mEncoder.flush(mOutput).isUnderflow();
+					continue;
+				}
+				// keeps the first half of a surrogate pair split between reads
+				mPending.compact();
+				escapeInto(mPending);
+				mPending.flip();
+			}
+			mUnderflow = mEncoder.encode(mPending, mOutput, mEnded).isUnderflow();
+		}
+		mOutput.flip();
+		return mOutput.hasRemaining();
+	}
+
+	/**
+	 * Append the next block of escaped text to pending, or the closing tag at
+	 * the end of the section
+	 */
+	private void escapeInto(CharBuffer pending) throws IOException {
+		int read = -1;
+		try {
+			read = mReader.read(mInput, 0, Math.min(mInput.length, pending.remaining() / MAX_ESCAPE));
+		} catch (IOException e) {
+			LogManager.getRootLogger()
+					.error("XmlEncapsulatedInputStream::escapeInto -- reading the section failed: " + e.toString());
+		}
+
+		if (read == -1) {
+			keepOriginal(mInput, 0, true);
+			pending.put(ROOT_END);
+			mEnded = true;
+			close();
+			return;
+		}
+
+		keepOriginal(mInput, read, false);
+		for (int i = 0; i < read; i++) {
+			char c = mInput[i];
+			switch (c) {
+			case '\u0000':
+				break;
+			case '"':
+				pending.put("&quot;");
+				break;
+			case '&':
+				pending.put("&amp;");
+				break;
+			case '<':
+				pending.put("&lt;");
+				break;
+			case '>':
+				pending.put("&gt;");
+				break;
+			case '\'':
+				pending.put("&apos;");
+				break;
+			default:
+				pending.put(c);
+				break;
+			}
+		}
+	}
+
+	private void keepOriginal(char[] chars, int len, boolean end) {
+		if (mOriginal == null)
+			return;
+
+		CharBuffer in = CharBuffer.wrap(chars, 0, len);
+		if (mOriginalLeft != null && mOriginalLeft.hasRemaining()) {
+			CharBuffer joined = CharBuffer.allocate(mOriginalLeft.remaining() + len);
+			joined.put(mOriginalLeft).put(chars, 0, len).flip();
+			in = joined;
+		}
+		while (true) {
+			mOriginalBytes.clear();
+			CoderResult result = mOriginalEncoder.encode(in, mOriginalBytes, end);
+			if (end && !result.isOverflow())
+				result = mOriginalEncoder.flush(mOriginalBytes);
+			mOriginal.write(mOriginalBytes.array(), 0, mOriginalBytes.position());
+			if (!result.isOverflow())
+				break;
+		}
+		// chars is reused for the next read, copy what is left over
+		mOriginalLeft = CharBuffer.allocate(in.remaining());
+		mOriginalLeft.put(in).flip();
+	}
+
+	/**
+	 * @return the section text as it was read, once this stream has been read to
+	 *         the end; null if it was not kept
+	 */
+	public InputStream getOriginal() {
+		if (mOriginal == null)
+			return null;
+		return new InputStream() {
+			@Override
+			public int read() throws IOException {
+				return stream().read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return stream().read(b, off, len);
+			}
+
+			private InputStream stream() {
+				if (mStream == null)
+					mStream = new ByteArrayInputStream(mOriginal.toByteArray());
+				return mStream;
+			}
+
+			private InputStream mStream = null;
+		};
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(mIn);
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+	// longest replacement for a single character
+	private static final int MAX_ESCAPE = 6;
+	private static final String ROOT_START = "<Root>";
+	private static final String ROOT_END = "</Root>";
+
+	private InputStream mIn;
+	private Reader mReader;
+	private CharsetEncoder mEncoder;
+	private char[] mInput = new char[BUFFER_SIZE];
+	private CharBuffer mPending = CharBuffer.allocate(BUFFER_SIZE * MAX_ESCAPE);
+	private ByteBuffer mOutput = ByteBuffer.allocate(BUFFER_SIZE * 2);
+	private boolean mUnderflow = false; // mEncoder needs more of mPending
+	private boolean mEnded = false; // closing tag is in mPending
+	private boolean mFinished = false; // everything is encoded
+	private byte[] mSingle = new byte[1];
+
+	private ByteArrayOutputStream mOriginal = null;
+	private CharsetEncoder mOriginalEncoder = null;
+	private CharBuffer mOriginalLeft = null;
+	private ByteBuffer mOriginalBytes = null;
+}
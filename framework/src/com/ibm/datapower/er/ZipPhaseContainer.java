@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014-2020 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package com.ibm.datapower.er;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Phases of a zip input, read once from the central directory. Each entry of
+ * the zip is a phase. A nested zip is expanded in place so each report inside
+ * it gets its own phase, unless it holds a post-mortem file system in which
+ * case the nested zip as a whole is one phase. Nested zips are extracted to a
+ * temporary file so their entries can be opened directly as well.
+ */
+public class ZipPhaseContainer {
+	private static class Phase {
+		Phase(ZipFile zip, ZipEntry entry, boolean archive) {
+			mZip = zip;
+			mEntry = entry;
+			mArchive = archive;
+		}
+
+		ZipFile mZip;
+		ZipEntry mEntry;
+		boolean mArchive;
+	}
+
+	private ZipPhaseContainer() {
+	}
+
+	/**
+	 * List the phases of a zip file
+	 */
+	public static ZipPhaseContainer open(File file) throws IOException {
+		ZipPhaseContainer container = new ZipPhaseContainer();
+		try {
+			container.add(new ZipFile(file));
+		} catch (IOException e) {
+			container.close();
+			throw e;
+		}
+		LogManager.getRootLogger()
+				.debug("ZipPhaseContainer::open " + file.getPath() + " has " + container.getPhaseCount() + " phases");
+		return container;
+	}
+
+	private void add(ZipFile zip) throws IOException {
+		mZipFiles.add(zip);
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (entry.isDirectory() || !entry.getName().endsWith(".zip") || isPostMortemName(entry.getName())) {
+				mPhases.add(new Phase(zip, entry, false));
+				continue;
+			}
+
+			ZipFile nested = extract(zip, entry);
+			Enumeration<? extends ZipEntry> nestedEntries = nested.entries();
+			if (nestedEntries.hasMoreElements() && isPostMortemName(nestedEntries.nextElement().getName()))
+				mPhases.add(new Phase(zip, entry, true));
+			else
+				add(nested);
+		}
+	}
+
+	private ZipFile extract(ZipFile zip, ZipEntry entry) throws IOException {
+		File file = File.createTempFile("ertool", ".zip");
+		file.deleteOnExit();
+		mTempFiles.add(file);
+
+		InputStream in = zip.getInputStream(entry);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			IOUtils.copy(in, out);
+		} finally {
+			IOUtils.closeQuietly(in);
+			out.close();
+		}
+
+		ZipFile nested = new ZipFile(file);
+		mZipFiles.add(nested);
+		return nested;
+	}
+
+	/**
+	 * @return true for entries of a post-mortem file system
+	 */
+	public static boolean isPostMortemName(String name) {
+		return name.startsWith("var/") || name.startsWith("etc/");
+	}
+
+	public int getPhaseCount() {
+		return mPhases.size();
+	}
+
+	/**
+	 * @return entry name of a phase, inside its nested zip if it has one
+	 */
+	public String getName(int phase) {
+		return mPhases.get(phase).mEntry.getName();
+	}
+
+	/**
+	 * @return true if the phase is a nested zip holding a post-mortem file
+	 *         system rather than a single report
+	 */
+	public boolean isArchive(int phase) {
+		return mPhases.get(phase).mArchive;
+	}
+
+	/**
+	 * @return contents of a phase's entry
+	 */
+	public InputStream open(int phase) throws IOException {
+		Phase entry = mPhases.get(phase);
+		return entry.mZip.getInputStream(entry.mEntry);
+	}
+
+	/**
+	 * Close the zip files and remove extracted nested zips
+	 */
+	public void close() {
+		for (ZipFile zip : mZipFiles) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+			}
+		}
+		for (File file : mTempFiles)
+			file.delete();
+		mZipFiles.clear();
+		mTempFiles.clear();
+	}
+
+	private ArrayList<Phase> mPhases = new ArrayList<Phase>();
+	private ArrayList<ZipFile> mZipFiles = new ArrayList<ZipFile>();
+	private ArrayList<File> mTempFiles = new ArrayList<File>();
+}